@@ -186,6 +186,20 @@ public final class Globals {
             org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR;
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass to the
+     * connector the parts of the file, interleaved with data held in memory,
+     * that are to be served by sendfile. If set, it is used instead of
+     * {@link #SENDFILE_FILE_START_ATTR} and {@link #SENDFILE_FILE_END_ATTR}.
+     * The value should be
+     * {@code org.apache.tomcat.util.net.SendfileSegment[]}.
+     *
+     * Duplicated here for neater code in the catalina packages.
+     */
+    public static final String SENDFILE_SEGMENTS_ATTR =
+            org.apache.coyote.Constants.SENDFILE_SEGMENTS_ATTR;
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
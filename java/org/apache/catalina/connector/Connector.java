@@ -188,6 +188,12 @@ public class Connector extends LifecycleMBeanBase  {
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Should request parameters be decoded when they are first requested
+     * rather than when the parameters are parsed?
+     */
+    protected boolean lazyParameterParsing = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -437,6 +443,28 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * @return <code>true</code> if request parameters are only decoded when
+     * they are first requested by name
+     */
+    public boolean getLazyParameterParsing() {
+        return lazyParameterParsing;
+    }
+
+
+    /**
+     * Set whether request parameters are only decoded when they are first
+     * requested by name. Parsing then only records the position of each
+     * parameter in the query string or request body.
+     *
+     * @param lazyParameterParsing The new setting
+     */
+    public void setLazyParameterParsing(boolean lazyParameterParsing) {
+        this.lazyParameterParsing = lazyParameterParsing;
+        setProperty("lazyParameterParsing", String.valueOf(lazyParameterParsing));
+    }
+
+
     /**
      * @return the maximum size of a POST which will be automatically
      * parsed by the container.
@@ -406,8 +406,9 @@ public class OutputBuffer extends Writer {
             return;
         }
 
+        int len = from.remaining();
         append(from);
-        bytesWritten += from.remaining();
+        bytesWritten += len;
 
         // if called from within flush(), then immediately flush
         // remaining bytes
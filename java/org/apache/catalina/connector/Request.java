@@ -27,15 +27,18 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.text.SimpleDateFormat;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.TimeZone;
 import java.util.TreeMap;
@@ -79,7 +82,9 @@ import org.apache.catalina.core.ApplicationMapping;
 import org.apache.catalina.core.ApplicationPart;
 import org.apache.catalina.core.ApplicationPushBuilder;
 import org.apache.catalina.core.ApplicationSessionCookieConfig;
+import org.apache.catalina.core.ApplicationStreamingPart;
 import org.apache.catalina.core.AsyncContextImpl;
+import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.mapper.MappingData;
 import org.apache.catalina.servlet4preview.http.PushBuilder;
 import org.apache.catalina.servlet4preview.http.ServletMapping;
@@ -105,6 +110,8 @@ import org.apache.tomcat.util.http.Parameters.FailReason;
 import org.apache.tomcat.util.http.ServerCookie;
 import org.apache.tomcat.util.http.ServerCookies;
 import org.apache.tomcat.util.http.fileupload.FileItem;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
 import org.apache.tomcat.util.http.fileupload.FileUploadBase;
 import org.apache.tomcat.util.http.fileupload.FileUploadBase.InvalidContentTypeException;
 import org.apache.tomcat.util.http.fileupload.FileUploadException;
@@ -454,7 +461,11 @@ public class Request implements org.apache.catalina.servlet4preview.http.HttpSer
         subject = null;
         parametersParsed = false;
         if (parts != null) {
-            for (Part part: parts) {
+            // Streamed parts have no storage to delete and iterating would
+            // read any remaining parts from the request
+            Collection<Part> toDelete =
+                    parts instanceof StreamingParts ? Collections.<Part>emptyList() : parts;
+            for (Part part: toDelete) {
                 try {
                     part.delete();
                 } catch (IOException ignored) {
@@ -2851,6 +2862,17 @@ public class Request implements org.apache.catalina.servlet4preview.http.HttpSer
             }
         }
 
+        // Only supported by StandardWrapper
+        Wrapper wrapper = getWrapper();
+        boolean streaming = wrapper instanceof StandardWrapper &&
+                ((StandardWrapper) wrapper).isMultipartStreaming();
+        if (streaming && !explicit) {
+            // Leave the request body for the application to read via
+            // getParts(). Form fields are added to the parameters as the
+            // parts are read.
+            return;
+        }
+
         Parameters parameters = coyoteRequest.getParameters();
         parameters.setLimit(getConnector().getMaxParameterCount());
 
@@ -2881,6 +2903,21 @@ public class Request implements org.apache.catalina.servlet4preview.http.HttpSer
             }
 
 
+            if (streaming) {
+                ServletFileUpload upload = new ServletFileUpload();
+                upload.setFileSizeMax(mce.getMaxFileSize());
+                upload.setSizeMax(mce.getMaxRequestSize());
+                try {
+                    parts = new StreamingParts(
+                            upload.getItemIterator(new ServletRequestContext(this)),
+                            location);
+                    success = true;
+                } catch (FileUploadException | IOException e) {
+                    setPartsParseException(e);
+                }
+                return;
+            }
+
             // Create a new file upload handler
             DiskFileItemFactory factory = new DiskFileItemFactory();
             try {
@@ -2965,6 +3002,38 @@ public class Request implements org.apache.catalina.servlet4preview.http.HttpSer
     }
 
 
+    /*
+     * Records the failure to parse the parts of a streamed multipart request.
+     * The exceptions are mapped in the same way as for buffered requests.
+     */
+    private void setPartsParseException(Exception e) {
+        Parameters parameters = coyoteRequest.getParameters();
+        if (e instanceof FileUploadBase.FileUploadIOException &&
+                e.getCause() instanceof FileUploadException) {
+            // Size limits exceeded while reading a part
+            e = (FileUploadException) e.getCause();
+        }
+        if (e instanceof InvalidContentTypeException) {
+            parameters.setParseFailedReason(FailReason.INVALID_CONTENT_TYPE);
+            partsParseException = new ServletException(e);
+        } else if (e instanceof FileUploadBase.SizeException) {
+            parameters.setParseFailedReason(FailReason.POST_TOO_LARGE);
+            checkSwallowInput();
+            partsParseException = new IllegalStateException(e);
+        } else if (e instanceof FileUploadException) {
+            parameters.setParseFailedReason(FailReason.IO_ERROR);
+            partsParseException = new IOException(e);
+        } else if (e instanceof IOException) {
+            parameters.setParseFailedReason(FailReason.IO_ERROR);
+            partsParseException = e;
+        } else {
+            // addParameters() will set parseFailedReason
+            checkSwallowInput();
+            partsParseException = e;
+        }
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -2980,6 +3049,134 @@ public class Request implements org.apache.catalina.servlet4preview.http.HttpSer
     }
 
 
+    /*
+     * The parts of a multipart request that is streamed to the application.
+     * Parts are read from the request as the collection is iterated over. Parts
+     * that have been read are retained so the collection may be iterated over
+     * more than once but the content of each part may only be read once.
+     */
+    private class StreamingParts extends AbstractCollection<Part> {
+
+        private final FileItemIterator itemIterator;
+        private final File location;
+        private final List<Part> readParts = new ArrayList<>();
+        private final int maxPostSize = getConnector().getMaxPostSize();
+        private final Charset charset = getCharset();
+        private int postSize = 0;
+        private boolean complete = false;
+
+        private StreamingParts(FileItemIterator itemIterator, File location) {
+            this.itemIterator = itemIterator;
+            this.location = location;
+        }
+
+        @Override
+        public Iterator<Part> iterator() {
+            return new Iterator<Part>() {
+
+                private int index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return index < readParts.size() || readNext();
+                }
+
+                @Override
+                public Part next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return readParts.get(index++);
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Reads all of the remaining parts from the request.
+         */
+        @Override
+        public int size() {
+            while (readNext()) {
+                // Read the next part
+            }
+            return readParts.size();
+        }
+
+        private boolean readNext() {
+            if (complete) {
+                return false;
+            }
+            try {
+                if (!itemIterator.hasNext()) {
+                    complete = true;
+                    return false;
+                }
+                ApplicationStreamingPart part = new StreamingPart(itemIterator.next());
+                readParts.add(part);
+                if (part.getSubmittedFileName() == null) {
+                    // Form fields are small and are made available as
+                    // parameters so they are read into memory
+                    String name = part.getName();
+                    String value = part.getString(charset.name());
+                    if (maxPostSize >= 0) {
+                        // Have to calculate equivalent size. Not completely
+                        // accurate but close enough.
+                        postSize += name.getBytes(charset).length;
+                        // Equals sign
+                        postSize++;
+                        // Value length
+                        postSize += part.getSize();
+                        // Value separator
+                        postSize++;
+                        if (postSize > maxPostSize) {
+                            coyoteRequest.getParameters().setParseFailedReason(
+                                    FailReason.POST_TOO_LARGE);
+                            throw new IllegalStateException(sm.getString(
+                                    "coyoteRequest.maxPostSizeExceeded"));
+                        }
+                    }
+                    coyoteRequest.getParameters().addParameter(name, value);
+                }
+                return true;
+            } catch (FileUploadException | IOException | IllegalStateException e) {
+                complete = true;
+                setPartsParseException(e);
+                if (partsParseException instanceof IllegalStateException) {
+                    throw (IllegalStateException) partsParseException;
+                }
+                throw new IllegalStateException(partsParseException);
+            }
+        }
+
+
+        /*
+         * Records a size limit that is exceeded while the application reads
+         * the content of a part in the same way as when the request is parsed
+         * without streaming.
+         */
+        private class StreamingPart extends ApplicationStreamingPart {
+
+            private StreamingPart(FileItemStream itemStream) {
+                super(itemStream, location);
+            }
+
+            @Override
+            protected RuntimeException sizeLimitExceeded(FileUploadBase.SizeException e) {
+                complete = true;
+                setPartsParseException(e);
+                return (IllegalStateException) partsParseException;
+            }
+        }
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
     protected Session doGetSession(boolean create) {
@@ -3207,6 +3404,7 @@ public class Request implements org.apache.catalina.servlet4preview.http.HttpSer
         try {
             // Set this every time in case limit has been changed via JMX
             parameters.setLimit(getConnector().getMaxParameterCount());
+            parameters.setLazy(getConnector().getLazyParameterParsing());
 
             // getCharacterEncoding() may have been overridden to search for
             // hidden form field containing request encoding
@@ -132,8 +132,11 @@ public class ApplicationPart implements Part {
      */
     @Override
     public String getSubmittedFileName() {
+        return getSubmittedFileName(getHeader("Content-Disposition"));
+    }
+
+    static String getSubmittedFileName(String cd) {
         String fileName = null;
-        String cd = getHeader("Content-Disposition");
         if (cd != null) {
             String cdl = cd.toLowerCase(Locale.ENGLISH);
             if (cdl.startsWith("form-data") || cdl.startsWith("attachment")) {
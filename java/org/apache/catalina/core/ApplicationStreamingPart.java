@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import javax.servlet.http.Part;
+
+import org.apache.tomcat.util.http.fileupload.ByteArrayOutputStream;
+import org.apache.tomcat.util.http.fileupload.FileItemHeaders;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUploadBase;
+import org.apache.tomcat.util.http.fileupload.IOUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Adaptor to allow {@link FileItemStream} objects generated by the package
+ * renamed commons-upload to be used by the Servlet 3.0 upload API that expects
+ * {@link Part}s without first copying the content to memory or to a temporary
+ * file. The content is read directly from the request as the application reads
+ * from the stream returned by {@link #getInputStream()} and so can only be
+ * read once. The content must be read before the next part is requested since
+ * moving to the next part skips any content that has not been read.
+ */
+public class ApplicationStreamingPart implements Part {
+
+    private static final StringManager sm =
+            StringManager.getManager(ApplicationStreamingPart.class);
+
+    private final FileItemStream itemStream;
+    private final File location;
+
+    private byte[] content = null;
+    private boolean streamOpened = false;
+    private long size = -1;
+
+    public ApplicationStreamingPart(FileItemStream itemStream, File location) {
+        this.itemStream = itemStream;
+        this.location = location;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * There is no storage associated with a streamed part so this is a NO-OP.
+     */
+    @Override
+    public void delete() throws IOException {
+        // NO-OP
+    }
+
+    @Override
+    public String getContentType() {
+        return itemStream.getContentType();
+    }
+
+    @Override
+    public String getHeader(String name) {
+        FileItemHeaders headers = itemStream.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        return headers.getHeader(name);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+        FileItemHeaders headers = itemStream.getHeaders();
+        if (headers == null) {
+            return Collections.emptyList();
+        }
+        LinkedHashSet<String> headerNames = new LinkedHashSet<>();
+        Iterator<String> iter = headers.getHeaderNames();
+        while (iter.hasNext()) {
+            headerNames.add(iter.next());
+        }
+        return headerNames;
+    }
+
+    @Override
+    public Collection<String> getHeaders(String name) {
+        FileItemHeaders headers = itemStream.getHeaders();
+        if (headers == null) {
+            return Collections.emptyList();
+        }
+        LinkedHashSet<String> values = new LinkedHashSet<>();
+        Iterator<String> iter = headers.getHeaders(name);
+        while (iter.hasNext()) {
+            values.add(iter.next());
+        }
+        return values;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Unless the content has been buffered by {@link #getString(String)}, the
+     * returned stream reads directly from the request and this method may only
+     * be called once.
+     *
+     * @throws IllegalStateException if the content has already been read or,
+     *         when the returned stream is read, if a size limit of the
+     *         multipart configuration is exceeded
+     */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (content != null) {
+            return new ByteArrayInputStream(content);
+        }
+        if (streamOpened) {
+            throw new IllegalStateException(sm.getString(
+                    "applicationStreamingPart.streamConsumed", getName()));
+        }
+        streamOpened = true;
+        return new SizeTrackingInputStream(itemStream.openStream());
+    }
+
+    @Override
+    public String getName() {
+        return itemStream.getFieldName();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The size of a streamed part is only known once all of the content has
+     * been read. Until then, -1 is returned.
+     */
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void write(String fileName) throws IOException {
+        File file = new File(fileName);
+        if (!file.isAbsolute()) {
+            file = new File(location, fileName);
+        }
+        try (InputStream is = getInputStream();
+                OutputStream os = new FileOutputStream(file)) {
+            IOUtils.copyLarge(is, os);
+        }
+    }
+
+    /**
+     * Read the remaining content of this part into memory, if that has not
+     * already happened, and return it as a String. The buffered content
+     * remains available via {@link #getInputStream()}. This is intended for
+     * form fields which are expected to be small.
+     *
+     * @param encoding The character encoding to use to convert the content
+     *
+     * @return The content of this part as a String
+     *
+     * @throws IOException if the content cannot be read
+     * @throws IllegalStateException if the content has already been read via
+     *         {@link #getInputStream()}
+     */
+    public String getString(String encoding) throws IOException {
+        if (content == null) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (InputStream is = getInputStream()) {
+                IOUtils.copy(is, baos);
+            }
+            content = baos.toByteArray();
+        }
+        return new String(content, encoding);
+    }
+
+    @Override
+    public String getSubmittedFileName() {
+        return ApplicationPart.getSubmittedFileName(getHeader("Content-Disposition"));
+    }
+
+
+    /**
+     * Called when a size limit of the multipart configuration is exceeded
+     * while the content of this part is read.
+     *
+     * @param e The exception that describes the limit that was exceeded
+     *
+     * @return The exception to throw to the application
+     */
+    protected RuntimeException sizeLimitExceeded(FileUploadBase.SizeException e) {
+        return new IllegalStateException(e);
+    }
+
+
+    private class SizeTrackingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        SizeTrackingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (FileUploadBase.FileUploadIOException e) {
+                throw translate(e);
+            }
+            if (b == -1) {
+                size = count;
+            } else {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = super.read(b, off, len);
+            } catch (FileUploadBase.FileUploadIOException e) {
+                throw translate(e);
+            }
+            if (n == -1) {
+                size = count;
+            } else {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped;
+            try {
+                skipped = super.skip(n);
+            } catch (FileUploadBase.FileUploadIOException e) {
+                throw translate(e);
+            }
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private IOException translate(FileUploadBase.FileUploadIOException e) {
+            if (e.getCause() instanceof FileUploadBase.SizeException) {
+                throw sizeLimitExceeded((FileUploadBase.SizeException) e.getCause());
+            }
+            return e;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.tomcat.util.threads.LockFreeThreadPoolExecutor;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+
+/**
+ * An {@link org.apache.catalina.Executor} backed by a
+ * {@link LockFreeThreadPoolExecutor}. It accepts the same configuration as
+ * {@link StandardThreadExecutor} and may be used in its place where contention
+ * on the work queue limits throughput.
+ */
+public class LockFreeThreadExecutor extends StandardThreadExecutor {
+
+    /**
+     * Number of times an idle thread polls the queue before it parks.
+     */
+    protected int spinCount = LockFreeThreadPoolExecutor.DEFAULT_SPIN_COUNT;
+
+    /**
+     * The executor we use for this component
+     */
+    protected LockFreeThreadPoolExecutor lockFreeExecutor = null;
+
+
+    public LockFreeThreadExecutor() {
+        //empty constructor for the digester
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+
+        TaskThreadFactory tf = new TaskThreadFactory(namePrefix,daemon,getThreadPriority());
+        lockFreeExecutor = new LockFreeThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(),
+                maxIdleTime, TimeUnit.MILLISECONDS, maxQueueSize, tf);
+        lockFreeExecutor.setThreadRenewalDelay(threadRenewalDelay);
+        lockFreeExecutor.setSpinCount(spinCount);
+        if (prestartminSpareThreads) {
+            lockFreeExecutor.prestartAllCoreThreads();
+        }
+
+        setState(LifecycleState.STARTING);
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+
+        setState(LifecycleState.STOPPING);
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.shutdownNow();
+        }
+        lockFreeExecutor = null;
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.execute(command, timeout, unit);
+        } else {
+            throw new IllegalStateException("LockFreeThreadExecutor not started.");
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (lockFreeExecutor != null) {
+            try {
+                lockFreeExecutor.execute(command);
+            } catch (RejectedExecutionException rx) {
+                //there could have been contention around the queue
+                if (!lockFreeExecutor.force(command)) {
+                    throw new RejectedExecutionException("Work queue full.");
+                }
+            }
+        } else {
+            throw new IllegalStateException("LockFreeThreadExecutor not started.");
+        }
+    }
+
+
+    @Override
+    public void contextStopping() {
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.contextStopping();
+        }
+    }
+
+
+    public int getSpinCount() {
+        return spinCount;
+    }
+
+    public void setSpinCount(int spinCount) {
+        this.spinCount = spinCount;
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.setSpinCount(spinCount);
+        }
+    }
+
+    @Override
+    public void setMaxIdleTime(int maxIdleTime) {
+        super.setMaxIdleTime(maxIdleTime);
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.setKeepAliveTime(maxIdleTime, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void setMaxThreads(int maxThreads) {
+        super.setMaxThreads(maxThreads);
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.setMaximumPoolSize(maxThreads);
+        }
+    }
+
+    @Override
+    public void setMinSpareThreads(int minSpareThreads) {
+        super.setMinSpareThreads(minSpareThreads);
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.setCorePoolSize(minSpareThreads);
+        }
+    }
+
+    @Override
+    public void setThreadRenewalDelay(long threadRenewalDelay) {
+        super.setThreadRenewalDelay(threadRenewalDelay);
+        if (lockFreeExecutor != null) {
+            lockFreeExecutor.setThreadRenewalDelay(threadRenewalDelay);
+        }
+    }
+
+    // Statistics from the thread pool
+    @Override
+    public int getActiveCount() {
+        return (lockFreeExecutor != null) ? lockFreeExecutor.getActiveCount() : 0;
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        return (lockFreeExecutor != null) ? lockFreeExecutor.getCompletedTaskCount() : 0;
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        return (lockFreeExecutor != null) ? lockFreeExecutor.getCorePoolSize() : 0;
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        return (lockFreeExecutor != null) ? lockFreeExecutor.getLargestPoolSize() : 0;
+    }
+
+    @Override
+    public int getPoolSize() {
+        return (lockFreeExecutor != null) ? lockFreeExecutor.getPoolSize() : 0;
+    }
+
+    @Override
+    public int getQueueSize() {
+        return (lockFreeExecutor != null) ? lockFreeExecutor.getQueueSize() : -1;
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (lockFreeExecutor == null)
+            return false;
+
+        return lockFreeExecutor.resizePool(corePoolSize, maximumPoolSize);
+    }
+}
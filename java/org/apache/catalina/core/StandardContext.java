@@ -4921,6 +4921,16 @@ public class StandardContext extends ContainerBase
      */
     public void resourcesStart() throws LifecycleException {
 
+        // Mapped files cannot be deleted or replaced on some platforms until
+        // the mapping is garbage collected
+        if (getAntiResourceLocking() && resources instanceof StandardRoot) {
+            StandardRoot root = (StandardRoot) resources;
+            if ("mapped".equals(root.getCacheContentStorage())) {
+                log.warn(sm.getString("standardContext.mappedAntiResourceLocking", getName()));
+                root.setCacheContentStorage("direct");
+            }
+        }
+
         // Check current status in case resources were added that had already
         // been started
         if (!resources.getState().isAvailable()) {
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
+
+/**
+ * An {@link org.apache.catalina.Executor} that runs each task on a new virtual
+ * thread. If the JRE does not support virtual threads, the executor falls back
+ * to the behaviour of {@link StandardThreadExecutor}.
+ */
+public class StandardVirtualThreadExecutor extends StandardThreadExecutor {
+
+    private static final Log log = LogFactory.getLog(StandardVirtualThreadExecutor.class);
+    private static final StringManager sm = StringManager.getManager(Constants.Package);
+
+    /**
+     * The executor we use for this component if virtual threads are supported
+     */
+    protected VirtualThreadExecutor virtualExecutor = null;
+
+
+    public StandardVirtualThreadExecutor() {
+        //empty constructor for the digester
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        if (VirtualThreadExecutor.isSupported()) {
+            virtualExecutor = new VirtualThreadExecutor(namePrefix);
+            setState(LifecycleState.STARTING);
+        } else {
+            log.warn(sm.getString("standardVirtualThreadExecutor.notSupported", getName()));
+            super.startInternal();
+        }
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        if (virtualExecutor != null) {
+            setState(LifecycleState.STOPPING);
+            virtualExecutor.shutdownNow();
+            virtualExecutor = null;
+        } else {
+            super.stopInternal();
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            virtualExecutor.execute(command);
+        } else {
+            super.execute(command, timeout, unit);
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        if (virtualExecutor != null) {
+            virtualExecutor.execute(command);
+        } else {
+            super.execute(command);
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if tasks are being run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtualExecutor != null;
+    }
+
+
+    // Statistics from the thread pool
+    @Override
+    public int getActiveCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        return (virtualExecutor != null) ? virtualExecutor.getActiveCount() : super.getActiveCount();
+    }
+
+    /**
+     * @return The number of virtual threads that are parked or blocked, or
+     *         zero if virtual threads are not in use
+     */
+    public int getParkedCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        return (virtualExecutor != null) ? virtualExecutor.getParkedCount() : 0;
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        return (virtualExecutor != null) ?
+                virtualExecutor.getCompletedTaskCount() : super.getCompletedTaskCount();
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        return (virtualExecutor != null) ?
+                virtualExecutor.getLargestPoolSize() : super.getLargestPoolSize();
+    }
+
+    @Override
+    public int getPoolSize() {
+        VirtualThreadExecutor virtualExecutor = this.virtualExecutor;
+        return (virtualExecutor != null) ? virtualExecutor.getPoolSize() : super.getPoolSize();
+    }
+
+    @Override
+    public int getQueueSize() {
+        // Tasks are never queued when using virtual threads
+        return (virtualExecutor != null) ? 0 : super.getQueueSize();
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (virtualExecutor != null) {
+            return false;
+        }
+        return super.resizePool(corePoolSize, maximumPoolSize);
+    }
+}
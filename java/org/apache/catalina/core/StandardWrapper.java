@@ -242,6 +242,11 @@ public class StandardWrapper extends ContainerBase
      */
     protected MultipartConfigElement multipartConfigElement = null;
 
+    /**
+     * Stream multipart requests
+     */
+    protected boolean multipartStreaming = false;
+
     /**
      * Async support
      */
@@ -1492,6 +1497,30 @@ public class StandardWrapper extends ContainerBase
         this.multipartConfigElement = multipartConfigElement;
     }
 
+    /**
+     * Are multi-part requests for the associated Servlet streamed? If
+     * <code>true</code>, the parts are read from the request as the Servlet
+     * iterates over the Collection returned by
+     * {@link javax.servlet.http.HttpServletRequest#getParts()} and the content
+     * of each part is provided directly from the request rather than being
+     * written to memory or a temporary file first. Defaults to
+     * <code>false</code>.
+     *
+     * @return <code>true</code> if multi-part requests are streamed
+     */
+    public boolean isMultipartStreaming() {
+        return multipartStreaming;
+    }
+
+    /**
+     * Set whether multi-part requests for the associated Servlet are streamed.
+     *
+     * @param multipartStreaming The new value
+     */
+    public void setMultipartStreaming(boolean multipartStreaming) {
+        this.multipartStreaming = multipartStreaming;
+    }
+
     @Override
     public boolean isAsyncSupported() {
         return asyncSupported;
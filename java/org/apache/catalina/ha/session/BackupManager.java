@@ -120,6 +120,25 @@ public class BackupManager extends ClusterManagerBase
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Sessions may become primary on this node, when another node fails,
+     * without being added to this manager so every session is checked.
+     */
+    @Override
+    protected int expireSessions(long timeNow) {
+        Session sessions[] = findSessions();
+        int expireHere = 0;
+        for (int i = 0; i < sessions.length; i++) {
+            if (sessions[i] != null && !sessions[i].isValid()) {
+                expireHere++;
+            }
+        }
+        return expireHere;
+    }
+
+
     @Override
     public String getName() {
         return this.name;
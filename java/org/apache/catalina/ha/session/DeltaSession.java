@@ -291,6 +291,7 @@ public class DeltaSession extends StandardSession implements Externalizable,Clus
 
     public void setMaxInactiveInterval(int interval, boolean addDeltaRequest) {
         super.maxInactiveInterval = interval;
+        scheduleExpiration();
         if (addDeltaRequest && (deltaRequest != null)) {
             lock();
             try {
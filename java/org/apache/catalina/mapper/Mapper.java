@@ -33,7 +33,6 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.servlet4preview.http.MappingMatch;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
-import org.apache.tomcat.util.buf.Ascii;
 import org.apache.tomcat.util.buf.CharChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.res.StringManager;
@@ -60,6 +59,12 @@ public final class Mapper {
     // Package private to facilitate testing
     volatile MappedHost[] hosts = new MappedHost[0];
 
+    /**
+     * Index of {@link #hosts} used to map requests. Rebuilt when the array is
+     * replaced.
+     */
+    private volatile PathTrie<MappedHost> hostTrie = PathTrie.build(hosts, true);
+
 
     /**
      * Default host name.
@@ -233,6 +238,16 @@ public final class Mapper {
 
     }
 
+    private PathTrie<MappedHost> getHostTrie() {
+        MappedHost[] hosts = this.hosts;
+        PathTrie<MappedHost> result = hostTrie;
+        if (!result.isFor(hosts)) {
+            result = PathTrie.build(hosts, true);
+            hostTrie = result;
+        }
+        return result;
+    }
+
     /**
      * Replace {@link MappedHost#contextList} field in <code>realHost</code> and
      * all its aliases with a new value.
@@ -743,21 +758,15 @@ public final class Mapper {
         uri.setLimit(-1);
 
         // Virtual host mapping
-        MappedHost[] hosts = this.hosts;
-        MappedHost mappedHost = exactFindIgnoreCase(hosts, host);
+        PathTrie<MappedHost> hostTrie = getHostTrie();
+        char[] hostChars = host.getBuffer();
+        MappedHost mappedHost = hostTrie.find(hostChars, host.getStart(), host.getEnd());
         if (mappedHost == null) {
             // Note: Internally, the Mapper does not use the leading * on a
             //       wildcard host. This is to allow this shortcut.
             int firstDot = host.indexOf('.');
             if (firstDot > -1) {
-                int offset = host.getOffset();
-                try {
-                    host.setOffset(firstDot + offset);
-                    mappedHost = exactFindIgnoreCase(hosts, host);
-                } finally {
-                    // Make absolutely sure this gets reset
-                    host.setOffset(offset);
-                }
+                mappedHost = hostTrie.find(hostChars, host.getStart() + firstDot, host.getEnd());
             }
             if (mappedHost == null) {
                 mappedHost = defaultHost;
@@ -770,46 +779,8 @@ public final class Mapper {
 
         // Context mapping
         ContextList contextList = mappedHost.contextList;
-        MappedContext[] contexts = contextList.contexts;
-        int pos = find(contexts, uri);
-        if (pos == -1) {
-            return;
-        }
-
-        int lastSlash = -1;
-        int uriEnd = uri.getEnd();
-        int length = -1;
-        boolean found = false;
-        MappedContext context = null;
-        while (pos >= 0) {
-            context = contexts[pos];
-            if (uri.startsWith(context.name)) {
-                length = context.name.length();
-                if (uri.getLength() == length) {
-                    found = true;
-                    break;
-                } else if (uri.startsWithIgnoreCase("/", length)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (lastSlash == -1) {
-                lastSlash = nthSlash(uri, contextList.nesting + 1);
-            } else {
-                lastSlash = lastSlash(uri);
-            }
-            uri.setEnd(lastSlash);
-            pos = find(contexts, uri);
-        }
-        uri.setEnd(uriEnd);
-
-        if (!found) {
-            if (contexts[0].name.equals("")) {
-                context = contexts[0];
-            } else {
-                context = null;
-            }
-        }
+        MappedContext context = contextList.contextTrie.findLongestPrefix(
+                uri.getBuffer(), uri.getStart(), uri.getEnd());
         if (context == null) {
             return;
         }
@@ -866,15 +837,14 @@ public final class Mapper {
         path.setOffset(servletPath);
 
         // Rule 1 -- Exact Match
-        MappedWrapper[] exactWrappers = contextVersion.exactWrappers;
+        PathTrie<MappedWrapper> exactWrappers = contextVersion.getExactWrapperTrie();
         internalMapExactWrapper(exactWrappers, path, mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
-        MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
+        PathTrie<MappedWrapper> wildcardWrappers = contextVersion.getWildcardWrapperTrie();
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
-                                       path, mappingData);
+            internalMapWildcardWrapper(wildcardWrappers, path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
                 if (buf[pathEnd - 1] == '/') {
@@ -909,7 +879,7 @@ public final class Mapper {
         }
 
         // Rule 3 -- Extension Match
-        MappedWrapper[] extensionWrappers = contextVersion.extensionWrappers;
+        PathTrie<MappedWrapper> extensionWrappers = contextVersion.getExtensionWrapperTrie();
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
             internalMapExtensionWrapper(extensionWrappers, path, mappingData,
                     true);
@@ -937,8 +907,7 @@ public final class Mapper {
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
+                            (wildcardWrappers, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -1057,8 +1026,8 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (MappedWrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        MappedWrapper wrapper = exactFind(wrappers, path);
+        (PathTrie<MappedWrapper> wrappers, CharChunk path, MappingData mappingData) {
+        MappedWrapper wrapper = wrappers.find(path.getBuffer(), path.getStart(), path.getEnd());
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1081,50 +1050,25 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (MappedWrapper[] wrappers, int nesting, CharChunk path,
+        (PathTrie<MappedWrapper> wrappers, CharChunk path,
          MappingData mappingData) {
 
-        int pathEnd = path.getEnd();
-
-        int lastSlash = -1;
-        int length = -1;
-        int pos = find(wrappers, path);
-        if (pos != -1) {
-            boolean found = false;
-            while (pos >= 0) {
-                if (path.startsWith(wrappers[pos].name)) {
-                    length = wrappers[pos].name.length();
-                    if (path.getLength() == length) {
-                        found = true;
-                        break;
-                    } else if (path.startsWithIgnoreCase("/", length)) {
-                        found = true;
-                        break;
-                    }
-                }
-                if (lastSlash == -1) {
-                    lastSlash = nthSlash(path, nesting + 1);
-                } else {
-                    lastSlash = lastSlash(path);
-                }
-                path.setEnd(lastSlash);
-                pos = find(wrappers, path);
-            }
-            path.setEnd(pathEnd);
-            if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
-                mappingData.matchType = MappingMatch.PATH;
+        MappedWrapper wrapper = wrappers.findLongestPrefix(
+                path.getBuffer(), path.getStart(), path.getEnd());
+        if (wrapper != null) {
+            int length = wrapper.name.length();
+            mappingData.wrapperPath.setString(wrapper.name);
+            if (path.getLength() > length) {
+                mappingData.pathInfo.setChars
+                    (path.getBuffer(),
+                     path.getOffset() + length,
+                     path.getLength() - length);
             }
+            mappingData.requestPath.setChars
+                (path.getBuffer(), path.getOffset(), path.getLength());
+            mappingData.wrapper = wrapper.object;
+            mappingData.jspWildCard = wrapper.jspWildCard;
+            mappingData.matchType = MappingMatch.PATH;
         }
     }
 
@@ -1137,7 +1081,7 @@ public final class Mapper {
      * @param mappingData       Mapping data for result
      * @param resourceExpected  Is this mapping expecting to find a resource
      */
-    private final void internalMapExtensionWrapper(MappedWrapper[] wrappers,
+    private final void internalMapExtensionWrapper(PathTrie<MappedWrapper> wrappers,
             CharChunk path, MappingData mappingData, boolean resourceExpected) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
@@ -1158,9 +1102,7 @@ public final class Mapper {
                 }
             }
             if (period >= 0) {
-                path.setOffset(period + 1);
-                path.setEnd(pathEnd);
-                MappedWrapper wrapper = exactFind(wrappers, path);
+                MappedWrapper wrapper = wrappers.find(buf, period + 1, pathEnd);
                 if (wrapper != null
                         && (resourceExpected || !wrapper.resourceOnly)) {
                     mappingData.wrapperPath.setChars(buf, servletPath, pathEnd
@@ -1170,122 +1112,8 @@ public final class Mapper {
                     mappingData.wrapper = wrapper.object;
                     mappingData.matchType = MappingMatch.EXTENSION;
                 }
-                path.setOffset(servletPath);
-                path.setEnd(pathEnd);
-            }
-        }
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int find(MapElement<T>[] map, CharChunk name) {
-        return find(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int find(MapElement<T>[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-
-        if (compare(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = compare(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
             }
         }
-
-    }
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int findIgnoreCase(MapElement<T>[] map, CharChunk name) {
-        return findIgnoreCase(map, name, name.getStart(), name.getEnd());
-    }
-
-
-    /**
-     * Find a map element given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    private static final <T> int findIgnoreCase(MapElement<T>[] map, CharChunk name,
-                                  int start, int end) {
-
-        int a = 0;
-        int b = map.length - 1;
-
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
-        if (compareIgnoreCase(name, start, end, map[0].name) < 0 ) {
-            return -1;
-        }
-        if (b == 0) {
-            return 0;
-        }
-
-        int i = 0;
-        while (true) {
-            i = (b + a) / 2;
-            int result = compareIgnoreCase(name, start, end, map[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compareIgnoreCase(name, start, end, map[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
-            }
-        }
-
     }
 
 
@@ -1354,145 +1182,6 @@ public final class Mapper {
         return null;
     }
 
-    /**
-     * Find a map element given its name in a sorted array of map elements. This
-     * will return the element that you were searching for. Otherwise it will
-     * return <code>null</code>.
-     */
-    private static final <T, E extends MapElement<T>> E exactFind(E[] map,
-            CharChunk name) {
-        int pos = find(map, name);
-        if (pos >= 0) {
-            E result = map[pos];
-            if (name.equals(result.name)) {
-                return result;
-            }
-        }
-        return null;
-    }
-
-    /**
-     * Find a map element given its name in a sorted array of map elements. This
-     * will return the element that you were searching for. Otherwise it will
-     * return <code>null</code>.
-     * @see #findIgnoreCase(MapElement[], CharChunk)
-     */
-    private static final <T, E extends MapElement<T>> E exactFindIgnoreCase(
-            E[] map, CharChunk name) {
-        int pos = findIgnoreCase(map, name);
-        if (pos >= 0) {
-            E result = map[pos];
-            if (name.equalsIgnoreCase(result.name)) {
-                return result;
-            }
-        }
-        return null;
-    }
-
-
-    /**
-     * Compare given char chunk with String.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
-     */
-    private static final int compare(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
-        char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (c[i + start] > compareTo.charAt(i)) {
-                result = 1;
-            } else if (c[i + start] < compareTo.charAt(i)) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
-            }
-        }
-        return result;
-    }
-
-
-    /**
-     * Compare given char chunk with String ignoring case.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
-     */
-    private static final int compareIgnoreCase(CharChunk name, int start, int end,
-                                     String compareTo) {
-        int result = 0;
-        char[] c = name.getBuffer();
-        int len = compareTo.length();
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (Ascii.toLower(c[i + start]) > Ascii.toLower(compareTo.charAt(i))) {
-                result = 1;
-            } else if (Ascii.toLower(c[i + start]) < Ascii.toLower(compareTo.charAt(i))) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length() > (end - start)) {
-                result = -1;
-            } else if (compareTo.length() < (end - start)) {
-                result = 1;
-            }
-        }
-        return result;
-    }
-
-
-    /**
-     * Find the position of the last slash in the given char chunk.
-     */
-    private static final int lastSlash(CharChunk name) {
-
-        char[] c = name.getBuffer();
-        int end = name.getEnd();
-        int start = name.getStart();
-        int pos = end;
-
-        while (pos > start) {
-            if (c[--pos] == '/') {
-                break;
-            }
-        }
-
-        return (pos);
-
-    }
-
-
-    /**
-     * Find the position of the nth slash, in the given char chunk.
-     */
-    private static final int nthSlash(CharChunk name, int n) {
-
-        char[] c = name.getBuffer();
-        int end = name.getEnd();
-        int start = name.getStart();
-        int pos = start;
-        int count = 0;
-
-        while (pos < end) {
-            if ((c[pos++] == '/') && ((++count) == n)) {
-                pos--;
-                break;
-            }
-        }
-
-        return (pos);
-
-    }
-
 
     /**
      * Return the slash count in a given string.
@@ -1653,6 +1342,7 @@ public final class Mapper {
     protected static final class ContextList {
 
         public final MappedContext[] contexts;
+        public final PathTrie<MappedContext> contextTrie;
         public final int nesting;
 
         public ContextList() {
@@ -1661,6 +1351,7 @@ public final class Mapper {
 
         private ContextList(MappedContext[] contexts, int nesting) {
             this.contexts = contexts;
+            this.contextTrie = PathTrie.build(contexts, false);
             this.nesting = nesting;
         }
 
@@ -1711,6 +1402,9 @@ public final class Mapper {
         public MappedWrapper[] extensionWrappers = new MappedWrapper[0];
         public int nesting = 0;
         private volatile boolean paused;
+        private volatile PathTrie<MappedWrapper> exactWrapperTrie;
+        private volatile PathTrie<MappedWrapper> wildcardWrapperTrie;
+        private volatile PathTrie<MappedWrapper> extensionWrapperTrie;
 
         public ContextVersion(String version, String path, int slashCount,
                 Context context, WebResourceRoot resources,
@@ -1729,6 +1423,42 @@ public final class Mapper {
         public void markPaused() {
             paused = true;
         }
+
+        /*
+         * The wrapper arrays are replaced, never modified, when the mappings
+         * change. Each trie is rebuilt the first time it is used after the
+         * array it indexes has been replaced.
+         */
+
+        PathTrie<MappedWrapper> getExactWrapperTrie() {
+            MappedWrapper[] wrappers = exactWrappers;
+            PathTrie<MappedWrapper> result = exactWrapperTrie;
+            if (result == null || !result.isFor(wrappers)) {
+                result = PathTrie.build(wrappers, false);
+                exactWrapperTrie = result;
+            }
+            return result;
+        }
+
+        PathTrie<MappedWrapper> getWildcardWrapperTrie() {
+            MappedWrapper[] wrappers = wildcardWrappers;
+            PathTrie<MappedWrapper> result = wildcardWrapperTrie;
+            if (result == null || !result.isFor(wrappers)) {
+                result = PathTrie.build(wrappers, false);
+                wildcardWrapperTrie = result;
+            }
+            return result;
+        }
+
+        PathTrie<MappedWrapper> getExtensionWrapperTrie() {
+            MappedWrapper[] wrappers = extensionWrappers;
+            PathTrie<MappedWrapper> result = extensionWrapperTrie;
+            if (result == null || !result.isFor(wrappers)) {
+                result = PathTrie.build(wrappers, false);
+                extensionWrapperTrie = result;
+            }
+            return result;
+        }
     }
 
     // ---------------------------------------------------- Wrapper Inner Class
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.catalina.mapper.Mapper.MapElement;
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * An immutable radix trie over the names of a set of map elements. Lookups
+ * make a single pass over the characters being mapped rather than the repeated
+ * binary searches of a sorted array that are required to find the longest
+ * matching path prefix.
+ * <p>
+ * The Mapper keeps its sorted, copy-on-write arrays of map elements. A trie is
+ * built from one of those arrays and is replaced, rather than modified, when
+ * the array is replaced. Since the trie is immutable it may be used by any
+ * number of threads while the mappings are updated.
+ *
+ * @param <E> The type of map element
+ */
+final class PathTrie<E extends MapElement<?>> {
+
+    private static final char[] EMPTY_CHARS = new char[0];
+
+    private final MapElement<?>[] source;
+    private final boolean ignoreCase;
+    private final Node<E> root;
+
+
+    private PathTrie(MapElement<?>[] source, boolean ignoreCase, Node<E> root) {
+        this.source = source;
+        this.ignoreCase = ignoreCase;
+        this.root = root;
+    }
+
+
+    /**
+     * Build a trie for the given elements.
+     *
+     * @param elements      The elements to index by name
+     * @param ignoreCase    Should the names be matched ignoring (ASCII) case
+     *
+     * @param <E> The type of map element
+     *
+     * @return The new trie
+     */
+    static <E extends MapElement<?>> PathTrie<E> build(E[] elements, boolean ignoreCase) {
+        if (elements.length == 0) {
+            return new PathTrie<>(elements, ignoreCase, null);
+        }
+        final String[] keys = new String[elements.length];
+        Integer[] order = new Integer[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            keys[i] = ignoreCase ? toLower(elements[i].name) : elements[i].name;
+            order[i] = Integer.valueOf(i);
+        }
+        // Mapper arrays are sorted by name but the order may differ once the
+        // names have been converted to lower case
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return keys[o1.intValue()].compareTo(keys[o2.intValue()]);
+            }
+        });
+        String[] sortedKeys = new String[keys.length];
+        MapElement<?>[] sortedElements = new MapElement<?>[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedKeys[i] = keys[order[i].intValue()];
+            sortedElements[i] = elements[order[i].intValue()];
+        }
+        Node<E> root = buildNode(sortedKeys, sortedElements, 0, sortedKeys.length, 0);
+        return new PathTrie<>(elements, ignoreCase, root);
+    }
+
+
+    /**
+     * @param elements The array of elements to test
+     *
+     * @return <code>true</code> if this trie was built from the given array
+     */
+    boolean isFor(MapElement<?>[] elements) {
+        return source == elements;
+    }
+
+
+    /**
+     * Find the element with a name equal to the given characters.
+     *
+     * @param buf   The buffer containing the characters to match
+     * @param start The index of the first character to match
+     * @param end   The index after the last character to match
+     *
+     * @return The matching element or <code>null</code> if there is no match
+     */
+    E find(char[] buf, int start, int end) {
+        Node<E> node = root;
+        int pos = start;
+        while (node != null) {
+            pos = match(node.label, buf, pos, end);
+            if (pos < 0) {
+                return null;
+            }
+            if (pos == end) {
+                return node.element;
+            }
+            node = node.child(fold(buf[pos]));
+        }
+        return null;
+    }
+
+
+    /**
+     * Find the element with the longest name that is a path prefix of the given
+     * characters, i.e. the characters are equal to the name or start with the
+     * name followed by a <code>'/'</code>.
+     *
+     * @param buf   The buffer containing the characters to match
+     * @param start The index of the first character to match
+     * @param end   The index after the last character to match
+     *
+     * @return The matching element or <code>null</code> if there is no match
+     */
+    E findLongestPrefix(char[] buf, int start, int end) {
+        E result = null;
+        Node<E> node = root;
+        int pos = start;
+        while (node != null) {
+            pos = match(node.label, buf, pos, end);
+            if (pos < 0) {
+                break;
+            }
+            if (node.element != null && (pos == end || buf[pos] == '/')) {
+                result = node.element;
+            }
+            if (pos == end) {
+                break;
+            }
+            node = node.child(fold(buf[pos]));
+        }
+        return result;
+    }
+
+
+    /*
+     * Returns the position after the label or -1 if the label does not match.
+     */
+    private int match(char[] label, char[] buf, int pos, int end) {
+        int length = label.length;
+        if (end - pos < length) {
+            return -1;
+        }
+        for (int i = 0; i < length; i++) {
+            if (fold(buf[pos + i]) != label[i]) {
+                return -1;
+            }
+        }
+        return pos + length;
+    }
+
+
+    private char fold(char c) {
+        if (ignoreCase) {
+            return (char) Ascii.toLower(c);
+        }
+        return c;
+    }
+
+
+    private static String toLower(String name) {
+        char[] chars = name.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) Ascii.toLower(chars[i]);
+        }
+        return new String(chars);
+    }
+
+
+    /*
+     * Builds the node for keys[from] to keys[to - 1], which are sorted and all
+     * share the first depth characters.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <E extends MapElement<?>> Node<E> buildNode(String[] keys,
+            MapElement<?>[] elements, int from, int to, int depth) {
+        // The common prefix of a sorted range is the common prefix of the
+        // first and last keys
+        String first = keys[from];
+        String last = keys[to - 1];
+        int prefixEnd = depth;
+        int max = Math.min(first.length(), last.length());
+        while (prefixEnd < max && first.charAt(prefixEnd) == last.charAt(prefixEnd)) {
+            prefixEnd++;
+        }
+        char[] label = prefixEnd == depth ? EMPTY_CHARS :
+                first.substring(depth, prefixEnd).toCharArray();
+
+        E element = null;
+        int i = from;
+        while (i < to && keys[i].length() == prefixEnd) {
+            // Duplicate names are not expected. Use the first if present.
+            if (element == null) {
+                element = (E) elements[i];
+            }
+            i++;
+        }
+
+        int childCount = 0;
+        for (int j = i; j < to; j++) {
+            if (j == i || keys[j].charAt(prefixEnd) != keys[j - 1].charAt(prefixEnd)) {
+                childCount++;
+            }
+        }
+        char[] childChars = new char[childCount];
+        Node<E>[] children = new Node[childCount];
+        int child = 0;
+        while (i < to) {
+            char c = keys[i].charAt(prefixEnd);
+            int j = i + 1;
+            while (j < to && keys[j].charAt(prefixEnd) == c) {
+                j++;
+            }
+            childChars[child] = c;
+            children[child] = buildNode(keys, elements, i, j, prefixEnd);
+            child++;
+            i = j;
+        }
+        return new Node<>(label, element, childChars, children);
+    }
+
+
+    private static final class Node<E> {
+
+        private final char[] label;
+        private final E element;
+        private final char[] childChars;
+        private final Node<E>[] children;
+
+        private Node(char[] label, E element, char[] childChars, Node<E>[] children) {
+            this.label = label;
+            this.element = element;
+            this.childChars = childChars;
+            this.children = children;
+        }
+
+        private Node<E> child(char c) {
+            int pos = Arrays.binarySearch(childChars, c);
+            if (pos < 0) {
+                return null;
+            }
+            return children[pos];
+        }
+    }
+}
@@ -32,9 +32,11 @@ import java.io.Reader;
 import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
@@ -67,11 +69,14 @@ import org.apache.catalina.Context;
 import org.apache.catalina.Globals;
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.connector.CoyoteOutputStream;
 import org.apache.catalina.connector.RequestFacade;
 import org.apache.catalina.connector.ResponseFacade;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
+import org.apache.catalina.webresources.CachedResource;
 import org.apache.tomcat.util.http.ResponseUtil;
+import org.apache.tomcat.util.net.SendfileSegment;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.security.Escape;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
@@ -142,6 +147,12 @@ public class DefaultServlet extends HttpServlet {
      */
     protected static final ArrayList<Range> FULL = new ArrayList<>();
 
+    private static final String DEFAULT_COMPRESSIBLE_MIME_TYPES =
+            "text/html,text/xml,text/plain,text/css,text/javascript," +
+            "application/javascript,application/json,application/xml";
+
+    private static final CompressionFormat GZIP_FORMAT = new CompressionFormat(".gz", "gzip");
+
     /**
      * MIME multipart separation string
      */
@@ -253,6 +264,18 @@ public class DefaultServlet extends HttpServlet {
      */
     protected boolean showServerInfo = true;
 
+    /**
+     * Should gzip compressed copies of compressible resources be kept in the
+     * resource cache and served to clients that accept them?
+     */
+    protected boolean gzipCachedResources = false;
+
+    /**
+     * The MIME types of resources that should be compressed when
+     * {@link #gzipCachedResources} is enabled.
+     */
+    protected String[] compressibleMimeTypes = DEFAULT_COMPRESSIBLE_MIME_TYPES.split(",");
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -325,6 +348,19 @@ public class DefaultServlet extends HttpServlet {
         if (getServletConfig().getInitParameter("showServerInfo") != null) {
             showServerInfo = Boolean.parseBoolean(getServletConfig().getInitParameter("showServerInfo"));
         }
+
+        if (getServletConfig().getInitParameter("gzipCachedResources") != null) {
+            gzipCachedResources = Boolean.parseBoolean(
+                    getServletConfig().getInitParameter("gzipCachedResources"));
+        }
+
+        if (getServletConfig().getInitParameter("compressibleMimeTypes") != null) {
+            compressibleMimeTypes =
+                    getServletConfig().getInitParameter("compressibleMimeTypes").split(",");
+            for (int i = 0; i < compressibleMimeTypes.length; i++) {
+                compressibleMimeTypes[i] = compressibleMimeTypes[i].trim();
+            }
+        }
     }
 
     private CompressionFormat[] parseCompressionFormats(String precompressed, String gzip) {
@@ -852,6 +888,25 @@ public class DefaultServlet extends HttpServlet {
             }
         }
 
+        // Serve the compressed copy of the resource held in the cache if
+        // available. Range requests are always served from the original.
+        ByteBuffer compressedContent = null;
+        if (gzipCachedResources && !usingPrecompressedVersion && !included && !isError &&
+                resource instanceof CachedResource && resource.isFile() &&
+                isCompressible(contentType)) {
+            ResponseUtil.addVaryFieldName(response, "accept-encoding");
+            if (request.getHeader("Range") == null && getBestPrecompressedResource(request,
+                    Collections.singletonList(new PrecompressedResource(resource, GZIP_FORMAT))) != null) {
+                // The first request triggers compression in the background
+                compressedContent = ((CachedResource) resource).getGzipContentBuffer();
+                if (compressedContent != null) {
+                    response.addHeader("Content-Encoding", GZIP_FORMAT.encoding);
+                    usingPrecompressedVersion = true;
+                    eTag = getGzipETag(eTag);
+                }
+            }
+        }
+
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -887,7 +942,11 @@ public class DefaultServlet extends HttpServlet {
             }
 
             // Get content length
-            contentLength = resource.getContentLength();
+            if (compressedContent == null) {
+                contentLength = resource.getContentLength();
+            } else {
+                contentLength = compressedContent.remaining();
+            }
             // Special case for zero length files, which would cause a
             // (silent) ISE when setting the output buffer size
             if (contentLength == 0L) {
@@ -983,20 +1042,28 @@ public class DefaultServlet extends HttpServlet {
                     // Output is via an InputStream
                     if (resource.isDirectory()) {
                         renderResult = render(getPathPrefix(request), resource, encoding);
+                    } else if (compressedContent != null) {
+                        writeContent(compressedContent, ostream);
                     } else {
                         // Output is content of resource
                         if (!checkSendfile(request, response, resource,
                                 contentLength, null)) {
                             // sendfile not possible so check if resource
                             // content is available directly
-                            byte[] resourceBody = resource.getContent();
-                            if (resourceBody == null) {
-                                // Resource content not available, use
-                                // inputstream
-                                renderResult = resource.getInputStream();
+                            ByteBuffer resourceBuffer = getContentBuffer(resource, ostream);
+                            if (resourceBuffer != null) {
+                                // Write the cached content without copying it
+                                ((CoyoteOutputStream) ostream).write(resourceBuffer);
                             } else {
-                                // Use the resource content directly
-                                ostream.write(resourceBody);
+                                byte[] resourceBody = resource.getContent();
+                                if (resourceBody == null) {
+                                    // Resource content not available, use
+                                    // inputstream
+                                    renderResult = resource.getInputStream();
+                                } else {
+                                    // Use the resource content directly
+                                    ostream.write(resourceBody);
+                                }
                             }
                         }
                     }
@@ -1059,7 +1126,9 @@ public class DefaultServlet extends HttpServlet {
                         // Silent catch
                     }
                     if (ostream != null) {
-                        copy(resource, ostream, ranges.iterator(), contentType);
+                        if (!checkSendfile(request, response, resource, ranges, contentType)) {
+                            copy(resource, ostream, ranges.iterator(), contentType);
+                        }
                     } else {
                         // we should not get here
                         throw new IllegalStateException();
@@ -1917,15 +1986,8 @@ public class DefaultServlet extends HttpServlet {
                                   HttpServletResponse response,
                                   WebResource resource,
                                   long length, Range range) {
-        String canonicalPath;
-        if (sendfileSize > 0
-            && length > sendfileSize
-            && (Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR)))
-            && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
-            && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))
-            && resource.isFile()
-            && ((canonicalPath = resource.getCanonicalPath()) != null)
-            ) {
+        String canonicalPath = getSendfilePath(request, response, resource, length);
+        if (canonicalPath != null) {
             request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, canonicalPath);
             if (range == null) {
                 request.setAttribute(Globals.SENDFILE_FILE_START_ATTR, Long.valueOf(0L));
@@ -1940,6 +2002,75 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    /**
+     * Check if sendfile can be used for a multipart/byteranges response. If
+     * it can, the MIME headers and boundaries are passed to the connector
+     * along with the ranges of the file so the whole response body is written
+     * by sendfile.
+     *
+     * @param request   The Servlet request
+     * @param response  The Servlet response
+     * @param resource  The resource
+     * @param ranges    The ranges of the resource to send
+     * @param contentType The content type of the resource
+     * @return <code>true</code> if sendfile should be used (writing is then
+     *         delegated to the endpoint)
+     */
+    protected boolean checkSendfile(HttpServletRequest request,
+                                  HttpServletResponse response,
+                                  WebResource resource,
+                                  List<Range> ranges, String contentType) {
+        long rangesLength = 0;
+        for (Range range : ranges) {
+            rangesLength += range.end - range.start + 1;
+        }
+        String canonicalPath = getSendfilePath(request, response, resource, rangesLength);
+        if (canonicalPath == null) {
+            return false;
+        }
+
+        // Exactly what copy(WebResource, ServletOutputStream, Iterator<Range>,
+        // String) writes
+        SendfileSegment[] segments = new SendfileSegment[ranges.size() + 1];
+        long contentLength = rangesLength;
+        int i = 0;
+        for (Range range : ranges) {
+            StringBuilder header = new StringBuilder();
+            header.append("\r\n--").append(mimeSeparation).append("\r\n");
+            if (contentType != null) {
+                header.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            header.append("Content-Range: bytes ").append(range.start).append('-');
+            header.append(range.end).append('/').append(range.length).append("\r\n\r\n");
+            byte[] data = header.toString().getBytes(StandardCharsets.ISO_8859_1);
+            segments[i++] = new SendfileSegment(data, range.start, range.end + 1);
+            contentLength += data.length;
+        }
+        byte[] data = ("\r\n--" + mimeSeparation + "--").getBytes(StandardCharsets.ISO_8859_1);
+        segments[i] = new SendfileSegment(data, 0, 0);
+        contentLength += data.length;
+
+        response.setContentLengthLong(contentLength);
+        request.setAttribute(Globals.SENDFILE_FILENAME_ATTR, canonicalPath);
+        request.setAttribute(Globals.SENDFILE_SEGMENTS_ATTR, segments);
+        return true;
+    }
+
+
+    private String getSendfilePath(HttpServletRequest request, HttpServletResponse response,
+            WebResource resource, long length) {
+        if (sendfileSize > 0
+            && length > sendfileSize
+            && (Boolean.TRUE.equals(request.getAttribute(Globals.SENDFILE_SUPPORTED_ATTR)))
+            && (request.getClass().getName().equals("org.apache.catalina.connector.RequestFacade"))
+            && (response.getClass().getName().equals("org.apache.catalina.connector.ResponseFacade"))
+            && resource.isFile()) {
+            return resource.getCanonicalPath();
+        }
+        return null;
+    }
+
+
     /**
      * Check if the if-match condition is satisfied.
      *
@@ -2047,9 +2178,15 @@ public class DefaultServlet extends HttpServlet {
                     new StringTokenizer(headerValue, ",");
 
                 while (!conditionSatisfied && commaTokenizer.hasMoreTokens()) {
-                    String currentToken = commaTokenizer.nextToken();
-                    if (currentToken.trim().equals(eTag))
+                    String currentToken = commaTokenizer.nextToken().trim();
+                    if (currentToken.equals(eTag)) {
                         conditionSatisfied = true;
+                    } else if (isCachedGzipAcceptable(request, resource) &&
+                            currentToken.equals(getGzipETag(eTag))) {
+                        // The client holds the compressed copy
+                        conditionSatisfied = true;
+                        eTag = currentToken;
+                    }
                 }
 
             } else {
@@ -2227,6 +2364,10 @@ public class DefaultServlet extends HttpServlet {
                       Range range)
         throws IOException {
 
+        if (writeRange(resource, ostream, range)) {
+            return;
+        }
+
         IOException exception = null;
 
         InputStream resourceInputStream = resource.getInputStream();
@@ -2280,8 +2421,10 @@ public class DefaultServlet extends HttpServlet {
                 ostream.println();
 
                 // Printing content
-                exception = copyRange(istream, ostream, currentRange.start,
-                                      currentRange.end);
+                if (!writeRange(resource, ostream, currentRange)) {
+                    exception = copyRange(istream, ostream, currentRange.start,
+                                          currentRange.end);
+                }
             }
         }
 
@@ -2295,6 +2438,116 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    /**
+     * Obtain the cached content of the specified resource if it can be written
+     * to the specified output stream without first being copied.
+     *
+     * @param resource  The source resource
+     * @param ostream   The output stream the content will be written to
+     * @return The content or <code>null</code> if it is not available
+     */
+    private static ByteBuffer getContentBuffer(WebResource resource,
+            ServletOutputStream ostream) {
+        if (resource instanceof CachedResource && ostream instanceof CoyoteOutputStream) {
+            return ((CachedResource) resource).getContentBuffer();
+        }
+        return null;
+    }
+
+
+    /**
+     * Write the specified content to the output stream, without copying it if
+     * the output stream supports it.
+     *
+     * @param content   The content to write
+     * @param ostream   The output stream to write to
+     * @exception IOException if an input/output error occurs
+     */
+    private void writeContent(ByteBuffer content, ServletOutputStream ostream)
+            throws IOException {
+        if (ostream instanceof CoyoteOutputStream) {
+            ((CoyoteOutputStream) ostream).write(content);
+        } else {
+            byte[] buffer = new byte[Math.min(output, content.remaining())];
+            while (content.hasRemaining()) {
+                int len = Math.min(buffer.length, content.remaining());
+                content.get(buffer, 0, len);
+                ostream.write(buffer, 0, len);
+            }
+        }
+    }
+
+
+    /*
+     * The entity tag of the compressed copy of a cached resource. It differs
+     * from the entity tag of the resource so that a cache can tell the two
+     * representations apart. The suffix is the one added by mod_deflate.
+     */
+    private static String getGzipETag(String eTag) {
+        if (eTag.endsWith("\"")) {
+            return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+        }
+        return eTag + "-gzip";
+    }
+
+
+    /*
+     * Could the compressed copy of the given resource held in the cache be
+     * served in response to the given request?
+     */
+    private boolean isCachedGzipAcceptable(HttpServletRequest request, WebResource resource) {
+        if (!gzipCachedResources || !(resource instanceof CachedResource) ||
+                !resource.isFile()) {
+            return false;
+        }
+        String contentType = resource.getMimeType();
+        if (contentType == null) {
+            contentType = getServletContext().getMimeType(resource.getName());
+        }
+        return isCompressible(contentType) && getBestPrecompressedResource(request,
+                Collections.singletonList(new PrecompressedResource(resource, GZIP_FORMAT))) != null;
+    }
+
+
+    private boolean isCompressible(String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        int end = contentType.indexOf(';');
+        String mimeType = (end == -1 ? contentType : contentType.substring(0, end)).trim();
+        for (String compressibleMimeType : compressibleMimeTypes) {
+            if (compressibleMimeType.equalsIgnoreCase(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Write the specified range of the cached content of the resource to the
+     * output stream without copying it.
+     *
+     * @param resource  The source resource
+     * @param ostream   The output stream to write to
+     * @param range     Range the client wanted to retrieve
+     * @return <code>true</code> if the range was written, <code>false</code>
+     *         if the cached content was not available and nothing was written
+     * @exception IOException if an input/output error occurs
+     */
+    private static boolean writeRange(WebResource resource, ServletOutputStream ostream,
+            Range range) throws IOException {
+        ByteBuffer resourceBuffer = getContentBuffer(resource, ostream);
+        if (resourceBuffer == null || range.end >= resourceBuffer.limit()) {
+            return false;
+        }
+        resourceBuffer.limit((int) range.end + 1);
+        resourceBuffer.position((int) range.start);
+        ((CoyoteOutputStream) ostream).write(resourceBuffer);
+        return true;
+    }
+
+
     /**
      * Copy the contents of the specified input stream to the specified
      * output stream, and ensure that both streams are closed before returning
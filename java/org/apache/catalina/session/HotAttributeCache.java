@@ -0,0 +1,121 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks, for all the sessions of a Manager, the values of off-heap session
+ * attributes that have been read recently and are retained on the heap. The
+ * values are kept in access order and the least recently used values are
+ * evicted once their total serialized size exceeds the maximum size.
+ * <p>
+ * A value is evicted while holding the lock of the attribute map it belongs
+ * to. To avoid deadlocks, callers must not hold the lock of any attribute
+ * map when they call {@link #evict()}.
+ */
+final class HotAttributeCache {
+
+    // The serialized size of each value when it was added
+    private final LinkedHashMap<OffHeapAttributeMap.OffHeapValue,Integer> values =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private volatile long maxSize;
+
+
+    HotAttributeCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    long getMaxSize() {
+        return maxSize;
+    }
+
+
+    void setMaxSize(long maxSize) {
+        this.maxSize = maxSize;
+    }
+
+
+    /**
+     * @return The total serialized size, in bytes, of the values that are
+     *         retained on the heap
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+
+    /**
+     * Record that a value is retained on the heap or, if it already is, that
+     * it has been used.
+     *
+     * @param value The value
+     */
+    synchronized void add(OffHeapAttributeMap.OffHeapValue value) {
+        if (values.get(value) == null) {
+            values.put(value, Integer.valueOf(value.getLength()));
+            size += value.getLength();
+        }
+    }
+
+
+    /**
+     * Record that a value has been used.
+     *
+     * @param value The value
+     *
+     * @return <code>true</code> if the value is retained on the heap
+     */
+    synchronized boolean touch(OffHeapAttributeMap.OffHeapValue value) {
+        return values.get(value) != null;
+    }
+
+
+    synchronized void remove(OffHeapAttributeMap.OffHeapValue value) {
+        Integer length = values.remove(value);
+        if (length != null) {
+            size -= length.intValue();
+        }
+    }
+
+
+    /**
+     * Evict the least recently used values until the total size is no larger
+     * than the maximum size.
+     */
+    void evict() {
+        while (true) {
+            OffHeapAttributeMap.OffHeapValue victim;
+            synchronized (this) {
+                if (size <= maxSize || values.isEmpty()) {
+                    return;
+                }
+                Iterator<Map.Entry<OffHeapAttributeMap.OffHeapValue,Integer>> iter =
+                        values.entrySet().iterator();
+                Map.Entry<OffHeapAttributeMap.OffHeapValue,Integer> eldest = iter.next();
+                iter.remove();
+                size -= eldest.getValue().intValue();
+                victim = eldest.getKey();
+            }
+            victim.evict();
+        }
+    }
+}
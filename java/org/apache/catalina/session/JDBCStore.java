@@ -17,12 +17,10 @@
 
 package org.apache.catalina.session;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.sql.Connection;
@@ -31,7 +29,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.Context;
 import javax.naming.InitialContext;
@@ -183,6 +185,48 @@ public class JDBCStore extends StoreBase {
     protected PreparedStatement preparedLoadSql = null;
 
 
+    // ------------------------------------------------------------ Write-behind
+
+    /**
+     * Should saved sessions be queued and written to the database in batches
+     * by a background thread rather than by the thread that saves them?
+     */
+    protected boolean writeBehind = false;
+
+    /**
+     * The maximum number of sessions that may be waiting to be written. Once
+     * it is reached, sessions are written by the thread that saves them.
+     */
+    protected int maxWriteQueueSize = 10000;
+
+    /**
+     * The maximum number of sessions written to the database in one batch.
+     */
+    protected int writeBatchSize = 100;
+
+    /**
+     * The sessions waiting to be written, in the order they were first saved.
+     * Saving a session that is already waiting replaces the queued data.
+     * Guarded by itself.
+     */
+    private final LinkedHashMap<String,PendingWrite> writeQueue = new LinkedHashMap<>();
+
+    /**
+     * The time, in milliseconds, the background thread waits before trying
+     * again to write sessions that could not be written.
+     */
+    private static final long WRITE_RETRY_DELAY = 1000;
+
+    /**
+     * Is the background thread accepting sessions? Guarded by the queue.
+     */
+    private boolean writerRunning = false;
+
+    private final AtomicLong coalescedWriteCount = new AtomicLong();
+    private final AtomicLong batchedWriteCount = new AtomicLong();
+    private final AtomicLong overflowWriteCount = new AtomicLong();
+
+
     // -------------------------------------------------------------- Properties
 
     /**
@@ -476,6 +520,93 @@ public class JDBCStore extends StoreBase {
       this.localDataSource = localDataSource;
     }
 
+    /**
+     * @return <code>true</code> if saved sessions are written to the
+     *         database in batches by a background thread
+     */
+    public boolean getWriteBehind() {
+        return writeBehind;
+    }
+
+    /**
+     * Set to {@code true} to queue saved sessions and write them to the
+     * database in batches from a background thread. Takes effect when the
+     * Store is next started.
+     *
+     * @param writeBehind the new flag value
+     */
+    public void setWriteBehind(boolean writeBehind) {
+        this.writeBehind = writeBehind;
+    }
+
+    /**
+     * @return the maximum number of sessions that may be waiting to be
+     *         written to the database
+     */
+    public int getMaxWriteQueueSize() {
+        return maxWriteQueueSize;
+    }
+
+    /**
+     * Set the maximum number of sessions that may be waiting to be written to
+     * the database. Sessions saved while the queue is full are written
+     * immediately.
+     *
+     * @param maxWriteQueueSize The maximum number of queued sessions
+     */
+    public void setMaxWriteQueueSize(int maxWriteQueueSize) {
+        this.maxWriteQueueSize = maxWriteQueueSize;
+    }
+
+    /**
+     * @return the maximum number of sessions written in one batch
+     */
+    public int getWriteBatchSize() {
+        return writeBatchSize;
+    }
+
+    /**
+     * Set the maximum number of sessions written to the database in one
+     * batch.
+     *
+     * @param writeBatchSize The maximum number of sessions per batch
+     */
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    /**
+     * @return the number of sessions waiting to be written to the database
+     */
+    public int getWriteQueueSize() {
+        synchronized (writeQueue) {
+            return writeQueue.size();
+        }
+    }
+
+    /**
+     * @return the number of saves that replaced the data of a session that
+     *         was already waiting to be written
+     */
+    public long getCoalescedWriteCount() {
+        return coalescedWriteCount.get();
+    }
+
+    /**
+     * @return the number of sessions written to the database in batches
+     */
+    public long getBatchedWriteCount() {
+        return batchedWriteCount.get();
+    }
+
+    /**
+     * @return the number of sessions written immediately because the queue
+     *         was full
+     */
+    public long getOverflowWriteCount() {
+        return overflowWriteCount.get();
+    }
+
 
     // --------------------------------------------------------- Public Methods
 
@@ -502,6 +633,7 @@ public class JDBCStore extends StoreBase {
      */
     private String[] keys(boolean expiredOnly) throws IOException {
         String keys[] = null;
+        flushWriteQueue();
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -563,6 +695,7 @@ public class JDBCStore extends StoreBase {
     public int getSize() throws IOException {
         int size = 0;
 
+        flushWriteQueue();
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -616,7 +749,19 @@ public class JDBCStore extends StoreBase {
         org.apache.catalina.Context context = getManager().getContext();
         Log contextLog = context.getLogger();
 
+        _session = loadQueued(id);
+        if (_session != null) {
+            return _session;
+        }
+
         synchronized (this) {
+            // A batch that was being written when the queue was checked may
+            // have failed and been queued again
+            _session = loadQueued(id);
+            if (_session != null) {
+                return _session;
+            }
+
             int numberOfTries = 2;
             while (numberOfTries > 0) {
                 Connection _conn = getConnection();
@@ -671,6 +816,40 @@ public class JDBCStore extends StoreBase {
         return _session;
     }
 
+    /**
+     * Load a session that is waiting to be written. The database is out of
+     * date for such a session.
+     *
+     * @param id The session identifier
+     * @return the session or <code>null</code> if it is not queued
+     * @throws ClassNotFoundException if an error occurs
+     * @throws IOException if an input/output error occurred
+     */
+    private StandardSession loadQueued(String id) throws ClassNotFoundException, IOException {
+        PendingWrite pending;
+        synchronized (writeQueue) {
+            pending = writeQueue.get(id);
+        }
+        if (pending == null) {
+            return null;
+        }
+        org.apache.catalina.Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+        try (ObjectInputStream ois =
+                getObjectInputStream(new ByteArrayInputStream(pending.data))) {
+            if (contextLog.isDebugEnabled()) {
+                contextLog.debug(sm.getString(getStoreName() + ".loadingQueued", id));
+            }
+            StandardSession _session = (StandardSession) manager.createEmptySession();
+            _session.readObjectData(ois);
+            _session.setManager(manager);
+            return _session;
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
     /**
      * Remove the Session with the specified session identifier from
      * this Store, if present.  If no such Session is present, this method
@@ -683,6 +862,10 @@ public class JDBCStore extends StoreBase {
     @Override
     public void remove(String id) throws IOException {
 
+        synchronized (writeQueue) {
+            writeQueue.remove(id);
+        }
+
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -722,16 +905,33 @@ public class JDBCStore extends StoreBase {
      * @throws SQLException if an error occurs while talking to the database
      */
     private void remove(String id, Connection _conn) throws SQLException {
+        PreparedStatement removeSql = getRemoveStatement(_conn);
+        removeSql.setString(1, id);
+        removeSql.setString(2, getName());
+        removeSql.execute();
+    }
+
+    private PreparedStatement getRemoveStatement(Connection _conn) throws SQLException {
         if (preparedRemoveSql == null) {
             String removeSql = "DELETE FROM " + sessionTable
                     + " WHERE " + sessionIdCol + " = ?  AND "
                     + sessionAppCol + " = ?";
             preparedRemoveSql = _conn.prepareStatement(removeSql);
         }
+        return preparedRemoveSql;
+    }
 
-        preparedRemoveSql.setString(1, id);
-        preparedRemoveSql.setString(2, getName());
-        preparedRemoveSql.execute();
+    private PreparedStatement getSaveStatement(Connection _conn) throws SQLException {
+        if (preparedSaveSql == null) {
+            String saveSql = "INSERT INTO " + sessionTable + " ("
+               + sessionIdCol + ", " + sessionAppCol + ", "
+               + sessionDataCol + ", " + sessionValidCol
+               + ", " + sessionMaxInactiveCol + ", "
+               + sessionLastAccessedCol
+               + ") VALUES (?, ?, ?, ?, ?, ?)";
+            preparedSaveSql = _conn.prepareStatement(saveSql);
+        }
+        return preparedSaveSql;
     }
 
     /**
@@ -742,6 +942,10 @@ public class JDBCStore extends StoreBase {
     @Override
     public void clear() throws IOException {
 
+        synchronized (writeQueue) {
+            writeQueue.clear();
+        }
+
         synchronized (this) {
             int numberOfTries = 2;
             while (numberOfTries > 0) {
@@ -781,68 +985,252 @@ public class JDBCStore extends StoreBase {
      */
     @Override
     public void save(Session session) throws IOException {
-        ByteArrayOutputStream bos = null;
+        if (writeBehind && enqueue(session)) {
+            return;
+        }
 
-        synchronized (this) {
-            int numberOfTries = 2;
-            while (numberOfTries > 0) {
-                Connection _conn = getConnection();
-                if (_conn == null) {
-                    return;
+        PendingWrite write;
+        try {
+            write = serialize(session);
+        } catch (IOException e) {
+            // Ignore
+            return;
+        }
+        write(write);
+
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
+                    session.getIdInternal(), sessionTable));
+        }
+    }
+
+    /**
+     * Write all the sessions that are waiting to be written to the database.
+     * The sessions are written by the calling thread.
+     *
+     * @return <code>true</code> if the queue was emptied or
+     *         <code>false</code> if a batch could not be written, in which
+     *         case the sessions that were not written are still queued
+     */
+    public boolean flushWriteQueue() {
+        while (writeBatch() > 0) {
+            // Keep going until the queue is empty
+        }
+        return getWriteQueueSize() == 0;
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * Queue a session to be written by the background thread.
+     *
+     * @param session The session to write
+     * @return <code>true</code> if the session was queued or
+     *         <code>false</code> if it should be written immediately because
+     *         the background thread is not running or the queue is full
+     * @throws IOException if the session cannot be serialized
+     */
+    private boolean enqueue(Session session) throws IOException {
+        synchronized (writeQueue) {
+            if (!writerRunning) {
+                return false;
+            }
+        }
+
+        // Serialize now since the session may be recycled once it has been
+        // saved
+        PendingWrite write = serialize(session);
+
+        synchronized (writeQueue) {
+            if (!writerRunning) {
+                return false;
+            }
+            PendingWrite previous = writeQueue.put(write.id, write);
+            if (previous != null) {
+                coalescedWriteCount.incrementAndGet();
+            } else if (writeQueue.size() > maxWriteQueueSize) {
+                writeQueue.remove(write.id);
+                overflowWriteCount.incrementAndGet();
+                return false;
+            } else {
+                writeQueue.notifyAll();
+            }
+        }
+
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".queued",
+                    session.getIdInternal()));
+        }
+        return true;
+    }
+
+    /**
+     * Serialize a session so it can be written to the database.
+     *
+     * @param session The session to serialize
+     * @return the serialized form of the session
+     * @throws IOException if the session cannot be serialized
+     */
+    private PendingWrite serialize(Session session) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(bos))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        return new PendingWrite(session.getIdInternal(), bos.toByteArray(),
+                session.isValid(), session.getMaxInactiveInterval(),
+                session.getLastAccessedTime());
+    }
+
+    /**
+     * Write a single session to the database, replacing any previous copy.
+     *
+     * @param write The serialized session
+     * @return <code>true</code> if the session was written
+     */
+    private synchronized boolean write(PendingWrite write) {
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            Connection _conn = getConnection();
+            if (_conn == null) {
+                return false;
+            }
+
+            try {
+                // If sessions already exist in DB, remove and insert again.
+                // TODO:
+                // * Check if ID exists in database and if so use UPDATE.
+                remove(write.id, _conn);
+
+                PreparedStatement saveSql = getSaveStatement(_conn);
+                saveSql.setString(1, write.id);
+                saveSql.setString(2, getName());
+                saveSql.setBinaryStream(3, new ByteArrayInputStream(write.data),
+                        write.data.length);
+                saveSql.setString(4, write.valid ? "1" : "0");
+                saveSql.setInt(5, write.maxInactiveInterval);
+                saveSql.setLong(6, write.lastAccessedTime);
+                saveSql.execute();
+                return true;
+            } catch (SQLException e) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
+                if (dbConnection != null)
+                    close(dbConnection);
+            } finally {
+                release(_conn);
+            }
+            numberOfTries--;
+        }
+        return false;
+    }
+
+    /**
+     * Remove up to {@link #writeBatchSize} sessions from the queue and write
+     * them to the database using one batch of deletes followed by one batch
+     * of inserts in a single transaction.
+     * <p>
+     * The sessions are removed from the queue while holding the lock that
+     * guards database access so a session that is being written can never be
+     * overtaken by an older copy, nor seen as missing by
+     * {@link #load(String)}. If the batch cannot be written, the sessions
+     * are queued again unless a newer copy has been queued in the meantime.
+     *
+     * @return the number of sessions written, which is zero if the queue was
+     *         empty or the batch could not be written
+     */
+    private synchronized int writeBatch() {
+        List<PendingWrite> batch = new ArrayList<>();
+        synchronized (writeQueue) {
+            Iterator<PendingWrite> iter = writeQueue.values().iterator();
+            while (iter.hasNext() && batch.size() < writeBatchSize) {
+                batch.add(iter.next());
+                iter.remove();
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        boolean written = false;
+        int numberOfTries = 2;
+        while (numberOfTries > 0) {
+            Connection _conn = getConnection();
+            if (_conn == null) {
+                break;
+            }
+
+            boolean autoCommit = true;
+            try {
+                autoCommit = _conn.getAutoCommit();
+                _conn.setAutoCommit(false);
+
+                PreparedStatement removeSql = getRemoveStatement(_conn);
+                for (PendingWrite write : batch) {
+                    removeSql.setString(1, write.id);
+                    removeSql.setString(2, getName());
+                    removeSql.addBatch();
+                }
+                removeSql.executeBatch();
+
+                PreparedStatement saveSql = getSaveStatement(_conn);
+                for (PendingWrite write : batch) {
+                    saveSql.setString(1, write.id);
+                    saveSql.setString(2, getName());
+                    saveSql.setBinaryStream(3, new ByteArrayInputStream(write.data),
+                            write.data.length);
+                    saveSql.setString(4, write.valid ? "1" : "0");
+                    saveSql.setInt(5, write.maxInactiveInterval);
+                    saveSql.setLong(6, write.lastAccessedTime);
+                    saveSql.addBatch();
                 }
+                saveSql.executeBatch();
 
+                _conn.commit();
+                batchedWriteCount.addAndGet(batch.size());
+                written = true;
+                // Break out after the finally block
+                numberOfTries = 0;
+            } catch (SQLException e) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
                 try {
-                    // If sessions already exist in DB, remove and insert again.
-                    // TODO:
-                    // * Check if ID exists in database and if so use UPDATE.
-                    remove(session.getIdInternal(), _conn);
-
-                    bos = new ByteArrayOutputStream();
-                    try (ObjectOutputStream oos =
-                            new ObjectOutputStream(new BufferedOutputStream(bos))) {
-                        ((StandardSession) session).writeObjectData(oos);
-                    }
-                    byte[] obs = bos.toByteArray();
-                    int size = obs.length;
-                    try (ByteArrayInputStream bis = new ByteArrayInputStream(obs, 0, size);
-                            InputStream in = new BufferedInputStream(bis, size)) {
-                        if (preparedSaveSql == null) {
-                            String saveSql = "INSERT INTO " + sessionTable + " ("
-                               + sessionIdCol + ", " + sessionAppCol + ", "
-                               + sessionDataCol + ", " + sessionValidCol
-                               + ", " + sessionMaxInactiveCol + ", "
-                               + sessionLastAccessedCol
-                               + ") VALUES (?, ?, ?, ?, ?, ?)";
-                           preparedSaveSql = _conn.prepareStatement(saveSql);
-                        }
-
-                        preparedSaveSql.setString(1, session.getIdInternal());
-                        preparedSaveSql.setString(2, getName());
-                        preparedSaveSql.setBinaryStream(3, in, size);
-                        preparedSaveSql.setString(4, session.isValid() ? "1" : "0");
-                        preparedSaveSql.setInt(5, session.getMaxInactiveInterval());
-                        preparedSaveSql.setLong(6, session.getLastAccessedTime());
-                        preparedSaveSql.execute();
-                        // Break out after the finally block
-                        numberOfTries = 0;
+                    _conn.rollback();
+                } catch (SQLException e2) {
+                    // Ignore
+                }
+                if (dbConnection != null)
+                    close(dbConnection);
+            } finally {
+                try {
+                    if (!_conn.isClosed()) {
+                        _conn.setAutoCommit(autoCommit);
                     }
                 } catch (SQLException e) {
-                    manager.getContext().getLogger().error(sm.getString(getStoreName() + ".SQLException", e));
-                    if (dbConnection != null)
-                        close(dbConnection);
-                } catch (IOException e) {
                     // Ignore
-                } finally {
-                    release(_conn);
                 }
-                numberOfTries--;
+                release(_conn);
             }
+            numberOfTries--;
+        }
+
+        if (!written) {
+            synchronized (writeQueue) {
+                for (PendingWrite write : batch) {
+                    // A newer write queued since the batch was taken wins
+                    if (!writeQueue.containsKey(write.id)) {
+                        writeQueue.put(write.id, write);
+                    }
+                }
+            }
+            manager.getContext().getLogger().warn(sm.getString(getStoreName() + ".batchRequeued",
+                    Integer.toString(batch.size())));
+            return 0;
         }
 
         if (manager.getContext().getLogger().isDebugEnabled()) {
-            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving",
-                    session.getIdInternal(), sessionTable));
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".batchSaving",
+                    Integer.toString(batch.size()), sessionTable));
         }
+        return batch.size();
     }
 
 
@@ -1034,6 +1422,16 @@ public class JDBCStore extends StoreBase {
         }
 
         super.startInternal();
+
+        if (writeBehind) {
+            synchronized (writeQueue) {
+                writerRunning = true;
+            }
+            Thread writer = new Thread(new WriteBehind(),
+                    getThreadName() + "-WriteBehind[" + getName() + "]");
+            writer.setDaemon(true);
+            writer.start();
+        }
     }
 
     /**
@@ -1046,6 +1444,35 @@ public class JDBCStore extends StoreBase {
     @Override
     protected synchronized void stopInternal() throws LifecycleException {
 
+        // Sessions saved from now on are written immediately. The background
+        // thread cannot be waited for while the Store is locked so the queue
+        // is written by this thread instead.
+        synchronized (writeQueue) {
+            writerRunning = false;
+            writeQueue.notifyAll();
+        }
+        if (!flushWriteQueue()) {
+            // Fall back to writing the sessions one at a time. The sessions
+            // are no longer held in memory so any that cannot be written are
+            // lost.
+            List<PendingWrite> remaining;
+            synchronized (writeQueue) {
+                remaining = new ArrayList<>(writeQueue.values());
+                writeQueue.clear();
+            }
+            int lost = remaining.size();
+            for (PendingWrite write : remaining) {
+                if (!write(write)) {
+                    break;
+                }
+                lost--;
+            }
+            if (lost > 0) {
+                manager.getContext().getLogger().error(sm.getString(getStoreName() + ".writeBehindLost",
+                        Integer.toString(lost)));
+            }
+        }
+
         super.stopInternal();
 
         // Close and release everything associated with our db.
@@ -1058,4 +1485,77 @@ public class JDBCStore extends StoreBase {
             close(dbConnection);
         }
     }
+
+
+    // ----------------------------------------------------------- Inner classes
+
+    /**
+     * The serialized form of a session waiting to be written.
+     */
+    private static final class PendingWrite {
+        private final String id;
+        private final byte[] data;
+        private final boolean valid;
+        private final int maxInactiveInterval;
+        private final long lastAccessedTime;
+
+        private PendingWrite(String id, byte[] data, boolean valid, int maxInactiveInterval,
+                long lastAccessedTime) {
+            this.id = id;
+            this.data = data;
+            this.valid = valid;
+            this.maxInactiveInterval = maxInactiveInterval;
+            this.lastAccessedTime = lastAccessedTime;
+        }
+    }
+
+
+    /**
+     * Writes queued sessions to the database until the Store is stopped.
+     */
+    private class WriteBehind implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                synchronized (writeQueue) {
+                    while (writerRunning && writeQueue.isEmpty()) {
+                        try {
+                            writeQueue.wait();
+                        } catch (InterruptedException e) {
+                            // Ignore
+                        }
+                    }
+                    if (!writerRunning) {
+                        // Anything left is written by stopInternal()
+                        return;
+                    }
+                }
+                int written = 0;
+                try {
+                    written = writeBatch();
+                } catch (Throwable t) {
+                    ExceptionUtils.handleThrowable(t);
+                    manager.getContext().getLogger().error(
+                            sm.getString(getStoreName() + ".writeBehindError"), t);
+                }
+                if (written == 0) {
+                    // Wait before trying again rather than spinning while the
+                    // database is unavailable
+                    long retryTime = System.currentTimeMillis() + WRITE_RETRY_DELAY;
+                    synchronized (writeQueue) {
+                        long delay;
+                        while (writerRunning &&
+                                (delay = retryTime - System.currentTimeMillis()) > 0) {
+                            try {
+                                writeQueue.wait(delay);
+                            } catch (InterruptedException e) {
+                                // Ignore
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
 }
@@ -136,6 +136,14 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
      */
     protected Map<String, Session> sessions = new ConcurrentHashMap<>();
 
+    /**
+     * The sessions of this manager indexed by the time at which they should
+     * next be checked for expiration. Slots of one second cover a little over
+     * eight minutes.
+     */
+    private final SessionExpirationWheel expirationWheel =
+            new SessionExpirationWheel(512, 1000);
+
     // Number of sessions created by this manager
     protected long sessionCounter=0;
 
@@ -540,16 +548,10 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     public void processExpires() {
 
         long timeNow = System.currentTimeMillis();
-        Session sessions[] = findSessions();
-        int expireHere = 0 ;
 
         if(log.isDebugEnabled())
-            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + sessions.length);
-        for (int i = 0; i < sessions.length; i++) {
-            if (sessions[i]!=null && !sessions[i].isValid()) {
-                expireHere++;
-            }
-        }
+            log.debug("Start expire sessions " + getName() + " at " + timeNow + " sessioncount " + getActiveSessions());
+        int expireHere = expireSessions(timeNow);
         long timeEnd = System.currentTimeMillis();
         if(log.isDebugEnabled())
              log.debug("End expire sessions " + getName() + " processingTime " + (timeEnd - timeNow) + " expired sessions: " + expireHere);
@@ -558,6 +560,60 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     }
 
 
+    /**
+     * Invalidate the sessions that have expired. Only the sessions that were
+     * scheduled by {@link #scheduleExpiration(Session)} to be checked at or
+     * before the given time are examined. Sessions that are still valid are
+     * scheduled to be checked again when they could next expire.
+     *
+     * @param timeNow The current time
+     *
+     * @return The number of sessions that were found to have expired
+     */
+    protected int expireSessions(long timeNow) {
+        List<Session> due = new ArrayList<>();
+        expirationWheel.poll(timeNow, due);
+        int expireHere = 0;
+        for (Session session : due) {
+            String id = session.getIdInternal();
+            if (id == null || sessions.get(id) != session) {
+                // No longer managed by this manager
+                continue;
+            }
+            if (session.isValid()) {
+                scheduleExpiration(session);
+            } else {
+                expireHere++;
+            }
+        }
+        return expireHere;
+    }
+
+
+    /**
+     * Schedule a session to be checked for expiration at the time it could
+     * next expire, based on its idle time and maximum inactive interval. This
+     * is called when a session is added to this manager and when the maximum
+     * inactive interval of a session changes. Sessions that do not time out
+     * are checked once per revolution of the expiration index in case their
+     * maximum inactive interval is changed without this manager being
+     * notified.
+     *
+     * @param session The session to schedule
+     */
+    protected void scheduleExpiration(Session session) {
+        long timeNow = System.currentTimeMillis();
+        long maxInactiveInterval = session.getMaxInactiveInterval() * 1000L;
+        long checkTime;
+        if (maxInactiveInterval > 0) {
+            checkTime = timeNow + Math.max(0, maxInactiveInterval - session.getIdleTimeInternal());
+        } else {
+            checkTime = timeNow + expirationWheel.getSpan();
+        }
+        expirationWheel.schedule(session, checkTime);
+    }
+
+
     @Override
     protected void initInternal() throws LifecycleException {
         super.initInternal();
@@ -619,6 +675,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
     @Override
     public void add(Session session) {
         sessions.put(session.getIdInternal(), session);
+        scheduleExpiration(session);
         int size = getActiveSessions();
         if( size > maxActive ) {
             synchronized(maxActiveUpdateLock) {
@@ -719,6 +776,7 @@ public abstract class ManagerBase extends LifecycleMBeanBase implements Manager
         if (session.getIdInternal() != null) {
             sessions.remove(session.getIdInternal());
         }
+        expirationWheel.remove(session);
     }
 
 
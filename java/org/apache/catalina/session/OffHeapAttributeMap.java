@@ -0,0 +1,421 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionBindingListener;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Loader;
+import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.juli.logging.Log;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * The attributes of a session with the values of large, serializable
+ * attributes held in a {@link SessionAttributeArena} rather than on the Java
+ * heap. Values are serialized when they are added and are not retained on the
+ * heap. They are deserialized when they are read. The values that have been
+ * read most recently, across all the sessions of the Manager, are retained on
+ * the heap by a {@link HotAttributeCache} and are serialized again when they
+ * are evicted so changes made to a retained value are not lost. Changes made
+ * to a value that is not retained are lost unless the attribute is set again,
+ * as is the case for any session that may be persisted or replicated.
+ * <p>
+ * Values that implement {@link HttpSessionBindingListener} or
+ * {@link HttpSessionActivationListener} are always held on the heap since the
+ * listeners must be called on the instance that was added to the session.
+ */
+final class OffHeapAttributeMap extends AbstractMap<String,Object>
+        implements ConcurrentMap<String,Object> {
+
+    private static final StringManager sm = StringManager.getManager(OffHeapAttributeMap.class);
+
+    private final StandardManager manager;
+    private final SessionAttributeArena arena;
+    private final HotAttributeCache hotValues;
+
+    // Values are either the attribute value or an OffHeapValue. All the
+    // changes to the values are guarded by this map.
+    private final ConcurrentMap<String,Object> values = new ConcurrentHashMap<>();
+
+
+    OffHeapAttributeMap(StandardManager manager, SessionAttributeArena arena,
+            HotAttributeCache hotValues) {
+        this.manager = manager;
+        this.arena = arena;
+        this.hotValues = hotValues;
+    }
+
+
+    @Override
+    public Object get(Object key) {
+        Object value = values.get(key);
+        if (!(value instanceof OffHeapValue)) {
+            return value;
+        }
+        Object result = lookup(key);
+        // Must not hold the lock of this map
+        hotValues.evict();
+        return result;
+    }
+
+
+    @Override
+    public synchronized Object put(String key, Object value) {
+        Object previous = values.put(key, store(key, value));
+        return release(key, previous);
+    }
+
+
+    @Override
+    public synchronized Object remove(Object key) {
+        Object previous = values.remove(key);
+        return release((String) key, previous);
+    }
+
+
+    @Override
+    public synchronized void clear() {
+        for (Object value : values.values()) {
+            if (value instanceof OffHeapValue) {
+                OffHeapValue offHeapValue = (OffHeapValue) value;
+                hotValues.remove(offHeapValue);
+                if (offHeapValue.pages != null) {
+                    arena.free(offHeapValue.pages);
+                    offHeapValue.pages = null;
+                }
+                offHeapValue.value = null;
+            }
+        }
+        values.clear();
+    }
+
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values.containsKey(key);
+    }
+
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned set is a copy of the current attributes and all of the
+     * values are deserialized.
+     */
+    @Override
+    public Set<Map.Entry<String,Object>> entrySet() {
+        Set<Map.Entry<String,Object>> result = new HashSet<>();
+        for (String key : values.keySet()) {
+            Object value = get(key);
+            if (value != null) {
+                result.add(new SimpleImmutableEntry<>(key, value));
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+
+    @Override
+    public Object putIfAbsent(String key, Object value) {
+        Object current;
+        synchronized (this) {
+            current = lookup(key);
+            if (current == null) {
+                put(key, value);
+            }
+        }
+        hotValues.evict();
+        return current;
+    }
+
+
+    @Override
+    public boolean remove(Object key, Object value) {
+        boolean result = false;
+        synchronized (this) {
+            Object current = lookup(key);
+            if (current != null && current.equals(value)) {
+                remove(key);
+                result = true;
+            }
+        }
+        hotValues.evict();
+        return result;
+    }
+
+
+    @Override
+    public boolean replace(String key, Object oldValue, Object newValue) {
+        boolean result = false;
+        synchronized (this) {
+            Object current = lookup(key);
+            if (current != null && current.equals(oldValue)) {
+                put(key, newValue);
+                result = true;
+            }
+        }
+        hotValues.evict();
+        return result;
+    }
+
+
+    @Override
+    public synchronized Object replace(String key, Object value) {
+        if (values.containsKey(key)) {
+            return put(key, value);
+        }
+        return null;
+    }
+
+
+    /*
+     * Returns the attribute value, deserializing it and adding it to the hot
+     * attribute cache if necessary. Values are not evicted from the cache
+     * since that must not happen while the lock of this map is held. Callers
+     * are responsible for calling HotAttributeCache.evict() once they no longer
+     * hold the lock.
+     */
+    private synchronized Object lookup(Object key) {
+        Object value = values.get(key);
+        if (!(value instanceof OffHeapValue)) {
+            return value;
+        }
+        OffHeapValue offHeapValue = (OffHeapValue) value;
+        if (offHeapValue.value != null && hotValues.touch(offHeapValue)) {
+            return offHeapValue.value;
+        }
+        Object result;
+        if (offHeapValue.value != null) {
+            // Being evicted
+            result = offHeapValue.value;
+        } else {
+            result = deserialize((String) key,
+                    arena.read(offHeapValue.pages, offHeapValue.length));
+            offHeapValue.value = result;
+        }
+        if (result != null) {
+            hotValues.add(offHeapValue);
+        }
+        return result;
+    }
+
+
+    /*
+     * Returns the value to store in the map for the given attribute value.
+     */
+    private Object store(String key, Object value) {
+        int minSize = manager.getOffHeapAttributeMinSize();
+        if (!(value instanceof Serializable) ||
+                value instanceof HttpSessionBindingListener ||
+                value instanceof HttpSessionActivationListener ||
+                isSmall(value, minSize)) {
+            return value;
+        }
+        ExposedByteArrayOutputStream bytes = serialize(value);
+        if (bytes == null || bytes.size() < minSize) {
+            return value;
+        }
+        int[] pages = arena.store(bytes.getBuffer(), bytes.size());
+        if (pages == null) {
+            // Arena is full
+            return value;
+        }
+        return new OffHeapValue(key, pages, bytes.size());
+    }
+
+
+    /*
+     * Identifies common values that are known to serialize to less than the
+     * minimum size so they do not have to be serialized to find out.
+     */
+    private static boolean isSmall(Object value, int minSize) {
+        if (value instanceof String) {
+            // Each character is written as at most three bytes
+            return ((String) value).length() * 3 < minSize - 16;
+        }
+        return value instanceof Number && value.getClass().getName().startsWith("java.lang.") ||
+                value instanceof Boolean || value instanceof Character ||
+                value instanceof Enum || value instanceof Date;
+    }
+
+
+    /*
+     * Frees the storage of a value that has been removed from the map and
+     * returns the attribute value.
+     */
+    private Object release(String key, Object previous) {
+        if (!(previous instanceof OffHeapValue)) {
+            return previous;
+        }
+        OffHeapValue offHeapValue = (OffHeapValue) previous;
+        hotValues.remove(offHeapValue);
+        Object result = offHeapValue.value;
+        if (offHeapValue.pages != null) {
+            if (result == null) {
+                // The previous value is returned for the benefit of listeners
+                result = deserialize(key, arena.read(offHeapValue.pages, offHeapValue.length));
+            }
+            arena.free(offHeapValue.pages);
+            offHeapValue.pages = null;
+        }
+        offHeapValue.value = null;
+        return result;
+    }
+
+
+    /*
+     * Removes a value that is no longer retained by the hot attribute cache
+     * from the heap, serializing it again to retain any changes.
+     */
+    private synchronized void evict(OffHeapValue offHeapValue) {
+        Object value = offHeapValue.value;
+        if (value == null || values.get(offHeapValue.key) != offHeapValue ||
+                hotValues.touch(offHeapValue)) {
+            // Removed, replaced or read again since it was evicted
+            return;
+        }
+        ExposedByteArrayOutputStream bytes = serialize(value);
+        int[] pages = null;
+        if (bytes != null) {
+            pages = arena.replace(offHeapValue.pages, bytes.getBuffer(), bytes.size());
+        } else {
+            arena.free(offHeapValue.pages);
+        }
+        if (pages == null) {
+            // Keep the value on the heap
+            offHeapValue.pages = null;
+            values.replace(offHeapValue.key, offHeapValue, value);
+        } else {
+            offHeapValue.pages = pages;
+            offHeapValue.length = bytes.size();
+            offHeapValue.value = null;
+        }
+    }
+
+
+    private ExposedByteArrayOutputStream serialize(Object value) {
+        ExposedByteArrayOutputStream bytes = new ExposedByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(value);
+        } catch (IOException | RuntimeException e) {
+            // Not serializable after all or, when evicted, modified by the
+            // application while it was being serialized. Keep it on the heap.
+            return null;
+        }
+        return bytes;
+    }
+
+
+    private Object deserialize(String name, byte[] data) {
+        Context context = manager.getContext();
+        Loader loader = context.getLoader();
+        Log logger = context.getLogger();
+        ClassLoader classLoader = null;
+        if (loader != null) {
+            classLoader = loader.getClassLoader();
+        }
+        if (classLoader == null) {
+            classLoader = getClass().getClassLoader();
+        }
+        try (ObjectInputStream ois = new CustomObjectInputStream(
+                new ByteArrayInputStream(data), classLoader, logger,
+                manager.getSessionAttributeValueClassNamePattern(),
+                manager.getWarnOnSessionAttributeFilterFailure())) {
+            return ois.readObject();
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            logger.warn(sm.getString("offHeapAttributeMap.readFail", name), t);
+            return null;
+        }
+    }
+
+
+    /**
+     * A value held in the arena. All the fields are guarded by the map the
+     * value belongs to.
+     */
+    final class OffHeapValue {
+
+        private final String key;
+        private int[] pages;
+        private int length;
+        // The deserialized value if it is retained on the heap
+        private Object value;
+
+        private OffHeapValue(String key, int[] pages, int length) {
+            this.key = key;
+            this.pages = pages;
+            this.length = length;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        void evict() {
+            OffHeapAttributeMap.this.evict(this);
+        }
+    }
+
+
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        private ExposedByteArrayOutputStream() {
+            super(1024);
+        }
+
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
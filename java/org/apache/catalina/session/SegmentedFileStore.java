@@ -0,0 +1,901 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.ServletContext;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.Session;
+import org.apache.juli.logging.Log;
+import org.apache.tomcat.util.buf.ByteBufferUtils;
+
+/**
+ * Concrete implementation of the <b>Store</b> interface that appends saved
+ * Sessions to a small number of memory mapped segment files in a configured
+ * directory. An in-memory index maps each session identifier to the location
+ * of its most recent copy so sessions may be loaded, saved and removed
+ * without listing or creating files. Sessions that are saved are still
+ * subject to being expired based on inactivity.
+ * <p>
+ * Each segment starts with a header followed by a sequence of records. A
+ * record is either a copy of a session or a marker noting that a session was
+ * removed. The header of each record contains the session identifier and the
+ * times needed to find expired sessions, so the index is rebuilt when the
+ * Store is started by reading the record headers of each segment, in order,
+ * without deserializing any sessions.
+ * <p>
+ * Segments other than the one currently being appended to are compacted by
+ * the background thread once the proportion of their content that is still
+ * current falls below a configured threshold. The current records are copied
+ * to the end of the log and the segment is deleted. Removal markers are only
+ * copied while an older copy of the session that they hide still exists.
+ */
+public final class SegmentedFileStore extends StoreBase {
+
+    // ----------------------------------------------------- Constants
+
+    private static final String SEGMENT_PREFIX = "sessions-";
+    private static final String SEGMENT_EXT = ".seg";
+
+    // Segment header: magic, version, segment number
+    private static final int MAGIC = 0x544F4D53;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_LENGTH = 12;
+
+    private static final byte RECORD_SAVE = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    // Record header after the length: type, this accessed time, max inactive
+    // interval and the length of the session identifier
+    private static final int RECORD_HEADER_LENGTH = 4 + 1 + 8 + 4 + 2;
+
+
+    // ----------------------------------------------------- Instance Variables
+
+    /**
+     * The pathname of the directory in which the segments are stored.
+     * This may be an absolute pathname, or a relative path that is
+     * resolved against the temporary work directory for this application.
+     */
+    private String directory = ".";
+
+
+    /**
+     * The size, in bytes, of each segment.
+     */
+    private int segmentSize = 64 * 1024 * 1024;
+
+
+    /**
+     * The proportion of a segment that must be current for it not to be
+     * compacted.
+     */
+    private double compactionThreshold = 0.5;
+
+
+    /**
+     * The location of the most recent copy of each session.
+     */
+    private final Map<String,Location> index = new HashMap<>();
+
+
+    /**
+     * The numbers of the segments that hold copies of each session that are
+     * no longer current, one entry per copy. A removal marker is only needed
+     * while the session has such a copy.
+     */
+    private final Map<String,List<Integer>> staleCopies = new HashMap<>();
+
+
+    /**
+     * The location of the most recent removal marker of each removed session
+     * that still has copies that are no longer current. Only this marker
+     * needs to be kept as it follows every copy of the session.
+     */
+    private final Map<String,Location> markers = new HashMap<>();
+
+
+    /**
+     * The open segments, by segment number.
+     */
+    private final TreeMap<Integer,Segment> segments = new TreeMap<>();
+
+
+    /**
+     * The segment to which records are appended.
+     */
+    private Segment active = null;
+
+
+    /**
+     * Name to register for this Store, used for logging.
+     */
+    private static final String storeName = "segmentedFileStore";
+
+
+    /**
+     * Name to register for the background thread.
+     */
+    private static final String threadName = "SegmentedFileStore";
+
+
+    // ------------------------------------------------------------- Properties
+
+    /**
+     * @return The directory path for this Store.
+     */
+    public String getDirectory() {
+        return directory;
+    }
+
+
+    /**
+     * Set the directory path for this Store. Takes effect when the Store is
+     * next started.
+     *
+     * @param path The new directory path
+     */
+    public void setDirectory(String path) {
+        String oldDirectory = this.directory;
+        this.directory = path;
+        support.firePropertyChange("directory", oldDirectory, this.directory);
+    }
+
+
+    /**
+     * @return The size, in bytes, of each segment.
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+
+    /**
+     * Set the size of each segment. A session that is larger than this is
+     * written to a segment of its own.
+     *
+     * @param segmentSize The new segment size in bytes
+     */
+    public void setSegmentSize(int segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+
+    /**
+     * @return The proportion of a segment that must be current for it not
+     *         to be compacted.
+     */
+    public double getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+
+    /**
+     * Set the proportion, between 0 and 1, of a segment that must be current
+     * for it not to be compacted.
+     *
+     * @param compactionThreshold The new threshold
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+
+    /**
+     * @return The number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+
+    /**
+     * @return The thread name for this Store.
+     */
+    public String getThreadName() {
+        return threadName;
+    }
+
+
+    /**
+     * Return the name for this Store, used for logging.
+     */
+    @Override
+    public String getStoreName() {
+        return storeName;
+    }
+
+
+    /**
+     * Return the number of Sessions present in this Store.
+     */
+    @Override
+    public synchronized int getSize() {
+        return index.size();
+    }
+
+
+    // --------------------------------------------------------- Public Methods
+
+    /**
+     * Remove all of the Sessions in this Store.
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void clear() throws IOException {
+        checkOpen();
+        for (Segment segment : segments.values()) {
+            segment.delete();
+        }
+        segments.clear();
+        index.clear();
+        staleCopies.clear();
+        markers.clear();
+        int number = active.number + 1;
+        active = null;
+        roll(number, 0);
+    }
+
+
+    /**
+     * Return an array containing the session identifiers of all Sessions
+     * currently saved in this Store.  If there are no such Sessions, a
+     * zero-length array is returned.
+     */
+    @Override
+    public synchronized String[] keys() {
+        return index.keySet().toArray(new String[index.size()]);
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The keys are found using the times recorded in the index without
+     * loading the sessions.
+     */
+    @Override
+    public synchronized String[] expiredKeys() {
+        long timeNow = System.currentTimeMillis();
+        List<String> result = new ArrayList<>();
+        for (Map.Entry<String,Location> entry : index.entrySet()) {
+            Location location = entry.getValue();
+            if (location.maxInactiveInterval > 0 && location.thisAccessedTime +
+                    location.maxInactiveInterval * 1000L < timeNow) {
+                result.add(entry.getKey());
+            }
+        }
+        return result.toArray(new String[result.size()]);
+    }
+
+
+    /**
+     * Load and return the Session associated with the specified session
+     * identifier from this Store, without removing it.  If there is no
+     * such stored Session, return <code>null</code>.
+     *
+     * @param id Session identifier of the session to load
+     *
+     * @exception ClassNotFoundException if a deserialization error occurs
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public Session load(String id) throws ClassNotFoundException, IOException {
+        byte[] data;
+        synchronized (this) {
+            Location location = index.get(id);
+            if (location == null) {
+                return null;
+            }
+            data = location.segment.readData(location.offset);
+        }
+
+        Context context = getManager().getContext();
+        Log contextLog = context.getLogger();
+
+        if (contextLog.isDebugEnabled()) {
+            contextLog.debug(sm.getString(getStoreName() + ".loading", id));
+        }
+
+        ClassLoader oldThreadContextCL = context.bind(Globals.IS_SECURITY_ENABLED, null);
+
+        try (ObjectInputStream ois = getObjectInputStream(new ByteArrayInputStream(data))) {
+            StandardSession session = (StandardSession) manager.createEmptySession();
+            session.readObjectData(ois);
+            session.setManager(manager);
+            return session;
+        } finally {
+            context.unbind(Globals.IS_SECURITY_ENABLED, oldThreadContextCL);
+        }
+    }
+
+
+    /**
+     * Remove the Session with the specified session identifier from
+     * this Store, if present.  If no such Session is present, this method
+     * takes no action.
+     *
+     * @param id Session identifier of the Session to be removed
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public synchronized void remove(String id) throws IOException {
+        Location previous = index.remove(id);
+        if (previous == null) {
+            return;
+        }
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".removing", id));
+        }
+        previous.segment.liveBytes -= previous.length;
+        addStaleCopy(id, previous.segment);
+        // Record the removal so the session is not restored when the index is
+        // rebuilt
+        RecordOutputStream record = new RecordOutputStream(id);
+        record.writeHeader(RECORD_REMOVE, 0, 0);
+        markers.put(id, append(record.getBuffer(), record.size()));
+    }
+
+
+    /**
+     * Save the specified Session into this Store.  Any previously saved
+     * information for the associated session identifier is replaced.
+     *
+     * @param session Session to be saved
+     *
+     * @exception IOException if an input/output error occurs
+     */
+    @Override
+    public void save(Session session) throws IOException {
+        String id = session.getIdInternal();
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".saving", id));
+        }
+
+        RecordOutputStream record = new RecordOutputStream(id);
+        try (ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(record))) {
+            ((StandardSession) session).writeObjectData(oos);
+        }
+        long thisAccessedTime = session.getThisAccessedTimeInternal();
+        int maxInactiveInterval = session.getMaxInactiveInterval();
+        record.writeHeader(RECORD_SAVE, thisAccessedTime, maxInactiveInterval);
+
+        synchronized (this) {
+            Location location = append(record.getBuffer(), record.size());
+            location.thisAccessedTime = thisAccessedTime;
+            location.maxInactiveInterval = maxInactiveInterval;
+            location.segment.liveBytes += location.length;
+            Location previous = index.put(id, location);
+            if (previous != null) {
+                previous.segment.liveBytes -= previous.length;
+                addStaleCopy(id, previous.segment);
+            }
+            markers.remove(id);
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Once expired sessions have been removed, segments with too little
+     * current content are compacted.
+     */
+    @Override
+    public void processExpires() {
+        super.processExpires();
+
+        if (!getState().isAvailable()) {
+            return;
+        }
+
+        List<Segment> candidates = new ArrayList<>();
+        synchronized (this) {
+            for (Segment segment : segments.values()) {
+                if (segment != active && (segment.liveBytes == 0 || segment.liveBytes <
+                        compactionThreshold * (segment.position - SEGMENT_HEADER_LENGTH))) {
+                    candidates.add(segment);
+                }
+            }
+        }
+        for (Segment segment : candidates) {
+            try {
+                compact(segment);
+            } catch (IOException e) {
+                manager.getContext().getLogger().error(
+                        sm.getString(getStoreName() + ".compactFailed", segment.file), e);
+            }
+        }
+    }
+
+
+    // -------------------------------------------------------- Private Methods
+
+    /**
+     * Copy the current records of a segment to the end of the log and delete
+     * the segment. Removal records are copied unless the session has been
+     * saved again since, or there is no longer any older copy of the session
+     * for them to hide.
+     */
+    private synchronized void compact(Segment segment) throws IOException {
+        if (segments.get(Integer.valueOf(segment.number)) != segment) {
+            // Already compacted or cleared
+            return;
+        }
+
+        if (manager.getContext().getLogger().isDebugEnabled()) {
+            manager.getContext().getLogger().debug(sm.getString(getStoreName() + ".compacting",
+                    segment.file, Long.toString(segment.liveBytes),
+                    Integer.toString(segment.position)));
+        }
+
+        ByteBuffer view = segment.view();
+        int offset = SEGMENT_HEADER_LENGTH;
+        while (offset < segment.position) {
+            int length = view.getInt(offset);
+            byte type = view.get(offset + 4);
+            String id = segment.readId(offset);
+            Location location = index.get(id);
+            boolean copy;
+            if (type == RECORD_SAVE) {
+                copy = location != null && location.segment == segment &&
+                        location.offset == offset;
+                if (!copy) {
+                    removeStaleCopy(id, segment);
+                }
+            } else {
+                // Copies of the session in this segment have already been
+                // dropped as they come before the marker
+                location = markers.get(id);
+                copy = location != null && location.segment == segment &&
+                        location.offset == offset;
+            }
+            if (copy) {
+                byte[] record = new byte[length];
+                view.clear();
+                view.position(offset);
+                view.get(record);
+                Location moved = append(record, length);
+                if (type == RECORD_SAVE) {
+                    moved.segment.liveBytes += length;
+                }
+                location.segment = moved.segment;
+                location.offset = moved.offset;
+            }
+            offset += length;
+        }
+
+        segments.remove(Integer.valueOf(segment.number));
+        segment.delete();
+    }
+
+
+    private void addStaleCopy(String id, Segment segment) {
+        List<Integer> copies = staleCopies.get(id);
+        if (copies == null) {
+            copies = new ArrayList<>(2);
+            staleCopies.put(id, copies);
+        }
+        copies.add(Integer.valueOf(segment.number));
+    }
+
+
+    private void removeStaleCopy(String id, Segment segment) {
+        List<Integer> copies = staleCopies.get(id);
+        if (copies != null) {
+            copies.remove(Integer.valueOf(segment.number));
+            if (copies.isEmpty()) {
+                staleCopies.remove(id);
+                // No longer anything for the marker to hide
+                markers.remove(id);
+            }
+        }
+    }
+
+
+    /**
+     * Append a record to the active segment, starting a new segment if it is
+     * full.
+     *
+     * @return The location of the record. The times are not set.
+     */
+    private Location append(byte[] record, int length) throws IOException {
+        checkOpen();
+        if (active.position + length > active.capacity) {
+            roll(active.number + 1, length);
+        }
+        int offset = active.append(record, length);
+        return new Location(active, offset, length);
+    }
+
+
+    private void checkOpen() throws IOException {
+        if (active == null) {
+            throw new IOException(sm.getString(getStoreName() + ".notStarted"));
+        }
+    }
+
+
+    /**
+     * Create a new segment and make it the active segment.
+     *
+     * @param number       The segment number
+     * @param recordLength The length of the record that will be appended
+     *                     first so a segment large enough can be created
+     */
+    private void roll(int number, int recordLength) throws IOException {
+        int capacity = Math.max(segmentSize, SEGMENT_HEADER_LENGTH + recordLength);
+        Segment segment = new Segment(number, new File(directoryFile(), segmentName(number)));
+        segment.create(capacity);
+        segments.put(Integer.valueOf(number), segment);
+        active = segment;
+    }
+
+
+    /**
+     * Read the segments in the directory, in order, and rebuild the index
+     * from their record headers. Records are always appended to a new
+     * segment so that anything after the last complete record of the
+     * previous segment is never mistaken for a record.
+     */
+    private void open() throws IOException {
+        File dir = directoryFile();
+        String[] files = dir.list();
+        TreeMap<Integer,File> found = new TreeMap<>();
+        if (files != null) {
+            for (String name : files) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_EXT)) {
+                    try {
+                        int number = Integer.parseInt(name.substring(
+                                SEGMENT_PREFIX.length(), name.length() - SEGMENT_EXT.length()));
+                        found.put(Integer.valueOf(number), new File(dir, name));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+
+        int last = 0;
+        for (Map.Entry<Integer,File> entry : found.entrySet()) {
+            Segment segment = new Segment(entry.getKey().intValue(), entry.getValue());
+            if (!segment.open()) {
+                manager.getContext().getLogger().warn(
+                        sm.getString(getStoreName() + ".invalidSegment", entry.getValue()));
+                continue;
+            }
+            segments.put(entry.getKey(), segment);
+            last = segment.number;
+
+            ByteBuffer view = segment.view();
+            int offset = SEGMENT_HEADER_LENGTH;
+            while (offset < segment.position) {
+                int length = view.getInt(offset);
+                String id = segment.readId(offset);
+                if (view.get(offset + 4) == RECORD_SAVE) {
+                    Location location = new Location(segment, offset, length);
+                    location.thisAccessedTime = view.getLong(offset + 5);
+                    location.maxInactiveInterval = view.getInt(offset + 13);
+                    segment.liveBytes += length;
+                    Location previous = index.put(id, location);
+                    if (previous != null) {
+                        previous.segment.liveBytes -= previous.length;
+                        addStaleCopy(id, previous.segment);
+                    }
+                    markers.remove(id);
+                } else {
+                    Location previous = index.remove(id);
+                    if (previous != null) {
+                        previous.segment.liveBytes -= previous.length;
+                        addStaleCopy(id, previous.segment);
+                    }
+                    markers.put(id, new Location(segment, offset, length));
+                }
+                offset += length;
+            }
+        }
+
+        // Markers that no longer hide anything are dropped when their segment
+        // is compacted
+        markers.keySet().retainAll(staleCopies.keySet());
+
+        roll(last + 1, 0);
+    }
+
+
+    private void close() {
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        index.clear();
+        staleCopies.clear();
+        markers.clear();
+        active = null;
+    }
+
+
+    /**
+     * Return a File object representing the pathname to our
+     * segment directory. The directory will be created if it does not
+     * already exist.
+     */
+    private File directoryFile() throws IOException {
+        File file = new File(this.directory);
+        if (!file.isAbsolute()) {
+            Context context = manager.getContext();
+            ServletContext servletContext = context.getServletContext();
+            File work = (File) servletContext.getAttribute(ServletContext.TEMPDIR);
+            file = new File(work, this.directory);
+        }
+        if (!file.isDirectory() && !file.mkdirs() && !file.isDirectory()) {
+            throw new IOException(sm.getString("fileStore.createFailed", file));
+        }
+        return file;
+    }
+
+
+    private static String segmentName(int number) {
+        return SEGMENT_PREFIX + String.format("%010d", Integer.valueOf(number)) + SEGMENT_EXT;
+    }
+
+
+    // --------------------------------------------------------- Lifecycle
+
+    /**
+     * Start this component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#startInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void startInternal() throws LifecycleException {
+        try {
+            open();
+        } catch (IOException e) {
+            close();
+            throw new LifecycleException(e);
+        }
+
+        setState(LifecycleState.STARTING);
+    }
+
+
+    /**
+     * Stop this component and implement the requirements
+     * of {@link org.apache.catalina.util.LifecycleBase#stopInternal()}.
+     *
+     * @exception LifecycleException if this component detects a fatal error
+     *  that prevents this component from being used
+     */
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException {
+
+        setState(LifecycleState.STOPPING);
+
+        close();
+    }
+
+
+    // --------------------------------------------------------- Inner classes
+
+    /**
+     * The location of a record in a segment together with the times from its
+     * header.
+     */
+    private static final class Location {
+        private Segment segment;
+        private int offset;
+        private final int length;
+        private long thisAccessedTime;
+        private int maxInactiveInterval;
+
+        private Location(Segment segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+
+    /**
+     * A memory mapped segment file. All access is guarded by the Store.
+     */
+    private static final class Segment {
+        private final int number;
+        private final File file;
+        private MappedByteBuffer buffer;
+        private int capacity;
+        // The offset of the end of the last complete record
+        private int position;
+        // The number of bytes of records that are the current copy of a
+        // session
+        private long liveBytes;
+
+        private Segment(int number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+
+        private void create(int capacity) throws IOException {
+            // Never re-use the content of an existing file
+            file.delete();
+            map(capacity);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, number);
+            position = SEGMENT_HEADER_LENGTH;
+        }
+
+        /**
+         * Map an existing segment and find the end of its records.
+         *
+         * @return <code>false</code> if the file is not a valid segment
+         */
+        private boolean open() throws IOException {
+            long length = file.length();
+            if (length < SEGMENT_HEADER_LENGTH || length > Integer.MAX_VALUE) {
+                return false;
+            }
+            map((int) length);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION ||
+                    buffer.getInt(8) != number) {
+                close();
+                return false;
+            }
+            int offset = SEGMENT_HEADER_LENGTH;
+            while (offset <= capacity - RECORD_HEADER_LENGTH) {
+                // The length is written last so a record that was not
+                // completely written has a length of zero
+                int recordLength = buffer.getInt(offset);
+                if (recordLength < RECORD_HEADER_LENGTH || recordLength > capacity - offset) {
+                    break;
+                }
+                byte type = buffer.get(offset + 4);
+                int idLength = buffer.getShort(offset + 17) & 0xFFFF;
+                if ((type != RECORD_SAVE && type != RECORD_REMOVE) ||
+                        RECORD_HEADER_LENGTH + idLength > recordLength) {
+                    break;
+                }
+                offset += recordLength;
+            }
+            position = offset;
+            return true;
+        }
+
+        private void map(int capacity) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                if (raf.length() < capacity) {
+                    raf.setLength(capacity);
+                }
+                // The mapping remains valid after the file is closed
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            }
+            this.capacity = capacity;
+        }
+
+        /**
+         * @return A view of the segment that may be positioned independently
+         */
+        private ByteBuffer view() {
+            return buffer.duplicate();
+        }
+
+        private int append(byte[] record, int length) {
+            int offset = position;
+            ByteBuffer view = view();
+            view.position(offset + 4);
+            view.put(record, 4, length - 4);
+            // Write the length last so an incomplete record is never read
+            buffer.putInt(offset, length);
+            position += length;
+            return offset;
+        }
+
+        private String readId(int offset) {
+            ByteBuffer view = view();
+            int idLength = view.getShort(offset + 17) & 0xFFFF;
+            byte[] id = new byte[idLength];
+            view.position(offset + RECORD_HEADER_LENGTH);
+            view.get(id);
+            return new String(id, StandardCharsets.UTF_8);
+        }
+
+        private byte[] readData(int offset) {
+            ByteBuffer view = view();
+            int length = view.getInt(offset);
+            int dataOffset = RECORD_HEADER_LENGTH + (view.getShort(offset + 17) & 0xFFFF);
+            byte[] data = new byte[length - dataOffset];
+            view.position(offset + dataOffset);
+            view.get(data);
+            return data;
+        }
+
+        private void close() {
+            if (buffer != null) {
+                buffer.force();
+                ByteBufferUtils.cleanDirectBuffer(buffer);
+                buffer = null;
+            }
+        }
+
+        private void delete() {
+            if (buffer != null) {
+                ByteBufferUtils.cleanDirectBuffer(buffer);
+                buffer = null;
+            }
+            file.delete();
+        }
+    }
+
+
+    /**
+     * Builds a record in memory. Space for the record header is reserved at
+     * the start so that a session can be serialized directly after it.
+     */
+    private static final class RecordOutputStream extends ByteArrayOutputStream {
+
+        private final byte[] id;
+
+        private RecordOutputStream(String id) throws IOException {
+            super(1024);
+            this.id = id.getBytes(StandardCharsets.UTF_8);
+            if (this.id.length > 0xFFFF) {
+                throw new IOException(sm.getString("segmentedFileStore.idTooLong"));
+            }
+            write(new byte[RECORD_HEADER_LENGTH]);
+            write(this.id);
+        }
+
+        private void writeHeader(byte type, long thisAccessedTime, int maxInactiveInterval) {
+            ByteBuffer header = ByteBuffer.wrap(buf);
+            header.putInt(count);
+            header.put(type);
+            header.putLong(thisAccessedTime);
+            header.putInt(maxInactiveInterval);
+            header.putShort((short) id.length);
+        }
+
+        private byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
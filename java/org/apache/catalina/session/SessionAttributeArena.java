@@ -0,0 +1,238 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Fixed size storage for serialized session attributes outside of the Java
+ * heap, either in direct memory or in a memory mapped file. The storage is
+ * divided into pages and each value is stored in as many pages as it needs.
+ * The pages of a value need not be contiguous so there is no fragmentation,
+ * at the cost of up to one partially used page per value.
+ * <p>
+ * The file, if any, is only used as backing storage while the arena is open.
+ * It is deleted when the arena is closed.
+ */
+final class SessionAttributeArena {
+
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    private final int pageSize;
+    private final int pagesPerRegion;
+    private final ByteBuffer[] regions;
+    private final File file;
+
+    // Stack of free pages
+    private final int[] freePages;
+    private int freeCount;
+
+
+    /**
+     * @param size     The size of the arena in bytes, rounded down to a
+     *                 multiple of the page size
+     * @param pageSize The size of each page in bytes
+     * @param file     The file in which to store the pages or
+     *                 <code>null</code> to use direct memory
+     *
+     * @throws IOException If the file cannot be created or mapped
+     */
+    SessionAttributeArena(long size, int pageSize, File file) throws IOException {
+        long pageCount = size / pageSize;
+        if (pageCount < 1 || pageCount > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(Long.toString(size));
+        }
+        this.pageSize = pageSize;
+        this.pagesPerRegion = MAX_REGION_SIZE / pageSize;
+        this.file = file;
+        int regionCount = (int) ((pageCount + pagesPerRegion - 1) / pagesPerRegion);
+        regions = new ByteBuffer[regionCount];
+        if (file == null) {
+            for (int i = 0; i < regionCount; i++) {
+                regions[i] = ByteBuffer.allocateDirect(regionSize(i, pageCount));
+            }
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(pageCount * pageSize);
+                FileChannel channel = raf.getChannel();
+                for (int i = 0; i < regionCount; i++) {
+                    // The mapping remains valid after the channel is closed
+                    regions[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                            (long) i * pagesPerRegion * pageSize, regionSize(i, pageCount));
+                }
+            }
+        }
+        freePages = new int[(int) pageCount];
+        // Allocate pages from the start of the arena first
+        for (int i = 0; i < freePages.length; i++) {
+            freePages[i] = freePages.length - 1 - i;
+        }
+        freeCount = freePages.length;
+    }
+
+
+    private int regionSize(int region, long pageCount) {
+        long pages = Math.min(pagesPerRegion, pageCount - (long) region * pagesPerRegion);
+        return (int) (pages * pageSize);
+    }
+
+
+    /**
+     * @return The size of the arena in bytes
+     */
+    long getCapacity() {
+        return (long) freePages.length * pageSize;
+    }
+
+
+    /**
+     * @return The number of bytes in pages that hold values
+     */
+    synchronized long getUsed() {
+        return (long) (freePages.length - freeCount) * pageSize;
+    }
+
+
+    /**
+     * Store a value.
+     *
+     * @param data   The bytes of the value
+     * @param length The number of bytes to store
+     *
+     * @return The pages holding the value or <code>null</code> if there are
+     *         not enough free pages
+     */
+    int[] store(byte[] data, int length) {
+        int[] pages = allocate((length + pageSize - 1) / pageSize);
+        if (pages != null) {
+            write(pages, data, length);
+        }
+        return pages;
+    }
+
+
+    /**
+     * Replace a value, re-using its pages if it still fits.
+     *
+     * @param pages  The pages holding the current value
+     * @param data   The bytes of the new value
+     * @param length The number of bytes to store
+     *
+     * @return The pages holding the new value or <code>null</code> if there
+     *         are not enough free pages, in which case the current pages have
+     *         been freed
+     */
+    int[] replace(int[] pages, byte[] data, int length) {
+        int required = (length + pageSize - 1) / pageSize;
+        if (required == pages.length) {
+            write(pages, data, length);
+            return pages;
+        }
+        free(pages);
+        return store(data, length);
+    }
+
+
+    /**
+     * Read a value.
+     *
+     * @param pages  The pages holding the value
+     * @param length The length of the value in bytes
+     *
+     * @return The bytes of the value
+     */
+    byte[] read(int[] pages, int length) {
+        byte[] data = new byte[length];
+        ByteBuffer[] views = new ByteBuffer[regions.length];
+        int pos = 0;
+        for (int page : pages) {
+            int len = Math.min(pageSize, length - pos);
+            view(views, page).get(data, pos, len);
+            pos += len;
+        }
+        return data;
+    }
+
+
+    /**
+     * Return the pages of a value that is no longer required.
+     *
+     * @param pages The pages to free
+     */
+    synchronized void free(int[] pages) {
+        for (int page : pages) {
+            freePages[freeCount++] = page;
+        }
+    }
+
+
+    /**
+     * Release the storage. For a mapped file, the file is deleted although
+     * the storage is only released once the mappings have been garbage
+     * collected.
+     */
+    void close() {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+
+    private synchronized int[] allocate(int count) {
+        if (count > freeCount) {
+            return null;
+        }
+        int[] pages = new int[count];
+        for (int i = 0; i < count; i++) {
+            pages[i] = freePages[--freeCount];
+        }
+        return pages;
+    }
+
+
+    private void write(int[] pages, byte[] data, int length) {
+        ByteBuffer[] views = new ByteBuffer[regions.length];
+        int pos = 0;
+        for (int page : pages) {
+            int len = Math.min(pageSize, length - pos);
+            view(views, page).put(data, pos, len);
+            pos += len;
+        }
+    }
+
+
+    /*
+     * Positions a view of the region containing the page at the start of the
+     * page. Each caller uses its own views so that the regions may be used
+     * concurrently.
+     */
+    private ByteBuffer view(ByteBuffer[] views, int page) {
+        int region = page / pagesPerRegion;
+        ByteBuffer view = views[region];
+        if (view == null) {
+            view = regions[region].duplicate();
+            views[region] = view;
+        }
+        view.clear();
+        view.position((page % pagesPerRegion) * pageSize);
+        return view;
+    }
+}
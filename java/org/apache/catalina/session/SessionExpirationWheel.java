@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.Session;
+
+/**
+ * A hashed timing wheel that indexes sessions by the time at which they should
+ * next be checked for expiration. Each slot holds the sessions with a check
+ * time in one tick. The slot for a time is <code>(time / tick) % slots</code>
+ * so a slot may also hold sessions for later revolutions of the wheel. These
+ * are skipped until their check time is reached.
+ * <p>
+ * Sessions are scheduled when they are added to the manager, rather than each
+ * time they are accessed. When a session is due it is checked and, if it has
+ * been accessed since it was scheduled, it is scheduled again for the time it
+ * could next expire. Only the sessions that could have expired, plus those in
+ * the same slots for later revolutions, are examined when expired sessions are
+ * processed.
+ */
+final class SessionExpirationWheel {
+
+    private final long tick;
+    private final int mask;
+    private final Set<Session>[] slots;
+    private final ConcurrentHashMap<Session,Long> checkTimes = new ConcurrentHashMap<>();
+
+    // The tick up to which sessions have been polled. The current tick is
+    // always polled again since sessions may be added to it.
+    private long pollTick = Long.MIN_VALUE;
+
+
+    /**
+     * @param slotCount The number of slots, rounded up to a power of two
+     * @param tick      The time covered by each slot, in milliseconds
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    SessionExpirationWheel(int slotCount, long tick) {
+        int size = 1;
+        while (size < slotCount) {
+            size <<= 1;
+        }
+        this.tick = tick;
+        this.mask = size - 1;
+        slots = new Set[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = Collections.newSetFromMap(new ConcurrentHashMap<Session,Boolean>());
+        }
+    }
+
+
+    /**
+     * @return The time, in milliseconds, of one revolution of the wheel
+     */
+    long getSpan() {
+        return tick * slots.length;
+    }
+
+
+    /**
+     * @return The number of scheduled sessions
+     */
+    int size() {
+        return checkTimes.size();
+    }
+
+
+    /**
+     * Schedule a session to be checked at the given time, replacing any
+     * previous schedule for the session.
+     *
+     * @param session   The session
+     * @param checkTime The time, in milliseconds since the epoch, at which
+     *                  the session should be checked
+     */
+    void schedule(Session session, long checkTime) {
+        Long previous = checkTimes.put(session, Long.valueOf(checkTime));
+        Set<Session> slot = slot(checkTime);
+        if (previous != null) {
+            Set<Session> previousSlot = slot(previous.longValue());
+            if (previousSlot != slot) {
+                previousSlot.remove(session);
+            }
+        }
+        slot.add(session);
+    }
+
+
+    /**
+     * Remove a session from the wheel.
+     *
+     * @param session The session
+     */
+    void remove(Session session) {
+        Long checkTime = checkTimes.remove(session);
+        if (checkTime != null) {
+            slot(checkTime.longValue()).remove(session);
+        }
+    }
+
+
+    /**
+     * Remove the sessions with a check time at or before the given time from
+     * the wheel.
+     *
+     * @param timeNow The current time, in milliseconds since the epoch
+     * @param due     The list to which the sessions that are due are added
+     */
+    synchronized void poll(long timeNow, List<Session> due) {
+        long currentTick = timeNow / tick;
+        long firstTick = pollTick;
+        if (firstTick == Long.MIN_VALUE || firstTick > currentTick ||
+                currentTick - firstTick >= slots.length) {
+            // Never polled, the clock moved back or a full revolution has
+            // passed. Poll every slot once.
+            firstTick = currentTick - slots.length + 1;
+        }
+        for (long t = firstTick; t <= currentTick; t++) {
+            int index = (int) (t & mask);
+            Iterator<Session> iter = slots[index].iterator();
+            while (iter.hasNext()) {
+                Session session = iter.next();
+                Long checkTime = checkTimes.get(session);
+                if (checkTime == null || slotIndex(checkTime.longValue()) != index) {
+                    // Removed or moved by a concurrent update
+                    iter.remove();
+                } else if (checkTime.longValue() <= timeNow &&
+                        checkTimes.remove(session, checkTime)) {
+                    iter.remove();
+                    due.add(session);
+                }
+            }
+        }
+        pollTick = currentTick;
+    }
+
+
+    private Set<Session> slot(long checkTime) {
+        return slots[slotIndex(checkTime)];
+    }
+
+
+    private int slotIndex(long checkTime) {
+        return (int) ((checkTime / tick) & mask);
+    }
+}
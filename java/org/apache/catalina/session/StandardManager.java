@@ -110,6 +110,40 @@ public class StandardManager extends ManagerBase {
     protected String pathname = "SESSIONS.ser";
 
 
+    /**
+     * The size, in bytes, of the storage outside of the Java heap for the
+     * values of session attributes. Zero, the default, disables off-heap
+     * storage.
+     */
+    private long attributeArenaSize = 0;
+
+
+    /**
+     * The file in which the off-heap storage for session attributes is mapped
+     * or <code>null</code> to use direct memory. If this pathname is relative,
+     * it will be resolved against the temporary working directory provided by
+     * our context.
+     */
+    private String attributeArenaFile = null;
+
+
+    /**
+     * The minimum serialized size, in bytes, of an attribute value for it to
+     * be stored off-heap.
+     */
+    private int offHeapAttributeMinSize = 1024;
+
+
+    /**
+     * The off-heap attribute values, for all the sessions of this manager,
+     * that are retained on the heap after they have been read.
+     */
+    private final HotAttributeCache hotAttributes = new HotAttributeCache(1024 * 1024);
+
+
+    private volatile SessionAttributeArena attributeArena = null;
+
+
     // ------------------------------------------------------------- Properties
 
     @Override
@@ -139,6 +173,118 @@ public class StandardManager extends ManagerBase {
     }
 
 
+    /**
+     * @return The size, in bytes, of the off-heap storage for session
+     *         attribute values. Zero if off-heap storage is disabled.
+     */
+    public long getAttributeArenaSize() {
+        return attributeArenaSize;
+    }
+
+
+    /**
+     * Set the size, in bytes, of the storage outside of the Java heap for
+     * session attribute values. Large, serializable values are serialized into
+     * this storage when they are set and deserialized when they are read,
+     * reducing the size of the heap. Zero disables off-heap storage. Changes
+     * take effect when this manager is next started.
+     *
+     * @param attributeArenaSize The size of the off-heap storage in bytes
+     */
+    public void setAttributeArenaSize(long attributeArenaSize) {
+        this.attributeArenaSize = attributeArenaSize;
+    }
+
+
+    /**
+     * @return The pathname of the file in which off-heap storage for session
+     *         attribute values is mapped or <code>null</code> if direct
+     *         memory is used.
+     */
+    public String getAttributeArenaFile() {
+        return attributeArenaFile;
+    }
+
+
+    /**
+     * Set the pathname of the file in which the off-heap storage for session
+     * attribute values is mapped. The file is created when this manager
+     * starts and deleted when it stops. If not set, direct memory is used.
+     *
+     * @param attributeArenaFile The pathname of the file
+     */
+    public void setAttributeArenaFile(String attributeArenaFile) {
+        this.attributeArenaFile = attributeArenaFile;
+    }
+
+
+    /**
+     * @return The minimum serialized size, in bytes, for an attribute value
+     *         to be stored off-heap.
+     */
+    public int getOffHeapAttributeMinSize() {
+        return offHeapAttributeMinSize;
+    }
+
+
+    /**
+     * Set the minimum serialized size, in bytes, for an attribute value to be
+     * stored off-heap. Smaller values are kept on the heap.
+     *
+     * @param offHeapAttributeMinSize The minimum size in bytes
+     */
+    public void setOffHeapAttributeMinSize(int offHeapAttributeMinSize) {
+        this.offHeapAttributeMinSize = offHeapAttributeMinSize;
+    }
+
+
+    /**
+     * @return The maximum total serialized size, in bytes, of the off-heap
+     *         attribute values, across all sessions, that are retained on the
+     *         heap after they have been read.
+     */
+    public long getHotAttributeCacheSize() {
+        return hotAttributes.getMaxSize();
+    }
+
+
+    /**
+     * Set the maximum total serialized size, in bytes, of the off-heap
+     * attribute values, across all sessions, that are retained on the heap
+     * after they have been read. Values are not retained when they are set.
+     * When a value is no longer retained it is serialized again so that any
+     * changes made to it while it was retained are not lost.
+     *
+     * @param hotAttributeCacheSize The maximum size in bytes
+     */
+    public void setHotAttributeCacheSize(long hotAttributeCacheSize) {
+        hotAttributes.setMaxSize(hotAttributeCacheSize);
+        hotAttributes.evict();
+    }
+
+
+    /**
+     * @return The total serialized size, in bytes, of the off-heap attribute
+     *         values that are currently retained on the heap.
+     */
+    public long getHotAttributeCacheUsed() {
+        return hotAttributes.getSize();
+    }
+
+
+    /**
+     * @return The number of bytes of off-heap storage that hold session
+     *         attribute values.
+     */
+    public long getAttributeArenaUsed() {
+        SessionAttributeArena arena = attributeArena;
+        if (arena == null) {
+            return 0;
+        }
+        return arena.getUsed();
+    }
+
+
     // --------------------------------------------------------- Public Methods
 
     @Override
@@ -217,6 +363,7 @@ public class StandardManager extends ManagerBase {
                         session.readObjectData(ois);
                         session.setManager(this);
                         sessions.put(session.getIdInternal(), session);
+                        scheduleExpiration(session);
                         session.activate();
                         if (!session.isValidInternal()) {
                             // If session is already invalid,
@@ -344,6 +491,18 @@ public class StandardManager extends ManagerBase {
     @Override
     protected synchronized void startInternal() throws LifecycleException {
 
+        if (attributeArenaSize > 0) {
+            File file = null;
+            if (attributeArenaFile != null && attributeArenaFile.length() > 0) {
+                file = resolve(attributeArenaFile);
+            }
+            try {
+                attributeArena = new SessionAttributeArena(attributeArenaSize, 1024, file);
+            } catch (IOException | RuntimeException e) {
+                log.error(sm.getString("standardManager.attributeArenaFail"), e);
+            }
+        }
+
         super.startInternal();
 
         // Load unloaded sessions, if any
@@ -401,6 +560,28 @@ public class StandardManager extends ManagerBase {
 
         // Require a new random number generator if we are restarted
         super.stopInternal();
+
+        if (attributeArena != null) {
+            attributeArena.close();
+            attributeArena = null;
+        }
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If off-heap storage of attribute values is enabled, the session stores
+     * its attributes in the off-heap storage.
+     */
+    @Override
+    protected StandardSession getNewSession() {
+        StandardSession session = super.getNewSession();
+        SessionAttributeArena arena = attributeArena;
+        if (arena != null) {
+            session.attributes = new OffHeapAttributeMap(this, arena, hotAttributes);
+        }
+        return session;
     }
 
 
@@ -415,6 +596,11 @@ public class StandardManager extends ManagerBase {
         if (pathname == null || pathname.length() == 0) {
             return null;
         }
+        return resolve(pathname);
+    }
+
+
+    private File resolve(String pathname) {
         File file = new File(pathname);
         if (!file.isAbsolute()) {
             Context context = getContext();
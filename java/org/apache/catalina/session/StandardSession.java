@@ -583,6 +583,19 @@ public class StandardSession implements HttpSession, Session, Serializable {
     @Override
     public void setMaxInactiveInterval(int interval) {
         this.maxInactiveInterval = interval;
+        scheduleExpiration();
+    }
+
+
+    /**
+     * Notify the Manager that the time at which this session could expire has
+     * changed. Sub-classes that change the maximum inactive interval without
+     * calling {@link #setMaxInactiveInterval(int)} must call this method.
+     */
+    protected void scheduleExpiration() {
+        if (isValid && id != null && manager instanceof ManagerBase) {
+            ((ManagerBase) manager).scheduleExpiration(this);
+        }
     }
 
 
@@ -63,6 +63,7 @@ import org.apache.catalina.WebResourceRoot;
 import org.apache.catalina.Wrapper;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.core.StandardWrapper;
 import org.apache.catalina.util.ContextName;
 import org.apache.catalina.util.Introspection;
 import org.apache.juli.logging.Log;
@@ -1364,6 +1365,11 @@ public class ContextConfig implements LifecycleListener {
                             multipartdef.getLocation()));
                 }
             }
+            if (servlet.getMultipartStreaming() != null &&
+                    wrapper instanceof StandardWrapper) {
+                ((StandardWrapper) wrapper).setMultipartStreaming(
+                        servlet.getMultipartStreaming().booleanValue());
+            }
             if (servlet.getAsyncSupported() != null) {
                 wrapper.setAsyncSupported(
                         servlet.getAsyncSupported().booleanValue());
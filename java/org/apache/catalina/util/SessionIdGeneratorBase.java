@@ -209,9 +209,13 @@ public abstract class SessionIdGeneratorBase extends LifecycleBase
 
     /**
      * Create a new random number generator instance we should use for
-     * generating session identifiers.
+     * generating session identifiers. The instance is configured using
+     * {@link #getSecureRandomClass()}, {@link #getSecureRandomAlgorithm()} and
+     * {@link #getSecureRandomProvider()} and has been seeded.
+     *
+     * @return The new random number generator
      */
-    private SecureRandom createSecureRandom() {
+    protected SecureRandom createSecureRandom() {
 
         SecureRandom result = null;
 
@@ -0,0 +1,267 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.util;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A session ID generator designed for high concurrency. Rather than sharing a
+ * pool of {@link SecureRandom} instances that grows under load, a fixed number
+ * of stripes, each with its own {@link SecureRandom}, are created and seeded
+ * when the generator starts. Each thread always uses the same stripe. Each
+ * stripe obtains random bytes from its {@link SecureRandom} in bulk and hands
+ * them out as required, clearing them once they have been used. The random
+ * bytes are encoded using either upper case hexadecimal, as
+ * {@link StandardSessionIdGenerator} does, or the URL safe variant of Base64
+ * without padding, which produces shorter IDs.
+ */
+public class StripedSessionIdGenerator extends SessionIdGeneratorBase {
+
+    private static final Log log = LogFactory.getLog(StripedSessionIdGenerator.class);
+    private static final StringManager sm = StringManager.getManager(StripedSessionIdGenerator.class);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final char[] BASE64URL =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+
+    private int stripeCount = 0;
+
+    private int prefetchSize = 1024;
+
+    private boolean base64 = false;
+
+    private volatile Stripe[] stripes = null;
+
+
+    /**
+     * @return The number of stripes or zero if the number is based on the
+     *         number of available processors.
+     */
+    public int getStripeCount() {
+        return stripeCount;
+    }
+
+
+    /**
+     * Set the number of stripes, each of which uses its own
+     * {@link SecureRandom}. The number is rounded up to a power of two. Takes
+     * effect when the generator is next started.
+     *
+     * @param stripeCount The number of stripes or zero to use the number of
+     *                    available processors
+     */
+    public void setStripeCount(int stripeCount) {
+        this.stripeCount = stripeCount;
+    }
+
+
+    /**
+     * @return The number of random bytes each stripe obtains at a time.
+     */
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+
+    /**
+     * Set the number of random bytes each stripe obtains from its
+     * {@link SecureRandom} at a time. Takes effect when the generator is next
+     * started.
+     *
+     * @param prefetchSize The number of bytes
+     */
+    public void setPrefetchSize(int prefetchSize) {
+        this.prefetchSize = prefetchSize;
+    }
+
+
+    /**
+     * @return The encoding used for the random part of session IDs, either
+     *         <code>hex</code> or <code>base64url</code>.
+     */
+    public String getEncoding() {
+        return base64 ? "base64url" : "hex";
+    }
+
+
+    /**
+     * Set the encoding used for the random part of session IDs.
+     *
+     * @param encoding Either <code>hex</code> or <code>base64url</code>
+     */
+    public void setEncoding(String encoding) {
+        if ("hex".equalsIgnoreCase(encoding)) {
+            base64 = false;
+        } else if ("base64url".equalsIgnoreCase(encoding)) {
+            base64 = true;
+        } else {
+            throw new IllegalArgumentException(
+                    sm.getString("stripedSessionIdGenerator.invalidEncoding", encoding));
+        }
+    }
+
+
+    @Override
+    public String generateSessionId(String route) {
+
+        byte random[] = new byte[getSessionIdLength()];
+        getRandomBytes(random);
+
+        char[] encoded = base64 ? encodeBase64Url(random) : encodeHex(random);
+
+        // Start with enough space for the ID and medium route size
+        StringBuilder buffer = new StringBuilder(encoded.length + 20);
+        buffer.append(encoded);
+
+        if (route != null && route.length() > 0) {
+            buffer.append('.').append(route);
+        } else {
+            String jvmRoute = getJvmRoute();
+            if (jvmRoute != null && jvmRoute.length() > 0) {
+                buffer.append('.').append(jvmRoute);
+            }
+        }
+
+        return buffer.toString();
+    }
+
+
+    @Override
+    protected void getRandomBytes(byte[] bytes) {
+        Stripe[] stripes = this.stripes;
+        if (stripes == null) {
+            stripes = createStripes();
+        }
+        stripes[(int) (Thread.currentThread().getId() & (stripes.length - 1))].nextBytes(bytes);
+    }
+
+
+    private synchronized Stripe[] createStripes() {
+        Stripe[] result = stripes;
+        if (result != null) {
+            return result;
+        }
+        int count = stripeCount > 0 ? stripeCount : Runtime.getRuntime().availableProcessors();
+        int size = 1;
+        while (size < count) {
+            size <<= 1;
+        }
+        int bufferSize = Math.max(prefetchSize, 1);
+        long t1 = System.currentTimeMillis();
+        result = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            result[i] = new Stripe(createSecureRandom(), bufferSize);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("stripedSessionIdGenerator.stripesCreated",
+                    Integer.valueOf(size), Long.valueOf(System.currentTimeMillis() - t1)));
+        }
+        stripes = result;
+        return result;
+    }
+
+
+    static char[] encodeHex(byte[] bytes) {
+        char[] result = new char[bytes.length * 2];
+        int pos = 0;
+        for (byte b : bytes) {
+            result[pos++] = HEX[(b >> 4) & 0x0F];
+            result[pos++] = HEX[b & 0x0F];
+        }
+        return result;
+    }
+
+
+    static char[] encodeBase64Url(byte[] bytes) {
+        char[] result = new char[(bytes.length * 8 + 5) / 6];
+        int pos = 0;
+        int i = 0;
+        int whole = bytes.length - bytes.length % 3;
+        for (; i < whole; i += 3) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | (bytes[i + 2] & 0xFF);
+            result[pos++] = BASE64URL[(bits >> 18) & 0x3F];
+            result[pos++] = BASE64URL[(bits >> 12) & 0x3F];
+            result[pos++] = BASE64URL[(bits >> 6) & 0x3F];
+            result[pos++] = BASE64URL[bits & 0x3F];
+        }
+        int remaining = bytes.length - whole;
+        if (remaining == 1) {
+            int bits = (bytes[i] & 0xFF) << 16;
+            result[pos++] = BASE64URL[(bits >> 18) & 0x3F];
+            result[pos++] = BASE64URL[(bits >> 12) & 0x3F];
+        } else if (remaining == 2) {
+            int bits = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8;
+            result[pos++] = BASE64URL[(bits >> 18) & 0x3F];
+            result[pos++] = BASE64URL[(bits >> 12) & 0x3F];
+            result[pos++] = BASE64URL[(bits >> 6) & 0x3F];
+        }
+        return result;
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        // Create and seed all the SecureRandom instances now rather than
+        // when the first session is created
+        createStripes();
+        super.startInternal();
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        super.stopInternal();
+        stripes = null;
+    }
+
+
+    private static final class Stripe {
+
+        private final SecureRandom random;
+        private final byte[] buffer;
+        private int pos;
+
+        private Stripe(SecureRandom random, int bufferSize) {
+            this.random = random;
+            this.buffer = new byte[bufferSize];
+            this.pos = bufferSize;
+        }
+
+        private synchronized void nextBytes(byte[] bytes) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                if (pos == buffer.length) {
+                    random.nextBytes(buffer);
+                    pos = 0;
+                }
+                int len = Math.min(bytes.length - offset, buffer.length - pos);
+                System.arraycopy(buffer, pos, bytes, offset, len);
+                // Bytes that have been used must not remain in memory
+                Arrays.fill(buffer, pos, pos + len, (byte) 0);
+                pos += len;
+                offset += len;
+            }
+        }
+    }
+}
@@ -25,9 +25,11 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -476,6 +478,16 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
      */
     private boolean tlsAttributeRequired = false;
 
+    /**
+     * The format of the log entries. Either <code>text</code> for entries
+     * formatted as described by the pattern or <code>json</code> for one JSON
+     * object per entry with a typed field for each replacement in the pattern.
+     */
+    private String outputFormat = TEXT_OUTPUT_FORMAT;
+
+    private static final String TEXT_OUTPUT_FORMAT = "text";
+    private static final String JSON_OUTPUT_FORMAT = "json";
+
 
     // ------------------------------------------------------------- Properties
 
@@ -537,6 +549,46 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         logElements = createLogElements();
     }
 
+    /**
+     * @return the format of the log entries, <code>text</code> or
+     *         <code>json</code>.
+     */
+    public String getOutputFormat() {
+        return outputFormat;
+    }
+
+
+    /**
+     * Set the format of the log entries. With <code>text</code>, the default,
+     * each entry is formatted as described by the pattern. With
+     * <code>json</code> each entry is a JSON object with one field for each
+     * replacement in the pattern, using numbers for times, durations, sizes,
+     * ports and status codes, and the constant text in the pattern is ignored.
+     *
+     * @param outputFormat The format of the log entries
+     */
+    public void setOutputFormat(String outputFormat) {
+        if (TEXT_OUTPUT_FORMAT.equalsIgnoreCase(outputFormat)) {
+            this.outputFormat = TEXT_OUTPUT_FORMAT;
+        } else if (JSON_OUTPUT_FORMAT.equalsIgnoreCase(outputFormat)) {
+            this.outputFormat = JSON_OUTPUT_FORMAT;
+        } else {
+            log.error(sm.getString("accessLogValve.invalidOutputFormat", outputFormat));
+            return;
+        }
+        if (pattern != null) {
+            logElements = createLogElements();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if log entries are written as structured
+     *         records rather than as text formatted by the pattern.
+     */
+    protected boolean isStructured() {
+        return JSON_OUTPUT_FORMAT.equals(outputFormat);
+    }
+
     /**
      * Return whether the attribute name to look for when
      * performing conditional logging. If null, every
@@ -772,6 +824,37 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
 
     }
 
+    /**
+     * An AccessLogElement that can also write its value as a typed field of a
+     * structured log entry. Elements that do not implement this interface
+     * have their text written as a string field.
+     */
+    protected interface StructuredAccessLogElement extends AccessLogElement {
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time);
+    }
+
+    /**
+     * Receives the value of a field of a structured log entry. Exactly one
+     * method is called for each field.
+     */
+    protected interface AccessLogFieldWriter {
+        public void writeNull();
+
+        public void writeLong(long value);
+
+        /**
+         * Write the decimal number <code>unscaledValue / 10^scale</code>
+         * without loss of precision.
+         *
+         * @param unscaledValue The value without the decimal point
+         * @param scale         The number of digits after the decimal point
+         */
+        public void writeDecimal(long unscaledValue, int scale);
+
+        public void writeString(CharSequence value);
+    }
+
     /**
      * write thread name - %I
      */
@@ -911,7 +994,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write date and time, in configurable format (default CLF) - %t or %{format}t
      */
-    protected class DateAndTimeElement implements AccessLogElement {
+    protected class DateAndTimeElement implements StructuredAccessLogElement {
 
         /**
          * Format prefix specifying request start time
@@ -1079,6 +1162,32 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 break;
             }
         }
+
+        /**
+         * Writes the timestamp as a number. Seconds since the epoch for
+         * <code>sec</code>, the millisecond part for <code>msec_frac</code>
+         * and otherwise milliseconds since the epoch, since formatting the
+         * timestamp is left to whatever reads the log.
+         */
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            long timestamp = date.getTime();
+            if (usesBegin) {
+                timestamp -= time;
+            }
+            switch (type) {
+            case SEC:
+                out.writeLong(timestamp / 1000);
+                break;
+            case MSEC_FRAC:
+                out.writeLong(timestamp % 1000);
+                break;
+            default:
+                out.writeLong(timestamp);
+                break;
+            }
+        }
     }
 
     /**
@@ -1113,7 +1222,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write HTTP status code of the response - %s
      */
-    protected static class HttpStatusCodeElement implements AccessLogElement {
+    protected static class HttpStatusCodeElement implements StructuredAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1131,12 +1240,22 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append('-');
             }
         }
+
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            if (response != null) {
+                out.writeLong(response.getStatus());
+            } else {
+                out.writeNull();
+            }
+        }
     }
 
     /**
      * write local or remote port for request connection - %p and %{xxx}p
      */
-    protected class PortElement implements AccessLogElement {
+    protected class PortElement implements StructuredAccessLogElement {
 
         /**
          * Type of port to log
@@ -1183,12 +1302,32 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 }
             }
         }
+
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            if (requestAttributesEnabled && portType == PortType.LOCAL) {
+                Object port = request.getAttribute(SERVER_PORT_ATTRIBUTE);
+                if (port instanceof Number) {
+                    out.writeLong(((Number) port).longValue());
+                    return;
+                } else if (port != null) {
+                    out.writeString(port.toString());
+                    return;
+                }
+            }
+            if (portType == PortType.LOCAL) {
+                out.writeLong(request.getServerPort());
+            } else {
+                out.writeLong(request.getRemotePort());
+            }
+        }
     }
 
     /**
      * write bytes sent, excluding HTTP headers - %b, %B
      */
-    protected static class ByteSentElement implements AccessLogElement {
+    protected static class ByteSentElement implements StructuredAccessLogElement {
         private final boolean conversion;
 
         /**
@@ -1201,6 +1340,25 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            long length = getLength(request, response);
+            if (length <= 0 && conversion) {
+                buf.append('-');
+            } else {
+                buf.append(Long.toString(length));
+            }
+        }
+
+        /**
+         * Writes the number of bytes sent, including zero, for both %b and
+         * %B.
+         */
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            out.writeLong(Math.max(0, getLength(request, response)));
+        }
+
+        private static long getLength(Request request, Response response) {
             // Don't need to flush since trigger for log message is after the
             // response has been committed
             long length = response.getBytesWritten(false);
@@ -1218,11 +1376,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                     }
                 }
             }
-            if (length <= 0 && conversion) {
-                buf.append('-');
-            } else {
-                buf.append(Long.toString(length));
-            }
+            return length;
         }
     }
 
@@ -1242,7 +1396,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write time taken to process the request - %D, %T
      */
-    protected static class ElapsedTimeElement implements AccessLogElement {
+    protected static class ElapsedTimeElement implements StructuredAccessLogElement {
         private final boolean millis;
 
         /**
@@ -1269,12 +1423,22 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(Long.toString(remains % 10));
             }
         }
+
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            if (millis) {
+                out.writeLong(time);
+            } else {
+                out.writeDecimal(time, 3);
+            }
+        }
     }
 
     /**
      * write time until first byte is written (commit time) in millis - %F
      */
-    protected static class FirstByteTimeElement implements AccessLogElement {
+    protected static class FirstByteTimeElement implements StructuredAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request, Response response, long time) {
             long commitTime = response.getCoyoteResponse().getCommitTime();
@@ -1285,12 +1449,23 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(Long.toString(delta));
             }
         }
+
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            long commitTime = response.getCoyoteResponse().getCommitTime();
+            if (commitTime == -1) {
+                out.writeNull();
+            } else {
+                out.writeLong(commitTime - request.getCoyoteRequest().getStartTime());
+            }
+        }
     }
 
     /**
      * write Query string (prepended with a '?' if it exists) - %q
      */
-    protected static class QueryElement implements AccessLogElement {
+    protected static class QueryElement implements StructuredAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
@@ -1303,6 +1478,20 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                 buf.append(query);
             }
         }
+
+        @Override
+        public void addValue(AccessLogFieldWriter out, Date date, Request request,
+                Response response, long time) {
+            String query = null;
+            if (request != null) {
+                query = request.getQueryString();
+            }
+            if (query == null) {
+                out.writeNull();
+            } else {
+                out.writeString(query);
+            }
+        }
     }
 
     /**
@@ -1554,12 +1743,232 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         }
     }
 
+    /**
+     * write the replacements of the pattern as the fields of a JSON object -
+     * the json output format
+     */
+    protected static class JsonRecordElement implements AccessLogElement {
+
+        private static final ThreadLocal<JsonFieldWriter> fieldWriters =
+                new ThreadLocal<JsonFieldWriter>() {
+            @Override
+            protected JsonFieldWriter initialValue() {
+                return new JsonFieldWriter();
+            }
+        };
+
+        private final AccessLogElement[] elements;
+        private final boolean[] structured;
+        /* The characters written before each value, the separator and name */
+        private final char[][] prefixes;
+
+        /**
+         * @param elements   The elements for the pattern
+         * @param fieldNames The field name for each element or
+         *                   <code>null</code> for elements that are not
+         *                   written, such as the constant text of the pattern
+         */
+        public JsonRecordElement(List<AccessLogElement> elements,
+                List<String> fieldNames) {
+            List<AccessLogElement> fieldElements = new ArrayList<>();
+            List<char[]> fieldPrefixes = new ArrayList<>();
+            Set<String> usedNames = new HashSet<>();
+            JsonFieldWriter nameWriter = new JsonFieldWriter();
+            for (int i = 0; i < elements.size(); i++) {
+                String name = fieldNames.get(i);
+                if (name == null) {
+                    continue;
+                }
+                // Keep the names unique if a replacement is used more than once
+                String uniqueName = name;
+                int count = 2;
+                while (!usedNames.add(uniqueName)) {
+                    uniqueName = name + "_" + count++;
+                }
+                CharArrayWriter prefix = new CharArrayWriter();
+                prefix.append(fieldPrefixes.isEmpty() ? '{' : ',');
+                nameWriter.buf = prefix;
+                nameWriter.writeString(uniqueName);
+                prefix.append(':');
+                fieldElements.add(elements.get(i));
+                fieldPrefixes.add(prefix.toCharArray());
+            }
+            this.elements = fieldElements.toArray(new AccessLogElement[0]);
+            this.prefixes = fieldPrefixes.toArray(new char[0][]);
+            this.structured = new boolean[this.elements.length];
+            for (int i = 0; i < this.elements.length; i++) {
+                structured[i] = this.elements[i] instanceof StructuredAccessLogElement;
+            }
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, Date date, Request request,
+                Response response, long time) {
+            if (elements.length == 0) {
+                buf.append('{');
+            }
+            JsonFieldWriter out = fieldWriters.get();
+            out.buf = buf;
+            try {
+                for (int i = 0; i < elements.length; i++) {
+                    buf.write(prefixes[i], 0, prefixes[i].length);
+                    if (structured[i]) {
+                        ((StructuredAccessLogElement) elements[i]).addValue(
+                                out, date, request, response, time);
+                    } else {
+                        out.writeText(elements[i], date, request, response, time);
+                    }
+                }
+            } finally {
+                out.buf = null;
+            }
+            buf.append('}');
+        }
+    }
+
+    /**
+     * Writes typed field values as JSON. Elements without a typed value are
+     * written as strings, with <code>'-'</code> written as <code>null</code>.
+     */
+    private static final class JsonFieldWriter implements AccessLogFieldWriter {
+
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+        private static final int MAX_TEXT_BUFFER_SIZE = 1024;
+
+        private CharArrayWriter buf;
+        private TextBuffer text = new TextBuffer();
+
+        @Override
+        public void writeNull() {
+            buf.append("null");
+        }
+
+        @Override
+        public void writeLong(long value) {
+            buf.append(Long.toString(value));
+        }
+
+        @Override
+        public void writeDecimal(long unscaledValue, int scale) {
+            if (scale <= 0) {
+                writeLong(unscaledValue);
+                return;
+            }
+            String digits = Long.toString(unscaledValue);
+            int start = 0;
+            if (unscaledValue < 0) {
+                buf.append('-');
+                start = 1;
+            }
+            int integerDigits = digits.length() - start - scale;
+            if (integerDigits > 0) {
+                buf.append(digits, start, start + integerDigits);
+                buf.append('.');
+                buf.append(digits, start + integerDigits, digits.length());
+            } else {
+                buf.append('0');
+                buf.append('.');
+                for (int i = integerDigits; i < 0; i++) {
+                    buf.append('0');
+                }
+                buf.append(digits, start, digits.length());
+            }
+        }
+
+        @Override
+        public void writeString(CharSequence value) {
+            buf.append('"');
+            int start = 0;
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (c < 0x20 || c == '"' || c == '\\') {
+                    buf.append(value, start, i);
+                    writeEscaped(c);
+                    start = i + 1;
+                }
+            }
+            buf.append(value, start, length);
+            buf.append('"');
+        }
+
+        void writeText(AccessLogElement element, Date date, Request request,
+                Response response, long time) {
+            text.reset();
+            element.addElement(text, date, request, response, time);
+            char[] chars = text.getChars();
+            int length = text.size();
+            if (length == 1 && chars[0] == '-') {
+                writeNull();
+            } else {
+                buf.append('"');
+                int start = 0;
+                for (int i = 0; i < length; i++) {
+                    char c = chars[i];
+                    if (c < 0x20 || c == '"' || c == '\\') {
+                        buf.write(chars, start, i - start);
+                        writeEscaped(c);
+                        start = i + 1;
+                    }
+                }
+                buf.write(chars, start, length - start);
+                buf.append('"');
+            }
+            if (length > MAX_TEXT_BUFFER_SIZE) {
+                text = new TextBuffer();
+            }
+        }
+
+        private void writeEscaped(char c) {
+            buf.append('\\');
+            switch (c) {
+            case '"':
+            case '\\':
+                buf.append(c);
+                break;
+            case '\n':
+                buf.append('n');
+                break;
+            case '\r':
+                buf.append('r');
+                break;
+            case '\t':
+                buf.append('t');
+                break;
+            default:
+                buf.append('u');
+                buf.append('0');
+                buf.append('0');
+                buf.append(HEX[c >> 4]);
+                buf.append(HEX[c & 0xF]);
+                break;
+            }
+        }
+    }
+
+    /**
+     * A CharArrayWriter that provides access to its buffer to avoid copying
+     * the text of each element.
+     */
+    private static final class TextBuffer extends CharArrayWriter {
+
+        TextBuffer() {
+            super(64);
+        }
+
+        char[] getChars() {
+            return buf;
+        }
+    }
+
     /**
      * Parse pattern string and create the array of AccessLogElement.
      * @return the log elements array
      */
     protected AccessLogElement[] createLogElements() {
         List<AccessLogElement> list = new ArrayList<>();
+        // The field name of each element, null for constant text
+        List<String> fieldNames = new ArrayList<>();
         boolean replace = false;
         StringBuilder buf = new StringBuilder();
         for (int i = 0; i < pattern.length(); i++) {
@@ -1580,19 +1989,23 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                         j++;
                         list.add(createAccessLogElement(name.toString(),
                                 pattern.charAt(j)));
+                        fieldNames.add(getFieldName(name.toString(), pattern.charAt(j)));
                         i = j; /* Since we walked more than one character */
                     } else {
                         // D'oh - end of string - pretend we never did this
                         // and do processing the "old way"
                         list.add(createAccessLogElement(ch));
+                        fieldNames.add(getFieldName(ch));
                     }
                 } else {
                     list.add(createAccessLogElement(ch));
+                    fieldNames.add(getFieldName(ch));
                 }
                 replace = false;
             } else if (ch == '%') {
                 replace = true;
                 list.add(new StringElement(buf.toString()));
+                fieldNames.add(null);
                 buf = new StringBuilder();
             } else {
                 buf.append(ch);
@@ -1600,10 +2013,98 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         }
         if (buf.length() > 0) {
             list.add(new StringElement(buf.toString()));
+            fieldNames.add(null);
+        }
+        if (isStructured()) {
+            return new AccessLogElement[] { new JsonRecordElement(list, fieldNames) };
         }
         return list.toArray(new AccessLogElement[0]);
     }
 
+    /**
+     * Obtain the name of the field used for an element that needs an element
+     * name when log entries are written as structured records.
+     * @param name Header name
+     * @param pattern char in the log pattern
+     * @return the field name
+     */
+    protected String getFieldName(String name, char pattern) {
+        switch (pattern) {
+        case 'i':
+            return "requestHeader." + name;
+        case 'c':
+            return "cookie." + name;
+        case 'o':
+            return "responseHeader." + name;
+        case 'p':
+            return "remote".equals(name) ? "remotePort" : "localPort";
+        case 'r':
+            return "requestAttribute." + name;
+        case 's':
+            return "sessionAttribute." + name;
+        case 't':
+            return name.startsWith("begin") ? "beginTime" : "time";
+        default:
+            return name + "." + pattern;
+        }
+    }
+
+    /**
+     * Obtain the name of the field used for an element when log entries are
+     * written as structured records.
+     * @param pattern char in the log pattern
+     * @return the field name
+     */
+    protected String getFieldName(char pattern) {
+        switch (pattern) {
+        case 'a':
+            return "remoteAddr";
+        case 'A':
+            return "localAddr";
+        case 'b':
+        case 'B':
+            return "bytesSent";
+        case 'D':
+            return "elapsedTime";
+        case 'F':
+            return "firstByteTime";
+        case 'h':
+            return "remoteHost";
+        case 'H':
+            return "protocol";
+        case 'l':
+            return "logicalUserName";
+        case 'm':
+            return "method";
+        case 'p':
+            return "localPort";
+        case 'q':
+            return "query";
+        case 'r':
+            return "request";
+        case 's':
+            return "status";
+        case 'S':
+            return "sessionId";
+        case 't':
+            return "time";
+        case 'T':
+            return "elapsedTimeSeconds";
+        case 'u':
+            return "user";
+        case 'U':
+            return "requestURI";
+        case 'v':
+            return "serverName";
+        case 'I':
+            return "threadName";
+        case 'X':
+            return "connectionStatus";
+        default:
+            return String.valueOf(pattern);
+        }
+    }
+
     /**
      * Create an AccessLogElement implementation which needs an element name.
      * @param name Header name
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue of access log entries with many producers (the
+ * request processing threads) and a single consumer (the thread that writes
+ * the log file). Each slot has a re-usable character buffer so that, once the
+ * buffers have grown to the typical entry size, adding an entry only copies
+ * the characters of the entry.
+ * <p>
+ * Each slot has a sequence number. A slot is free for the producer that
+ * claims position <code>p</code> when its sequence is <code>p</code> and holds
+ * an entry for the consumer when its sequence is <code>p + 1</code>. Releasing
+ * a slot sets its sequence to <code>p + capacity</code>, the next position
+ * that maps to the same slot.
+ */
+final class AccessLogRingBuffer {
+
+    private final int capacity;
+    private final int mask;
+    private final Entry[] entries;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong(0);
+    // Only modified by the consumer
+    private volatile long head = 0;
+
+
+    /**
+     * @param capacity The maximum number of entries. This is rounded up to a
+     *                 power of two.
+     */
+    AccessLogRingBuffer(int capacity) {
+        int size = 1;
+        while (size < capacity && size < (1 << 30)) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        entries = new Entry[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry();
+            sequences.set(i, i);
+        }
+    }
+
+
+    int getCapacity() {
+        return capacity;
+    }
+
+
+    /**
+     * @return An estimate of the number of entries waiting to be consumed
+     */
+    int size() {
+        long size = tail.get() - head;
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity);
+    }
+
+
+    /**
+     * Add an entry to the queue.
+     *
+     * @param message   The characters of the entry
+     * @param separator The characters to append to the entry
+     *
+     * @return <code>true</code> if the entry was added or <code>false</code>
+     *         if the queue is full
+     */
+    boolean offer(CharArrayWriter message, char[] separator) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    Entry entry = entries[index];
+                    entry.length = 0;
+                    try {
+                        message.writeTo(entry);
+                    } catch (IOException ioe) {
+                        // Entry never throws IOException
+                    }
+                    entry.write(separator, 0, separator.length);
+                    // A volatile write so a consumer that is about to wait
+                    // either sees the entry or is seen to be waiting
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                // The consumer has not yet released this slot
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+
+    /**
+     * Obtain the oldest entry without removing it. Must only be called by the
+     * consumer.
+     *
+     * @return The oldest entry or <code>null</code> if the queue is empty
+     */
+    Entry peek() {
+        long pos = head;
+        int index = (int) (pos & mask);
+        if (sequences.get(index) == pos + 1) {
+            return entries[index];
+        }
+        return null;
+    }
+
+
+    /**
+     * Remove the entry returned by the previous call to {@link #peek()}. Must
+     * only be called by the consumer.
+     */
+    void release() {
+        long pos = head;
+        sequences.lazySet((int) (pos & mask), pos + capacity);
+        head = pos + 1;
+    }
+
+
+    static final class Entry extends Writer {
+
+        private char[] chars = new char[0];
+        private int length = 0;
+
+        char[] getChars() {
+            return chars;
+        }
+
+        int getLength() {
+            return length;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            int required = length + len;
+            if (required > chars.length) {
+                char[] expanded = new char[Math.max(required, Math.max(128, chars.length * 2))];
+                System.arraycopy(chars, 0, expanded, 0, length);
+                chars = expanded;
+            }
+            System.arraycopy(cbuf, off, chars, length, len);
+            length = required;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // NO-OP
+        }
+
+        @Override
+        public void close() throws IOException {
+            // NO-OP
+        }
+    }
+}
@@ -25,12 +25,20 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.juli.logging.Log;
@@ -59,11 +67,26 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * been made available to allow you to tell this instance to move
  * the existing log file to somewhere else and start writing a new log file.
  * </p>
+ *
+ * <p>
+ * If <code>asyncLog</code> is set, request processing threads add each entry
+ * to a bounded lock-free queue and return. A single writer thread takes the
+ * entries from the queue in batches, encodes them and writes them to the log
+ * file. If the queue is full, entries are dropped and counted unless
+ * <code>asyncBlockWhenFull</code> is set.
+ * </p>
  */
 public class AccessLogValve extends AbstractAccessLogValve {
 
     private static final Log log = LogFactory.getLog(AccessLogValve.class);
 
+    private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+    private static final int ASYNC_BUFFER_SIZE = 128 * 1024;
+    private static final int ASYNC_BATCH_SIZE = 1024;
+    private static final long ASYNC_BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long ASYNC_STOP_TIMEOUT = 10000;
+
     //------------------------------------------------------ Constructor
     public AccessLogValve() {
         super();
@@ -163,6 +186,40 @@ public class AccessLogValve extends AbstractAccessLogValve {
     private int maxDays = -1;
     private volatile boolean checkForOldLogs = false;
 
+    /**
+     * Are entries written to the log file by a separate writer thread?
+     */
+    private boolean asyncLog = false;
+
+    /**
+     * The maximum number of entries waiting for the writer thread.
+     */
+    private int asyncQueueSize = 4096;
+
+    /**
+     * The maximum time in milliseconds that entries are held by the writer
+     * thread before they are written to the log file.
+     */
+    private int asyncFlushInterval = 1000;
+
+    /**
+     * Should request processing threads wait for space in the queue rather
+     * than dropping the entry when the queue is full?
+     */
+    private boolean asyncBlockWhenFull = false;
+
+    private final AtomicLong asyncDroppedCount = new AtomicLong(0);
+
+    private volatile AccessLogRingBuffer asyncQueue = null;
+    private volatile Thread asyncWriterThread = null;
+    private volatile boolean asyncRunning = false;
+    private volatile boolean asyncWriterWaiting = false;
+
+    // Used with the monitor held when logging asynchronously
+    private FileChannel channel = null;
+    private CharsetEncoder encoder = null;
+    private ByteBuffer channelBuffer = null;
+
     // ------------------------------------------------------------- Properties
 
 
@@ -362,6 +419,111 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
     }
 
+
+    /**
+     * @return <code>true</code> if entries are written to the log file by a
+     *         separate writer thread
+     */
+    public boolean isAsyncLog() {
+        return asyncLog;
+    }
+
+
+    /**
+     * Set whether entries are written to the log file by a separate writer
+     * thread. Changes take effect when the valve is next started.
+     *
+     * @param asyncLog <code>true</code> to log asynchronously
+     */
+    public void setAsyncLog(boolean asyncLog) {
+        this.asyncLog = asyncLog;
+    }
+
+
+    /**
+     * @return the maximum number of entries waiting to be written when
+     *         logging asynchronously
+     */
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+
+    /**
+     * Set the maximum number of entries waiting to be written when logging
+     * asynchronously. The value is rounded up to a power of two. Changes take
+     * effect when the valve is next started.
+     *
+     * @param asyncQueueSize The new queue size
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+
+    /**
+     * @return the maximum time in milliseconds that buffered entries are held
+     *         before they are written to the log file when logging
+     *         asynchronously
+     */
+    public int getAsyncFlushInterval() {
+        return asyncFlushInterval;
+    }
+
+
+    /**
+     * Set the maximum time in milliseconds that buffered entries are held
+     * before they are written to the log file when logging asynchronously.
+     * Changes take effect when the valve is next started.
+     *
+     * @param asyncFlushInterval The new flush interval
+     */
+    public void setAsyncFlushInterval(int asyncFlushInterval) {
+        this.asyncFlushInterval = asyncFlushInterval;
+    }
+
+
+    /**
+     * @return <code>true</code> if request processing threads wait for space
+     *         in the queue when it is full rather than dropping the entry
+     */
+    public boolean isAsyncBlockWhenFull() {
+        return asyncBlockWhenFull;
+    }
+
+
+    /**
+     * Set whether request processing threads wait for space in the queue when
+     * it is full rather than dropping the entry.
+     *
+     * @param asyncBlockWhenFull <code>true</code> to wait for space
+     */
+    public void setAsyncBlockWhenFull(boolean asyncBlockWhenFull) {
+        this.asyncBlockWhenFull = asyncBlockWhenFull;
+    }
+
+
+    /**
+     * @return the number of entries that have been dropped because the queue
+     *         was full when logging asynchronously
+     */
+    public long getAsyncDroppedCount() {
+        return asyncDroppedCount.get();
+    }
+
+
+    /**
+     * @return the number of entries waiting to be written when logging
+     *         asynchronously
+     */
+    public int getAsyncPendingCount() {
+        AccessLogRingBuffer queue = asyncQueue;
+        if (queue == null) {
+            return 0;
+        }
+        return queue.size();
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -551,11 +713,20 @@ public class AccessLogValve extends AbstractAccessLogValve {
      * @param rename Rename file to final name after closing
      */
     private synchronized void close(boolean rename) {
-        if (writer == null) {
+        if (writer == null && channel == null) {
             return;
         }
-        writer.flush();
-        writer.close();
+        if (writer != null) {
+            writer.flush();
+            writer.close();
+        } else {
+            writeChannelBuffer();
+            try {
+                channel.close();
+            } catch (IOException ioe) {
+                log.info(sm.getString("accessLogValve.closeFail"), ioe);
+            }
+        }
         if (rename && renameOnRotate) {
             File newLogFile = getLogFile(true);
             if (!newLogFile.exists()) {
@@ -572,6 +743,8 @@ public class AccessLogValve extends AbstractAccessLogValve {
             }
         }
         writer = null;
+        channel = null;
+        encoder = null;
         dateStamp = "";
         currentLogFile = null;
     }
@@ -586,26 +759,17 @@ public class AccessLogValve extends AbstractAccessLogValve {
     @Override
     public void log(CharArrayWriter message) {
 
+        AccessLogRingBuffer queue = asyncQueue;
+        if (queue != null) {
+            logAsync(queue, message);
+            return;
+        }
+
         rotate();
 
         /* In case something external rotated the file instead */
         if (checkExists) {
-            synchronized (this) {
-                if (currentLogFile != null && !currentLogFile.exists()) {
-                    try {
-                        close(false);
-                    } catch (Throwable e) {
-                        ExceptionUtils.handleThrowable(e);
-                        log.info(sm.getString("accessLogValve.closeFail"), e);
-                    }
-
-                    /* Make sure date is correct */
-                    dateStamp = fileDateFormatter.format(
-                            new Date(System.currentTimeMillis()));
-
-                    open();
-                }
-            }
+            checkLogFileExists();
         }
 
         // Log this message
@@ -626,6 +790,102 @@ public class AccessLogValve extends AbstractAccessLogValve {
     }
 
 
+    private synchronized void checkLogFileExists() {
+        if (currentLogFile != null && !currentLogFile.exists()) {
+            try {
+                close(false);
+            } catch (Throwable e) {
+                ExceptionUtils.handleThrowable(e);
+                log.info(sm.getString("accessLogValve.closeFail"), e);
+            }
+
+            /* Make sure date is correct */
+            dateStamp = fileDateFormatter.format(
+                    new Date(System.currentTimeMillis()));
+
+            open();
+        }
+    }
+
+
+    private void logAsync(AccessLogRingBuffer queue, CharArrayWriter message) {
+        while (!queue.offer(message, LINE_SEPARATOR)) {
+            if (!asyncBlockWhenFull || !asyncRunning) {
+                asyncDroppedCount.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(asyncWriterThread);
+            LockSupport.parkNanos(ASYNC_BLOCK_WAIT_NANOS);
+        }
+        if (asyncWriterWaiting) {
+            LockSupport.unpark(asyncWriterThread);
+        }
+    }
+
+
+    /*
+     * Called by the writer thread. Returns the number of entries taken from
+     * the queue.
+     */
+    private int drainAsyncQueue(AccessLogRingBuffer queue) {
+        if (queue.peek() == null) {
+            return 0;
+        }
+        int count = 0;
+        synchronized (this) {
+            rotate();
+            if (checkExists) {
+                checkLogFileExists();
+            }
+            AccessLogRingBuffer.Entry entry;
+            while (count < ASYNC_BATCH_SIZE && (entry = queue.peek()) != null) {
+                try {
+                    if (channel != null) {
+                        CharBuffer chars = CharBuffer.wrap(entry.getChars(), 0, entry.getLength());
+                        encoder.reset();
+                        while (encoder.encode(chars, channelBuffer, true).isOverflow()) {
+                            writeChannelBuffer();
+                        }
+                        while (encoder.flush(channelBuffer).isOverflow()) {
+                            writeChannelBuffer();
+                        }
+                    }
+                } finally {
+                    // Never retry an entry that could not be written
+                    queue.release();
+                }
+                count++;
+            }
+            if (!buffered) {
+                writeChannelBuffer();
+            }
+        }
+        return count;
+    }
+
+
+    /*
+     * Must be called with the monitor held.
+     */
+    private void writeChannelBuffer() {
+        if (channelBuffer == null || channelBuffer.position() == 0) {
+            return;
+        }
+        channelBuffer.flip();
+        try {
+            if (channel != null) {
+                while (channelBuffer.hasRemaining()) {
+                    channel.write(channelBuffer);
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString("accessLogValve.asyncWriteFail", currentLogFile), ioe);
+        } finally {
+            channelBuffer.clear();
+        }
+    }
+
+
     /**
      * Open the new log file for the date specified by <code>dateStamp</code>.
      */
@@ -648,13 +908,23 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
 
         try {
-            writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
-                    new FileOutputStream(pathname, true), charset), 128000),
-                    false);
+            if (asyncQueue != null) {
+                @SuppressWarnings("resource")
+                FileOutputStream fos = new FileOutputStream(pathname, true);
+                channel = fos.getChannel();
+                encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            } else {
+                writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(
+                        new FileOutputStream(pathname, true), charset), 128000),
+                        false);
+            }
 
             currentLogFile = pathname;
         } catch (IOException e) {
             writer = null;
+            channel = null;
             currentLogFile = null;
             log.error(sm.getString("accessLogValve.openFail", pathname), e);
         }
@@ -682,7 +952,20 @@ public class AccessLogValve extends AbstractAccessLogValve {
         if (rotatable && renameOnRotate) {
             restore();
         }
+        if (asyncLog) {
+            asyncQueue = new AccessLogRingBuffer(asyncQueueSize);
+            channelBuffer = ByteBuffer.allocateDirect(ASYNC_BUFFER_SIZE);
+        }
         open();
+        if (asyncLog) {
+            asyncRunning = true;
+            Thread t = new Thread(new AsyncLogWriter(),
+                    "AccessLogWriter[" + getContainer().getName() + "]");
+            t.setDaemon(true);
+            t.setContextClassLoader(AccessLogValve.class.getClassLoader());
+            asyncWriterThread = t;
+            t.start();
+        }
 
         super.startInternal();
     }
@@ -699,6 +982,80 @@ public class AccessLogValve extends AbstractAccessLogValve {
     protected synchronized void stopInternal() throws LifecycleException {
 
         super.stopInternal();
+        Thread t = asyncWriterThread;
+        if (t != null) {
+            asyncRunning = false;
+            LockSupport.unpark(t);
+            // The writer thread needs the monitor to write the remaining
+            // entries so wait rather than join
+            long deadline = System.currentTimeMillis() + ASYNC_STOP_TIMEOUT;
+            long remaining = ASYNC_STOP_TIMEOUT;
+            while (t.isAlive() && remaining > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            asyncWriterThread = null;
+        }
         close(false);
+        asyncQueue = null;
+        channelBuffer = null;
+    }
+
+
+    private class AsyncLogWriter implements Runnable {
+
+        @Override
+        public void run() {
+            AccessLogRingBuffer queue = asyncQueue;
+            long flushIntervalNanos =
+                    TimeUnit.MILLISECONDS.toNanos(Math.max(1, asyncFlushInterval));
+            long lastFlush = System.nanoTime();
+            try {
+                while (true) {
+                    boolean running = asyncRunning;
+                    int drained = 0;
+                    long now = System.nanoTime();
+                    try {
+                        drained = drainAsyncQueue(queue);
+                        // Check on every iteration so that the interval is
+                        // honoured under a steady load
+                        now = System.nanoTime();
+                        if (now - lastFlush >= flushIntervalNanos) {
+                            synchronized (AccessLogValve.this) {
+                                writeChannelBuffer();
+                            }
+                            lastFlush = now;
+                        }
+                    } catch (Throwable t) {
+                        ExceptionUtils.handleThrowable(t);
+                        log.error(sm.getString("accessLogValve.asyncWriterFail"), t);
+                    }
+                    if (drained > 0) {
+                        continue;
+                    }
+                    if (!running) {
+                        break;
+                    }
+                    asyncWriterWaiting = true;
+                    if (queue.peek() == null && asyncRunning) {
+                        LockSupport.parkNanos(this,
+                                Math.max(1, flushIntervalNanos - (now - lastFlush)));
+                    }
+                    asyncWriterWaiting = false;
+                }
+            } finally {
+                synchronized (AccessLogValve.this) {
+                    try {
+                        writeChannelBuffer();
+                    } finally {
+                        AccessLogValve.this.notifyAll();
+                    }
+                }
+            }
+        }
     }
 }
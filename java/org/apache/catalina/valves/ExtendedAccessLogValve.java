@@ -530,6 +530,21 @@ public class ExtendedAccessLogValve extends AccessLogValve {
 
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the <code>text</code> output format is supported. Entries are
+     * always written in the W3C Extended Log File Format.
+     */
+    @Override
+    public void setOutputFormat(String outputFormat) {
+        if (!"text".equalsIgnoreCase(outputFormat)) {
+            log.warn(sm.getString("extendedAccessLogValve.outputFormatNotSupported", outputFormat));
+            return;
+        }
+        super.setOutputFormat(outputFormat);
+    }
+
     @Override
     protected AccessLogElement[] createLogElements() {
         if (log.isDebugEnabled()) {
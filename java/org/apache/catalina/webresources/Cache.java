@@ -16,42 +16,155 @@
  */
 package org.apache.catalina.webresources;
 
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.WebResource;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.res.StringManager;
-
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+
+/**
+ * Caches resources and their content. Eviction uses the W-TinyLFU policy.
+ * New entries are placed in a small LRU window. Entries that leave the window
+ * are only admitted to the main area if they have been requested more often
+ * recently, as estimated by a {@link FrequencySketch}, than the entry that
+ * would have to be evicted to make room for them. The main area is a
+ * segmented LRU: entries are admitted to the probation segment and move to
+ * the protected segment when they are requested again. This keeps frequently
+ * used resources in the cache when many resources are requested once, such
+ * as when a crawler walks the web application.
+ * <p>
+ * Requests record their accesses in buffers. The buffers are drained, and
+ * entries evicted, by a background thread shared by all caches so that
+ * request processing threads do not wait for the policy to be updated. The
+ * cache may therefore be briefly larger than the maximum size.
+ * <p>
+ * Resources that are not cached, such as classes, are looked up in every
+ * resource set each time they are requested. The ones that do not exist are
+ * remembered, for the TTL, in a negative cache so that repeated requests for
+ * them, e.g. from the class loader for classes provided by its parent, do not
+ * have to check every resource set again. Directory listings are also cached
+ * for the TTL. Both are limited to a maximum number of entries rather than
+ * counting towards the maximum size.
+ */
 public class Cache {
 
     private static final Log log = LogFactory.getLog(Cache.class);
     protected static final StringManager sm = StringManager.getManager(Cache.class);
 
-    private static final long TARGET_FREE_PERCENT_GET = 5;
-    private static final long TARGET_FREE_PERCENT_BACKGROUND = 10;
-
     // objectMaxSize must be < maxSize/20
     private static final int OBJECT_MAX_SIZE_FACTOR = 20;
 
+    // The percentage of maxSize used for the window and, of the remainder,
+    // for the protected segment
+    private static final long WINDOW_PERCENT = 1;
+    private static final long PROTECTED_PERCENT = 80;
+
+    // If eviction falls this far behind, new entries are not cached
+    private static final long MAX_OVERSHOOT_FACTOR = 2;
+
+    // Accesses beyond this number that have not yet been processed are not
+    // recorded
+    private static final int READ_BUFFER_MAX = 1024;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 64;
+
+    // The assumed average size of an entry when sizing the sketch
+    private static final long SKETCH_BYTES_PER_ENTRY = 4096;
+
+    // Web application paths always start with '/' so this can't clash
+    private static final String CLASS_LOADER_KEY_PREFIX = "*";
+
+    private static final ThreadPoolExecutor maintenanceExecutor;
+    private static final ThreadPoolExecutor compressionExecutor;
+
+    static {
+        maintenanceExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new TaskThreadFactory("WebResourceCache-", true, Thread.NORM_PRIORITY));
+        maintenanceExecutor.allowCoreThreadTimeOut(true);
+        // Separate so compressing large resources does not delay eviction
+        compressionExecutor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new TaskThreadFactory("WebResourceCache-Compression-", true, Thread.MIN_PRIORITY));
+        compressionExecutor.allowCoreThreadTimeOut(true);
+    }
+
     private final StandardRoot root;
     private final AtomicLong size = new AtomicLong(0);
 
     private long ttl = 5000;
     private long maxSize = 10 * 1024 * 1024;
     private int objectMaxSize = (int) maxSize/OBJECT_MAX_SIZE_FACTOR;
+    private volatile ContentStorage contentStorage = ContentStorage.HEAP;
+    private int negativeMaxSize = 10000;
+    private int listingMaxSize = 1000;
 
     private AtomicLong lookupCount = new AtomicLong(0);
     private AtomicLong hitCount = new AtomicLong(0);
+    private AtomicLong evictionCount = new AtomicLong(0);
+    private AtomicLong admissionCount = new AtomicLong(0);
+    private AtomicLong rejectionCount = new AtomicLong(0);
+    private AtomicLong compressedCount = new AtomicLong(0);
+    private AtomicLong negativeLookupCount = new AtomicLong(0);
+    private AtomicLong negativeHitCount = new AtomicLong(0);
+    private AtomicLong listingLookupCount = new AtomicLong(0);
+    private AtomicLong listingHitCount = new AtomicLong(0);
+
+    private final AtomicLong nextNegativePurge = new AtomicLong(0);
+    private final AtomicLong nextListingPurge = new AtomicLong(0);
 
     private final ConcurrentMap<String,CachedResource> resourceCache =
             new ConcurrentHashMap<>();
 
+    private final ConcurrentMap<String,MissingResource> missingResources =
+            new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,CachedListing> listings = new ConcurrentHashMap<>();
+
+    // Events waiting to be applied to the policy
+    private final Queue<CachedResource> addBuffer = new ConcurrentLinkedQueue<>();
+    private final Queue<CachedResource> removeBuffer = new ConcurrentLinkedQueue<>();
+    private final Queue<CachedResource> resizeBuffer = new ConcurrentLinkedQueue<>();
+    private final Queue<CachedResource> readBuffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger readBufferSize = new AtomicInteger(0);
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean(false);
+
+    // The policy. Guarded by policyLock. The LRU entry of each segment is
+    // first.
+    private final Object policyLock = new Object();
+    private final FrequencySketch sketch = new FrequencySketch();
+    private final LinkedHashMap<String,PolicyEntry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String,PolicyEntry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String,PolicyEntry> protectedSegment =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private long windowSize = 0;
+    private long probationSize = 0;
+    private long protectedSize = 0;
+
+    private final Runnable maintenanceTask = new Runnable() {
+        @Override
+        public void run() {
+            maintenance();
+        }
+    };
+
     public Cache(StandardRoot root) {
         this.root = root;
     }
@@ -59,7 +172,7 @@ public class Cache {
     protected WebResource getResource(String path, boolean useClassLoaderResources) {
 
         if (noCache(path)) {
-            return root.getResourceInternal(path, useClassLoaderResources);
+            return getUncachedResource(path, useClassLoaderResources);
         }
 
         lookupCount.incrementAndGet();
@@ -92,20 +205,7 @@ public class Cache {
                 long delta = cacheEntry.getSize();
                 size.addAndGet(delta);
 
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
-                    }
-                }
+                recordAdd(path, cacheEntry);
             } else {
                 // Another thread added the entry to the cache
                 // Make sure it is validated
@@ -113,6 +213,7 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            recordRead(cacheEntry);
         }
 
         return cacheEntry;
@@ -150,20 +251,7 @@ public class Cache {
                 long delta = cacheEntry.getSize();
                 size.addAndGet(delta);
 
-                if (size.get() > maxSize) {
-                    // Process resources unordered for speed. Trades cache
-                    // efficiency (younger entries may be evicted before older
-                    // ones) for speed since this is on the critical path for
-                    // request processing
-                    long targetSize = maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
-                    long newSize = evict(targetSize, resourceCache.values().iterator());
-                    if (newSize > maxSize) {
-                        // Unable to create sufficient space for this resource
-                        // Remove it from the cache
-                        removeCacheEntry(path);
-                        log.warn(sm.getString("cache.addFail", path));
-                    }
-                }
+                recordAdd(path, cacheEntry);
             } else {
                 // Another thread added the entry to the cache
                 // Make sure it is validated
@@ -171,31 +259,141 @@ public class Cache {
             }
         } else {
             hitCount.incrementAndGet();
+            recordRead(cacheEntry);
         }
 
         return cacheEntry.getWebResources();
     }
 
-    protected void backgroundProcess() {
-        // Create an ordered set of all cached resources with the least recently
-        // used first. This is a background process so we can afford to take the
-        // time to order the elements first
-        TreeSet<CachedResource> orderedResources =
-                new TreeSet<>(new EvictionOrder());
-        orderedResources.addAll(resourceCache.values());
+    /*
+     * Look up a resource that is not cached, remembering it if it does not
+     * exist.
+     */
+    private WebResource getUncachedResource(String path, boolean useClassLoaderResources) {
+        negativeLookupCount.incrementAndGet();
 
-        Iterator<CachedResource> iter = orderedResources.iterator();
+        String key = useClassLoaderResources ? CLASS_LOADER_KEY_PREFIX + path : path;
+        long now = System.currentTimeMillis();
 
-        long targetSize =
-                maxSize * (100 - TARGET_FREE_PERCENT_BACKGROUND) / 100;
-        long newSize = evict(targetSize, iter);
+        MissingResource missing = missingResources.get(key);
+        if (missing != null) {
+            if (missing.nextCheck > now) {
+                negativeHitCount.incrementAndGet();
+                return missing.resource;
+            }
+            missingResources.remove(key, missing);
+        }
+
+        WebResource result = root.getResourceInternal(path, useClassLoaderResources);
+        // Virtual resources are directories that are implied by the resources
+        // mounted beneath them so they are not cached either
+        if (result != null && !result.exists() && !result.isVirtual() &&
+                makeRoom(missingResources, negativeMaxSize, nextNegativePurge, now)) {
+            missingResources.put(key, new MissingResource(result, now + getTtl()));
+        }
+        return result;
+    }
+
+    protected String[] list(String path) {
+        listingLookupCount.incrementAndGet();
 
-        if (newSize > targetSize) {
-            log.info(sm.getString("cache.backgroundEvictFail",
-                    Long.valueOf(TARGET_FREE_PERCENT_BACKGROUND),
-                    root.getContext().getName(),
-                    Long.valueOf(newSize / 1024)));
+        CachedListing listing = getListing(path);
+        String[] result = listing.list;
+        if (result == null) {
+            result = root.listInternal(path);
+            listing.list = result;
+        } else {
+            listingHitCount.incrementAndGet();
         }
+        // Callers may modify the result
+        return result.clone();
+    }
+
+    protected Set<String> listWebAppPaths(String path) {
+        listingLookupCount.incrementAndGet();
+
+        CachedListing listing = getListing(path);
+        Set<String> result = listing.webAppPaths;
+        if (result == null) {
+            result = root.listWebAppPathsInternal(path);
+            if (result == null) {
+                result = Collections.emptySet();
+            }
+            listing.webAppPaths = result;
+        } else {
+            listingHitCount.incrementAndGet();
+        }
+        // Callers may modify the result
+        if (result.isEmpty()) {
+            return null;
+        }
+        return new HashSet<>(result);
+    }
+
+    /*
+     * The list and the web application paths of a directory are obtained
+     * separately, when first requested, as most directories only ever have
+     * one of them requested.
+     */
+    private CachedListing getListing(String path) {
+        long now = System.currentTimeMillis();
+
+        CachedListing listing = listings.get(path);
+        if (listing != null) {
+            if (listing.nextCheck > now) {
+                return listing;
+            }
+            listings.remove(path, listing);
+        }
+
+        CachedListing newListing = new CachedListing(now + getTtl());
+        if (makeRoom(listings, listingMaxSize, nextListingPurge, now)) {
+            // Concurrent callers will end up with the same CachedListing
+            // instance
+            listing = listings.putIfAbsent(path, newListing);
+            if (listing != null) {
+                return listing;
+            }
+        }
+        return newListing;
+    }
+
+    /*
+     * Returns true if there is room for another entry in the given map. A full
+     * map is purged of expired entries at most once per TTL so that misses
+     * against a map full of unexpired entries are refused cheaply rather than
+     * each scanning the whole map. backgroundProcess() purges both maps too.
+     */
+    private boolean makeRoom(ConcurrentMap<String,? extends TimedEntry> entries,
+            int maxSize, AtomicLong nextPurge, long now) {
+        if (entries.size() < maxSize) {
+            return true;
+        }
+        long next = nextPurge.get();
+        if (now < next || !nextPurge.compareAndSet(next, now + getTtl())) {
+            return false;
+        }
+        removeExpired(entries, now);
+        return entries.size() < maxSize;
+    }
+
+    private static void removeExpired(ConcurrentMap<String,? extends TimedEntry> entries,
+            long now) {
+        Iterator<? extends TimedEntry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().nextCheck <= now) {
+                iter.remove();
+            }
+        }
+    }
+
+    protected void backgroundProcess() {
+        // Catch up with anything the maintenance thread has not yet processed
+        maintenance();
+
+        long now = System.currentTimeMillis();
+        removeExpired(missingResources, now);
+        removeExpired(listings, now);
     }
 
     private boolean noCache(String path) {
@@ -210,27 +408,285 @@ public class Cache {
         return false;
     }
 
-    private long evict(long targetSize, Iterator<CachedResource> iter) {
+    private void recordAdd(String path, CachedResource cacheEntry) {
+        if (size.get() > maxSize * MAX_OVERSHOOT_FACTOR) {
+            // Eviction has fallen too far behind to add this resource.
+            // Remove it from the cache.
+            removeCacheEntry(path);
+            log.warn(sm.getString("cache.addFail", path, root.getContext().getName()));
+            return;
+        }
+        addBuffer.offer(cacheEntry);
+        scheduleMaintenance();
+    }
 
-        long now = System.currentTimeMillis();
+    private void recordRead(CachedResource cacheEntry) {
+        // The limit is approximate. Losing some accesses when the maintenance
+        // thread is busy only makes the frequency estimates slightly less
+        // accurate.
+        int pending = readBufferSize.get();
+        if (pending < READ_BUFFER_MAX) {
+            readBufferSize.incrementAndGet();
+            readBuffer.offer(cacheEntry);
+        }
+        if (pending >= READ_BUFFER_DRAIN_THRESHOLD) {
+            scheduleMaintenance();
+        }
+    }
+
+    /*
+     * Generate the compressed content of a cache entry in the background.
+     */
+    void compress(final CachedResource cacheEntry) {
+        compressionExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ByteBuffer gzipContent = cacheEntry.compressContent();
+                if (gzipContent == null) {
+                    return;
+                }
+                // Account for the compressed content before it is used so
+                // that the size subtracted when the entry is removed never
+                // includes bytes that were not added
+                int delta = gzipContent.capacity();
+                size.addAndGet(delta);
+                if (cacheEntry.setGzipContentBuffer(gzipContent)) {
+                    compressedCount.incrementAndGet();
+                    // The policy has to account for it too else it will not
+                    // evict entries to make room for it
+                    resizeBuffer.offer(cacheEntry);
+                    scheduleMaintenance();
+                } else {
+                    // Removed in the meantime
+                    size.addAndGet(-delta);
+                }
+            }
+        });
+    }
+
+    private void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(maintenanceTask);
+        }
+    }
+
+    /**
+     * Apply the buffered events to the policy and evict entries until the
+     * cache is no larger than the maximum size.
+     */
+    void maintenance() {
+        // Events recorded from now on will schedule another run
+        maintenanceScheduled.set(false);
+
+        synchronized (policyLock) {
+            sketch.ensureCapacity(Math.max(maxSize / SKETCH_BYTES_PER_ENTRY, resourceCache.size()));
+
+            CachedResource cacheEntry;
+            while ((cacheEntry = removeBuffer.poll()) != null) {
+                unlink(cacheEntry.getWebappPath(), cacheEntry);
+            }
+
+            while ((cacheEntry = addBuffer.poll()) != null) {
+                String path = cacheEntry.getWebappPath();
+                // Ignore entries that have already been removed
+                if (resourceCache.get(path) == cacheEntry) {
+                    unlink(path, null);
+                    PolicyEntry entry = new PolicyEntry(cacheEntry);
+                    window.put(path, entry);
+                    windowSize += entry.size;
+                    sketch.increment(path);
+                }
+            }
+
+            // After the additions so that the size of an entry added in
+            // this run is not changed twice
+            while ((cacheEntry = resizeBuffer.poll()) != null) {
+                onResize(cacheEntry);
+            }
+
+            while ((cacheEntry = readBuffer.poll()) != null) {
+                readBufferSize.decrementAndGet();
+                onRead(cacheEntry);
+            }
+
+            evict();
+        }
+    }
+
+    private void onRead(CachedResource cacheEntry) {
+        String path = cacheEntry.getWebappPath();
+        sketch.increment(path);
+        // Each get() moves the entry, if any, to the MRU position
+        if (window.get(path) != null) {
+            return;
+        }
+        PolicyEntry entry = probation.get(path);
+        if (entry != null) {
+            if (entry.cacheEntry == cacheEntry) {
+                // Requested again while on probation
+                probation.remove(path);
+                probationSize -= entry.size;
+                protectedSegment.put(path, entry);
+                protectedSize += entry.size;
+                long protectedMax = (maxSize - windowMax()) * PROTECTED_PERCENT / 100;
+                while (protectedSize > protectedMax && protectedSegment.size() > 1) {
+                    Map.Entry<String,PolicyEntry> demoted = removeEldest(protectedSegment);
+                    protectedSize -= demoted.getValue().size;
+                    probation.put(demoted.getKey(), demoted.getValue());
+                    probationSize += demoted.getValue().size;
+                }
+            }
+            return;
+        }
+        protectedSegment.get(path);
+    }
+
+    /*
+     * Update the size recorded for an entry whose size has changed, e.g.
+     * because compressed content was added to it.
+     */
+    private void onResize(CachedResource cacheEntry) {
+        String path = cacheEntry.getWebappPath();
+        // An entry is only ever in one segment. get() also counts as an
+        // access but the resize follows a read of the resource anyway.
+        PolicyEntry entry = window.get(path);
+        if (entry != null) {
+            if (entry.cacheEntry == cacheEntry) {
+                windowSize += entry.resize();
+            }
+            return;
+        }
+        entry = probation.get(path);
+        if (entry != null) {
+            if (entry.cacheEntry == cacheEntry) {
+                probationSize += entry.resize();
+            }
+            return;
+        }
+        entry = protectedSegment.get(path);
+        if (entry != null && entry.cacheEntry == cacheEntry) {
+            protectedSize += entry.resize();
+        }
+    }
 
-        long newSize = size.get();
+    private void evict() {
+        long mainMax = maxSize - windowMax();
 
-        while (newSize > targetSize && iter.hasNext()) {
-            CachedResource resource = iter.next();
+        // Entries leaving the window are candidates for the main area
+        while (windowSize > windowMax() && !window.isEmpty()) {
+            Map.Entry<String,PolicyEntry> candidate = removeEldest(window);
+            windowSize -= candidate.getValue().size;
+            admit(candidate.getKey(), candidate.getValue(), mainMax);
+        }
 
-            // Don't expire anything that has been checked within the TTL
-            if (resource.getNextCheck() > now) {
-                continue;
+        // The main area may still be too big, e.g. if maxSize was reduced
+        while (probationSize + protectedSize > mainMax) {
+            if (!probation.isEmpty()) {
+                Map.Entry<String,PolicyEntry> victim = removeEldest(probation);
+                probationSize -= victim.getValue().size;
+                evictEntry(victim.getKey(), victim.getValue());
+            } else if (!protectedSegment.isEmpty()) {
+                Map.Entry<String,PolicyEntry> victim = removeEldest(protectedSegment);
+                protectedSize -= victim.getValue().size;
+                evictEntry(victim.getKey(), victim.getValue());
+            } else {
+                break;
             }
+        }
+    }
 
-            // Remove the entry from the cache
-            removeCacheEntry(resource.getWebappPath());
+    /*
+     * Admit a candidate to the probation segment if there is room or if it is
+     * used more frequently than the entries that have to be evicted to make
+     * room for it. Otherwise, evict the candidate.
+     */
+    private void admit(String path, PolicyEntry candidate, long mainMax) {
+        int candidateFrequency = -1;
+        while (probationSize + protectedSize + candidate.size > mainMax) {
+            LinkedHashMap<String,PolicyEntry> segment;
+            if (!probation.isEmpty()) {
+                segment = probation;
+            } else if (!protectedSegment.isEmpty()) {
+                segment = protectedSegment;
+            } else {
+                break;
+            }
+            Map.Entry<String,PolicyEntry> victim = segment.entrySet().iterator().next();
+            if (candidateFrequency < 0) {
+                candidateFrequency = sketch.frequency(path);
+            }
+            if (candidateFrequency <= sketch.frequency(victim.getKey())) {
+                rejectionCount.incrementAndGet();
+                evictEntry(path, candidate);
+                return;
+            }
+            removeEldest(segment);
+            if (segment == probation) {
+                probationSize -= victim.getValue().size;
+            } else {
+                protectedSize -= victim.getValue().size;
+            }
+            evictEntry(victim.getKey(), victim.getValue());
+        }
+        if (probationSize + protectedSize + candidate.size > mainMax) {
+            // Larger than the whole main area
+            rejectionCount.incrementAndGet();
+            evictEntry(path, candidate);
+            return;
+        }
+        admissionCount.incrementAndGet();
+        probation.put(path, candidate);
+        probationSize += candidate.size;
+    }
 
-            newSize = size.get();
+    private void evictEntry(String path, PolicyEntry entry) {
+        evictionCount.incrementAndGet();
+        // Only remove this entry. The resource may have been replaced since.
+        if (resourceCache.remove(path, entry.cacheEntry)) {
+            size.addAndGet(-entry.cacheEntry.markRemoved());
         }
+    }
 
-        return newSize;
+    /*
+     * Remove the entry for the given path from the policy. If cacheEntry is
+     * not null, the entry is only removed if it is for that resource.
+     */
+    private void unlink(String path, CachedResource cacheEntry) {
+        PolicyEntry entry = window.get(path);
+        if (entry != null) {
+            if (cacheEntry == null || entry.cacheEntry == cacheEntry) {
+                window.remove(path);
+                windowSize -= entry.size;
+            }
+            return;
+        }
+        entry = probation.get(path);
+        if (entry != null) {
+            if (cacheEntry == null || entry.cacheEntry == cacheEntry) {
+                probation.remove(path);
+                probationSize -= entry.size;
+            }
+            return;
+        }
+        entry = protectedSegment.get(path);
+        if (entry != null) {
+            if (cacheEntry == null || entry.cacheEntry == cacheEntry) {
+                protectedSegment.remove(path);
+                protectedSize -= entry.size;
+            }
+        }
+    }
+
+    private long windowMax() {
+        return maxSize * WINDOW_PERCENT / 100;
+    }
+
+    private static Map.Entry<String,PolicyEntry> removeEldest(
+            LinkedHashMap<String,PolicyEntry> segment) {
+        Iterator<Map.Entry<String,PolicyEntry>> iter = segment.entrySet().iterator();
+        Map.Entry<String,PolicyEntry> eldest = iter.next();
+        iter.remove();
+        return eldest;
     }
 
     void removeCacheEntry(String path) {
@@ -238,8 +694,27 @@ public class Cache {
         // once and the cache size is only updated (if required) once.
         CachedResource cachedResource = resourceCache.remove(path);
         if (cachedResource != null) {
-            long delta = cachedResource.getSize();
+            long delta = cachedResource.markRemoved();
             size.addAndGet(-delta);
+            removeBuffer.offer(cachedResource);
+            scheduleMaintenance();
+        }
+
+        // The resource may have been created or deleted so neither it nor the
+        // listing of its parent directory are still valid
+        missingResources.remove(path);
+        missingResources.remove(CLASS_LOADER_KEY_PREFIX + path);
+        String dir = path;
+        if (dir.length() > 1 && dir.endsWith("/")) {
+            dir = dir.substring(0, dir.length() - 1);
+        }
+        listings.remove(dir);
+        listings.remove(dir + "/");
+        int slash = dir.lastIndexOf('/');
+        if (slash >= 0) {
+            String parent = dir.substring(0, slash);
+            listings.remove(parent);
+            listings.remove(parent + "/");
         }
     }
 
@@ -269,6 +744,102 @@ public class Cache {
         return hitCount.get();
     }
 
+    public long getMissCount() {
+        return lookupCount.get() - hitCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    public long getAdmissionCount() {
+        return admissionCount.get();
+    }
+
+    public long getRejectionCount() {
+        return rejectionCount.get();
+    }
+
+    public long getCompressedCount() {
+        return compressedCount.get();
+    }
+
+    /**
+     * @return The number of requests for resources that are not cached, each
+     *         of which checks the negative cache.
+     */
+    public long getNegativeLookupCount() {
+        return negativeLookupCount.get();
+    }
+
+    /**
+     * @return The number of requests for resources that are not cached that
+     *         were found in the negative cache, so did not have to be looked
+     *         up in the resource sets.
+     */
+    public long getNegativeHitCount() {
+        return negativeHitCount.get();
+    }
+
+    /**
+     * @return The number of resources currently in the negative cache.
+     */
+    public int getNegativeSize() {
+        return missingResources.size();
+    }
+
+    public int getNegativeMaxSize() {
+        return negativeMaxSize;
+    }
+
+    /**
+     * Set the maximum number of resources that are known not to exist that
+     * may be held in the negative cache.
+     *
+     * @param negativeMaxSize The maximum number of resources or zero to
+     *                        disable the negative cache
+     */
+    public void setNegativeMaxSize(int negativeMaxSize) {
+        this.negativeMaxSize = negativeMaxSize;
+        if (negativeMaxSize <= 0) {
+            missingResources.clear();
+        }
+    }
+
+    public long getListingLookupCount() {
+        return listingLookupCount.get();
+    }
+
+    public long getListingHitCount() {
+        return listingHitCount.get();
+    }
+
+    /**
+     * @return The number of directories for which a listing is currently
+     *         cached.
+     */
+    public int getListingSize() {
+        return listings.size();
+    }
+
+    public int getListingMaxSize() {
+        return listingMaxSize;
+    }
+
+    /**
+     * Set the maximum number of directories for which a listing may be
+     * cached.
+     *
+     * @param listingMaxSize The maximum number of directories or zero to
+     *                       disable caching of directory listings
+     */
+    public void setListingMaxSize(int listingMaxSize) {
+        this.listingMaxSize = listingMaxSize;
+        if (listingMaxSize <= 0) {
+            listings.clear();
+        }
+    }
+
     public void setObjectMaxSize(int objectMaxSize) {
         if (objectMaxSize * 1024L > Integer.MAX_VALUE) {
             log.warn(sm.getString("cache.objectMaxSizeTooBigBytes", Integer.valueOf(objectMaxSize)));
@@ -287,6 +858,38 @@ public class Cache {
         return objectMaxSize;
     }
 
+    /**
+     * @return Where the content of newly cached resources is stored, one of
+     *         <code>heap</code>, <code>direct</code> or <code>mapped</code>.
+     */
+    public String getContentStorage() {
+        return contentStorage.name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Set where the content of newly cached resources is stored. Content that
+     * has already been cached is not affected.
+     *
+     * @param contentStorage <code>heap</code> to use byte arrays on the Java
+     *        heap, <code>direct</code> to use direct ByteBuffers or
+     *        <code>mapped</code> to memory map files (resources that are not
+     *        files use direct ByteBuffers)
+     */
+    public void setContentStorage(String contentStorage) {
+        for (ContentStorage value : ContentStorage.values()) {
+            if (value.name().equalsIgnoreCase(contentStorage)) {
+                this.contentStorage = value;
+                return;
+            }
+        }
+        throw new IllegalArgumentException(
+                sm.getString("cache.invalidContentStorage", contentStorage));
+    }
+
+    ContentStorage getContentStorageType() {
+        return contentStorage;
+    }
+
     void enforceObjectMaxSizeLimit() {
         long limit = maxSize / OBJECT_MAX_SIZE_FACTOR;
         if (limit > Integer.MAX_VALUE) {
@@ -299,31 +902,95 @@ public class Cache {
         }
     }
 
+    /*
+     * Called when the resource sets change since resources that did not exist
+     * and directory listings may then be different.
+     */
+    void clearLookups() {
+        missingResources.clear();
+        listings.clear();
+    }
+
     public void clear() {
-        resourceCache.clear();
-        size.set(0);
+        synchronized (policyLock) {
+            for (CachedResource cachedResource : resourceCache.values()) {
+                cachedResource.markRemoved();
+            }
+            resourceCache.clear();
+            size.set(0);
+            addBuffer.clear();
+            removeBuffer.clear();
+            resizeBuffer.clear();
+            window.clear();
+            probation.clear();
+            protectedSegment.clear();
+            windowSize = 0;
+            probationSize = 0;
+            protectedSize = 0;
+        }
+        clearLookups();
     }
 
     public long getSize() {
         return size.get() / 1024;
     }
 
-    private static class EvictionOrder implements Comparator<CachedResource> {
+    enum ContentStorage {
+        HEAP,
+        DIRECT,
+        MAPPED
+    }
 
-        @Override
-        public int compare(CachedResource cr1, CachedResource cr2) {
-            long nc1 = cr1.getNextCheck();
-            long nc2 = cr2.getNextCheck();
-
-            // Oldest resource should be first (so iterator goes from oldest to
-            // youngest.
-            if (nc1 == nc2) {
-                return 0;
-            } else if (nc1 > nc2) {
-                return -1;
-            } else {
-                return 1;
-            }
+    private abstract static class TimedEntry {
+
+        protected final long nextCheck;
+
+        private TimedEntry(long nextCheck) {
+            this.nextCheck = nextCheck;
+        }
+    }
+
+    private static final class MissingResource extends TimedEntry {
+
+        private final WebResource resource;
+
+        private MissingResource(WebResource resource, long nextCheck) {
+            super(nextCheck);
+            this.resource = resource;
+        }
+    }
+
+    private static final class CachedListing extends TimedEntry {
+
+        private volatile String[] list;
+        private volatile Set<String> webAppPaths;
+
+        private CachedListing(long nextCheck) {
+            super(nextCheck);
+        }
+    }
+
+    private static final class PolicyEntry {
+
+        private final CachedResource cacheEntry;
+        // Recorded so the segment sizes are always consistent. Guarded by
+        // policyLock.
+        private long size;
+
+        private PolicyEntry(CachedResource cacheEntry) {
+            this.cacheEntry = cacheEntry;
+            this.size = cacheEntry.getSize();
+        }
+
+        /*
+         * Records the current size of the entry and returns the change in
+         * size.
+         */
+        private long resize() {
+            long newSize = cacheEntry.getSize();
+            long delta = newSize - size;
+            size = newSize;
+            return delta;
         }
     }
 }
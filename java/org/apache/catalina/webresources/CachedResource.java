@@ -17,13 +17,27 @@
 package org.apache.catalina.webresources;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.cert.Certificate;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.jar.Manifest;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.catalina.WebResource;
 import org.apache.catalina.WebResourceRoot;
+import org.apache.catalina.webresources.Cache.ContentStorage;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
 
 /**
  * This class is designed to wrap a 'raw' WebResource and providing caching for
@@ -32,6 +46,9 @@ import org.apache.catalina.WebResourceRoot;
  */
 public class CachedResource implements WebResource {
 
+    private static final Log log = LogFactory.getLog(CachedResource.class);
+    private static final StringManager sm = StringManager.getManager(CachedResource.class);
+
     // Estimate (on high side to be safe) of average size excluding content
     // based on profiler data.
     private static final long CACHE_ENTRY_SIZE = 500;
@@ -42,6 +59,7 @@ public class CachedResource implements WebResource {
     private final long ttl;
     private final int objectMaxSizeBytes;
     private final boolean usesClassLoaderResources;
+    private final ContentStorage storage;
 
     private volatile WebResource webResource;
     private volatile WebResource[] webResources;
@@ -50,6 +68,12 @@ public class CachedResource implements WebResource {
     private volatile Long cachedLastModified = null;
     private volatile String cachedLastModifiedHttp = null;
     private volatile byte[] cachedContent = null;
+    private volatile ByteBuffer cachedContentBuffer = null;
+    private volatile ByteBuffer cachedGzipContent = null;
+    // Guarded by this
+    private boolean removed = false;
+    private final AtomicBoolean gzipRequested = new AtomicBoolean(false);
+    private volatile String cachedETag = null;
     private volatile Boolean cachedIsFile = null;
     private volatile Boolean cachedIsDirectory = null;
     private volatile Boolean cachedExists = null;
@@ -65,6 +89,7 @@ public class CachedResource implements WebResource {
         this.ttl = ttl;
         this.objectMaxSizeBytes = objectMaxSizeBytes;
         this.usesClassLoaderResources = usesClassLoaderResources;
+        this.storage = cache.getContentStorageType();
     }
 
     protected boolean validateResource(boolean useClassLoaderResources) {
@@ -271,7 +296,12 @@ public class CachedResource implements WebResource {
 
     @Override
     public String getETag() {
-        return webResource.getETag();
+        String cachedETag = this.cachedETag;
+        if (cachedETag == null) {
+            cachedETag = webResource.getETag();
+            this.cachedETag = cachedETag;
+        }
+        return cachedETag;
     }
 
     @Override
@@ -286,6 +316,14 @@ public class CachedResource implements WebResource {
 
     @Override
     public InputStream getInputStream() {
+        if (isOffHeap()) {
+            ByteBuffer contentBuffer = getContentBuffer();
+            if (contentBuffer == null) {
+                // Can't cache InputStreams
+                return webResource.getInputStream();
+            }
+            return new ByteBufferInputStream(contentBuffer);
+        }
         byte[] content = getContent();
         if (content == null) {
             // Can't cache InputStreams
@@ -296,6 +334,18 @@ public class CachedResource implements WebResource {
 
     @Override
     public byte[] getContent() {
+        if (isOffHeap()) {
+            // The content is not retained on the heap so each caller gets a
+            // copy. Callers that can use a ByteBuffer should use
+            // getContentBuffer() instead.
+            ByteBuffer contentBuffer = getContentBuffer();
+            if (contentBuffer == null) {
+                return null;
+            }
+            byte[] result = new byte[contentBuffer.remaining()];
+            contentBuffer.get(result);
+            return result;
+        }
         byte[] cachedContent = this.cachedContent;
         if (cachedContent == null) {
             if (getContentLength() > objectMaxSizeBytes) {
@@ -307,6 +357,178 @@ public class CachedResource implements WebResource {
         return cachedContent;
     }
 
+    /**
+     * Obtain the cached content of this resource without copying it. Depending
+     * on the configuration of the cache, the content may be held on the Java
+     * heap, in a direct ByteBuffer or in a memory mapped file.
+     *
+     * @return A read-only buffer, positioned at the start of the content, that
+     *         the caller may consume or <code>null</code> if the content is
+     *         not cached, e.g. because it is larger than the maximum size of
+     *         an object in the cache
+     */
+    public ByteBuffer getContentBuffer() {
+        if (!isOffHeap()) {
+            byte[] content = getContent();
+            if (content == null) {
+                return null;
+            }
+            return ByteBuffer.wrap(content).asReadOnlyBuffer();
+        }
+        ByteBuffer cachedContentBuffer = this.cachedContentBuffer;
+        if (cachedContentBuffer == null) {
+            if (getContentLength() > objectMaxSizeBytes) {
+                return null;
+            }
+            synchronized (this) {
+                cachedContentBuffer = this.cachedContentBuffer;
+                if (cachedContentBuffer == null) {
+                    cachedContentBuffer = loadContentBuffer();
+                    if (cachedContentBuffer == null) {
+                        return null;
+                    }
+                    this.cachedContentBuffer = cachedContentBuffer;
+                }
+            }
+        }
+        // Each caller has its own position and limit
+        return cachedContentBuffer.duplicate();
+    }
+
+    /**
+     * Obtain the gzip compressed content of this resource. The compressed
+     * content is generated once, in the background, the first time it is
+     * requested and is then retained for as long as this resource is cached.
+     *
+     * @return A read-only buffer, positioned at the start of the compressed
+     *         content, that the caller may consume or <code>null</code> if
+     *         the compressed content is not yet available or compression does
+     *         not reduce the size of the content
+     */
+    public ByteBuffer getGzipContentBuffer() {
+        ByteBuffer cachedGzipContent = this.cachedGzipContent;
+        if (cachedGzipContent != null) {
+            return cachedGzipContent.duplicate();
+        }
+        if (gzipRequested.compareAndSet(false, true)) {
+            cache.compress(this);
+        }
+        return null;
+    }
+
+    /*
+     * Called by the cache on its compression thread. Returns the compressed
+     * content, which is not used until it is passed to
+     * setGzipContentBuffer(), or null if there is no benefit in compressing
+     * this resource.
+     */
+    ByteBuffer compressContent() {
+        ByteBuffer content = getContentBuffer();
+        if (content == null) {
+            return null;
+        }
+        int length = content.remaining();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(length / 2 + 32);
+        try (GZIPOutputStream gzos = new GZIPOutputStream(baos)) {
+            byte[] buffer = new byte[Math.min(length, 8192)];
+            while (content.hasRemaining()) {
+                int len = Math.min(buffer.length, content.remaining());
+                content.get(buffer, 0, len);
+                gzos.write(buffer, 0, len);
+            }
+        } catch (IOException e) {
+            log.warn(sm.getString("cachedResource.compressFail", webAppPath), e);
+            return null;
+        }
+        if (baos.size() >= length) {
+            // No benefit. getGzipContentBuffer() will keep returning null.
+            return null;
+        }
+        ByteBuffer result;
+        if (storage == ContentStorage.HEAP) {
+            result = ByteBuffer.wrap(baos.toByteArray());
+        } else {
+            result = ByteBuffer.allocateDirect(baos.size());
+            result.put(baos.toByteArray());
+            result.flip();
+        }
+        return result.asReadOnlyBuffer();
+    }
+
+    /*
+     * Called by the cache, after it has added the size of the compressed
+     * content to the size of the cache. Returns false, without using the
+     * compressed content, if this entry has already been removed from the
+     * cache.
+     */
+    synchronized boolean setGzipContentBuffer(ByteBuffer gzipContent) {
+        if (removed) {
+            return false;
+        }
+        cachedGzipContent = gzipContent;
+        return true;
+    }
+
+    /*
+     * Called by the cache when this entry is removed from the cache. Returns
+     * the size to subtract from the size of the cache. Compressed content
+     * generated from now on is not used so the returned size remains
+     * accurate.
+     */
+    synchronized long markRemoved() {
+        removed = true;
+        return getSize();
+    }
+
+    private boolean isOffHeap() {
+        // Directories and resources that do not exist have no content to store
+        return storage != ContentStorage.HEAP && isFile();
+    }
+
+    /*
+     * The memory used by the returned buffer is released when the buffer is
+     * garbage collected. It is not released explicitly when the entry is
+     * evicted as the content may still be being written to a response.
+     */
+    private ByteBuffer loadContentBuffer() {
+        int length = (int) getContentLength();
+        if (storage == ContentStorage.MAPPED) {
+            String canonicalPath = webResource.getCanonicalPath();
+            if (canonicalPath != null) {
+                try (FileChannel channel = FileChannel.open(
+                        new File(canonicalPath).toPath(), StandardOpenOption.READ)) {
+                    if (channel.size() == length) {
+                        return channel.map(FileChannel.MapMode.READ_ONLY, 0, length)
+                                .asReadOnlyBuffer();
+                    }
+                } catch (IOException e) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("cachedResource.mapFail", webAppPath), e);
+                    }
+                }
+            }
+            // Not a file (e.g. inside a JAR) or it can't be mapped
+        }
+        ByteBuffer result = ByteBuffer.allocateDirect(length);
+        try (InputStream is = webResource.getInputStream();
+                ReadableByteChannel channel = Channels.newChannel(is)) {
+            while (result.hasRemaining()) {
+                if (channel.read(result) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.warn(sm.getString("cachedResource.readFail", webAppPath), e);
+            return null;
+        }
+        if (result.hasRemaining()) {
+            // The resource changed while it was being read
+            return null;
+        }
+        result.flip();
+        return result.asReadOnlyBuffer();
+    }
+
     @Override
     public long getCreation() {
         return webResource.getCreation();
@@ -353,6 +575,53 @@ public class CachedResource implements WebResource {
         if (getContentLength() <= objectMaxSizeBytes) {
             result += getContentLength();
         }
+        ByteBuffer cachedGzipContent = this.cachedGzipContent;
+        if (cachedGzipContent != null) {
+            result += cachedGzipContent.capacity();
+        }
         return result;
     }
+
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            return buffer.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 }
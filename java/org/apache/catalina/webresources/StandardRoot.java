@@ -118,6 +118,14 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
             path = validate(path);
         }
 
+        if (isCachingAllowed()) {
+            return cache.list(path);
+        } else {
+            return listInternal(path);
+        }
+    }
+
+    protected final String[] listInternal(String path) {
         // Set because we don't want duplicates
         // LinkedHashSet to retain the order. It is the order of the
         // WebResourceSet that matters but it is simpler to retain the order
@@ -141,6 +149,14 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
     public Set<String> listWebAppPaths(String path) {
         path = validate(path);
 
+        if (isCachingAllowed()) {
+            return cache.listWebAppPaths(path);
+        } else {
+            return listWebAppPathsInternal(path);
+        }
+    }
+
+    protected final Set<String> listWebAppPathsInternal(String path) {
         // Set because we don't want duplicates
         HashSet<String> result = new HashSet<>();
         for (List<WebResourceSet> list : allResources) {
@@ -427,12 +443,14 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         }
 
         resourceList.add(resourceSet);
+        cache.clearLookups();
     }
 
     @Override
     public void addPreResources(WebResourceSet webResourceSet) {
         webResourceSet.setRoot(this);
         preResources.add(webResourceSet);
+        cache.clearLookups();
     }
 
     @Override
@@ -444,6 +462,7 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
     public void addJarResources(WebResourceSet webResourceSet) {
         webResourceSet.setRoot(this);
         jarResources.add(webResourceSet);
+        cache.clearLookups();
     }
 
     @Override
@@ -455,6 +474,7 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
     public void addPostResources(WebResourceSet webResourceSet) {
         webResourceSet.setRoot(this);
         postResources.add(webResourceSet);
+        cache.clearLookups();
     }
 
     @Override
@@ -469,6 +489,7 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
     protected void addClassResources(WebResourceSet webResourceSet) {
         webResourceSet.setRoot(this);
         classResources.add(webResourceSet);
+        cache.clearLookups();
     }
 
     @Override
@@ -533,6 +554,94 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         return cache.getObjectMaxSize();
     }
 
+    /**
+     * @return Where the content of newly cached resources is stored.
+     * @see Cache#getContentStorage()
+     */
+    public String getCacheContentStorage() {
+        return cache.getContentStorage();
+    }
+
+    /**
+     * Set where the content of newly cached resources is stored.
+     *
+     * @param cacheContentStorage <code>heap</code>, <code>direct</code> or
+     *                            <code>mapped</code>
+     * @see Cache#setContentStorage(String)
+     */
+    public void setCacheContentStorage(String cacheContentStorage) {
+        cache.setContentStorage(cacheContentStorage);
+    }
+
+    public long getCacheHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getCacheMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getCacheEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    public long getCacheAdmissionCount() {
+        return cache.getAdmissionCount();
+    }
+
+    public long getCacheRejectionCount() {
+        return cache.getRejectionCount();
+    }
+
+    /**
+     * @return The maximum number of resources that are known not to exist that
+     *         may be cached.
+     * @see Cache#getNegativeMaxSize()
+     */
+    public int getCacheNegativeMaxSize() {
+        return cache.getNegativeMaxSize();
+    }
+
+    /**
+     * Set the maximum number of resources that are known not to exist that
+     * may be cached.
+     *
+     * @param cacheNegativeMaxSize The maximum number of resources or zero to
+     *                             disable the negative cache
+     * @see Cache#setNegativeMaxSize(int)
+     */
+    public void setCacheNegativeMaxSize(int cacheNegativeMaxSize) {
+        cache.setNegativeMaxSize(cacheNegativeMaxSize);
+    }
+
+    public long getCacheNegativeHitCount() {
+        return cache.getNegativeHitCount();
+    }
+
+    /**
+     * @return The maximum number of directories for which a listing may be
+     *         cached.
+     * @see Cache#getListingMaxSize()
+     */
+    public int getCacheListingMaxSize() {
+        return cache.getListingMaxSize();
+    }
+
+    /**
+     * Set the maximum number of directories for which a listing may be cached.
+     *
+     * @param cacheListingMaxSize The maximum number of directories or zero to
+     *                            disable caching of directory listings
+     * @see Cache#setListingMaxSize(int)
+     */
+    public void setCacheListingMaxSize(int cacheListingMaxSize) {
+        cache.setListingMaxSize(cacheListingMaxSize);
+    }
+
+    public long getCacheListingHitCount() {
+        return cache.getListingHitCount();
+    }
+
     @Override
     public void setTrackLockedFiles(boolean trackLockedFiles) {
         this.trackLockedFiles = trackLockedFiles;
@@ -597,6 +706,7 @@ public class StandardRoot extends LifecycleMBeanBase implements WebResourceRoot
         this.main = main;
         mainResources.clear();
         mainResources.add(main);
+        cache.clearLookups();
     }
 
 
@@ -103,6 +103,17 @@ public final class Constants {
     public static final String SENDFILE_FILE_END_ATTR = "org.apache.tomcat.sendfile.end";
 
 
+    /**
+     * The request attribute that can be used by a servlet to pass to the
+     * connector the parts of the file, interleaved with data held in memory,
+     * that are to be served by sendfile. If set, it is used instead of
+     * {@link #SENDFILE_FILE_START_ATTR} and {@link #SENDFILE_FILE_END_ATTR}.
+     * The value should be
+     * {@code org.apache.tomcat.util.net.SendfileSegment[]}.
+     */
+    public static final String SENDFILE_SEGMENTS_ATTR = "org.apache.tomcat.sendfile.segments";
+
+
     /**
      * The request attribute set by the RemoteIpFilter, RemoteIpValve (and may
      * be set by other similar components) that identifies for the connector the
@@ -26,6 +26,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import javax.management.ObjectName;
 import javax.servlet.http.HttpUpgradeHandler;
 
 import org.apache.coyote.AbstractProtocol;
@@ -37,6 +38,7 @@ import org.apache.coyote.http11.upgrade.InternalHttpUpgradeHandler;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorExternal;
 import org.apache.coyote.http11.upgrade.UpgradeProcessorInternal;
 import org.apache.tomcat.util.buf.StringUtils;
+import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SSLHostConfig;
 import org.apache.tomcat.util.net.SocketWrapperBase;
@@ -66,6 +68,34 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         }
 
         super.init();
+
+        if (getDomain() != null) {
+            for (UpgradeProtocol upgradeProtocol : upgradeProtocols) {
+                String upgradeName = upgradeProtocol.getAlpnName();
+                if (upgradeName == null) {
+                    upgradeName = upgradeProtocol.getHttpUpgradeName(false);
+                }
+                ObjectName upgradeOname = new ObjectName(getDomain() +
+                        ":type=UpgradeProtocol,name=" + getName() +
+                        ",upgradeProtocol=" + ObjectName.quote(String.valueOf(upgradeName)));
+                Registry.getRegistry(null, null).registerComponent(
+                        upgradeProtocol, upgradeOname, null);
+                upgradeProtocolOnames.add(upgradeOname);
+            }
+        }
+    }
+
+
+    @Override
+    public void destroy() throws Exception {
+        try {
+            super.destroy();
+        } finally {
+            for (ObjectName upgradeOname : upgradeProtocolOnames) {
+                Registry.getRegistry(null, null).unregisterComponent(upgradeOname);
+            }
+            upgradeProtocolOnames.clear();
+        }
     }
 
 
@@ -371,6 +401,7 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
      * The upgrade protocol instances configured.
      */
     private final List<UpgradeProtocol> upgradeProtocols = new ArrayList<>();
+    private final List<ObjectName> upgradeProtocolOnames = new ArrayList<>();
     @Override
     public void addUpgradeProtocol(UpgradeProtocol upgradeProtocol) {
         upgradeProtocols.add(upgradeProtocol);
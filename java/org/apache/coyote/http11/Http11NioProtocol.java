@@ -54,6 +54,22 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)getEndpoint()).getPollerThreadCount();
     }
 
+    public void setPollerAffinity(boolean pollerAffinity) {
+        ((NioEndpoint)getEndpoint()).setPollerAffinity(pollerAffinity);
+    }
+
+    public boolean getPollerAffinity() {
+        return ((NioEndpoint)getEndpoint()).getPollerAffinity();
+    }
+
+    public void setReusePortCount(int count) {
+        ((NioEndpoint)getEndpoint()).setReusePortCount(count);
+    }
+
+    public int getReusePortCount() {
+        return ((NioEndpoint)getEndpoint()).getReusePortCount();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ((NioEndpoint)getEndpoint()).setSelectorTimeout(timeout);
     }
@@ -594,7 +594,9 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
     /**
      * This class is an output buffer which will write data to a socket.
      */
-    protected class SocketOutputBuffer implements HttpOutputBuffer {
+    protected class SocketOutputBuffer implements HttpOutputBuffer, GatheringOutputBuffer {
+
+        private final ByteBuffer[] singleChunk = new ByteBuffer[1];
 
         /**
          * Write chunk.
@@ -618,10 +620,31 @@ public class Http11OutputBuffer implements HttpOutputBuffer {
          */
         @Override
         public int doWrite(ByteBuffer chunk) throws IOException {
+            // Written as a gathering write so that, if the chunk does not fit
+            // in the socket write buffer, it is written to the network in the
+            // same write as the response headers
+            singleChunk[0] = chunk;
             try {
-                int len = chunk.remaining();
-                socketWrapper.write(isBlocking(), chunk);
-                len -= chunk.remaining();
+                return doWrite(singleChunk);
+            } finally {
+                singleChunk[0] = null;
+            }
+        }
+
+        /**
+         * Write chunks using a single gathering write where possible.
+         */
+        @Override
+        public int doWrite(ByteBuffer[] chunks) throws IOException {
+            try {
+                int len = 0;
+                for (ByteBuffer chunk : chunks) {
+                    len += chunk.remaining();
+                }
+                socketWrapper.write(isBlocking(), chunks);
+                for (ByteBuffer chunk : chunks) {
+                    len -= chunk.remaining();
+                }
                 byteCount += len;
                 return len;
             } catch (IOException ioe) {
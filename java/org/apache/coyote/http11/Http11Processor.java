@@ -59,6 +59,7 @@ import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SSLSupport;
 import org.apache.tomcat.util.net.SendfileDataBase;
 import org.apache.tomcat.util.net.SendfileKeepAliveState;
+import org.apache.tomcat.util.net.SendfileSegment;
 import org.apache.tomcat.util.net.SendfileState;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 import org.apache.tomcat.util.res.StringManager;
@@ -1416,11 +1417,18 @@ public class Http11Processor extends AbstractProcessor {
             // No entity body sent here
             outputBuffer.addActiveFilter(outputFilters[Constants.VOID_FILTER]);
             contentDelimitation = true;
-            long pos = ((Long) request.getAttribute(
-                    org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
-            long end = ((Long) request.getAttribute(
-                    org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue();
-            sendfileData = socketWrapper.createSendfileData(fileName, pos, end - pos);
+            SendfileSegment[] segments = (SendfileSegment[]) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_SEGMENTS_ATTR);
+            if (segments == null) {
+                long pos = ((Long) request.getAttribute(
+                        org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
+                long end = ((Long) request.getAttribute(
+                        org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue();
+                sendfileData = socketWrapper.createSendfileData(fileName, pos, end - pos);
+            } else {
+                sendfileData = socketWrapper.createSendfileData(fileName, 0, 0);
+                sendfileData.setSegments(segments);
+            }
         }
     }
 
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.GatheringOutputBuffer;
 import org.apache.coyote.http11.HttpOutputBuffer;
 import org.apache.coyote.http11.OutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -37,6 +38,7 @@ public class ChunkedOutputFilter implements OutputFilter {
     // -------------------------------------------------------------- Constants
     private static final byte[] END_CHUNK_BYTES = {(byte) '0', (byte) '\r', (byte) '\n',
             (byte) '\r', (byte) '\n'};
+    private static final byte[] CRLF_BYTES = {(byte) '\r', (byte) '\n'};
 
 
     // ------------------------------------------------------------ Constructor
@@ -72,6 +74,14 @@ public class ChunkedOutputFilter implements OutputFilter {
     protected final ByteBuffer endChunk = ByteBuffer.wrap(END_CHUNK_BYTES);
 
 
+    /**
+     * Chunk header, data and trailing CRLF passed to the next buffer as a
+     * single gathering write.
+     */
+    private final ByteBuffer[] gatheredChunk =
+            new ByteBuffer[] { chunkHeader, null, ByteBuffer.wrap(CRLF_BYTES) };
+
+
     // ------------------------------------------------------------- Properties
 
 
@@ -118,6 +128,18 @@ public class ChunkedOutputFilter implements OutputFilter {
         int pos = calculateChunkHeader(result);
 
         chunkHeader.position(pos + 1).limit(chunkHeader.position() + 9 - pos);
+
+        if (buffer instanceof GatheringOutputBuffer) {
+            gatheredChunk[1] = chunk;
+            gatheredChunk[2].position(0);
+            try {
+                ((GatheringOutputBuffer) buffer).doWrite(gatheredChunk);
+            } finally {
+                gatheredChunk[1] = null;
+            }
+            return result;
+        }
+
         buffer.doWrite(chunkHeader);
 
         buffer.doWrite(chunk);
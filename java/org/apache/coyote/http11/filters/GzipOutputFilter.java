@@ -86,7 +86,7 @@ public class GzipOutputFilter implements OutputFilter {
             compressionStream.write(chunk.array(), chunk.arrayOffset() + chunk.position(), len);
         } else {
             byte[] bytes = new byte[len];
-            chunk.put(bytes);
+            chunk.get(bytes);
             compressionStream.write(bytes, 0, len);
         }
         return len;
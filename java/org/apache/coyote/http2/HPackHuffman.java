@@ -376,7 +376,34 @@ public class HPackHuffman {
      */
     public static void decode(ByteBuffer data, int length, StringBuilder target)
             throws HpackException {
+        byte[] decoded = new byte[getMaxDecodedLength(length)];
+        int decodedLength = decode(data, length, decoded, 0);
+        for (int i = 0; i < decodedLength; i++) {
+            target.append((char) (decoded[i] & 0xFF));
+        }
+    }
+
+
+    /**
+     * Decodes a huffman encoded string into the target array. There must be
+     * enough space left in the buffer for this method to succeed and there
+     * must be at least {@link #getMaxDecodedLength(int)} bytes available in the
+     * target array after the offset.
+     *
+     * @param data   The byte buffer
+     * @param length The length of data from the buffer to decode
+     * @param target The target for the decompressed data
+     * @param offset The position in the target at which to start writing
+     *
+     * @return The number of bytes written to the target
+     *
+     * @throws HpackException If the Huffman encoded value in HPACK headers did
+     *                        not end with EOS padding
+     */
+    public static int decode(ByteBuffer data, int length, byte[] target, int offset)
+            throws HpackException {
         assert data.remaining() >= length;
+        int pos = offset;
         int treePos = 0;
         boolean eosBits = true;
         int eosBitCount = 0;
@@ -392,7 +419,7 @@ public class HPackHuffman {
                         eosBits = false;
                         eosBitCount = 0;
                     } else {
-                        target.append((char) (val & LOW_MASK));
+                        target[pos++] = (byte) (val & LOW_MASK);
                         treePos = 0;
                         eosBits = true;
                     }
@@ -404,7 +431,7 @@ public class HPackHuffman {
                     if ((val & HIGH_TERMINAL_BIT) == 0) {
                         treePos = (val >> 16) & LOW_MASK;
                     } else {
-                        target.append((char) ((val >> 16) & LOW_MASK));
+                        target[pos++] = (byte) ((val >> 16) & LOW_MASK);
                         treePos = 0;
                         eosBits = true;
                     }
@@ -420,6 +447,18 @@ public class HPackHuffman {
             throw new HpackException(sm.getString(
                     "hpackhuffman.huffmanEncodedHpackValueDidNotEndWithEOS"));
         }
+        return pos - offset;
+    }
+
+
+    /**
+     * @param length The length of some huffman encoded data
+     *
+     * @return The maximum length of the data once decoded. The shortest code
+     *         is five bits long.
+     */
+    public static int getMaxDecodedLength(int length) {
+        return length * 8 / 5 + 1;
     }
 
 
@@ -16,20 +16,25 @@
  */
 package org.apache.coyote.http2;
 
-import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
+import org.apache.coyote.http2.HpackDecoder.ByteHeaderEmitter;
 
 /**
  * Purpose of this class is to silently swallow any headers. It is used once
  * the connection close process has started if headers for new streams are
  * received.
  */
-public class HeaderSink implements HeaderEmitter {
+public class HeaderSink implements ByteHeaderEmitter {
 
     @Override
     public void emitHeader(String name, String value) {
         // NO-OP
     }
 
+    @Override
+    public void emitHeader(String name, byte[] value, int offset, int length) {
+        // NO-OP
+    }
+
     @Override
     public void validateHeaders() throws StreamException {
         // NO-OP
@@ -38,6 +38,12 @@ final class Hpack {
     static final HeaderField[] STATIC_TABLE;
     static final int STATIC_TABLE_LENGTH;
 
+    /**
+     * The distinct names from the static table grouped by length so header
+     * names sent as literals can be resolved to the existing constants.
+     */
+    private static final String[][] STATIC_TABLE_NAMES_BY_LENGTH;
+
     static {
         PREFIX_TABLE = new int[32];
         for (int i = 0; i < 32; ++i) {
@@ -114,6 +120,50 @@ final class Hpack {
         fields[61] = new HeaderField("www-authenticate", null);
         STATIC_TABLE = fields;
         STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+
+        int maxLength = 0;
+        for (int i = 1; i < fields.length; i++) {
+            maxLength = Math.max(maxLength, fields[i].name.length());
+        }
+        String[][] namesByLength = new String[maxLength + 1][0];
+        for (int i = 1; i < fields.length; i++) {
+            String name = fields[i].name;
+            if (name.equals(fields[i - 1] == null ? null : fields[i - 1].name)) {
+                continue;
+            }
+            String[] existing = namesByLength[name.length()];
+            String[] names = new String[existing.length + 1];
+            System.arraycopy(existing, 0, names, 0, existing.length);
+            names[existing.length] = name;
+            namesByLength[name.length()] = names;
+        }
+        STATIC_TABLE_NAMES_BY_LENGTH = namesByLength;
+    }
+
+
+    /**
+     * Look up a header name in the static table.
+     *
+     * @param bytes  The bytes of the header name (ISO-8859-1)
+     * @param length The number of bytes in the name
+     *
+     * @return The name from the static table that matches the given bytes or
+     *         <code>null</code> if there is no match
+     */
+    static String getStaticTableName(byte[] bytes, int length) {
+        if (length >= STATIC_TABLE_NAMES_BY_LENGTH.length) {
+            return null;
+        }
+        for (String name : STATIC_TABLE_NAMES_BY_LENGTH[length]) {
+            int i = 0;
+            while (i < length && name.charAt(i) == (bytes[i] & 0xFF)) {
+                i++;
+            }
+            if (i == length) {
+                return name;
+            }
+        }
+        return null;
     }
 
     static class HeaderField {
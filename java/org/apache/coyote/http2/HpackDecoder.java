@@ -17,6 +17,7 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.apache.tomcat.util.res.StringManager;
 
@@ -34,6 +35,11 @@ public class HpackDecoder {
      */
     private HeaderEmitter headerEmitter;
 
+    /**
+     * The header emitter if it accepts values as bytes, else null
+     */
+    private ByteHeaderEmitter byteHeaderEmitter;
+
     /**
      * The header table
      */
@@ -72,7 +78,11 @@ public class HpackDecoder {
     private volatile boolean countedCookie;
     private volatile int headerSize = 0;
 
-    private final StringBuilder stringBuilder = new StringBuilder();
+    /**
+     * Literal names and values are decoded into this buffer. It grows as
+     * required to hold the largest literal seen.
+     */
+    private byte[] decodeBuffer = new byte[128];
 
     public HpackDecoder(int maxMemorySize) {
         this.maxMemorySizeHard = maxMemorySize;
@@ -125,30 +135,16 @@ public class HpackDecoder {
                 addEntryToHeaderTable(new Hpack.HeaderField(headerName, headerValue));
             } else if ((b & 0b11110000) == 0) {
                 //Literal Header Field without Indexing
-                String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (!readLiteralHeader(buffer)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
             } else if ((b & 0b11110000) == 0b00010000) {
                 //Literal Header Field never indexed
-                String headerName = readHeaderName(buffer, 4);
-                if (headerName == null) {
-                    buffer.position(originalPos);
-                    return;
-                }
-                String headerValue = readHpackString(buffer);
-                if (headerValue == null) {
+                if (!readLiteralHeader(buffer)) {
                     buffer.position(originalPos);
                     return;
                 }
-                emitHeader(headerName, headerValue);
             } else if ((b & 0b11100000) == 0b00100000) {
                 //context update max table size change
                 if (!handleMaxMemorySizeChange(buffer, originalPos)) {
@@ -195,6 +191,32 @@ public class HpackDecoder {
         return true;
     }
 
+    /*
+     * Reads a literal header field that is not added to the header table. If
+     * the recipient accepts bytes the value is passed to it without creating a
+     * String. Returns false if there was insufficient data.
+     */
+    private boolean readLiteralHeader(ByteBuffer buffer) throws HpackException {
+        String headerName = readHeaderName(buffer, 4);
+        if (headerName == null) {
+            return false;
+        }
+        if (byteHeaderEmitter == null) {
+            String headerValue = readHpackString(buffer);
+            if (headerValue == null) {
+                return false;
+            }
+            emitHeader(headerName, headerValue);
+        } else {
+            int length = readHpackBytes(buffer);
+            if (length == -1) {
+                return false;
+            }
+            emitHeader(headerName, decodeBuffer, length);
+        }
+        return true;
+    }
+
     private String readHeaderName(ByteBuffer buffer, int prefixLength) throws HpackException {
         buffer.position(buffer.position() - 1); //unget the byte
         int index = Hpack.decodeInteger(buffer, prefixLength);
@@ -203,37 +225,55 @@ public class HpackDecoder {
         } else if (index != 0) {
             return handleIndexedHeaderName(index);
         } else {
-            return readHpackString(buffer);
+            int length = readHpackBytes(buffer);
+            if (length == -1) {
+                return null;
+            }
+            // Use the existing String if the name is in the static table
+            String name = Hpack.getStaticTableName(decodeBuffer, length);
+            if (name == null) {
+                name = new String(decodeBuffer, 0, length, StandardCharsets.ISO_8859_1);
+            }
+            return name;
         }
     }
 
     private String readHpackString(ByteBuffer buffer) throws HpackException {
-        if (!buffer.hasRemaining()) {
+        int length = readHpackBytes(buffer);
+        if (length == -1) {
             return null;
         }
+        return new String(decodeBuffer, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    /*
+     * Reads a string literal into the decode buffer and returns the length of
+     * the decoded string or -1 if there was insufficient data.
+     */
+    private int readHpackBytes(ByteBuffer buffer) throws HpackException {
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
         byte data = buffer.get(buffer.position());
 
         int length = Hpack.decodeInteger(buffer, 7);
-        if (buffer.remaining() < length) {
-            return null;
+        if (length == -1 || buffer.remaining() < length) {
+            return -1;
         }
         boolean huffman = (data & 0b10000000) != 0;
         if (huffman) {
-            return readHuffmanString(length, buffer);
+            ensureDecodeBufferCapacity(HPackHuffman.getMaxDecodedLength(length));
+            return HPackHuffman.decode(buffer, length, decodeBuffer, 0);
         }
-        for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
-        }
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
+        ensureDecodeBufferCapacity(length);
+        buffer.get(decodeBuffer, 0, length);
+        return length;
     }
 
-    private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        return ret;
+    private void ensureDecodeBufferCapacity(int capacity) {
+        if (decodeBuffer.length < capacity) {
+            decodeBuffer = new byte[Math.max(capacity, decodeBuffer.length * 2)];
+        }
     }
 
     private String handleIndexedHeaderName(int index) throws HpackException {
@@ -385,6 +425,30 @@ public class HpackDecoder {
     }
 
 
+    /**
+     * Interface implemented by recipients of headers that can accept header
+     * values as bytes. Values of literal header fields that are not added to
+     * the header table are then passed without creating a String. Header
+     * names that are in the static table are always the constants from that
+     * table.
+     */
+    interface ByteHeaderEmitter extends HeaderEmitter {
+        /**
+         * Pass a single header to the recipient. The value is only valid for
+         * the duration of the call and must be copied if it is retained.
+         *
+         * @param name   Header name
+         * @param value  The array containing the header value (ISO-8859-1)
+         * @param offset The position of the start of the value in the array
+         * @param length The number of bytes in the value
+         * @throws HpackException If a header is received that is not compliant
+         *                        with the HTTP/2 specification
+         */
+        void emitHeader(String name, byte[] value, int offset, int length)
+                throws HpackException;
+    }
+
+
     public HeaderEmitter getHeaderEmitter() {
         return headerEmitter;
     }
@@ -392,6 +456,11 @@ public class HpackDecoder {
 
     void setHeaderEmitter(HeaderEmitter headerEmitter) {
         this.headerEmitter = headerEmitter;
+        if (headerEmitter instanceof ByteHeaderEmitter) {
+            byteHeaderEmitter = (ByteHeaderEmitter) headerEmitter;
+        } else {
+            byteHeaderEmitter = null;
+        }
         // Reset limit tracking
         headerCount = 0;
         countedCookie = false;
@@ -410,6 +479,23 @@ public class HpackDecoder {
 
 
     private void emitHeader(String name, String value) throws HpackException {
+        if (countHeader(name, value.length())) {
+            headerEmitter.emitHeader(name, value);
+        }
+    }
+
+
+    private void emitHeader(String name, byte[] value, int length) throws HpackException {
+        if (countHeader(name, length)) {
+            byteHeaderEmitter.emitHeader(name, value, 0, length);
+        }
+    }
+
+
+    /*
+     * Returns true if the header should be passed to the recipient.
+     */
+    private boolean countHeader(String name, int valueLength) {
         // Header names are forced to lower case
         if ("cookie".equals(name)) {
             // Only count the cookie header once since HTTP/2 splits it into
@@ -424,11 +510,9 @@ public class HpackDecoder {
         // Overhead will vary. The main concern is that lots of small headers
         // trigger the limiting mechanism correctly. Therefore, use an overhead
         // estimate of 3 which is the worst case for small headers.
-        int inc = 3 + name.length() + value.length();
+        int inc = 3 + name.length() + valueLength;
         headerSize += inc;
-        if (!isHeaderCountExceeded() && !isHeaderSizeExceeded(0)) {
-            headerEmitter.emitHeader(name, value);
-        }
+        return !isHeaderCountExceeded() && !isHeaderSizeExceeded(0);
     }
 
 
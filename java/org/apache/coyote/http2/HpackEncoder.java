@@ -18,11 +18,10 @@ package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
 
@@ -60,6 +59,22 @@ public class HpackEncoder {
 
     };
 
+    /*
+     * The representations used to refer to a table entry. The index of each
+     * is used to look up the pre-encoded form for static table entries.
+     */
+    private static final int REPRESENTATION_INDEXED = 0;
+    private static final int REPRESENTATION_INCREMENTAL_INDEXING = 1;
+    private static final int REPRESENTATION_NEVER_INDEXED = 2;
+    private static final byte[] REPRESENTATION_MASKS = { (byte) (1 << 7), 1 << 6, 1 << 4 };
+    private static final int[] REPRESENTATION_PREFIX_LENGTHS = { 7, 6, 4 };
+
+    /*
+     * The maximum number of header names for which the encoded form of the
+     * most recent literal value is retained.
+     */
+    private static final int LITERAL_CACHE_SIZE = 32;
+
     private int headersIterator = -1;
     private boolean firstPass = true;
 
@@ -73,7 +88,16 @@ public class HpackEncoder {
     private static final Map<String, TableEntry[]> ENCODING_STATIC_TABLE;
 
     private final Deque<TableEntry> evictionQueue = new ArrayDeque<>();
-    private final Map<String, List<TableEntry>> dynamicTable = new HashMap<>(); //TODO: use a custom data structure to reduce allocations
+    // Keyed by name and then value so lookups don't have to scan the table
+    private final Map<String, Map<String, TableEntry>> dynamicTable = new HashMap<>();
+
+    /*
+     * Headers that are not added to the dynamic table, such as date, are
+     * written as literals for every response although the value rarely
+     * changes. The encoded form of the last value seen for each such header is
+     * retained so it only has to be Huffman encoded once.
+     */
+    private final Map<String, CachedLiteral> literalCache = new HashMap<>();
 
     static {
         Map<String, TableEntry[]> map = new HashMap<>();
@@ -81,11 +105,11 @@ public class HpackEncoder {
             Hpack.HeaderField m = Hpack.STATIC_TABLE[i];
             TableEntry[] existing = map.get(m.name);
             if (existing == null) {
-                map.put(m.name, new TableEntry[]{new TableEntry(m.name, m.value, i)});
+                map.put(m.name, new TableEntry[]{new StaticTableEntry(m.name, m.value, i)});
             } else {
                 TableEntry[] newEntry = new TableEntry[existing.length + 1];
                 System.arraycopy(existing, 0, newEntry, 0, existing.length);
-                newEntry[existing.length] = new TableEntry(m.name, m.value, i);
+                newEntry[existing.length] = new StaticTableEntry(m.name, m.value, i);
                 map.put(m.name, newEntry);
             }
         }
@@ -170,25 +194,22 @@ public class HpackEncoder {
                         //literal never indexed
                         target.put((byte) (1 << 4));
                         writeHuffmanEncodableName(target, headerName);
-                        writeHuffmanEncodableValue(target, headerName, val);
+                        writeLiteralValue(target, headerName, val);
                     } else {
                         //so we know something is already in the table
                         if (val.equals(tableEntry.value)) {
                             //the whole thing is in the table
-                            target.put((byte) (1 << 7));
-                            Hpack.encodeInteger(target, tableEntry.getPosition(), 7);
+                            writeIndex(target, tableEntry, REPRESENTATION_INDEXED);
                         } else {
                             if (canIndex) {
                                 //add the entry to the dynamic table
-                                target.put((byte) (1 << 6));
-                                Hpack.encodeInteger(target, tableEntry.getPosition(), 6);
+                                writeIndex(target, tableEntry, REPRESENTATION_INCREMENTAL_INDEXING);
                                 writeHuffmanEncodableValue(target, headerName, val);
                                 addToDynamicTable(headerName, val);
 
                             } else {
-                                target.put((byte) (1 << 4));
-                                Hpack.encodeInteger(target, tableEntry.getPosition(), 4);
-                                writeHuffmanEncodableValue(target, headerName, val);
+                                writeIndex(target, tableEntry, REPRESENTATION_NEVER_INDEXED);
+                                writeLiteralValue(target, headerName, val);
                             }
                         }
                     }
@@ -204,6 +225,51 @@ public class HpackEncoder {
         return State.COMPLETE;
     }
 
+    private static void writeIndex(ByteBuffer target, TableEntry tableEntry, int representation) {
+        byte[][] encodedIndex = tableEntry.getEncodedIndex();
+        if (encodedIndex != null) {
+            target.put(encodedIndex[representation]);
+        } else {
+            target.put(REPRESENTATION_MASKS[representation]);
+            Hpack.encodeInteger(target, tableEntry.getPosition(),
+                    REPRESENTATION_PREFIX_LENGTHS[representation]);
+        }
+    }
+
+    /*
+     * Writes the value of a header that will not be added to the dynamic
+     * table. A value is only cached once it has been seen twice in a row for
+     * the same header so values that always change (such as content-length)
+     * don't trigger any copying.
+     */
+    private void writeLiteralValue(ByteBuffer target, String headerName, String val) {
+        CachedLiteral cached = literalCache.get(headerName);
+        if (cached == null) {
+            if (literalCache.size() < LITERAL_CACHE_SIZE) {
+                literalCache.put(headerName, new CachedLiteral(val));
+            }
+            writeHuffmanEncodableValue(target, headerName, val);
+        } else if (!val.equals(cached.value)) {
+            cached.value = val;
+            cached.encoded = null;
+            writeHuffmanEncodableValue(target, headerName, val);
+        } else if (cached.encoded == null) {
+            int start = target.position();
+            writeHuffmanEncodableValue(target, headerName, val);
+            ByteBuffer written = target.duplicate();
+            written.flip();
+            written.position(start);
+            cached.encoded = new byte[written.remaining()];
+            written.get(cached.encoded);
+        } else if (target.remaining() < cached.encoded.length) {
+            // The Huffman encoded form may be longer than the space checked
+            // for so let the encoder decide
+            writeHuffmanEncodableValue(target, headerName, val);
+        } else {
+            target.put(cached.encoded);
+        }
+    }
+
     private void writeHuffmanEncodableName(ByteBuffer target, String headerName) {
         if (hpackHeaderFunction.shouldUseHuffman(headerName)) {
             if(HPackHuffman.encode(target, headerName, true)) {
@@ -239,11 +305,11 @@ public class HpackEncoder {
     private void addToDynamicTable(String headerName, String val) {
         int pos = entryPositionCounter++;
         DynamicTableEntry d = new DynamicTableEntry(headerName, val, -pos);
-        List<TableEntry> existing = dynamicTable.get(headerName);
+        Map<String, TableEntry> existing = dynamicTable.get(headerName);
         if (existing == null) {
-            dynamicTable.put(headerName, existing = new ArrayList<>(1));
+            dynamicTable.put(headerName, existing = new HashMap<>(4));
         }
-        existing.add(d);
+        existing.put(val, d);
         evictionQueue.add(d);
         currentTableSize += d.size;
         runEvictionIfRequired();
@@ -258,8 +324,8 @@ public class HpackEncoder {
     private void preventPositionRollover() {
         //if the position counter is about to roll over we iterate all the table entries
         //and set their position to their actual position
-        for (Map.Entry<String, List<TableEntry>> entry : dynamicTable.entrySet()) {
-            for (TableEntry t : entry.getValue()) {
+        for (Map<String, TableEntry> entries : dynamicTable.values()) {
+            for (TableEntry t : entries.values()) {
                 t.position = t.getPosition();
             }
         }
@@ -274,34 +340,49 @@ public class HpackEncoder {
                 return;
             }
             currentTableSize -= next.size;
-            List<TableEntry> list = dynamicTable.get(next.name);
-            list.remove(next);
-            if (list.isEmpty()) {
-                dynamicTable.remove(next.name);
+            Map<String, TableEntry> entries = dynamicTable.get(next.name);
+            if (entries.get(next.value) == next) {
+                entries.remove(next.value);
+                if (entries.isEmpty()) {
+                    dynamicTable.remove(next.name);
+                }
             }
         }
     }
 
+    /*
+     * Returns an entry that matches both the name and the value if there is
+     * one, otherwise an entry that only matches the name or null if there is
+     * no entry with the name.
+     */
     private TableEntry findInTable(String headerName, String value) {
         TableEntry[] staticTable = ENCODING_STATIC_TABLE.get(headerName);
         if (staticTable != null) {
+            // At most a handful of entries per name
             for (TableEntry st : staticTable) {
-                if (st.value != null && st.value.equals(value)) { //todo: some form of lookup?
+                if (st.value != null && st.value.equals(value)) {
                     return st;
                 }
             }
         }
-        List<TableEntry> dynamic = dynamicTable.get(headerName);
+        Map<String, TableEntry> dynamic = dynamicTable.get(headerName);
         if (dynamic != null) {
-            for (TableEntry st : dynamic) {
-                if (st.value.equals(value)) { //todo: some form of lookup?
-                    return st;
-                }
+            TableEntry dt = dynamic.get(value);
+            if (dt != null) {
+                return dt;
             }
         }
         if (staticTable != null) {
             return staticTable[0];
         }
+        if (dynamic != null) {
+            // The name is in the dynamic table so it does not need to be
+            // written as a literal
+            Iterator<TableEntry> iter = dynamic.values().iterator();
+            if (iter.hasNext()) {
+                return iter.next();
+            }
+        }
         return null;
     }
 
@@ -356,6 +437,43 @@ public class HpackEncoder {
         public int getPosition() {
             return position;
         }
+
+        /**
+         * @return The pre-encoded references to this entry indexed by
+         *         representation or <code>null</code> if the references have
+         *         to be encoded each time as the position of the entry changes
+         */
+        byte[][] getEncodedIndex() {
+            return null;
+        }
+    }
+
+    /*
+     * Entries in the static table never move so the bytes used to refer to
+     * them are encoded once and shared by all encoders.
+     */
+    static class StaticTableEntry extends TableEntry {
+
+        private final byte[][] encodedIndex;
+
+        StaticTableEntry(String name, String value, int position) {
+            super(name, value, position);
+            encodedIndex = new byte[REPRESENTATION_MASKS.length][];
+            ByteBuffer buffer = ByteBuffer.allocate(8);
+            for (int i = 0; i < encodedIndex.length; i++) {
+                buffer.clear();
+                buffer.put(REPRESENTATION_MASKS[i]);
+                Hpack.encodeInteger(buffer, position, REPRESENTATION_PREFIX_LENGTHS[i]);
+                buffer.flip();
+                encodedIndex[i] = new byte[buffer.remaining()];
+                buffer.get(encodedIndex[i]);
+            }
+        }
+
+        @Override
+        byte[][] getEncodedIndex() {
+            return encodedIndex;
+        }
     }
 
     class DynamicTableEntry extends TableEntry {
@@ -370,6 +488,15 @@ public class HpackEncoder {
         }
     }
 
+    private static class CachedLiteral {
+        private String value;
+        private byte[] encoded;
+
+        private CachedLiteral(String value) {
+            this.value = value;
+        }
+    }
+
     public interface HpackHeaderFunction {
         boolean shouldUseIndexing(String header, String value);
 
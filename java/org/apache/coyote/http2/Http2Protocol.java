@@ -25,6 +25,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.apache.coyote.Adapter;
@@ -73,8 +75,14 @@ public class Http2Protocol implements UpgradeProtocol {
     private int maxTrailerCount = Constants.DEFAULT_MAX_TRAILER_COUNT;
     private int maxTrailerSize = Constants.DEFAULT_MAX_TRAILER_SIZE;
     private boolean initiatePingDisabled = false;
+    private boolean useSendfile = true;
     // Compression
     private final CompressionConfig compressionConfig = new CompressionConfig();
+    // Connection flow control statistics
+    private final AtomicLong blockedStreamCount = new AtomicLong(0);
+    private final AtomicLong backLogReleaseCount = new AtomicLong(0);
+    private final AtomicLong backLogAllocatedBytes = new AtomicLong(0);
+    private final AtomicInteger maxBlockedStreamsPerConnection = new AtomicInteger(0);
 
     @Override
     public String getHttpUpgradeName(boolean isSSLEnabled) {
@@ -280,6 +288,79 @@ public class Http2Protocol implements UpgradeProtocol {
     }
 
 
+    public void setUseSendfile(boolean useSendfile) {
+        this.useSendfile = useSendfile;
+    }
+
+
+    public boolean getUseSendfile() {
+        return useSendfile;
+    }
+
+
+    // --------------------------------------------- Flow control statistics
+
+    void streamBlocked(int blockedStreamsOnConnection) {
+        blockedStreamCount.incrementAndGet();
+        int max = maxBlockedStreamsPerConnection.get();
+        while (blockedStreamsOnConnection > max &&
+                !maxBlockedStreamsPerConnection.compareAndSet(max, blockedStreamsOnConnection)) {
+            max = maxBlockedStreamsPerConnection.get();
+        }
+    }
+
+
+    void backLogReleased(long allocated) {
+        backLogReleaseCount.incrementAndGet();
+        backLogAllocatedBytes.addAndGet(allocated);
+    }
+
+
+    /**
+     * @return The number of times, across all connections, that a stream had
+     *         to wait for the connection flow control window to open
+     */
+    public long getBlockedStreamCount() {
+        return blockedStreamCount.get();
+    }
+
+
+    /**
+     * @return The number of connection window updates that have been shared
+     *         out between streams that were waiting for the window to open
+     */
+    public long getBackLogReleaseCount() {
+        return backLogReleaseCount.get();
+    }
+
+
+    /**
+     * @return The total number of bytes of connection window that have been
+     *         allocated to streams that were waiting for the window to open
+     */
+    public long getBackLogAllocatedBytes() {
+        return backLogAllocatedBytes.get();
+    }
+
+
+    /**
+     * @return The largest number of streams that have been waiting for the
+     *         connection flow control window of a single connection at the
+     *         same time
+     */
+    public int getMaxBlockedStreamsPerConnection() {
+        return maxBlockedStreamsPerConnection.get();
+    }
+
+
+    public void resetFlowControlStatistics() {
+        blockedStreamCount.set(0);
+        backLogReleaseCount.set(0);
+        backLogAllocatedBytes.set(0);
+        maxBlockedStreamsPerConnection.set(0);
+    }
+
+
     public void setCompression(String compression) {
         compressionConfig.setCompression(compression);
     }
@@ -19,10 +19,10 @@ package org.apache.coyote.http2;
 import java.io.EOFException;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
@@ -30,7 +30,6 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -138,8 +137,7 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     private final PingManager pingManager = new PingManager();
     private volatile int newStreamsSinceLastPrune = 0;
     // Tracking for when the connection is blocked (windowSize < 1)
-    private final ConcurrentMap<AbstractStream,int[]> backLogStreams = new ConcurrentHashMap<>();
-    private long backLogSize = 0;
+    private final StreamScheduler backLog = new StreamScheduler(this);
 
     // Stream concurrency control
     private int maxConcurrentStreamExecution = Http2Protocol.DEFAULT_MAX_CONCURRENT_STREAM_EXECUTION;
@@ -624,20 +622,8 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             log.debug(sm.getString("upgradeHandler.writeBody", connectionId, stream.getIdentifier(),
                     Integer.toString(len)));
         }
-        // Need to check this now since sending end of stream will change this.
-        boolean writeable = stream.canWrite();
-        byte[] header = new byte[9];
-        ByteUtil.setThreeBytes(header, 0, len);
-        header[3] = FrameType.DATA.getIdByte();
-        if (finished) {
-            header[4] = FLAG_END_OF_STREAM;
-            stream.sentEndOfStream();
-            if (!stream.isActive()) {
-                activeRemoteStreamCount.decrementAndGet();
-            }
-        }
-        if (writeable) {
-            ByteUtil.set31Bits(header, 5, stream.getIdentifier().intValue());
+        byte[] header = createDataFrameHeader(stream, len, finished);
+        if (header != null) {
             synchronized (socketWrapper) {
                 try {
                     socketWrapper.write(true, header, 0, header.length);
@@ -654,6 +640,61 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
+    /*
+     * Writes a DATA frame with a payload taken directly from a file. Only
+     * valid if isFileTransferSupported() returns true.
+     */
+    void writeBody(Stream stream, FileChannel file, long pos, int len, boolean finished)
+            throws IOException {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.writeBody.file", connectionId,
+                    stream.getIdentifier(), Long.toString(pos), Integer.toString(len)));
+        }
+        byte[] header = createDataFrameHeader(stream, len, finished);
+        if (header != null) {
+            synchronized (socketWrapper) {
+                try {
+                    socketWrapper.write(true, header, 0, header.length);
+                    socketWrapper.transferFile(file, pos, len);
+                    socketWrapper.flush(true);
+                } catch (IOException ioe) {
+                    handleAppInitiatedIOException(ioe);
+                }
+            }
+        }
+    }
+
+
+    /*
+     * Returns null if the stream is not writeable, in which case the frame
+     * should not be written.
+     */
+    private byte[] createDataFrameHeader(Stream stream, int len, boolean finished) {
+        // Need to check this now since sending end of stream will change this.
+        boolean writeable = stream.canWrite();
+        byte[] header = new byte[9];
+        ByteUtil.setThreeBytes(header, 0, len);
+        header[3] = FrameType.DATA.getIdByte();
+        if (finished) {
+            header[4] = FLAG_END_OF_STREAM;
+            stream.sentEndOfStream();
+            if (!stream.isActive()) {
+                activeRemoteStreamCount.decrementAndGet();
+            }
+        }
+        if (!writeable) {
+            return null;
+        }
+        ByteUtil.set31Bits(header, 5, stream.getIdentifier().intValue());
+        return header;
+    }
+
+
+    boolean isFileTransferSupported() {
+        return socketWrapper.isFileTransferSupported();
+    }
+
+
     /*
      * Handles an I/O error on the socket underlying the HTTP/2 connection when
      * it is triggered by application code (usually reading the request or
@@ -725,35 +766,18 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                                         stream.getConnectionId(), stream.getIdentifier()));
                     }
                     long windowSize = getWindowSize();
-                    if (windowSize < 1 || backLogSize > 0) {
-                        // Has this stream been granted an allocation
-                        int[] value = backLogStreams.get(stream);
-                        if (value == null) {
-                            value = new int[] { reservation, 0 };
-                            backLogStreams.put(stream, value);
-                            backLogSize += reservation;
-                            // Add the parents as well
-                            AbstractStream parent = stream.getParentStream();
-                            while (parent != null && backLogStreams.putIfAbsent(parent, new int[2]) == null) {
-                                parent = parent.getParentStream();
-                            }
-                        } else {
-                            if (value[1] > 0) {
-                                allocation = value[1];
-                                decrementWindowSize(allocation);
-                                if (value[0] == 0) {
-                                    // The reservation has been fully allocated
-                                    // so this stream can be removed from the
-                                    // backlog.
-                                    backLogStreams.remove(stream);
-                                } else {
-                                    // This allocation has been used. Reset the
-                                    // allocation to zero. Leave the stream on
-                                    // the backlog as it still has more bytes to
-                                    // write.
-                                    value[1] = 0;
-                                }
-                            }
+                    // Has this stream been granted an allocation. This has to
+                    // be checked first as the backlog may have been fully
+                    // allocated, leaving the window open, and the allocation
+                    // must not be used in addition to the window.
+                    // The stream remains in the backlog if it has more bytes
+                    // to write.
+                    allocation = backLog.useAllocation(stream);
+                    if (allocation > 0) {
+                        decrementWindowSize(allocation);
+                    } else if (windowSize < 1 || backLog.getBacklogSize() > 0) {
+                        if (backLog.block(stream, reservation)) {
+                            protocol.streamBlocked(backLog.getBlockedStreamCount());
                         }
                     } else if (windowSize < reservation) {
                         allocation = (int) windowSize;
@@ -787,12 +811,18 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                                        // to avoid deadlock
     @Override
     protected void incrementWindowSize(int increment) throws Http2Exception {
-        Set<AbstractStream> streamsToNotify = null;
+        List<AbstractStream> streamsToNotify = null;
 
         synchronized (this) {
             long windowSize = getWindowSize();
-            if (windowSize < 1 && windowSize + increment > 0) {
-                streamsToNotify = releaseBackLog((int) (windowSize +increment));
+            // Any increase in the window goes to the backlog first. Checking
+            // only for the window opening is not sufficient as a partial
+            // allocation leaves streams in the backlog with an open window.
+            if (backLog.getBacklogSize() > 0 && windowSize + increment > 0) {
+                int release = (int) Math.min(windowSize + increment, increment);
+                long allocated = Math.min(release, backLog.getBacklogSize());
+                streamsToNotify = backLog.release(release);
+                protocol.backLogReleased(allocated);
             }
             super.incrementWindowSize(increment);
         }
@@ -803,12 +833,6 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                     log.debug(sm.getString("upgradeHandler.releaseBacklog",
                             connectionId, stream.getIdentifier()));
                 }
-                // There is never any O/P on stream zero but it is included in
-                // the backlog as it simplifies the code. Skip it if it appears
-                // here.
-                if (this == stream) {
-                    continue;
-                }
                 Response coyoteResponse = ((Stream) stream).getCoyoteResponse();
                 if (coyoteResponse.getWriteListener() == null) {
                     if (log.isDebugEnabled()) {
@@ -836,31 +860,6 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-    private synchronized Set<AbstractStream> releaseBackLog(int increment) {
-        Set<AbstractStream> result = new HashSet<>();
-        if (backLogSize < increment) {
-            // Can clear the whole backlog
-            result.addAll(backLogStreams.keySet());
-            backLogStreams.clear();
-            backLogSize = 0;
-        } else {
-            int leftToAllocate = increment;
-            while (leftToAllocate > 0) {
-                leftToAllocate = allocate(this, leftToAllocate);
-            }
-            for (Entry<AbstractStream,int[]> entry : backLogStreams.entrySet()) {
-                int allocation = entry.getValue()[1];
-                if (allocation > 0) {
-                    backLogSize -= allocation;
-                    result.add(entry.getKey());
-                }
-            }
-        }
-        return result;
-    }
-
-
-
     @Override
     @Deprecated
     protected synchronized void doNotifyAll() {
@@ -868,82 +867,6 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
     }
 
 
-    private int allocate(AbstractStream stream, int allocation) {
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.debug", getConnectionId(),
-                    stream.getIdentifier(), Integer.toString(allocation)));
-        }
-        // Allocate to the specified stream
-        int[] value = backLogStreams.get(stream);
-        if (value[0] >= allocation) {
-            value[0] -= allocation;
-            value[1] += allocation;
-            return 0;
-        }
-
-        // There was some left over so allocate that to the children of the
-        // stream.
-        int leftToAllocate = allocation;
-        value[1] = value[0];
-        value[0] = 0;
-        leftToAllocate -= value[1];
-
-        if (log.isDebugEnabled()) {
-            log.debug(sm.getString("upgradeHandler.allocate.left",
-                    getConnectionId(), stream.getIdentifier(), Integer.toString(leftToAllocate)));
-        }
-
-        // Recipients are children of the current stream that are in the
-        // backlog.
-        Set<AbstractStream> recipients = new HashSet<>();
-        recipients.addAll(stream.getChildStreams());
-        recipients.retainAll(backLogStreams.keySet());
-
-        // Loop until we run out of allocation or recipients
-        while (leftToAllocate > 0) {
-            if (recipients.size() == 0) {
-                backLogStreams.remove(stream);
-                return leftToAllocate;
-            }
-
-            int totalWeight = 0;
-            for (AbstractStream recipient : recipients) {
-                if (log.isDebugEnabled()) {
-                    log.debug(sm.getString("upgradeHandler.allocate.recipient",
-                            getConnectionId(), stream.getIdentifier(), recipient.getIdentifier(),
-                            Integer.toString(recipient.getWeight())));
-                }
-                totalWeight += recipient.getWeight();
-            }
-
-            // Use an Iterator so fully allocated children/recipients can be
-            // removed.
-            Iterator<AbstractStream> iter = recipients.iterator();
-            int allocated = 0;
-            while (iter.hasNext()) {
-                AbstractStream recipient = iter.next();
-                int share = leftToAllocate * recipient.getWeight() / totalWeight;
-                if (share == 0) {
-                    // This is to avoid rounding issues triggering an infinite
-                    // loop. It will cause a very slight over allocation but
-                    // HTTP/2 should cope with that.
-                    share = 1;
-                }
-                int remainder = allocate(recipient, share);
-                // Remove recipients that receive their full allocation so that
-                // they are excluded from the next allocation round.
-                if (remainder > 0) {
-                    iter.remove();
-                }
-                allocated += (share - remainder);
-            }
-            leftToAllocate -= allocated;
-        }
-
-        return 0;
-    }
-
-
     private Stream getStream(int streamId, boolean unknownIsError) throws ConnectionException {
         Integer key = Integer.valueOf(streamId);
         Stream result = streams.get(key);
@@ -1135,6 +1058,11 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
                         streamToRemove.getWeight() * child.getWeight() / totalWeight);
             }
         }
+        synchronized (this) {
+            for (Stream child : children) {
+                backLog.reprioritise(child);
+            }
+        }
         streamToRemove.detachFromParent();
         streamToRemove.getChildStreams().clear();
     }
@@ -1443,6 +1371,16 @@ public class Http2UpgradeHandler extends AbstractStream implements InternalHttpU
             parentStream = this;
         }
         stream.rePrioritise(parentStream, exclusive, weight);
+        synchronized (this) {
+            // Ancestors first. The new parent may have been a descendant of
+            // the stream and exclusive dependencies move the children of the
+            // new parent.
+            backLog.reprioritise(parentStream);
+            backLog.reprioritise(stream);
+            for (Stream child : stream.getChildStreams()) {
+                backLog.reprioritise(child);
+            }
+        }
     }
 
 
@@ -18,6 +18,8 @@ package org.apache.coyote.http2;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
@@ -32,7 +34,7 @@ import org.apache.coyote.Request;
 import org.apache.coyote.Response;
 import org.apache.coyote.http11.HttpOutputBuffer;
 import org.apache.coyote.http11.OutputFilter;
-import org.apache.coyote.http2.HpackDecoder.HeaderEmitter;
+import org.apache.coyote.http2.HpackDecoder.ByteHeaderEmitter;
 import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -42,7 +44,7 @@ import org.apache.tomcat.util.net.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.WriteBuffer;
 import org.apache.tomcat.util.res.StringManager;
 
-public class Stream extends AbstractStream implements HeaderEmitter {
+public class Stream extends AbstractStream implements ByteHeaderEmitter {
 
     private static final Log log = LogFactory.getLog(Stream.class);
     private static final StringManager sm = StringManager.getManager(Stream.class);
@@ -52,6 +54,14 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     private static final int HEADER_STATE_REGULAR = 2;
     private static final int HEADER_STATE_TRAILER = 3;
 
+    // The largest region of a file that will be mapped at once when writing a
+    // file that can't be transferred directly to the socket
+    private static final long MAX_MAPPED_REGION = 8 * 1024 * 1024;
+
+    // The minimum size of the blocks used to store header values received as
+    // bytes
+    private static final int HEADER_VALUE_BLOCK_SIZE = 1024;
+
     private static final MimeHeaders ACK_HEADERS;
 
     static {
@@ -72,6 +82,11 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     // TODO: null these when finished to reduce memory used by closed stream
     private final Request coyoteRequest;
     private StringBuilder cookieHeader = null;
+    // Header values received as bytes are copied here and referenced by the
+    // request headers. When a block is full a new one is started. Values in
+    // previous blocks remain valid as they are never overwritten.
+    private byte[] headerValues = null;
+    private int headerValuesUsed = 0;
     private final Response coyoteResponse = new Response();
     private final StreamInputBuffer inputBuffer;
     private final StreamOutputBuffer streamOutputBuffer = new StreamOutputBuffer();
@@ -104,8 +119,9 @@ public class Stream extends AbstractStream implements HeaderEmitter {
             // TODO Assuming the body has been read at this point is not valid
             state.receivedEndOfStream();
         }
-        // No sendfile for HTTP/2 (it is enabled by default in the request)
-        this.coyoteRequest.setSendfile(false);
+        // Sendfile is enabled by default in the request
+        Http2Protocol protocol = handler.getProtocol();
+        this.coyoteRequest.setSendfile(protocol != null && protocol.getUseSendfile());
         this.coyoteResponse.setOutputBuffer(http2OutputBuffer);
         this.coyoteRequest.setResponse(coyoteResponse);
         this.coyoteRequest.protocol().setString("HTTP/2.0");
@@ -390,6 +406,53 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    @Override
+    public final void emitHeader(String name, byte[] value, int offset, int length)
+            throws HpackException {
+        if (name.charAt(0) == ':' || "connection".equals(name) || "te".equals(name) ||
+                "cookie".equals(name) || "expect".equals(name)) {
+            // These need to be validated or processed as Strings. They are
+            // also rarely sent as literals that are not indexed.
+            emitHeader(name, new String(value, offset, length, StandardCharsets.ISO_8859_1));
+            return;
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("stream.header.debug", getConnectionId(), getIdentifier(),
+                    name, new String(value, offset, length, StandardCharsets.ISO_8859_1)));
+        }
+
+        // Header names must be lower case
+        if (!name.toLowerCase(Locale.US).equals(name)) {
+            throw new HpackException(sm.getString("stream.header.case",
+                    getConnectionId(), getIdentifier(), name));
+        }
+
+        if (headerException != null) {
+            // Don't bother processing the header since the stream is going to
+            // be reset anyway
+            return;
+        }
+
+        if (headerState == HEADER_STATE_PSEUDO) {
+            headerState = HEADER_STATE_REGULAR;
+        }
+
+        if (headerState == HEADER_STATE_TRAILER && !handler.isTrailerHeaderAllowed(name)) {
+            return;
+        }
+
+        if (headerValues == null || headerValues.length - headerValuesUsed < length) {
+            headerValues = new byte[Math.max(HEADER_VALUE_BLOCK_SIZE, length)];
+            headerValuesUsed = 0;
+        }
+        System.arraycopy(value, offset, headerValues, headerValuesUsed, length);
+        coyoteRequest.getMimeHeaders().addValue(name).setBytes(
+                headerValues, headerValuesUsed, length);
+        headerValuesUsed += length;
+    }
+
+
     @Override
     public void setHeaderException(StreamException streamException) {
         if (headerException == null) {
@@ -540,6 +603,21 @@ public class Stream extends AbstractStream implements HeaderEmitter {
     }
 
 
+    /**
+     * Writes a region of a file as the remainder of the response body using
+     * blocking I/O. The end of stream flag is set on the final DATA frame.
+     *
+     * @param file   The file to write
+     * @param pos    The position in the file of the first byte to write
+     * @param length The number of bytes to write
+     *
+     * @throws IOException If an I/O error occurs writing the file
+     */
+    void writeFile(FileChannel file, long pos, long length) throws IOException {
+        streamOutputBuffer.writeFile(file, pos, length);
+    }
+
+
     void sentPushPromise() {
         state.sentPushPromise();
     }
@@ -836,6 +914,58 @@ public class Stream extends AbstractStream implements HeaderEmitter {
             return false;
         }
 
+        synchronized void writeFile(FileChannel file, long pos, long length) throws IOException {
+            if (closed) {
+                throw new IllegalStateException(
+                        sm.getString("stream.closed", getConnectionId(), getIdentifier()));
+            }
+            if (!coyoteResponse.isCommitted()) {
+                coyoteResponse.sendHeaders();
+            }
+            // Anything the application has already written goes first
+            flush(true, true);
+            closed = true;
+
+            // Without TLS the socket may be able to write the file content
+            // directly. Otherwise map the file so the content does not have to
+            // be copied through the heap.
+            boolean transfer = handler.isFileTransferSupported();
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("stream.outputBuffer.writeFile.debug", getConnectionId(),
+                        getIdentifier(), Long.toString(length), Long.toString(pos),
+                        transfer ? "transferTo" : "map"));
+            }
+            int maxFrameSize = handler.getRemoteSettings().getMaxFrameSize();
+            ByteBuffer mapped = null;
+            long left = length;
+            while (left > 0) {
+                if (streamReservation == 0) {
+                    streamReservation = reserveWindowSize((int) Math.min(left, Integer.MAX_VALUE), true);
+                }
+                while (streamReservation > 0) {
+                    int frameSize = Math.min(streamReservation, maxFrameSize);
+                    if (!transfer) {
+                        if (mapped == null || !mapped.hasRemaining()) {
+                            mapped = file.map(MapMode.READ_ONLY, pos, Math.min(left, MAX_MAPPED_REGION));
+                        }
+                        frameSize = Math.min(frameSize, mapped.remaining());
+                    }
+                    int connectionReservation =
+                            handler.reserveWindowSize(Stream.this, frameSize, true);
+                    boolean finished = left == connectionReservation;
+                    if (transfer) {
+                        handler.writeBody(Stream.this, file, pos, connectionReservation, finished);
+                    } else {
+                        handler.writeBody(Stream.this, mapped, connectionReservation, finished);
+                    }
+                    pos += connectionReservation;
+                    left -= connectionReservation;
+                    written += connectionReservation;
+                    streamReservation -= connectionReservation;
+                }
+            }
+        }
+
         synchronized boolean isReady() {
             if (getWindowSize() > 0 && handler.getWindowSize() > 0 && !dataLeft) {
                 return true;
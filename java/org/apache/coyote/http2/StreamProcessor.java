@@ -17,6 +17,10 @@
 package org.apache.coyote.http2;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Iterator;
 
 import org.apache.coyote.AbstractProcessor;
@@ -34,6 +38,7 @@ import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.MimeHeaders;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.DispatchType;
+import org.apache.tomcat.util.net.SendfileSegment;
 import org.apache.tomcat.util.net.SocketEvent;
 import org.apache.tomcat.util.net.SocketWrapperBase;
 import org.apache.tomcat.util.res.StringManager;
@@ -43,6 +48,8 @@ class StreamProcessor extends AbstractProcessor {
     private static final Log log = LogFactory.getLog(StreamProcessor.class);
     private static final StringManager sm = StringManager.getManager(StreamProcessor.class);
 
+    private static final long MAX_MAPPED_REGION = 8 * 1024 * 1024;
+
     private final Http2UpgradeHandler handler;
     private final Stream stream;
 
@@ -137,7 +144,11 @@ class StreamProcessor extends AbstractProcessor {
             headers.addValue("date").setString(FastHttpDateFormat.getCurrentDate());
         }
 
-        if (protocol != null && protocol.useCompression(coyoteRequest, coyoteResponse)) {
+        // Compression is not used when the response body is written directly
+        // from a file
+        if (protocol != null &&
+                coyoteRequest.getAttribute(org.apache.coyote.Constants.SENDFILE_FILENAME_ATTR) == null &&
+                protocol.useCompression(coyoteRequest, coyoteResponse)) {
             // Enable compression. Headers will have been set. Need to configure
             // output filter at this point.
             stream.addOutputFilter(new GzipOutputFilter());
@@ -147,10 +158,54 @@ class StreamProcessor extends AbstractProcessor {
 
     @Override
     protected final void finishResponse() throws IOException {
+        String fileName = (String) request.getAttribute(
+                org.apache.coyote.Constants.SENDFILE_FILENAME_ATTR);
+        if (fileName != null) {
+            // This method is called more than once so make sure the file is
+            // only written once
+            request.getAttributes().remove(org.apache.coyote.Constants.SENDFILE_FILENAME_ATTR);
+            SendfileSegment[] segments = (SendfileSegment[]) request.getAttribute(
+                    org.apache.coyote.Constants.SENDFILE_SEGMENTS_ATTR);
+            try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+                if (segments == null) {
+                    long pos = ((Long) request.getAttribute(
+                            org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
+                    long end = ((Long) request.getAttribute(
+                            org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue();
+                    stream.writeFile(file.getChannel(), pos, end - pos);
+                } else {
+                    writeSegments(file.getChannel(), segments);
+                }
+            }
+        }
         stream.getOutputBuffer().end();
     }
 
 
+    /*
+     * The segments are written through the stream's output buffer so the
+     * in-memory data and the ranges of the file end up in the same DATA
+     * frames. The file is mapped so its content is not copied onto the heap.
+     */
+    private void writeSegments(FileChannel file, SendfileSegment[] segments)
+            throws IOException {
+        if (!response.isCommitted()) {
+            response.sendHeaders();
+        }
+        for (SendfileSegment segment : segments) {
+            if (segment.getData() != null) {
+                stream.getOutputBuffer().doWrite(ByteBuffer.wrap(segment.getData()));
+            }
+            long pos = segment.getStart();
+            while (pos < segment.getEnd()) {
+                long length = Math.min(segment.getEnd() - pos, MAX_MAPPED_REGION);
+                stream.getOutputBuffer().doWrite(file.map(MapMode.READ_ONLY, pos, length));
+                pos += length;
+            }
+        }
+    }
+
+
     @Override
     protected final void ack() {
         if (!response.isCommitted() && request.hasExpectation()) {
@@ -0,0 +1,497 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * Allocates the connection flow control window to the streams that are
+ * blocked waiting for it using weighted fair queueing over the priority tree.
+ * <p>
+ * Every stream in the backlog has an entry that tracks the part of its
+ * reservation that has yet to be allocated and the allocation that it has yet
+ * to use. Entries are linked into a tree that follows the priority tree at the
+ * point the stream was blocked. Each entry keeps the entries of its children
+ * in a heap ordered by the ratio of the reservation of the child's sub-tree to
+ * the child's weight. When the window opens, the children whose fair share
+ * covers their entire sub-tree are taken from the heap, smallest first, and
+ * what then remains is divided between the other children in proportion to
+ * their weights. Adding a stream at depth d to the backlog is O(d log n).
+ * When the window opens, each child that is satisfied is taken from the heap
+ * in O(log k), where k is the number of blocked children of its parent. If
+ * the remainder then has to be divided, it is divided between all k remaining
+ * children and the heap is rebuilt, which is O(k).
+ * <p>
+ * The tree is updated when a blocked stream, or a stream with blocked
+ * descendants, is moved in the priority tree or has its weight changed.
+ * <p>
+ * This class is not thread safe. Callers must synchronize on the
+ * {@link Http2UpgradeHandler} that owns it.
+ */
+final class StreamScheduler {
+
+    private static final Log log = LogFactory.getLog(StreamScheduler.class);
+    private static final StringManager sm = StringManager.getManager(StreamScheduler.class);
+
+    private final AbstractStream connection;
+    private final Node root;
+    private final Map<AbstractStream,Node> nodes = new HashMap<>();
+    private int blockedStreamCount = 0;
+    // Used to share out the bytes left over after rounding the proportional
+    // allocations so the same stream is not always favoured
+    private int rotation = 0;
+
+
+    StreamScheduler(AbstractStream connection) {
+        this.connection = connection;
+        this.root = new Node(connection);
+    }
+
+
+    /**
+     * @return The total number of bytes that blocked streams are waiting to
+     *         be allocated
+     */
+    long getBacklogSize() {
+        return root.subTreeReservation;
+    }
+
+
+    /**
+     * @return The number of streams that are waiting for an allocation
+     */
+    int getBlockedStreamCount() {
+        return blockedStreamCount;
+    }
+
+
+    /**
+     * Add a stream to the backlog. If the stream is already waiting for an
+     * allocation this is a NO-OP.
+     *
+     * @param stream        The stream that is blocked
+     * @param reservation   The number of bytes the stream wants to write
+     *
+     * @return <code>true</code> if the stream was added to the backlog
+     */
+    boolean block(AbstractStream stream, int reservation) {
+        Node node = getNode(stream);
+        if (node.reservation > 0 || reservation < 1) {
+            return false;
+        }
+        node.reservation = reservation;
+        blockedStreamCount++;
+        link(node, reservation);
+        return true;
+    }
+
+
+    /**
+     * Update the backlog after a stream has been moved in the priority tree
+     * or has had its weight changed. If the stream, or any of its
+     * descendants, is waiting for an allocation it will be allocated according
+     * to its new position from now on. Where several streams have been moved,
+     * this must be called for each of them, ancestors first.
+     *
+     * @param stream The stream that has been moved
+     */
+    void reprioritise(AbstractStream stream) {
+        Node node = nodes.get(stream);
+        if (node == null || node.heapIndex < 0) {
+            // Nothing in this sub-tree is waiting. The current position is
+            // used when the stream, or a descendant, is next blocked.
+            return;
+        }
+        if (node.parent.stream == getParentStream(stream) &&
+                node.weight == stream.getWeight()) {
+            return;
+        }
+        long reservation = node.subTreeReservation;
+        unlink(node);
+        if (reservation > 0) {
+            node.subTreeReservation = 0;
+            link(node, reservation);
+        } else if (node.allocation == 0) {
+            nodes.remove(stream);
+        }
+    }
+
+
+    /*
+     * Add the reservation to all the sub-trees the node is part of, linking
+     * any node that is not currently in the heap of its parent.
+     */
+    private void link(Node node, long reservation) {
+        while (node != root) {
+            node.subTreeReservation += reservation;
+            Node parent;
+            if (node.heapIndex < 0) {
+                parent = getNode(getParentStream(node.stream));
+                node.weight = node.stream.getWeight();
+                parent.offer(node);
+            } else {
+                parent = node.parent;
+                parent.siftDown(node.heapIndex);
+            }
+            node = parent;
+        }
+        root.subTreeReservation += reservation;
+    }
+
+
+    /*
+     * Remove the node from the heap of its parent and remove the reservation
+     * of its sub-tree from all the sub-trees it was part of. Any ancestor that
+     * is left with nothing waiting is removed from the heap of its parent.
+     */
+    private void unlink(Node node) {
+        long reservation = node.subTreeReservation;
+        Node parent = node.parent;
+        parent.remove(node);
+        node = parent;
+        while (node != root) {
+            node.subTreeReservation -= reservation;
+            parent = node.parent;
+            if (node.subTreeReservation == 0) {
+                parent.remove(node);
+                // Only remove this node, not one that may have replaced it
+                if (node.allocation == 0 && nodes.get(node.stream) == node) {
+                    nodes.remove(node.stream);
+                }
+            } else {
+                parent.siftUp(node.heapIndex);
+            }
+            node = parent;
+        }
+        root.subTreeReservation -= reservation;
+    }
+
+
+    private AbstractStream getParentStream(AbstractStream stream) {
+        AbstractStream parentStream = stream.getParentStream();
+        return parentStream == null ? connection : parentStream;
+    }
+
+
+    /**
+     * Obtain the allocation that has been made to a stream. The stream must
+     * use it as the allocation is cleared by this call.
+     *
+     * @param stream The stream
+     *
+     * @return The number of bytes allocated to the stream or zero if there is
+     *         no allocation
+     */
+    int useAllocation(AbstractStream stream) {
+        Node node = nodes.get(stream);
+        if (node == null || node.allocation == 0) {
+            return 0;
+        }
+        int result = node.allocation;
+        node.allocation = 0;
+        if (node.subTreeReservation == 0 && node.heapIndex < 0) {
+            // Nothing in this sub-tree is waiting. A node that is still in the
+            // heap of its parent is kept so it is reused if the stream blocks
+            // again. It is removed when it is next polled from the heap.
+            nodes.remove(stream);
+        }
+        return result;
+    }
+
+
+    /**
+     * Allocate an increase in the connection window to the blocked streams.
+     *
+     * @param increment The number of bytes to allocate
+     *
+     * @return The streams that received an allocation and need to be notified
+     */
+    List<AbstractStream> release(int increment) {
+        List<AbstractStream> result = new ArrayList<>();
+        if (root.subTreeReservation < increment) {
+            // Can clear the whole backlog
+            for (Node node : nodes.values()) {
+                if (node.reservation > 0 || node.allocation > 0) {
+                    result.add(node.stream);
+                }
+            }
+            nodes.clear();
+            root.clear();
+            root.subTreeReservation = 0;
+            blockedStreamCount = 0;
+        } else {
+            allocate(root, increment, result);
+        }
+        return result;
+    }
+
+
+    private void allocate(Node node, long allocation, List<AbstractStream> result) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.allocate.debug", connection.getConnectionId(),
+                    node.stream.getIdentifier(), Long.toString(allocation)));
+        }
+        long leftToAllocate = allocation;
+
+        // Allocate to the stream first
+        if (node.reservation > 0) {
+            int own = (int) Math.min(node.reservation, leftToAllocate);
+            node.reservation -= own;
+            if (node.allocation == 0) {
+                result.add(node.stream);
+            }
+            node.allocation += own;
+            node.subTreeReservation -= own;
+            if (node.reservation == 0) {
+                blockedStreamCount--;
+            }
+            leftToAllocate -= own;
+            if (leftToAllocate == 0) {
+                return;
+            }
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("upgradeHandler.allocate.left", connection.getConnectionId(),
+                    node.stream.getIdentifier(), Long.toString(leftToAllocate)));
+        }
+
+        // Satisfy, smallest first, the children whose share covers the
+        // reservation of their entire sub-tree
+        while (leftToAllocate > 0 && node.size > 0) {
+            Node child = node.heap[0];
+            if (child.subTreeReservation * node.heapWeight > leftToAllocate * child.weight) {
+                break;
+            }
+            node.poll();
+            leftToAllocate -= child.subTreeReservation;
+            node.subTreeReservation -= child.subTreeReservation;
+            allocateAll(child, result);
+        }
+
+        if (leftToAllocate == 0 || node.size == 0) {
+            return;
+        }
+
+        // No remaining child can be satisfied so divide what is left in
+        // proportion to weight. Each share is less than the reservation of the
+        // child's sub-tree so every child remains in the heap.
+        int count = node.size;
+        long allocated = 0;
+        for (int i = 0; i < count; i++) {
+            Node child = node.heap[i];
+            if (log.isDebugEnabled()) {
+                log.debug(sm.getString("upgradeHandler.allocate.recipient",
+                        connection.getConnectionId(), node.stream.getIdentifier(),
+                        child.stream.getIdentifier(), Integer.toString(child.weight)));
+            }
+            child.share = leftToAllocate * child.weight / node.heapWeight;
+            allocated += child.share;
+        }
+        long leftOver = leftToAllocate - allocated;
+        int start = (rotation++ & Integer.MAX_VALUE) % count;
+        for (int i = 0; i < leftOver; i++) {
+            node.heap[(start + i) % count].share++;
+        }
+        for (int i = 0; i < count; i++) {
+            Node child = node.heap[i];
+            if (child.share > 0) {
+                node.subTreeReservation -= child.share;
+                allocate(child, child.share, result);
+                child.share = 0;
+            }
+        }
+        // The ratios used to order the heap have changed
+        node.heapify();
+    }
+
+
+    private void allocateAll(Node node, List<AbstractStream> result) {
+        if (node.reservation > 0) {
+            if (node.allocation == 0) {
+                result.add(node.stream);
+            }
+            node.allocation += node.reservation;
+            node.reservation = 0;
+            blockedStreamCount--;
+        }
+        for (int i = 0; i < node.size; i++) {
+            allocateAll(node.heap[i], result);
+        }
+        node.clear();
+        node.subTreeReservation = 0;
+        // Only remove this node, not one that may have replaced it
+        if (node.allocation == 0 && nodes.get(node.stream) == node) {
+            nodes.remove(node.stream);
+        }
+    }
+
+
+    private Node getNode(AbstractStream stream) {
+        if (stream == connection) {
+            return root;
+        }
+        Node result = nodes.get(stream);
+        if (result == null) {
+            result = new Node(stream);
+            nodes.put(stream, result);
+        }
+        return result;
+    }
+
+
+    private static final class Node {
+
+        private final AbstractStream stream;
+        // Bytes the stream is waiting for that have not yet been allocated
+        private int reservation;
+        // Bytes allocated to the stream that it has not yet used
+        private int allocation;
+        // Reservation of this stream plus that of all its blocked descendants
+        private long subTreeReservation;
+        private int weight;
+        // Scratch space for the proportional allocation
+        private long share;
+
+        private Node parent;
+        private int heapIndex = -1;
+
+        // Children with a non-zero sub-tree reservation
+        private Node[] heap = new Node[4];
+        private int size;
+        private long heapWeight;
+
+        private Node(AbstractStream stream) {
+            this.stream = stream;
+        }
+
+
+        private void offer(Node child) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            child.parent = this;
+            heapWeight += child.weight;
+            heap[size] = child;
+            child.heapIndex = size;
+            size++;
+            siftUp(size - 1);
+        }
+
+
+        private void poll() {
+            Node first = heap[0];
+            heapWeight -= first.weight;
+            first.heapIndex = -1;
+            size--;
+            if (size > 0) {
+                heap[0] = heap[size];
+                heap[0].heapIndex = 0;
+                heap[size] = null;
+                siftDown(0);
+            } else {
+                heap[0] = null;
+            }
+        }
+
+
+        private void remove(Node child) {
+            int index = child.heapIndex;
+            heapWeight -= child.weight;
+            child.heapIndex = -1;
+            size--;
+            Node last = heap[size];
+            heap[size] = null;
+            if (index < size) {
+                heap[index] = last;
+                last.heapIndex = index;
+                siftDown(index);
+                siftUp(last.heapIndex);
+            }
+        }
+
+
+        private void clear() {
+            for (int i = 0; i < size; i++) {
+                heap[i].heapIndex = -1;
+                heap[i] = null;
+            }
+            size = 0;
+            heapWeight = 0;
+        }
+
+
+        private void heapify() {
+            for (int i = (size >>> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+
+        private void siftUp(int index) {
+            Node node = heap[index];
+            while (index > 0) {
+                int parentIndex = (index - 1) >>> 1;
+                Node p = heap[parentIndex];
+                if (!before(node, p)) {
+                    break;
+                }
+                heap[index] = p;
+                p.heapIndex = index;
+                index = parentIndex;
+            }
+            heap[index] = node;
+            node.heapIndex = index;
+        }
+
+
+        private void siftDown(int index) {
+            Node node = heap[index];
+            int half = size >>> 1;
+            while (index < half) {
+                int childIndex = (index << 1) + 1;
+                Node c = heap[childIndex];
+                int right = childIndex + 1;
+                if (right < size && before(heap[right], c)) {
+                    childIndex = right;
+                    c = heap[right];
+                }
+                if (!before(c, node)) {
+                    break;
+                }
+                heap[index] = c;
+                c.heapIndex = index;
+                index = childIndex;
+            }
+            heap[index] = node;
+            node.heapIndex = index;
+        }
+
+
+        private static boolean before(Node a, Node b) {
+            return a.subTreeReservation * b.weight < b.subTreeReservation * a.weight;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.compat;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+class Jre21Compat extends Jre9Compat {
+
+    private static final Method ofVirtualMethod;
+    private static final Method nameMethod;
+    private static final Method factoryMethod;
+
+
+    static {
+        Method m1 = null;
+        Method m2 = null;
+        Method m3 = null;
+
+        try {
+            Class<?> c1 = Class.forName("java.lang.Thread$Builder");
+            m1 = Thread.class.getMethod("ofVirtual");
+            m2 = c1.getMethod("name", String.class, long.class);
+            m3 = c1.getMethod("factory");
+            // Virtual threads were a preview feature in Java 19 and 20. Check
+            // they can actually be used.
+            m1.invoke(null);
+        } catch (ClassNotFoundException e) {
+            // Must be pre-Java 21
+        } catch (NoSuchMethodException e) {
+            // Must be pre-Java 21
+        } catch (InvocationTargetException e) {
+            // Preview features not enabled
+            m1 = null;
+        } catch (IllegalAccessException e) {
+            // Should never happen
+            m1 = null;
+        }
+
+        ofVirtualMethod = m1;
+        nameMethod = m2;
+        factoryMethod = m3;
+    }
+
+
+    static boolean isSupported() {
+        return ofVirtualMethod != null && Jre9Compat.isSupported();
+    }
+
+
+    @Override
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = ofVirtualMethod.invoke(null);
+            builder = nameMethod.invoke(builder, namePrefix, Long.valueOf(0));
+            return (ThreadFactory) factoryMethod.invoke(builder);
+        } catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+            throw new UnsupportedOperationException(e);
+        }
+    }
+}
@@ -22,9 +22,12 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.util.Deque;
 import java.util.Set;
 import java.util.jar.JarFile;
@@ -55,6 +58,7 @@ class Jre9Compat extends Jre8Compat {
     private static final Method getMethod;
     private static final Constructor<JarFile> jarFileConstructor;
     private static final Method isMultiReleaseMethod;
+    private static final SocketOption<Boolean> reusePortOption;
 
     private static final Object RUNTIME_VERSION;
     private static final int RUNTIME_MAJOR_VERSION;
@@ -75,6 +79,7 @@ class Jre9Compat extends Jre8Compat {
         Method m13 = null;
         Object o14 = null;
         Object o15 = null;
+        Object o16 = null;
 
         try {
             Class<?> moduleLayerClazz = Class.forName("java.lang.ModuleLayer");
@@ -101,6 +106,7 @@ class Jre9Compat extends Jre8Compat {
             m13 = JarFile.class.getMethod("isMultiRelease");
             o14 = runtimeVersionMethod.invoke(null);
             o15 = majorMethod.invoke(o14);
+            o16 = StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
 
         } catch (ClassNotFoundException e) {
             // Must be Java 8
@@ -121,6 +127,9 @@ class Jre9Compat extends Jre8Compat {
         getMethod = m11;
         jarFileConstructor = c12;
         isMultiReleaseMethod = m13;
+        @SuppressWarnings("unchecked")
+        SocketOption<Boolean> so16 = (SocketOption<Boolean>) o16;
+        reusePortOption = so16;
 
         RUNTIME_VERSION = o14;
         if (o15 != null) {
@@ -228,4 +237,14 @@ class Jre9Compat extends Jre8Compat {
     public int jarFileRuntimeMajorVersion() {
         return RUNTIME_MAJOR_VERSION;
     }
+
+
+    @Override
+    public void setReusePort(NetworkChannel channel) throws IOException {
+        if (reusePortOption == null || !channel.supportedOptions().contains(reusePortOption)) {
+            // Not all platforms (e.g. Windows) support SO_REUSEPORT
+            super.setReusePort(channel);
+        }
+        channel.setOption(reusePortOption, Boolean.TRUE);
+    }
 }
@@ -21,8 +21,10 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.NetworkChannel;
 import java.security.KeyStore.LoadStoreParameter;
 import java.util.Deque;
+import java.util.concurrent.ThreadFactory;
 import java.util.jar.JarFile;
 
 import javax.net.ssl.SSLEngine;
@@ -42,25 +44,34 @@ public class JreCompat {
     private static final JreCompat instance;
     private static StringManager sm =
             StringManager.getManager(JreCompat.class.getPackage().getName());
+    private static final boolean jre21Available;
     private static final boolean jre9Available;
     private static final boolean jre8Available;
 
 
     static {
         // This is Tomcat 8 with a minimum Java version of Java 7. The latest
-        // Java version the optional features require is Java 9.
+        // Java version the optional features require is Java 21.
         // Look for the highest supported JVM first
-        if (Jre9Compat.isSupported()) {
+        if (Jre21Compat.isSupported()) {
+            instance = new Jre21Compat();
+            jre21Available = true;
+            jre9Available = true;
+            jre8Available = true;
+        } else if (Jre9Compat.isSupported()) {
             instance = new Jre9Compat();
+            jre21Available = false;
             jre9Available = true;
             jre8Available = true;
         }
         else if (Jre8Compat.isSupported()) {
             instance = new Jre8Compat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = true;
         } else {
             instance = new JreCompat();
+            jre21Available = false;
             jre9Available = false;
             jre8Available = false;
         }
@@ -214,4 +225,43 @@ public class JreCompat {
     public int jarFileRuntimeMajorVersion() {
         return RUNTIME_MAJOR_VERSION;
     }
+
+
+    /**
+     * Enables SO_REUSEPORT on the given channel so that multiple channels may
+     * be bound to the same address and port with the operating system
+     * distributing incoming connections between them.
+     *
+     * @param channel The channel to configure. It must not yet be bound.
+     *
+     * @throws IOException If an I/O error occurs setting the option
+     * @throws UnsupportedOperationException If the JRE or the platform does
+     *         not support SO_REUSEPORT
+     */
+    public void setReusePort(NetworkChannel channel) throws IOException {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noReusePort"));
+    }
+
+
+    // Java 7 implementation of Java 21 methods
+
+    public static boolean isJre21Available() {
+        return jre21Available;
+    }
+
+
+    /**
+     * Creates a factory for virtual threads.
+     *
+     * @param namePrefix The prefix for the names of the created threads. The
+     *                   names will be numbered sequentially starting from zero.
+     *
+     * @return A thread factory that creates unstarted virtual threads
+     *
+     * @throws UnsupportedOperationException If the JRE does not support
+     *         virtual threads
+     */
+    public ThreadFactory createVirtualThreadFactory(String namePrefix) {
+        throw new UnsupportedOperationException(sm.getString("jreCompat.noVirtualThreads"));
+    }
 }
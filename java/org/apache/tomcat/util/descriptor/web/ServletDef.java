@@ -260,6 +260,21 @@ public class ServletDef implements Serializable {
     }
 
 
+    /**
+     * Are multipart requests streamed to this servlet. This is a Tomcat
+     * specific extension.
+     */
+    private Boolean multipartStreaming = null;
+
+    public Boolean getMultipartStreaming() {
+        return this.multipartStreaming;
+    }
+
+    public void setMultipartStreaming(String multipartStreaming) {
+        this.multipartStreaming = Boolean.valueOf(multipartStreaming);
+    }
+
+
     /**
      * Can this ServletDef be overridden by an SCI?
      */
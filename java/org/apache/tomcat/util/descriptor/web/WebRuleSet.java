@@ -412,6 +412,8 @@ public class WebRuleSet extends RuleSetBase {
                                "setAsyncSupported", 0);
         digester.addCallMethod(fullPrefix + "/servlet/enabled",
                                "setEnabled", 0);
+        digester.addCallMethod(fullPrefix + "/servlet/multipart-streaming",
+                               "setMultipartStreaming", 0);
 
 
         digester.addRule(fullPrefix + "/servlet-mapping",
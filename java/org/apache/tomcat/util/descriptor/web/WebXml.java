@@ -872,6 +872,8 @@ public class WebXml extends XmlEncodingBase implements DocumentProperties.Encodi
                             multipartDef.getFileSizeThreshold());
                     sb.append("    </multipart-config>\n");
                 }
+                appendElement(sb, INDENT4, "multipart-streaming",
+                        servletDef.getMultipartStreaming());
             }
             sb.append("  </servlet>\n");
         }
@@ -2045,6 +2047,17 @@ public class WebXml extends XmlEncodingBase implements DocumentProperties.Encodi
             }
         }
 
+        if (dest.getMultipartStreaming() == null) {
+            if (src.getMultipartStreaming() != null) {
+                dest.setMultipartStreaming(src.getMultipartStreaming().toString());
+            }
+        } else if (src.getMultipartStreaming() != null) {
+            if (failOnConflict && !src.getMultipartStreaming().equals(
+                    dest.getMultipartStreaming())) {
+                return false;
+            }
+        }
+
         for (Map.Entry<String,String> srcEntry :
                 src.getParameterMap().entrySet()) {
             if (dest.getParameterMap().containsKey(srcEntry.getKey())) {
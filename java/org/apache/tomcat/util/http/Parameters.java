@@ -23,6 +23,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -66,6 +67,18 @@ public final class Parameters {
     private int limit = -1;
     private int parameterCount = 0;
 
+    /*
+     * In lazy mode processParameters() only records the position of each
+     * parameter. Names and values are decoded when a parameter is requested
+     * by name. The recorded parameters are added to paramHashValues, after
+     * any parameters that are already present, when all the parameters are
+     * required or when a parameter is added directly.
+     */
+    private boolean lazy = false;
+    private LazyParameter[] lazyParameters = new LazyParameter[0];
+    private int lazyParameterCount = 0;
+    private final Map<String,ArrayList<String>> lazyLookups = new HashMap<>();
+
     /**
      * Set to the reason for the failure (the first failure if there is more
      * than one) if there were failures during parameter parsing.
@@ -84,6 +97,23 @@ public final class Parameters {
         this.limit = limit;
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Should parameters be parsed lazily? If enabled, parsing only records the
+     * position of each name and value and they are URL decoded and converted
+     * to Strings when first requested. Decoding errors are detected, and
+     * reported via {@link #getParseFailedReason()}, when the invalid parameter
+     * is decoded rather than when the parameters are parsed.
+     *
+     * @param lazy <code>true</code> to parse parameters lazily
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     /**
      * @return The current encoding
      *
@@ -160,6 +190,11 @@ public final class Parameters {
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
+        for (int i = 0; i < lazyParameterCount; i++) {
+            lazyParameters[i].recycle();
+        }
+        lazyParameterCount = 0;
+        lazyLookups.clear();
         didQueryParameters = false;
         charset = DEFAULT_BODY_CHARSET;
         decodedQuery.recycle();
@@ -174,7 +209,7 @@ public final class Parameters {
     public String[] getParameterValues(String name) {
         handleQueryParameters();
         // no "facade"
-        ArrayList<String> values = paramHashValues.get(name);
+        ArrayList<String> values = getValues(name);
         if (values == null) {
             return null;
         }
@@ -183,12 +218,13 @@ public final class Parameters {
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        addLazyParameters();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
-        ArrayList<String> values = paramHashValues.get(name);
+        ArrayList<String> values = getValues(name);
         if (values != null) {
             if(values.size() == 0) {
                 return "";
@@ -198,6 +234,61 @@ public final class Parameters {
             return null;
         }
     }
+
+
+    private ArrayList<String> getValues(String name) {
+        if (lazyParameterCount == 0) {
+            return paramHashValues.get(name);
+        }
+        ArrayList<String> values = lazyLookups.get(name);
+        if (values == null) {
+            ArrayList<String> added = paramHashValues.get(name);
+            if (added == null) {
+                values = new ArrayList<>(1);
+            } else {
+                values = new ArrayList<>(added);
+            }
+            for (int i = 0; i < lazyParameterCount; i++) {
+                LazyParameter lazyParameter = lazyParameters[i];
+                if (lazyParameter.nameEquals(name)) {
+                    String value = lazyParameter.getValue();
+                    if (value != null) {
+                        values.add(value);
+                    }
+                }
+            }
+            lazyLookups.put(name, values);
+        }
+        if (values.isEmpty()) {
+            return null;
+        }
+        return values;
+    }
+
+
+    /*
+     * Decode all the parameters recorded in lazy mode and add them, in order,
+     * to paramHashValues.
+     */
+    private void addLazyParameters() {
+        int count = lazyParameterCount;
+        if (count == 0) {
+            return;
+        }
+        lazyParameterCount = 0;
+        lazyLookups.clear();
+        for (int i = 0; i < count; i++) {
+            LazyParameter lazyParameter = lazyParameters[i];
+            String name = lazyParameter.getName();
+            if (name != null) {
+                String value = lazyParameter.getValue();
+                if (value != null) {
+                    storeParameter(name, value);
+                }
+            }
+            lazyParameter.recycle();
+        }
+    }
     // -------------------- Processing --------------------
     /** Process the query string into parameters
      */
@@ -242,6 +333,12 @@ public final class Parameters {
                     "parameters.maxCountFail", Integer.valueOf(limit)));
         }
 
+        // Keep the parameters in the order they were received
+        addLazyParameters();
+        storeParameter(key, value);
+    }
+
+    private void storeParameter(String key, String value) {
         ArrayList<String> values = paramHashValues.get(key);
         if (values == null) {
             values = new ArrayList<>(1);
@@ -389,6 +486,19 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                parameterCount++;
+                if (limit > -1 && parameterCount > limit) {
+                    setParseFailedReason(FailReason.TOO_MANY_PARAMETERS);
+                    logMaxCountFail(sm.getString(
+                            "parameters.maxCountFail", Integer.valueOf(limit)));
+                    break;
+                }
+                addLazyParameter(bytes, nameStart, nameEnd, decodeName,
+                        valueStart, valueEnd, decodeValue, charset);
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -438,21 +548,7 @@ public final class Parameters {
                 } catch (IllegalStateException ise) {
                     // Hitting limit stops processing further params but does
                     // not cause request to fail.
-                    UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
-                    if (logMode != null) {
-                        String message = ise.getMessage();
-                        switch (logMode) {
-                            case INFO_THEN_DEBUG:
-                                message += sm.getString(
-                                        "parameters.maxCountFail.fallToDebug");
-                                //$FALL-THROUGH$
-                            case INFO:
-                                log.info(message);
-                                break;
-                            case DEBUG:
-                                log.debug(message);
-                        }
-                    }
+                    logMaxCountFail(ise.getMessage());
                     break;
                 }
             } catch (IOException e) {
@@ -463,22 +559,7 @@ public final class Parameters {
                         log.debug(sm.getString("parameters.decodeFail.debug",
                                 origName.toString(), origValue.toString()), e);
                     } else if (log.isInfoEnabled()) {
-                        UserDataHelper.Mode logMode = userDataLog.getNextMode();
-                        if (logMode != null) {
-                            String message = sm.getString(
-                                    "parameters.decodeFail.info",
-                                    tmpName.toString(), tmpValue.toString());
-                            switch (logMode) {
-                                case INFO_THEN_DEBUG:
-                                    message += sm.getString("parameters.fallToDebug");
-                                    //$FALL-THROUGH$
-                                case INFO:
-                                    log.info(message);
-                                    break;
-                                case DEBUG:
-                                    log.debug(message);
-                            }
-                        }
+                        logDecodeFail(tmpName.toString(), tmpValue.toString());
                     }
                 }
             }
@@ -512,6 +593,62 @@ public final class Parameters {
         }
     }
 
+    private void logMaxCountFail(String message) {
+        UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
+        if (logMode != null) {
+            switch (logMode) {
+                case INFO_THEN_DEBUG:
+                    message += sm.getString(
+                            "parameters.maxCountFail.fallToDebug");
+                    //$FALL-THROUGH$
+                case INFO:
+                    log.info(message);
+                    break;
+                case DEBUG:
+                    log.debug(message);
+            }
+        }
+    }
+
+    private void logDecodeFail(String name, String value) {
+        UserDataHelper.Mode logMode = userDataLog.getNextMode();
+        if (logMode != null) {
+            String message = sm.getString("parameters.decodeFail.info",
+                    name, value);
+            switch (logMode) {
+                case INFO_THEN_DEBUG:
+                    message += sm.getString("parameters.fallToDebug");
+                    //$FALL-THROUGH$
+                case INFO:
+                    log.info(message);
+                    break;
+                case DEBUG:
+                    log.debug(message);
+            }
+        }
+    }
+
+    private void addLazyParameter(byte[] bytes, int nameStart, int nameEnd,
+            boolean decodeName, int valueStart, int valueEnd, boolean decodeValue,
+            Charset charset) {
+        if (lazyParameterCount == lazyParameters.length) {
+            LazyParameter[] expanded =
+                    new LazyParameter[Math.max(16, lazyParameters.length * 2)];
+            System.arraycopy(lazyParameters, 0, expanded, 0, lazyParameters.length);
+            lazyParameters = expanded;
+        }
+        LazyParameter lazyParameter = lazyParameters[lazyParameterCount];
+        if (lazyParameter == null) {
+            lazyParameter = new LazyParameter();
+            lazyParameters[lazyParameterCount] = lazyParameter;
+        }
+        lazyParameter.set(bytes, nameStart, nameEnd, decodeName, valueStart,
+                valueEnd, decodeValue, charset);
+        lazyParameterCount++;
+        // A new parameter may change the result of a previous lookup
+        lazyLookups.clear();
+    }
+
     private void urlDecode(ByteChunk bc)
         throws IOException {
         if( urlDec==null ) {
@@ -559,6 +696,7 @@ public final class Parameters {
      */
     @Override
     public String toString() {
+        addLazyParameters();
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
@@ -569,6 +707,120 @@ public final class Parameters {
     }
 
 
+    /*
+     * The position of a parameter found in lazy mode. The name and value are
+     * decoded at most once, when first required. Decoding modifies the
+     * original bytes so the decoded Strings are retained.
+     */
+    private final class LazyParameter {
+
+        private byte[] bytes;
+        private int nameStart;
+        private int nameEnd;
+        private boolean decodeName;
+        private int valueStart;
+        private int valueEnd;
+        private boolean decodeValue;
+        private Charset charset;
+
+        private String name;
+        private String value;
+        private boolean failed;
+
+        private void set(byte[] bytes, int nameStart, int nameEnd, boolean decodeName,
+                int valueStart, int valueEnd, boolean decodeValue, Charset charset) {
+            this.bytes = bytes;
+            this.nameStart = nameStart;
+            this.nameEnd = nameEnd;
+            this.decodeName = decodeName;
+            this.valueStart = valueStart;
+            this.valueEnd = valueEnd;
+            this.decodeValue = decodeValue;
+            this.charset = charset;
+        }
+
+        private boolean nameEquals(String name) {
+            if (this.name == null && !decodeName && !failed && isAsciiCompatible(charset)) {
+                // Compare the raw bytes to avoid creating a String for every
+                // parameter name
+                int len = nameEnd - nameStart;
+                if (len != name.length()) {
+                    return false;
+                }
+                boolean ascii = true;
+                for (int i = 0; i < len; i++) {
+                    byte b = bytes[nameStart + i];
+                    if (b < 0) {
+                        ascii = false;
+                        break;
+                    }
+                    if (b != name.charAt(i)) {
+                        return false;
+                    }
+                }
+                if (ascii) {
+                    return true;
+                }
+            }
+            return name.equals(getName());
+        }
+
+        private String getName() {
+            if (name == null && !failed) {
+                name = decode(nameStart, nameEnd, decodeName);
+            }
+            return name;
+        }
+
+        private String getValue() {
+            if (value == null && !failed) {
+                if (valueStart < 0) {
+                    value = "";
+                } else if (getName() != null) {
+                    value = decode(valueStart, valueEnd, decodeValue);
+                }
+            }
+            return value;
+        }
+
+        private String decode(int start, int end, boolean urlDecode) {
+            tmpName.setBytes(bytes, start, end - start);
+            try {
+                if (urlDecode) {
+                    urlDecode(tmpName);
+                }
+                tmpName.setCharset(charset);
+                return tmpName.toString();
+            } catch (IOException e) {
+                failed = true;
+                setParseFailedReason(FailReason.URL_DECODING);
+                logDecodeFail(new String(bytes, nameStart, nameEnd - nameStart,
+                                DEFAULT_BODY_CHARSET),
+                        valueStart < 0 ? "" : new String(bytes, valueStart,
+                                valueEnd - valueStart, DEFAULT_BODY_CHARSET));
+                return null;
+            } finally {
+                tmpName.recycle();
+            }
+        }
+
+        private void recycle() {
+            bytes = null;
+            charset = null;
+            name = null;
+            value = null;
+            failed = false;
+        }
+    }
+
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset) ||
+                StandardCharsets.ISO_8859_1.equals(charset) ||
+                StandardCharsets.US_ASCII.equals(charset);
+    }
+
+
     public enum FailReason {
         CLIENT_DISCONNECT,
         MULTIPART_CONFIG_INVALID,
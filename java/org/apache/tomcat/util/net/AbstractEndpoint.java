@@ -48,6 +48,7 @@ import org.apache.tomcat.util.threads.ResizableExecutor;
 import org.apache.tomcat.util.threads.TaskQueue;
 import org.apache.tomcat.util.threads.TaskThreadFactory;
 import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.apache.tomcat.util.threads.VirtualThreadExecutor;
 
 /**
  * @param <S> The type for the sockets managed by this endpoint.
@@ -468,6 +469,18 @@ public abstract class AbstractEndpoint<S> {
     public Executor getExecutor() { return executor; }
 
 
+    /**
+     * Should the internal executor run each task on a new virtual thread
+     * rather than use a pool of platform threads? Ignored if an external
+     * executor is configured or if the JRE does not support virtual threads.
+     */
+    private boolean useVirtualThreads = false;
+    public void setUseVirtualThreads(boolean useVirtualThreads) {
+        this.useVirtualThreads = useVirtualThreads;
+    }
+    public boolean getUseVirtualThreads() { return useVirtualThreads; }
+
+
     /**
      * Server socket port.
      */
@@ -611,14 +624,7 @@ public abstract class AbstractEndpoint<S> {
     private int minSpareThreads = 10;
     public void setMinSpareThreads(int minSpareThreads) {
         this.minSpareThreads = minSpareThreads;
-        Executor executor = this.executor;
-        if (internalExecutor && executor instanceof java.util.concurrent.ThreadPoolExecutor) {
-            // The internal executor should always be an instance of
-            // j.u.c.ThreadPoolExecutor but it may be null if the endpoint is
-            // not running.
-            // This check also avoids various threading issues.
-            ((java.util.concurrent.ThreadPoolExecutor) executor).setCorePoolSize(minSpareThreads);
-        }
+        resizeExecutor();
     }
     public int getMinSpareThreads() {
         return Math.min(getMinSpareThreadsInternal(), getMaxThreads());
@@ -638,20 +644,50 @@ public abstract class AbstractEndpoint<S> {
     private int maxThreads = 200;
     public void setMaxThreads(int maxThreads) {
         this.maxThreads = maxThreads;
+        resizeExecutor();
+    }
+    public int getMaxThreads() {
+        if (internalExecutor) {
+            return maxThreads;
+        } else {
+            return -1;
+        }
+    }
+
+
+    /**
+     * Apply the current thread limits to the internal executor. Called when
+     * the thread limits are changed.
+     */
+    protected void resizeExecutor() {
         Executor executor = this.executor;
         if (internalExecutor && executor instanceof java.util.concurrent.ThreadPoolExecutor) {
             // The internal executor should always be an instance of
             // j.u.c.ThreadPoolExecutor but it may be null if the endpoint is
             // not running.
             // This check also avoids various threading issues.
-            ((java.util.concurrent.ThreadPoolExecutor) executor).setMaximumPoolSize(maxThreads);
+            setPoolSize((java.util.concurrent.ThreadPoolExecutor) executor,
+                    getMinSpareThreads(), getMaxThreads());
         }
     }
-    public int getMaxThreads() {
-        if (internalExecutor) {
-            return maxThreads;
+
+
+    /**
+     * Set the core and maximum size of a thread pool in an order that keeps
+     * the core size no larger than the maximum size at all times.
+     *
+     * @param tpe        The thread pool to resize
+     * @param minThreads The new core size
+     * @param maxThreads The new maximum size
+     */
+    protected static void setPoolSize(java.util.concurrent.ThreadPoolExecutor tpe,
+            int minThreads, int maxThreads) {
+        if (maxThreads < tpe.getCorePoolSize()) {
+            tpe.setCorePoolSize(minThreads);
+            tpe.setMaximumPoolSize(maxThreads);
         } else {
-            return -1;
+            tpe.setMaximumPoolSize(maxThreads);
+            tpe.setCorePoolSize(minThreads);
         }
     }
 
@@ -860,10 +896,33 @@ public abstract class AbstractEndpoint<S> {
 
     public void createExecutor() {
         internalExecutor = true;
+        if (useVirtualThreads) {
+            if (VirtualThreadExecutor.isSupported()) {
+                executor = new VirtualThreadExecutor(getName() + "-virt-");
+                return;
+            }
+            getLog().warn(sm.getString("endpoint.virtualThreadsUnavailable", getName()));
+        }
+        executor = createThreadPoolExecutor(getName() + "-exec-", getMinSpareThreads(), getMaxThreads());
+    }
+
+    /**
+     * Create an internal thread pool with the endpoint's standard queueing
+     * behaviour.
+     *
+     * @param namePrefix The prefix for the names of the pool's threads
+     * @param minThreads The number of threads to keep in the pool
+     * @param maxThreads The maximum number of threads in the pool
+     *
+     * @return The new thread pool
+     */
+    protected ThreadPoolExecutor createThreadPoolExecutor(String namePrefix, int minThreads,
+            int maxThreads) {
         TaskQueue taskqueue = new TaskQueue();
-        TaskThreadFactory tf = new TaskThreadFactory(getName() + "-exec-", daemon, getThreadPriority());
-        executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), 60, TimeUnit.SECONDS,taskqueue, tf);
-        taskqueue.setParent( (ThreadPoolExecutor) executor);
+        TaskThreadFactory tf = new TaskThreadFactory(namePrefix, daemon, getThreadPriority());
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(minThreads, maxThreads, 60, TimeUnit.SECONDS,taskqueue, tf);
+        taskqueue.setParent(tpe);
+        return tpe;
     }
 
     public void shutdownExecutor() {
@@ -872,25 +931,49 @@ public abstract class AbstractEndpoint<S> {
             this.executor = null;
             if (executor instanceof ThreadPoolExecutor) {
                 //this is our internal one, so we need to shut it down
-                ThreadPoolExecutor tpe = (ThreadPoolExecutor) executor;
-                tpe.shutdownNow();
+                shutdownThreadPoolExecutor((ThreadPoolExecutor) executor);
+            } else if (executor instanceof VirtualThreadExecutor) {
+                VirtualThreadExecutor vte = (VirtualThreadExecutor) executor;
+                vte.shutdownNow();
                 long timeout = getExecutorTerminationTimeoutMillis();
                 if (timeout > 0) {
                     try {
-                        tpe.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+                        vte.awaitTermination(timeout, TimeUnit.MILLISECONDS);
                     } catch (InterruptedException e) {
                         // Ignore
                     }
-                    if (tpe.isTerminating()) {
+                    if (vte.isTerminating()) {
                         getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
                     }
                 }
-                TaskQueue queue = (TaskQueue) tpe.getQueue();
-                queue.setParent(null);
             }
         }
     }
 
+    /**
+     * Shut down an internal thread pool created by
+     * {@link #createThreadPoolExecutor(String, int, int)}, waiting up to
+     * {@link #getExecutorTerminationTimeoutMillis()} for it to terminate.
+     *
+     * @param tpe The thread pool to shut down
+     */
+    protected void shutdownThreadPoolExecutor(ThreadPoolExecutor tpe) {
+        tpe.shutdownNow();
+        long timeout = getExecutorTerminationTimeoutMillis();
+        if (timeout > 0) {
+            try {
+                tpe.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // Ignore
+            }
+            if (tpe.isTerminating()) {
+                getLog().warn(sm.getString("endpoint.warn.executorShutdown", getName()));
+            }
+        }
+        TaskQueue queue = (TaskQueue) tpe.getQueue();
+        queue.setParent(null);
+    }
+
     /**
      * Unlock the server socket accept using a bogus connection.
      */
@@ -1044,7 +1127,7 @@ public abstract class AbstractEndpoint<S> {
             } else {
                 sc.reset(socketWrapper, event);
             }
-            Executor executor = getExecutor();
+            Executor executor = getExecutor(socketWrapper);
             if (dispatch && executor != null) {
                 executor.execute(sc);
             } else {
@@ -1064,6 +1147,21 @@ public abstract class AbstractEndpoint<S> {
     }
 
 
+    /**
+     * Obtain the Executor that should be used to process the given socket.
+     * Endpoints may override this to keep all processing for a socket on a
+     * particular set of threads.
+     *
+     * @param socketWrapper The socket wrapper to be processed
+     *
+     * @return The Executor to use, or <code>null</code> if processing should
+     *         take place on the current thread
+     */
+    protected Executor getExecutor(SocketWrapperBase<S> socketWrapper) {
+        return getExecutor();
+    }
+
+
     protected abstract SocketProcessorBase<S> createSocketProcessor(
             SocketWrapperBase<S> socketWrapper, SocketEvent event);
 
@@ -2090,8 +2090,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                 // Set the socket to nonblocking mode
                 Socket.timeoutSet(data.socket, 0);
                 while (sendfileRunning) {
-                    long nw = Socket.sendfilen(data.socket, data.fd,
-                                               data.pos, data.length, 0);
+                    long nw = write(data);
                     if (nw < 0) {
                         if (!(-nw == Status.EAGAIN)) {
                             Pool.destroy(data.fdpool);
@@ -2102,9 +2101,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                             break;
                         }
                     } else {
-                        data.pos += nw;
-                        data.length -= nw;
-                        if (data.length == 0) {
+                        if (!data.advance()) {
                             // Entire file has been sent
                             Pool.destroy(data.fdpool);
                             // Set back socket to blocking mode
@@ -2126,6 +2123,29 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
             return SendfileState.PENDING;
         }
 
+        /*
+         * Write the next part of the current segment: the in-memory data, if
+         * any remains, otherwise the file. Returns the number of bytes written
+         * or a negative APR status.
+         */
+        private long write(SendfileData data) {
+            if (data.data != null && data.data.hasRemaining()) {
+                ByteBuffer buffer = data.data;
+                int nw = Socket.send(data.socket, buffer.array(),
+                        buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                if (nw > 0) {
+                    buffer.position(buffer.position() + nw);
+                }
+                return nw;
+            }
+            long nw = Socket.sendfilen(data.socket, data.fd, data.pos, data.length, 0);
+            if (nw > 0) {
+                data.pos += nw;
+                data.length -= nw;
+            }
+            return nw;
+        }
+
         /**
          * Remove socket from the poller.
          *
@@ -2218,9 +2238,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                                 continue;
                             }
                             // Write some data using sendfile
-                            long nw = Socket.sendfilen(state.socket, state.fd,
-                                                       state.pos,
-                                                       state.length, 0);
+                            long nw = write(state);
                             if (nw < 0) {
                                 // Close socket and clear pool
                                 remove(state);
@@ -2230,9 +2248,7 @@ public class AprEndpoint extends AbstractEndpoint<Long> implements SNICallBack {
                                 continue;
                             }
 
-                            state.pos += nw;
-                            state.length -= nw;
-                            if (state.length == 0) {
+                            if (!state.advance()) {
                                 remove(state);
                                 switch (state.keepAliveState) {
                                 case NONE: {
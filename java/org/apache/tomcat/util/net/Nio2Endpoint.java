@@ -504,6 +504,18 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         private final CompletionHandler<Integer, ByteBuffer> writeCompletionHandler;
         private final CompletionHandler<Long, ByteBuffer[]> gatheringWriteCompletionHandler;
         private final Semaphore writePending = new Semaphore(1);
+        // Errors are reported via checkError() so nothing to do here
+        private final CompletionHandler<Long,Object> gatherWriteFailureHandler =
+                new CompletionHandler<Long,Object>() {
+            @Override
+            public void completed(Long result, Object attachment) {
+                // NO-OP
+            }
+            @Override
+            public void failed(Throwable exc, Object attachment) {
+                // NO-OP
+            }
+        };
         private boolean writeInterest = false; // Guarded by writeCompletionHandler
         private boolean writeNotify = false;
         private volatile boolean closed = false;
@@ -535,10 +547,9 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                     failed(new EOFException(), attachment);
                     return;
                 }
-                attachment.pos += nWrite.intValue();
                 ByteBuffer buffer = getSocket().getBufHandler().getWriteBuffer();
                 if (!buffer.hasRemaining()) {
-                    if (attachment.length <= 0) {
+                    if (!attachment.advance()) {
                         // All data has now been written
                         setSendfileData(null);
                         try {
@@ -569,23 +580,13 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                         return;
                     } else {
                         getSocket().getBufHandler().configureWriteBufferForWrite();
-                        int nRead = -1;
                         try {
-                            nRead = attachment.fchannel.read(buffer);
+                            fillSendfileBuffer(attachment, buffer);
                         } catch (IOException e) {
                             failed(e, attachment);
                             return;
                         }
-                        if (nRead > 0) {
-                            getSocket().getBufHandler().configureWriteBufferForRead();
-                            if (attachment.length < buffer.remaining()) {
-                                buffer.limit(buffer.limit() - buffer.remaining() + (int) attachment.length);
-                            }
-                            attachment.length -= nRead;
-                        } else {
-                            failed(new EOFException(), attachment);
-                            return;
-                        }
+                        getSocket().getBufHandler().configureWriteBufferForRead();
                     }
                 }
                 getSocket().write(buffer, toNio2Timeout(getWriteTimeout()), TimeUnit.MILLISECONDS, attachment, this);
@@ -1250,6 +1251,57 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
         }
 
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Overridden for NIO2 since non-blocking writes are asynchronous and
+         * already use a gathering write for any data left in the buffers.
+         */
+        @Override
+        protected void writeNonBlocking(ByteBuffer[] srcs, long length) throws IOException {
+            for (ByteBuffer src : srcs) {
+                if (src.hasRemaining()) {
+                    writeNonBlocking(src);
+                }
+            }
+        }
+
+
+        @Override
+        protected boolean isGatheringWriteSupported() {
+            // TLS encrypts each buffer separately
+            return !(getSocket() instanceof SecureNio2Channel);
+        }
+
+
+        /**
+         * @param block Ignored since this method is only called in the
+         *              blocking case
+         */
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] srcs) throws IOException {
+            if (!isGatheringWriteSupported()) {
+                super.doWrite(block, srcs);
+                return;
+            }
+            // NIO2 only provides gathering writes with a completion handler
+            // so wait for it to be called
+            CompletionState state = write(srcs, 0, srcs.length, true,
+                    toNio2Timeout(getWriteTimeout()), TimeUnit.MILLISECONDS, null, null,
+                    gatherWriteFailureHandler);
+            checkError();
+            if (state == CompletionState.PENDING) {
+                throw new SocketTimeoutException();
+            }
+            // Complete the write buffer by buffer
+            for (ByteBuffer src : srcs) {
+                if (src.hasRemaining()) {
+                    doWrite(true, src);
+                }
+            }
+        }
+
+
         /**
          * @param block Ignored since this method is only called in the
          *              blocking case
@@ -1449,38 +1501,65 @@ public class Nio2Endpoint extends AbstractJsseEndpoint<Nio2Channel> {
                 java.nio.file.Path path = new File(sendfileData.fileName).toPath();
                 try {
                     data.fchannel = java.nio.channels.FileChannel
-                            .open(path, StandardOpenOption.READ).position(sendfileData.pos);
+                            .open(path, StandardOpenOption.READ);
                 } catch (IOException e) {
                     return SendfileState.ERROR;
                 }
             }
             getSocket().getBufHandler().configureWriteBufferForWrite();
             ByteBuffer buffer = getSocket().getBufHandler().getWriteBuffer();
-            int nRead = -1;
             try {
-                nRead = data.fchannel.read(buffer);
+                fillSendfileBuffer(data, buffer);
             } catch (IOException e1) {
                 return SendfileState.ERROR;
             }
 
-            if (nRead >= 0) {
-                data.length -= nRead;
-                getSocket().getBufHandler().configureWriteBufferForRead();
-                Nio2Endpoint.startInline();
-                getSocket().write(buffer, toNio2Timeout(getWriteTimeout()), TimeUnit.MILLISECONDS,
-                        data, sendfileHandler);
-                Nio2Endpoint.endInline();
-                if (data.doneInline) {
-                    if (data.error) {
-                        return SendfileState.ERROR;
-                    } else {
-                        return SendfileState.DONE;
-                    }
+            getSocket().getBufHandler().configureWriteBufferForRead();
+            Nio2Endpoint.startInline();
+            getSocket().write(buffer, toNio2Timeout(getWriteTimeout()), TimeUnit.MILLISECONDS,
+                    data, sendfileHandler);
+            Nio2Endpoint.endInline();
+            if (data.doneInline) {
+                if (data.error) {
+                    return SendfileState.ERROR;
                 } else {
-                    return SendfileState.PENDING;
+                    return SendfileState.DONE;
                 }
             } else {
-                return SendfileState.ERROR;
+                return SendfileState.PENDING;
+            }
+        }
+
+
+        /*
+         * Fill the write buffer, which must be in write mode, with the next
+         * bytes to send. The in-memory data and the ranges of the file are
+         * copied in order so a single socket write may contain parts of more
+         * than one segment.
+         */
+        private void fillSendfileBuffer(SendfileData data, ByteBuffer buffer)
+                throws IOException {
+            while (buffer.hasRemaining() && data.advance()) {
+                if (data.data != null && data.data.hasRemaining()) {
+                    int dataLimit = data.data.limit();
+                    if (data.data.remaining() > buffer.remaining()) {
+                        data.data.limit(data.data.position() + buffer.remaining());
+                    }
+                    buffer.put(data.data);
+                    data.data.limit(dataLimit);
+                } else {
+                    int limit = buffer.limit();
+                    if (data.length < buffer.remaining()) {
+                        buffer.limit(buffer.position() + (int) data.length);
+                    }
+                    int nRead = data.fchannel.read(buffer, data.pos);
+                    buffer.limit(limit);
+                    if (nRead <= 0) {
+                        throw new EOFException();
+                    }
+                    data.pos += nRead;
+                    data.length -= nRead;
+                }
             }
         }
 
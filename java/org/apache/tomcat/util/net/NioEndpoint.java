@@ -27,6 +27,8 @@ import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.NetworkChannel;
 import java.nio.channels.SelectionKey;
@@ -37,6 +39,7 @@ import java.nio.channels.WritableByteChannel;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,8 +53,10 @@ import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
 import org.apache.tomcat.util.collections.SynchronizedQueue;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.compat.JreCompat;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.jsse.JSSESupport;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
 
 /**
  * NIO tailored thread pool, providing the following services:
@@ -87,6 +92,18 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private volatile ServerSocketChannel serverSock = null;
 
+    /**
+     * Server sockets used when the endpoint is sharded with SO_REUSEPORT. The
+     * first element is always {@link #serverSock}.
+     */
+    private volatile ServerSocketChannel[] serverSocks = null;
+
+    /**
+     * Selectors used by the Acceptors to wait for connections on the
+     * non-blocking SO_REUSEPORT server sockets. There is one per server socket.
+     */
+    private volatile Selector[] acceptSelectors = null;
+
     /**
      *
      */
@@ -102,6 +119,14 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     private SynchronizedStack<NioChannel> nioChannels;
 
+    /**
+     * Arenas that lend the application buffers to connections without TLS
+     * when socket.bufferArena is enabled. The arenas are the same instance if
+     * the read and write buffers are the same size.
+     */
+    private volatile SocketBufferArena readBufferArena;
+    private volatile SocketBufferArena writeBufferArena;
+
 
     // ------------------------------------------------------------- Properties
 
@@ -147,6 +172,43 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * Number of listening sockets to open with SO_REUSEPORT. When greater than
+     * one, each listening socket is served by its own Acceptor and Poller pair
+     * and the acceptor and poller thread counts are set to this value.
+     */
+    private int reusePortCount = 0;
+    public void setReusePortCount(int reusePortCount) { this.reusePortCount = reusePortCount; }
+    public int getReusePortCount() { return reusePortCount; }
+
+    /**
+     * Is the endpoint currently bound with one listening socket per Acceptor
+     * and Poller pair?
+     *
+     * @return <code>true</code> if the listening sockets are sharded with
+     *         SO_REUSEPORT
+     */
+    public boolean isReusePortSharded() {
+        return serverSocks != null && serverSocks.length > 1;
+    }
+
+    private int nextAcceptorIndex = 0;
+
+    /**
+     * Process the sockets of each Poller on a dedicated stripe of worker
+     * threads rather than on the shared executor. Only used with the internal
+     * executor.
+     */
+    private boolean pollerAffinity = false;
+    public void setPollerAffinity(boolean pollerAffinity) { this.pollerAffinity = pollerAffinity; }
+    public boolean getPollerAffinity() { return pollerAffinity; }
+
+    /**
+     * The worker thread stripes, one per Poller, when poller affinity is
+     * enabled.
+     */
+    private volatile ThreadPoolExecutor[] pollerExecutors = null;
+
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -204,6 +266,57 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * @return The number of bytes allocated by the buffer arena or zero if the
+     *         arena is not enabled
+     */
+    public long getBufferArenaAllocatedBytes() {
+        SocketBufferArena readArena = readBufferArena;
+        SocketBufferArena writeArena = writeBufferArena;
+        if (readArena == null) {
+            return 0;
+        } else if (readArena == writeArena) {
+            return readArena.getAllocatedBytes();
+        } else {
+            return readArena.getAllocatedBytes() + writeArena.getAllocatedBytes();
+        }
+    }
+
+
+    /**
+     * @return The number of buffers currently lent by the buffer arena to
+     *         connections
+     */
+    public int getBufferArenaBorrowedCount() {
+        SocketBufferArena readArena = readBufferArena;
+        SocketBufferArena writeArena = writeBufferArena;
+        if (readArena == null) {
+            return 0;
+        } else if (readArena == writeArena) {
+            return readArena.getBorrowedCount();
+        } else {
+            return readArena.getBorrowedCount() + writeArena.getBorrowedCount();
+        }
+    }
+
+
+    /**
+     * @return The largest number of buffers that the buffer arena has lent to
+     *         connections at the same time
+     */
+    public int getBufferArenaPeakBorrowedCount() {
+        SocketBufferArena readArena = readBufferArena;
+        SocketBufferArena writeArena = writeBufferArena;
+        if (readArena == null) {
+            return 0;
+        } else if (readArena == writeArena) {
+            return readArena.getPeakBorrowedCount();
+        } else {
+            return readArena.getPeakBorrowedCount() + writeArena.getPeakBorrowedCount();
+        }
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
     /**
@@ -213,10 +326,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     public void bind() throws Exception {
 
         if (!getUseInheritedChannel()) {
-            serverSock = ServerSocketChannel.open();
-            socketProperties.setProperties(serverSock.socket());
             InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-            serverSock.socket().bind(addr,getAcceptCount());
+            if (reusePortCount > 1) {
+                bindReusePort(addr);
+            }
+            if (serverSocks == null) {
+                serverSock = ServerSocketChannel.open();
+                socketProperties.setProperties(serverSock.socket());
+                serverSock.socket().bind(addr,getAcceptCount());
+            }
         } else {
             // Retrieve the channel provided by the OS
             Channel ic = System.inheritedChannel();
@@ -227,7 +345,13 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 throw new IllegalArgumentException(sm.getString("endpoint.init.bind.inherited"));
             }
         }
-        serverSock.configureBlocking(true); //mimic APR behavior
+        if (isReusePortSharded()) {
+            // One Acceptor and one Poller per listening socket
+            acceptorThreadCount = serverSocks.length;
+            pollerThreadCount = serverSocks.length;
+        } else {
+            serverSock.configureBlocking(true); //mimic APR behavior
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
@@ -246,6 +370,71 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         selectorPool.open();
     }
 
+    /**
+     * Opens {@link #getReusePortCount()} listening sockets on the same address
+     * with SO_REUSEPORT enabled. If SO_REUSEPORT is not available, a single
+     * listening socket will be used instead.
+     */
+    private void bindReusePort(InetSocketAddress addr) throws IOException {
+        ServerSocketChannel[] socks = new ServerSocketChannel[reusePortCount];
+        Selector[] selectors = new Selector[reusePortCount];
+        try {
+            for (int i = 0; i < socks.length; i++) {
+                socks[i] = ServerSocketChannel.open();
+                JreCompat.getInstance().setReusePort(socks[i]);
+                socketProperties.setProperties(socks[i].socket());
+                socks[i].socket().bind(addr, getAcceptCount());
+                // The Acceptors wait on a Selector rather than in accept() so
+                // they can be released reliably when the endpoint is paused or
+                // stopped. An unlock connection would be routed by the OS to
+                // an arbitrary server socket.
+                socks[i].configureBlocking(false);
+                selectors[i] = Selector.open();
+                socks[i].register(selectors[i], SelectionKey.OP_ACCEPT);
+                if (addr.getPort() == 0) {
+                    // The remaining sockets must share the port the OS
+                    // selected for the first one
+                    addr = new InetSocketAddress(addr.getAddress(), socks[i].socket().getLocalPort());
+                }
+            }
+        } catch (UnsupportedOperationException e) {
+            log.warn(sm.getString("endpoint.nio.reusePortUnavailable", getName()), e);
+            closeReusePort(socks, selectors);
+            return;
+        } catch (IOException e) {
+            closeReusePort(socks, selectors);
+            throw e;
+        }
+        acceptSelectors = selectors;
+        serverSocks = socks;
+        serverSock = socks[0];
+    }
+
+
+    private void closeReusePort(ServerSocketChannel[] socks, Selector[] selectors) {
+        for (int i = 0; i < socks.length; i++) {
+            try {
+                if (selectors[i] != null) {
+                    selectors[i].close();
+                }
+            } catch (IOException ioe) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("endpoint.nio.selectorCloseFail"), ioe);
+                }
+            }
+            try {
+                if (socks[i] != null) {
+                    socks[i].socket().close();
+                    socks[i].close();
+                }
+            } catch (IOException ioe) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString("endpoint.err.close"), ioe);
+                }
+            }
+        }
+    }
+
     /**
      * Start the NIO endpoint, creating acceptor, poller threads.
      */
@@ -262,6 +451,21 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                             socketProperties.getEventCache());
             nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getBufferPool());
+            if (socketProperties.getBufferArena() && !isSSLEnabled()) {
+                readBufferArena = new SocketBufferArena(socketProperties.getAppReadBufSize(),
+                        socketProperties.getBufferArenaSlabSize(),
+                        socketProperties.getDirectBuffer());
+                if (socketProperties.getAppWriteBufSize() == socketProperties.getAppReadBufSize()) {
+                    writeBufferArena = readBufferArena;
+                } else {
+                    writeBufferArena = new SocketBufferArena(socketProperties.getAppWriteBufSize(),
+                            socketProperties.getBufferArenaSlabSize(),
+                            socketProperties.getDirectBuffer());
+                }
+            } else {
+                readBufferArena = null;
+                writeBufferArena = null;
+            }
 
             // Create worker collection
             if ( getExecutor() == null ) {
@@ -272,19 +476,105 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
             // Start poller threads
             pollers = new Poller[getPollerThreadCount()];
+            ThreadPoolExecutor[] executors = createPollerExecutors(pollers.length);
+            pollerExecutors = executors;
             for (int i=0; i<pollers.length; i++) {
                 pollers[i] = new Poller();
+                if (executors != null) {
+                    pollers[i].setAffineExecutor(executors[i]);
+                }
                 Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-"+i);
                 pollerThread.setPriority(threadPriority);
                 pollerThread.setDaemon(true);
                 pollerThread.start();
             }
 
+            nextAcceptorIndex = 0;
             startAcceptorThreads();
         }
     }
 
 
+    /**
+     * Creates the per Poller worker thread stripes if poller affinity is
+     * enabled. The thread limits of the internal executor are divided evenly
+     * between the stripes and the shared executor, which continues to process
+     * work that is not tied to a socket.
+     */
+    private ThreadPoolExecutor[] createPollerExecutors(int count) {
+        if (!pollerAffinity) {
+            return null;
+        }
+        if (!internalExecutor) {
+            log.warn(sm.getString("endpoint.nio.pollerAffinityExternalExecutor", getName()));
+            return null;
+        }
+        if (!(getExecutor() instanceof ThreadPoolExecutor)) {
+            // Virtual threads. There is no pool to divide.
+            return null;
+        }
+        int maxThreads = getStripeMaxThreads(count);
+        int minThreads = getStripeMinThreads(count);
+        ThreadPoolExecutor[] executors = new ThreadPoolExecutor[count];
+        for (int i = 0; i < count; i++) {
+            executors[i] = createThreadPoolExecutor(
+                    getName() + "-ClientPoller-" + i + "-exec-", minThreads, maxThreads);
+        }
+        divideThreads(executors);
+        return executors;
+    }
+
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If poller affinity is enabled, the thread limits are divided between
+     * the shared executor and the worker thread stripes.
+     */
+    @Override
+    protected void resizeExecutor() {
+        ThreadPoolExecutor[] executors = pollerExecutors;
+        if (executors == null) {
+            super.resizeExecutor();
+        } else {
+            divideThreads(executors);
+        }
+    }
+
+
+    /*
+     * Each stripe and the shared executor gets an equal share of the thread
+     * limits. The shared executor also gets any remainder so the total is
+     * never more than maxThreads.
+     */
+    private void divideThreads(ThreadPoolExecutor[] executors) {
+        int count = executors.length;
+        int maxThreads = getStripeMaxThreads(count);
+        int minThreads = getStripeMinThreads(count);
+        for (ThreadPoolExecutor executor : executors) {
+            setPoolSize(executor, minThreads, maxThreads);
+        }
+        Executor executor = getExecutor();
+        if (executor instanceof ThreadPoolExecutor) {
+            int sharedMaxThreads = Math.max(1, getMaxThreads() - count * maxThreads);
+            int sharedMinThreads = Math.min(sharedMaxThreads,
+                    Math.max(0, getMinSpareThreads() - count * minThreads));
+            setPoolSize((ThreadPoolExecutor) executor, sharedMinThreads, sharedMaxThreads);
+        }
+    }
+
+
+    private int getStripeMaxThreads(int count) {
+        return Math.max(1, getMaxThreads() / (count + 1));
+    }
+
+
+    private int getStripeMinThreads(int count) {
+        return Math.min(getStripeMaxThreads(count),
+                Math.max(1, getMinSpareThreads() / (count + 1)));
+    }
+
+
     /**
      * Stop the endpoint. This will cause all processing threads to stop.
      */
@@ -310,8 +600,17 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 log.warn(sm.getString("endpoint.nio.stopLatchAwaitInterrupted"), e);
             }
             shutdownExecutor();
+            ThreadPoolExecutor[] executors = pollerExecutors;
+            pollerExecutors = null;
+            if (executors != null) {
+                for (ThreadPoolExecutor executor : executors) {
+                    shutdownThreadPoolExecutor(executor);
+                }
+            }
             eventCache.clear();
             nioChannels.clear();
+            readBufferArena = null;
+            writeBufferArena = null;
             processorCache.clear();
         }
     }
@@ -343,6 +642,14 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
     @Override
     protected void doCloseServerSocket() throws IOException {
+        ServerSocketChannel[] socks = serverSocks;
+        if (socks != null) {
+            // Close the SO_REUSEPORT server sockets and their selectors
+            closeReusePort(socks, acceptSelectors);
+            serverSocks = null;
+            acceptSelectors = null;
+            serverSock = null;
+        }
         if (!getUseInheritedChannel() && serverSock != null) {
             // Close server socket
             serverSock.socket().close();
@@ -352,6 +659,38 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * When the endpoint is sharded with SO_REUSEPORT the Acceptors are woken
+     * via their selectors rather than with an unlock connection.
+     */
+    @Override
+    protected void unlockAccept() {
+        Selector[] selectors = acceptSelectors;
+        if (selectors == null) {
+            super.unlockAccept();
+            return;
+        }
+        for (Selector selector : selectors) {
+            selector.wakeup();
+        }
+        // Wait for upto 1000ms acceptor threads to unlock
+        long waitLeft = 1000;
+        for (AbstractEndpoint.Acceptor acceptor : acceptors) {
+            while (waitLeft > 0 &&
+                    acceptor.getState() == AbstractEndpoint.Acceptor.AcceptorState.RUNNING) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                waitLeft -= 5;
+            }
+        }
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
 
@@ -370,6 +709,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
+        if (isReusePortSharded()) {
+            // Pair each Acceptor with its own listening socket and Poller
+            int index = nextAcceptorIndex++;
+            return new Acceptor(serverSocks[index], acceptSelectors[index], pollers[index]);
+        }
         return new Acceptor();
     }
 
@@ -392,6 +736,20 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      *  close immediately
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, null);
+    }
+
+
+    /**
+     * Process the specified connection.
+     * @param socket The socket channel
+     * @param poller The Poller to register the socket with or
+     *               <code>null</code> to select one in round robin fashion
+     * @return <code>true</code> if the socket was correctly configured
+     *  and processing may continue, <code>false</code> if the socket needs to be
+     *  close immediately
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -401,10 +759,15 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
             NioChannel channel = nioChannels.pop();
             if (channel == null) {
-                SocketBufferHandler bufhandler = new SocketBufferHandler(
-                        socketProperties.getAppReadBufSize(),
-                        socketProperties.getAppWriteBufSize(),
-                        socketProperties.getDirectBuffer());
+                SocketBufferHandler bufhandler;
+                if (readBufferArena == null) {
+                    bufhandler = new SocketBufferHandler(
+                            socketProperties.getAppReadBufSize(),
+                            socketProperties.getAppWriteBufSize(),
+                            socketProperties.getDirectBuffer());
+                } else {
+                    bufhandler = new SocketBufferHandler(readBufferArena, writeBufferArena);
+                }
                 if (isSSLEnabled()) {
                     channel = new SecureNioChannel(socket, bufhandler, selectorPool, this);
                 } else {
@@ -414,7 +777,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                 channel.setIOChannel(socket);
                 channel.reset();
             }
-            getPoller0().register(channel);
+            if (poller == null) {
+                poller = getPoller0();
+            }
+            poller.register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -448,6 +814,33 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final ServerSocketChannel serverSocket;
+        private final Selector selector;
+        private final Poller poller;
+
+        public Acceptor() {
+            this(null, null, null);
+        }
+
+        /**
+         * Create an Acceptor bound to a specific listening socket and Poller.
+         *
+         * @param serverSocket The non-blocking listening socket to accept
+         *                     connections from or <code>null</code> to use the
+         *                     endpoint's (blocking) server socket
+         * @param selector     The Selector the listening socket is registered
+         *                     with for OP_ACCEPT. Required if serverSocket is
+         *                     not <code>null</code>.
+         * @param poller       The Poller that accepted sockets are registered
+         *                     with or <code>null</code> to select one in round
+         *                     robin fashion
+         */
+        public Acceptor(ServerSocketChannel serverSocket, Selector selector, Poller poller) {
+            this.serverSocket = serverSocket;
+            this.selector = selector;
+            this.poller = poller;
+        }
+
         @Override
         public void run() {
 
@@ -479,7 +872,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     try {
                         // Accept the next incoming connection from the server
                         // socket
-                        socket = serverSock.accept();
+                        socket = accept();
                     } catch (IOException ioe) {
                         // We didn't get a socket
                         countDownConnection();
@@ -492,6 +885,11 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                             break;
                         }
                     }
+                    if (socket == null) {
+                        // Woken up to pause or stop
+                        countDownConnection();
+                        continue;
+                    }
                     // Successful accept, reset the error delay
                     errorDelay = 0;
 
@@ -499,7 +897,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     if (running && !paused) {
                         // setSocketOptions() will hand the socket off to
                         // an appropriate processor if successful
-                        if (!setSocketOptions(socket)) {
+                        if (!setSocketOptions(socket, poller)) {
                             closeSocket(socket);
                         }
                     } else {
@@ -514,6 +912,26 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
 
 
+        private SocketChannel accept() throws IOException {
+            if (serverSocket == null) {
+                return serverSock.accept();
+            }
+            try {
+                while (running && !paused) {
+                    SocketChannel socket = serverSocket.accept();
+                    if (socket != null) {
+                        return socket;
+                    }
+                    selector.select();
+                    selector.selectedKeys().clear();
+                }
+            } catch (ClosedSelectorException cse) {
+                throw new ClosedChannelException();
+            }
+            return null;
+        }
+
+
         private void closeSocket(SocketChannel socket) {
             countDownConnection();
             try {
@@ -534,6 +952,50 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
     }
 
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If poller affinity is enabled, sockets are processed on the worker
+     * thread stripe of the Poller they are registered with.
+     */
+    @Override
+    protected Executor getExecutor(SocketWrapperBase<NioChannel> socketWrapper) {
+        if (pollerExecutors != null) {
+            Poller poller = ((NioSocketWrapper) socketWrapper).getPoller();
+            if (poller != null && poller.getAffineExecutor() != null) {
+                return poller.getAffineExecutor();
+            }
+        }
+        return getExecutor();
+    }
+
+
+    @Override
+    public int getCurrentThreadCount() {
+        int result = super.getCurrentThreadCount();
+        ThreadPoolExecutor[] executors = pollerExecutors;
+        if (executors != null && result >= 0) {
+            for (ThreadPoolExecutor executor : executors) {
+                result += executor.getPoolSize();
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public int getCurrentThreadsBusy() {
+        int result = super.getCurrentThreadsBusy();
+        ThreadPoolExecutor[] executors = pollerExecutors;
+        if (executors != null && result >= 0) {
+            for (ThreadPoolExecutor executor : executors) {
+                result += executor.getActiveCount();
+            }
+        }
+        return result;
+    }
+
+
     @Override
     protected SocketProcessorBase<NioChannel> createSocketProcessor(
             SocketWrapperBase<NioChannel> socketWrapper, SocketEvent event) {
@@ -554,6 +1016,10 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                     log.debug("Socket: [" + socket + "] closed");
                 }
                 if (running && !paused) {
+                    if (readBufferArena != null) {
+                        // Don't hold borrowed buffers while cached
+                        socket.getBufHandler().reset();
+                    }
                     if (!nioChannels.push(socket)) {
                         socket.free();
                     }
@@ -652,12 +1118,22 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
 
         private volatile int keyCount = 0;
 
+        private volatile Executor affineExecutor = null;
+
         public Poller() throws IOException {
             this.selector = Selector.open();
         }
 
         public int getKeyCount() { return keyCount; }
 
+        /**
+         * @return The Executor dedicated to processing the sockets registered
+         *         with this Poller or <code>null</code> if the sockets are
+         *         processed by the shared executor
+         */
+        public Executor getAffineExecutor() { return affineExecutor; }
+        public void setAffineExecutor(Executor affineExecutor) { this.affineExecutor = affineExecutor; }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -937,21 +1413,34 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                         socketWrapper.updateLastWrite();
                     }
                 } else {
-                    long written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
-                    if (written > 0) {
-                        sd.pos += written;
-                        sd.length -= written;
-                        socketWrapper.updateLastWrite();
-                    } else {
-                        // Unusual not to be able to transfer any bytes
-                        // Check the length was set correctly
-                        if (sd.fchannel.size() <= sd.pos) {
-                            throw new IOException("Sendfile configured to " +
-                                    "send more data than was available");
+                    // Keep writing, switching between in-memory data and the
+                    // file as the segments require, until the socket is full
+                    while (sd.advance() && sc.getOutboundRemaining() <= 0) {
+                        long written;
+                        if (sd.data != null && sd.data.hasRemaining()) {
+                            written = wc.write(sd.data);
+                        } else {
+                            written = sd.fchannel.transferTo(sd.pos,sd.length,wc);
+                            if (written > 0) {
+                                sd.pos += written;
+                                sd.length -= written;
+                            } else {
+                                // Unusual not to be able to transfer any bytes
+                                // Check the length was set correctly
+                                if (sd.fchannel.size() <= sd.pos) {
+                                    throw new IOException("Sendfile configured to " +
+                                            "send more data than was available");
+                                }
+                            }
+                        }
+                        if (written > 0) {
+                            socketWrapper.updateLastWrite();
+                        } else {
+                            break;
                         }
                     }
                 }
-                if (sd.length <= 0 && sc.getOutboundRemaining()<=0) {
+                if (!sd.advance() && sc.getOutboundRemaining()<=0) {
                     if (log.isDebugEnabled()) {
                         log.debug("Send file complete for: "+sd.fileName);
                     }
@@ -985,6 +1474,7 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
                             if (log.isDebugEnabled()) {
                                 log.debug("Connection is keep alive, registering back for OP_READ");
                             }
+                            socketWrapper.releaseBuffers();
                             reg(sk,socketWrapper,SelectionKey.OP_READ);
                             break;
                         }
@@ -1325,6 +1815,80 @@ public class NioEndpoint extends AbstractJsseEndpoint<NioChannel> {
         }
 
 
+        @Override
+        protected boolean isGatheringWriteSupported() {
+            // TLS encrypts each buffer separately
+            return !(getSocket() instanceof SecureNioChannel);
+        }
+
+
+        @Override
+        protected void doWrite(boolean block, ByteBuffer[] srcs) throws IOException {
+            if (!isGatheringWriteSupported()) {
+                super.doWrite(block, srcs);
+                return;
+            }
+            // The channel is non-blocking so this writes as much as the
+            // network will accept in a single call
+            long written = getSocket().getIOChannel().write(srcs);
+            if (written < 0) {
+                throw new EOFException();
+            } else if (written > 0) {
+                updateLastWrite();
+            }
+            if (block) {
+                // Complete the write buffer by buffer, waiting for the socket
+                // to become writeable as necessary
+                for (ByteBuffer src : srcs) {
+                    if (src.hasRemaining()) {
+                        doWrite(true, src);
+                    }
+                }
+            }
+        }
+
+
+        @Override
+        public boolean isFileTransferSupported() {
+            // TLS requires the file content to be encrypted
+            return !(getSocket() instanceof SecureNioChannel);
+        }
+
+
+        @Override
+        public void transferFile(FileChannel file, long pos, long length) throws IOException {
+            if (!isFileTransferSupported()) {
+                throw new UnsupportedOperationException();
+            }
+            // Data in the socket write buffer must be written first
+            doWrite(true);
+            SocketChannel sc = getSocket().getIOChannel();
+            long end = pos + length;
+            while (pos < end) {
+                long written = file.transferTo(pos, end - pos, sc);
+                if (written > 0) {
+                    pos += written;
+                    updateLastWrite();
+                } else {
+                    // The network buffer is full. Copy the next block via the
+                    // socket write buffer as a blocking write waits for the
+                    // socket to become writeable.
+                    socketBufferHandler.configureWriteBufferForWrite();
+                    ByteBuffer writeBuffer = socketBufferHandler.getWriteBuffer();
+                    if (writeBuffer.remaining() > end - pos) {
+                        writeBuffer.limit(writeBuffer.position() + (int) (end - pos));
+                    }
+                    int read = file.read(writeBuffer, pos);
+                    if (read < 0) {
+                        throw new EOFException();
+                    }
+                    pos += read;
+                    doWrite(true);
+                }
+            }
+        }
+
+
         @Override
         public void registerReadInterest() {
             getPoller().add(getSocket(), SelectionKey.OP_READ);
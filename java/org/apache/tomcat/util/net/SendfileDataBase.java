@@ -16,6 +16,8 @@
  */
 package org.apache.tomcat.util.net;
 
+import java.nio.ByteBuffer;
+
 public abstract class SendfileDataBase {
 
     /**
@@ -46,9 +48,56 @@ public abstract class SendfileDataBase {
      */
     public long length;
 
+    /**
+     * The data, held in memory, to be written to the socket before the bytes
+     * from the file starting at {@link #pos}. This is <code>null</code> unless
+     * the response is made up of {@link SendfileSegment}s.
+     */
+    public ByteBuffer data;
+
+    private SendfileSegment[] segments = null;
+    private int segmentIndex = 0;
+
     public SendfileDataBase(String filename, long pos, long length) {
         this.fileName = filename;
         this.pos = pos;
         this.length = length;
     }
+
+    /**
+     * Write the given segments rather than the single range of the file
+     * provided to the constructor.
+     *
+     * @param segments The segments to write, in order
+     */
+    public void setSegments(SendfileSegment[] segments) {
+        this.segments = segments;
+        segmentIndex = 0;
+        data = null;
+        pos = 0;
+        length = 0;
+        advance();
+    }
+
+    /**
+     * Move on to the next segment, if any, once all of the current one has
+     * been written. Endpoints should call this before each write and use
+     * {@link #data}, {@link #pos} and {@link #length} to determine what to
+     * write next.
+     *
+     * @return <code>true</code> if there is more to write, otherwise
+     *         <code>false</code>
+     */
+    public boolean advance() {
+        while ((data == null || !data.hasRemaining()) && length <= 0) {
+            if (segments == null || segmentIndex == segments.length) {
+                return false;
+            }
+            SendfileSegment segment = segments[segmentIndex++];
+            data = segment.getData() == null ? null : ByteBuffer.wrap(segment.getData());
+            pos = segment.getStart();
+            length = segment.getEnd() - segment.getStart();
+        }
+        return true;
+    }
 }
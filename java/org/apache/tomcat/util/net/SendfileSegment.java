@@ -0,0 +1,56 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+/**
+ * One part of a response body written by sendfile that is made up of more than
+ * one range of a file, such as a <code>multipart/byteranges</code> response.
+ * The data held in memory, if any, is written first followed by the range of
+ * the file, if any.
+ */
+public final class SendfileSegment {
+
+    private final byte[] data;
+    private final long start;
+    private final long end;
+
+    /**
+     * @param data  The data to write before the range of the file or
+     *              <code>null</code> if there is none
+     * @param start The offset of the first byte of the file to write
+     * @param end   The offset after the last byte of the file to write. If this
+     *              is the same as <code>start</code> no part of the file is
+     *              written.
+     */
+    public SendfileSegment(byte[] data, long start, long end) {
+        this.data = data;
+        this.start = start;
+        this.end = end;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+}
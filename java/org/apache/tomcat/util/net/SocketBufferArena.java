@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A pool of fixed size socket buffers that are carved out of larger slabs of
+ * memory. Buffers are lent to {@link SocketBufferHandler}s while a connection
+ * is reading or writing and returned when the connection is idle so the memory
+ * required scales with the number of active connections rather than the
+ * number of open connections. Slabs are allocated on demand and are retained
+ * for the life of the arena.
+ */
+public class SocketBufferArena {
+
+    private static final StringManager sm = StringManager.getManager(SocketBufferArena.class);
+
+    private final int bufferSize;
+    private final int slabBuffers;
+    private final boolean direct;
+
+    private final SynchronizedStack<ByteBuffer> free =
+            new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE, -1);
+
+    private final AtomicLong slabCount = new AtomicLong(0);
+    private final AtomicInteger borrowedCount = new AtomicInteger(0);
+    private final AtomicInteger peakBorrowedCount = new AtomicInteger(0);
+
+
+    /**
+     * Create an arena.
+     *
+     * @param bufferSize    The capacity of the buffers lent by this arena
+     * @param slabBuffers   The number of buffers allocated together in a single
+     *                      slab
+     * @param direct        Should the slabs use direct memory
+     */
+    public SocketBufferArena(int bufferSize, int slabBuffers, boolean direct) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException(sm.getString(
+                    "socketBufferArena.invalidBufferSize", Integer.toString(bufferSize)));
+        }
+        this.bufferSize = bufferSize;
+        this.slabBuffers = Math.max(1, Math.min(slabBuffers, Integer.MAX_VALUE / bufferSize));
+        this.direct = direct;
+    }
+
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+
+    /**
+     * @return The number of bytes allocated for slabs by this arena
+     */
+    public long getAllocatedBytes() {
+        return slabCount.get() * slabBuffers * bufferSize;
+    }
+
+
+    /**
+     * @return The number of buffers currently lent by this arena
+     */
+    public int getBorrowedCount() {
+        return borrowedCount.get();
+    }
+
+
+    /**
+     * @return The largest number of buffers lent at the same time
+     */
+    public int getPeakBorrowedCount() {
+        return peakBorrowedCount.get();
+    }
+
+
+    /**
+     * Obtain a buffer from the arena. The returned buffer is cleared.
+     *
+     * @return A buffer with a capacity of {@link #getBufferSize()}
+     */
+    public ByteBuffer borrow() {
+        ByteBuffer result = free.pop();
+        if (result == null) {
+            result = allocateSlab();
+        }
+        result.clear();
+        int count = borrowedCount.incrementAndGet();
+        int peak = peakBorrowedCount.get();
+        while (count > peak && !peakBorrowedCount.compareAndSet(peak, count)) {
+            peak = peakBorrowedCount.get();
+        }
+        return result;
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #borrow()} to the arena. The caller
+     * must not use the buffer after calling this method.
+     *
+     * @param buffer The buffer to return
+     */
+    public void giveBack(ByteBuffer buffer) {
+        borrowedCount.decrementAndGet();
+        free.push(buffer);
+    }
+
+
+    private ByteBuffer allocateSlab() {
+        ByteBuffer slab;
+        if (direct) {
+            slab = ByteBuffer.allocateDirect(bufferSize * slabBuffers);
+        } else {
+            slab = ByteBuffer.allocate(bufferSize * slabBuffers);
+        }
+        slabCount.incrementAndGet();
+        // Keep the first buffer for the caller and make the rest available
+        for (int i = slabBuffers - 1; i > 0; i--) {
+            slab.limit((i + 1) * bufferSize);
+            slab.position(i * bufferSize);
+            free.push(slab.slice());
+        }
+        slab.limit(bufferSize);
+        slab.position(0);
+        return slab.slice();
+    }
+}
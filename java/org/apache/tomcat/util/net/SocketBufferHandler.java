@@ -30,6 +30,11 @@ public class SocketBufferHandler {
 
     private final boolean direct;
 
+    // If set, the buffers are borrowed from these arenas when required and
+    // are null while they are not borrowed
+    private volatile SocketBufferArena readArena;
+    private volatile SocketBufferArena writeArena;
+
     public SocketBufferHandler(int readBufferSize, int writeBufferSize,
             boolean direct) {
         this.direct = direct;
@@ -43,6 +48,21 @@ public class SocketBufferHandler {
     }
 
 
+    /**
+     * Create a handler that borrows its buffers from the given arenas only
+     * when they are required. The buffers are returned to the arenas by
+     * {@link #releaseBuffers()}, {@link #reset()} and {@link #free()}.
+     *
+     * @param readArena     The arena that provides the read buffer
+     * @param writeArena    The arena that provides the write buffer
+     */
+    public SocketBufferHandler(SocketBufferArena readArena, SocketBufferArena writeArena) {
+        this.direct = readArena.isDirect();
+        this.readArena = readArena;
+        this.writeArena = writeArena;
+    }
+
+
     public void configureReadBufferForWrite() {
         setReadBufferConfiguredForWrite(true);
     }
@@ -56,7 +76,10 @@ public class SocketBufferHandler {
     private void setReadBufferConfiguredForWrite(boolean readBufferConFiguredForWrite) {
         // NO-OP if buffer is already in correct state
         if (this.readBufferConfiguredForWrite != readBufferConFiguredForWrite) {
-            if (readBufferConFiguredForWrite) {
+            ByteBuffer readBuffer = this.readBuffer;
+            if (readBuffer == null) {
+                // Not borrowed so empty in either state
+            } else if (readBufferConFiguredForWrite) {
                 // Switching to write
                 int remaining = readBuffer.remaining();
                 if (remaining == 0) {
@@ -74,12 +97,24 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getReadBuffer() {
-        return readBuffer;
+        ByteBuffer result = readBuffer;
+        if (result == null) {
+            result = readArena.borrow();
+            if (!readBufferConfiguredForWrite) {
+                // Empty buffer configured for read
+                result.limit(0);
+            }
+            readBuffer = result;
+        }
+        return result;
     }
 
 
     public boolean isReadBufferEmpty() {
-        if (readBufferConfiguredForWrite) {
+        ByteBuffer readBuffer = this.readBuffer;
+        if (readBuffer == null) {
+            return true;
+        } else if (readBufferConfiguredForWrite) {
             return readBuffer.position() == 0;
         } else {
             return readBuffer.remaining() == 0;
@@ -100,7 +135,10 @@ public class SocketBufferHandler {
     private void setWriteBufferConfiguredForWrite(boolean writeBufferConfiguredForWrite) {
         // NO-OP if buffer is already in correct state
         if (this.writeBufferConfiguredForWrite != writeBufferConfiguredForWrite) {
-            if (writeBufferConfiguredForWrite) {
+            ByteBuffer writeBuffer = this.writeBuffer;
+            if (writeBuffer == null) {
+                // Not borrowed so empty in either state
+            } else if (writeBufferConfiguredForWrite) {
                 // Switching to write
                 int remaining = writeBuffer.remaining();
                 if (remaining == 0) {
@@ -120,7 +158,10 @@ public class SocketBufferHandler {
 
 
     public boolean isWriteBufferWritable() {
-        if (writeBufferConfiguredForWrite) {
+        ByteBuffer writeBuffer = this.writeBuffer;
+        if (writeBuffer == null) {
+            return true;
+        } else if (writeBufferConfiguredForWrite) {
             return writeBuffer.hasRemaining();
         } else {
             return writeBuffer.remaining() == 0;
@@ -129,12 +170,24 @@ public class SocketBufferHandler {
 
 
     public ByteBuffer getWriteBuffer() {
-        return writeBuffer;
+        ByteBuffer result = writeBuffer;
+        if (result == null) {
+            result = writeArena.borrow();
+            if (!writeBufferConfiguredForWrite) {
+                // Empty buffer configured for read
+                result.limit(0);
+            }
+            writeBuffer = result;
+        }
+        return result;
     }
 
 
     public boolean isWriteBufferEmpty() {
-        if (writeBufferConfiguredForWrite) {
+        ByteBuffer writeBuffer = this.writeBuffer;
+        if (writeBuffer == null) {
+            return true;
+        } else if (writeBufferConfiguredForWrite) {
             return writeBuffer.position() == 0;
         } else {
             return writeBuffer.remaining() == 0;
@@ -142,23 +195,86 @@ public class SocketBufferHandler {
     }
 
 
+    /**
+     * Return the buffers to the arenas they were borrowed from if they are
+     * both empty. This is a NO-OP if this handler does not use arenas.
+     *
+     * @return <code>true</code> if this handler no longer holds any borrowed
+     *         buffers
+     */
+    public boolean releaseBuffers() {
+        if (readArena == null || !isReadBufferEmpty() || !isWriteBufferEmpty()) {
+            return false;
+        }
+        giveBackBuffers();
+        return true;
+    }
+
+
+    private void giveBackBuffers() {
+        ByteBuffer readBuffer = this.readBuffer;
+        if (readBuffer != null) {
+            this.readBuffer = null;
+            readArena.giveBack(readBuffer);
+        }
+        ByteBuffer writeBuffer = this.writeBuffer;
+        if (writeBuffer != null) {
+            this.writeBuffer = null;
+            writeArena.giveBack(writeBuffer);
+        }
+    }
+
+
     public void reset() {
-        readBuffer.clear();
+        if (readArena == null) {
+            readBuffer.clear();
+            writeBuffer.clear();
+        } else {
+            giveBackBuffers();
+        }
         readBufferConfiguredForWrite = true;
-        writeBuffer.clear();
         writeBufferConfiguredForWrite = true;
     }
 
 
     public void expand(int newSize) {
+        if (readArena != null) {
+            // Arenas only provide buffers of a single size so switch to
+            // buffers owned by this handler
+            configureReadBufferForWrite();
+            configureWriteBufferForWrite();
+            ByteBuffer oldReadBuffer = getReadBuffer();
+            ByteBuffer oldWriteBuffer = getWriteBuffer();
+            readBuffer = copy(oldReadBuffer, newSize);
+            writeBuffer = copy(oldWriteBuffer, newSize);
+            readArena.giveBack(oldReadBuffer);
+            writeArena.giveBack(oldWriteBuffer);
+            readArena = null;
+            writeArena = null;
+            return;
+        }
         configureReadBufferForWrite();
         readBuffer = ByteBufferUtils.expand(readBuffer, newSize);
         configureWriteBufferForWrite();
         writeBuffer = ByteBufferUtils.expand(writeBuffer, newSize);
     }
 
-    public void free() {
+    private ByteBuffer copy(ByteBuffer in, int newSize) {
+        ByteBuffer out;
         if (direct) {
+            out = ByteBuffer.allocateDirect(Math.max(newSize, in.capacity()));
+        } else {
+            out = ByteBuffer.allocate(Math.max(newSize, in.capacity()));
+        }
+        in.flip();
+        out.put(in);
+        return out;
+    }
+
+    public void free() {
+        if (readArena != null) {
+            giveBackBuffers();
+        } else if (direct) {
             ByteBufferUtils.cleanDirectBuffer(readBuffer);
             ByteBufferUtils.cleanDirectBuffer(writeBuffer);
         }
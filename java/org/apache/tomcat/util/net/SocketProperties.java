@@ -103,6 +103,22 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Enable/disable lending the application read and write buffers from a
+     * shared arena only while a connection is processing a request, rather
+     * than allocating them for every connection. Only used by the NIO
+     * connector when TLS is not enabled.
+     * Default value is disabled
+     */
+    protected boolean bufferArena = false;
+
+    /**
+     * The number of application buffers the buffer arena allocates together
+     * in a single slab.
+     * Default value is 64
+     */
+    protected int bufferArenaSlabSize = 64;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -305,6 +321,14 @@ public class SocketProperties {
         return bufferPoolSize;
     }
 
+    public boolean getBufferArena() {
+        return bufferArena;
+    }
+
+    public int getBufferArenaSlabSize() {
+        return bufferArenaSlabSize;
+    }
+
     public int getEventCache() {
         return eventCache;
     }
@@ -394,6 +418,14 @@ public class SocketProperties {
         this.bufferPoolSize = bufferPoolSize;
     }
 
+    public void setBufferArena(boolean bufferArena) {
+        this.bufferArena = bufferArena;
+    }
+
+    public void setBufferArenaSlabSize(int bufferArenaSlabSize) {
+        this.bufferArenaSlabSize = bufferArenaSlabSize;
+    }
+
     public void setEventCache(int eventCache) {
         this.eventCache = eventCache;
     }
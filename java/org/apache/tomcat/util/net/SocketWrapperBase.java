@@ -19,6 +19,7 @@ package org.apache.tomcat.util.net;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -231,6 +232,17 @@ public abstract class SocketWrapperBase<E> {
     }
     public SocketBufferHandler getSocketBufferHandler() { return socketBufferHandler; }
 
+    /**
+     * Called when the connection is idle between requests. If the socket
+     * buffers were borrowed from a buffer arena and are empty they are
+     * returned to the arena until the connection is next used.
+     */
+    public void releaseBuffers() {
+        if (socketBufferHandler != null) {
+            socketBufferHandler.releaseBuffers();
+        }
+    }
+
     public boolean hasDataToWrite() {
         return !socketBufferHandler.isWriteBufferEmpty() || !nonBlockingWriteBuffer.isEmpty();
     }
@@ -438,6 +450,45 @@ public abstract class SocketWrapperBase<E> {
     }
 
 
+    /**
+     * Writes the provided buffers, in order, to the socket. The result is the
+     * same as calling {@link #write(boolean, ByteBuffer)} for each buffer but,
+     * if the data does not fit in the socket write buffer and the socket
+     * supports it, the content of the socket write buffer and the provided
+     * buffers are written to the network with a single gathering write rather
+     * than being copied through the socket write buffer.
+     * <p>
+     * Non-blocking writes must return immediately and the ByteBuffers holding
+     * the data to be written must be immediately available for re-use. Data
+     * that cannot be written to the network and cannot be held by the socket
+     * buffer is stored in the non-blocking write buffer.
+     *
+     * @param block <code>true</code> if a blocking write should be used,
+     *                  otherwise a non-blocking write will be used
+     * @param srcs  The ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an IO error occurs during the write
+     */
+    public final void write(boolean block, ByteBuffer[] srcs) throws IOException {
+        if (srcs == null) {
+            return;
+        }
+        long length = 0;
+        for (ByteBuffer src : srcs) {
+            length += src.remaining();
+        }
+        if (length == 0) {
+            return;
+        }
+
+        if (block) {
+            writeBlocking(srcs, length);
+        } else {
+            writeNonBlocking(srcs, length);
+        }
+    }
+
+
     /**
      * Writes the provided data to the socket write buffer. If the socket write
      * buffer fills during the write, the content of the socket write buffer is
@@ -500,6 +551,33 @@ public abstract class SocketWrapperBase<E> {
     }
 
 
+    /**
+     * Writes the provided buffers to the socket using blocking writes. If the
+     * data fits in the socket write buffer it is copied there. Otherwise, if
+     * gathering writes are supported, the socket write buffer and the provided
+     * buffers are written to the network together. On completion of this
+     * method there will always be space remaining in the socket write buffer.
+     *
+     * @param srcs      The ByteBuffers containing the data to be written
+     * @param length    The total number of bytes to write
+     *
+     * @throws IOException If an IO error occurs during the write
+     */
+    protected void writeBlocking(ByteBuffer[] srcs, long length) throws IOException {
+        socketBufferHandler.configureWriteBufferForWrite();
+        if (!isGatheringWriteSupported() ||
+                length < socketBufferHandler.getWriteBuffer().remaining()) {
+            for (ByteBuffer src : srcs) {
+                if (src.hasRemaining()) {
+                    writeBlocking(src);
+                }
+            }
+        } else {
+            doWrite(true, prependWriteBuffer(srcs));
+        }
+    }
+
+
     /**
      * Writes directly to the network, bypassing the socket write buffer.
      *
@@ -600,6 +678,53 @@ public abstract class SocketWrapperBase<E> {
     }
 
 
+    /**
+     * Writes the provided buffers to the socket using non-blocking writes. If
+     * the data fits in the socket write buffer it is copied there. Otherwise,
+     * if gathering writes are supported, a single non-blocking gathering write
+     * of the socket write buffer and the provided buffers is attempted. Any
+     * data that is not written to the network is then handled as it is by
+     * {@link #writeNonBlocking(ByteBuffer)} apart from no further attempt being
+     * made to write it to the network.
+     *
+     * @param srcs      The ByteBuffers containing the data to be written
+     * @param length    The total number of bytes to write
+     *
+     * @throws IOException If an IO error occurs during the write
+     */
+    protected void writeNonBlocking(ByteBuffer[] srcs, long length) throws IOException {
+        boolean gathered = false;
+        if (isGatheringWriteSupported() && nonBlockingWriteBuffer.isEmpty() &&
+                socketBufferHandler.isWriteBufferWritable()) {
+            socketBufferHandler.configureWriteBufferForWrite();
+            if (length >= socketBufferHandler.getWriteBuffer().remaining()) {
+                doWrite(false, prependWriteBuffer(srcs));
+                gathered = true;
+            }
+        }
+
+        for (ByteBuffer src : srcs) {
+            if (!src.hasRemaining()) {
+                continue;
+            }
+            if (gathered) {
+                // The network did not accept all of the data so there is no
+                // point trying again now
+                if (nonBlockingWriteBuffer.isEmpty() &&
+                        socketBufferHandler.isWriteBufferWritable()) {
+                    socketBufferHandler.configureWriteBufferForWrite();
+                    transfer(src, socketBufferHandler.getWriteBuffer());
+                }
+                if (src.hasRemaining()) {
+                    nonBlockingWriteBuffer.add(src);
+                }
+            } else {
+                writeNonBlocking(src);
+            }
+        }
+    }
+
+
     /**
      * Separate method so it can be re-used by the socket write buffer to write
      * data to the network
@@ -741,6 +866,84 @@ public abstract class SocketWrapperBase<E> {
     protected abstract void doWrite(boolean block, ByteBuffer from) throws IOException;
 
 
+    /**
+     * Can this socket write several buffers to the network with a single
+     * gathering write?
+     *
+     * @return <code>true</code> if {@link #doWrite(boolean, ByteBuffer[])}
+     *         uses a gathering write, otherwise <code>false</code>
+     */
+    protected boolean isGatheringWriteSupported() {
+        return false;
+    }
+
+
+    /**
+     * Write the contents of the ByteBuffers to the socket. For blocking writes
+     * either then entire contents of the buffers will be written or an
+     * IOException will be thrown. Partial blocking writes will not occur.
+     * Sub-classes that support gathering writes override this method. The
+     * default implementation writes each buffer in turn.
+     *
+     * @param block Should the write be blocking or not?
+     * @param srcs  the ByteBuffers containing the data to be written
+     *
+     * @throws IOException If an I/O error such as a timeout occurs during the
+     *                     write
+     */
+    protected void doWrite(boolean block, ByteBuffer[] srcs) throws IOException {
+        for (ByteBuffer src : srcs) {
+            doWrite(block, src);
+            if (src.hasRemaining()) {
+                return;
+            }
+        }
+    }
+
+
+    private ByteBuffer[] prependWriteBuffer(ByteBuffer[] srcs) {
+        if (socketBufferHandler.isWriteBufferEmpty()) {
+            return srcs;
+        }
+        socketBufferHandler.configureWriteBufferForRead();
+        ByteBuffer[] result = new ByteBuffer[srcs.length + 1];
+        result[0] = socketBufferHandler.getWriteBuffer();
+        System.arraycopy(srcs, 0, result, 1, srcs.length);
+        return result;
+    }
+
+
+    /**
+     * Can this socket transfer file content directly to the network without
+     * it first being copied into an application buffer?
+     *
+     * @return <code>true</code> if {@link #transferFile(FileChannel, long, long)}
+     *         is supported, otherwise <code>false</code>
+     */
+    public boolean isFileTransferSupported() {
+        return false;
+    }
+
+
+    /**
+     * Writes a region of a file to the socket using a blocking write. Any data
+     * in the socket write buffer is written to the network first. Some or all
+     * of the file content may be left in the socket write buffer on return so
+     * callers should flush the socket when the write is complete.
+     *
+     * @param file   The file to write
+     * @param pos    The position in the file of the first byte to write
+     * @param length The number of bytes to write
+     *
+     * @throws IOException If an IO error occurs during the write
+     * @throws UnsupportedOperationException If direct file transfers are not
+     *         supported by this socket
+     */
+    public void transferFile(FileChannel file, long pos, long length) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+
     public void processSocket(SocketEvent socketStatus, boolean dispatch) {
         endpoint.processSocket(this, socketStatus, dispatch);
     }
@@ -0,0 +1,783 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * A thread pool that does not use any locks when submitting or obtaining
+ * tasks. Tasks are queued on a lock-free multi-producer, multi-consumer queue
+ * and idle workers spin briefly before parking on a lock-free stack from which
+ * they are handed new tasks directly.
+ * <p>
+ * The pool follows the same policy as the combination of
+ * {@link ThreadPoolExecutor} and {@link TaskQueue}: a task is given to an idle
+ * thread if there is one, otherwise a new thread is created if the pool has
+ * not reached its maximum size, and only then is the task queued.
+ */
+public class LockFreeThreadPoolExecutor implements ResizableExecutor {
+
+    private static final Log log = LogFactory.getLog(LockFreeThreadPoolExecutor.class);
+
+    protected static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    public static final int DEFAULT_SPIN_COUNT = 64;
+
+    /**
+     * Marker handed to an idle worker to wake it without giving it a task.
+     */
+    private static final Runnable WAKE_UP = new Runnable() {
+        @Override
+        public void run() {
+            // NO-OP
+        }
+    };
+
+    private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of queued tasks. Only tracked if the queue is bounded.
+     */
+    private final AtomicInteger queuedCount;
+    private final int maxQueueSize;
+
+    /**
+     * Lock-free (Treiber) stack of parked workers.
+     */
+    private final AtomicReference<IdleNode> idleWorkers = new AtomicReference<>();
+
+    private final Set<Worker> workers =
+            Collections.newSetFromMap(new ConcurrentHashMap<Worker,Boolean>());
+    private final AtomicInteger poolSize = new AtomicInteger(0);
+    private final AtomicInteger spinningCount = new AtomicInteger(0);
+    private final AtomicLong retiredCompletedTaskCount = new AtomicLong(0);
+    private final ThreadFactory threadFactory;
+    private final Object terminationLock = new Object();
+
+    private volatile int corePoolSize;
+    private volatile int maximumPoolSize;
+    private volatile int largestPoolSize = 0;
+    private volatile long keepAliveNanos;
+    private volatile int spinCount = DEFAULT_SPIN_COUNT;
+    private volatile boolean shutdown = false;
+
+    private final AtomicLong lastContextStoppedTime = new AtomicLong(0L);
+
+    /**
+     * Most recent time in ms when a thread decided to kill itself to avoid
+     * potential memory leaks. Useful to throttle the rate of renewals of
+     * threads.
+     */
+    private final AtomicLong lastTimeThreadKilledItself = new AtomicLong(0L);
+
+    /**
+     * Delay in ms between 2 threads being renewed. If negative, do not renew threads.
+     */
+    private volatile long threadRenewalDelay = Constants.DEFAULT_THREAD_RENEWAL_DELAY;
+
+
+    public LockFreeThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime,
+            TimeUnit unit, int maxQueueSize, ThreadFactory threadFactory) {
+        if (corePoolSize < 0 || maximumPoolSize <= 0 || maximumPoolSize < corePoolSize ||
+                keepAliveTime < 0 || maxQueueSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.corePoolSize = corePoolSize;
+        this.maximumPoolSize = maximumPoolSize;
+        this.keepAliveNanos = unit.toNanos(keepAliveTime);
+        this.maxQueueSize = maxQueueSize;
+        if (maxQueueSize < Integer.MAX_VALUE) {
+            queuedCount = new AtomicInteger(0);
+        } else {
+            queuedCount = null;
+        }
+        this.threadFactory = threadFactory;
+    }
+
+
+    // ------------------------------------------------------------- Properties
+
+    public int getCorePoolSize() {
+        return corePoolSize;
+    }
+
+    public void setCorePoolSize(int corePoolSize) {
+        if (corePoolSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.corePoolSize = corePoolSize;
+        // Allow surplus idle threads to time out
+        wakeIdleWorkers();
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        if (maximumPoolSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maximumPoolSize = maximumPoolSize;
+        wakeIdleWorkers();
+    }
+
+    public long getKeepAliveTime(TimeUnit unit) {
+        return unit.convert(keepAliveNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void setKeepAliveTime(long time, TimeUnit unit) {
+        this.keepAliveNanos = unit.toNanos(time);
+    }
+
+    /**
+     * @return The number of times an idle worker polls the queue before
+     *         parking
+     */
+    public int getSpinCount() {
+        return spinCount;
+    }
+
+    public void setSpinCount(int spinCount) {
+        this.spinCount = spinCount;
+    }
+
+    public long getThreadRenewalDelay() {
+        return threadRenewalDelay;
+    }
+
+    public void setThreadRenewalDelay(long threadRenewalDelay) {
+        this.threadRenewalDelay = threadRenewalDelay;
+    }
+
+    public int getMaxQueueSize() {
+        return maxQueueSize;
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+    @Override
+    public int getPoolSize() {
+        return poolSize.get();
+    }
+
+    @Override
+    public int getMaxThreads() {
+        return maximumPoolSize;
+    }
+
+    public int getLargestPoolSize() {
+        return largestPoolSize;
+    }
+
+    @Override
+    public int getActiveCount() {
+        int result = 0;
+        for (Worker worker : workers) {
+            if (worker.active) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public long getCompletedTaskCount() {
+        long result = retiredCompletedTaskCount.get();
+        for (Worker worker : workers) {
+            result += worker.completedTasks;
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of tasks waiting in the queue. This is an estimate
+     *         if the queue is unbounded.
+     */
+    public int getQueueSize() {
+        if (queuedCount != null) {
+            return queuedCount.get();
+        }
+        return queue.size();
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        setCorePoolSize(corePoolSize);
+        setMaximumPoolSize(maximumPoolSize);
+        return true;
+    }
+
+
+    @Override
+    public boolean resizeQueue(int capacity) {
+        return false;
+    }
+
+
+    // ---------------------------------------------------------- Task handling
+
+    @Override
+    public void execute(Runnable command) {
+        if (!tryExecute(command)) {
+            throw new RejectedExecutionException(sm.getString("lockFreeThreadPoolExecutor.queueFull"));
+        }
+    }
+
+
+    /**
+     * Executes the given command at some time in the future. If the queue is
+     * bounded and full, the caller waits up to the given time for space to
+     * become available.
+     *
+     * @param command the runnable task
+     * @param timeout The maximum time to wait for space in the queue
+     * @param unit The timeout time unit
+     * @throws RejectedExecutionException if this task cannot be
+     * accepted for execution - the queue is full
+     */
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        if (tryExecute(command)) {
+            return;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new RejectedExecutionException(sm.getString("lockFreeThreadPoolExecutor.queueFull"));
+            }
+            LockSupport.parkNanos(this, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(1)));
+            if (tryExecute(command)) {
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Queues a task that was rejected by {@link #execute(Runnable)}, for
+     * example because of contention around the queue, if there is now space
+     * in the queue. This does not attempt to start a new thread unless the
+     * pool has no threads at all.
+     *
+     * @param command the runnable task
+     *
+     * @return <code>true</code> if the task was accepted
+     *
+     * @throws RejectedExecutionException if the executor has been shut down
+     */
+    public boolean force(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(sm.getString("lockFreeThreadPoolExecutor.shutdown"));
+        }
+        if (handOff(command)) {
+            return true;
+        }
+        if (!enqueue(command, false)) {
+            return false;
+        }
+        // A worker may have parked since the hand off attempt above or, if
+        // the pool has shrunk to nothing, there may be no worker at all
+        if (!handOff(WAKE_UP) && poolSize.get() == 0) {
+            addWorker(null);
+        }
+        return true;
+    }
+
+
+    private boolean tryExecute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(sm.getString("lockFreeThreadPoolExecutor.shutdown"));
+        }
+        // Give the task directly to an idle thread if there is one
+        if (handOff(command)) {
+            return true;
+        }
+        // No parked thread. Queue the task if a spinning thread is available
+        // to take it, otherwise create a new thread before queuing the task.
+        if (!(claimSpinner() && enqueue(command, false)) && !addWorker(command)) {
+            if (!enqueue(command, false)) {
+                return false;
+            }
+        }
+        // A worker may have parked after the hand off attempt above
+        handOff(WAKE_UP);
+        return true;
+    }
+
+
+    /*
+     * Each spinning thread may be claimed by at most one submitted task. The
+     * count is only ever decremented when it is positive so it may under
+     * estimate the number of unclaimed spinning threads (leading to the
+     * creation of a thread that was not strictly required) but never over
+     * estimate it (which could leave a task in the queue with no thread to
+     * process it).
+     */
+    private boolean claimSpinner() {
+        while (true) {
+            int count = spinningCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (spinningCount.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+
+    private boolean handOff(Runnable task) {
+        IdleNode node;
+        while ((node = popIdle()) != null) {
+            Worker worker = node.worker;
+            if (worker.state.compareAndSet(node.seq, node.seq + 1)) {
+                worker.handoff = task;
+                LockSupport.unpark(worker.thread);
+                return true;
+            }
+            // Stale entry. The worker has already resumed.
+        }
+        return false;
+    }
+
+
+    private boolean enqueue(Runnable task, boolean force) {
+        if (queuedCount != null) {
+            if (force) {
+                queuedCount.incrementAndGet();
+            } else {
+                while (true) {
+                    int count = queuedCount.get();
+                    if (count >= maxQueueSize) {
+                        return false;
+                    }
+                    if (queuedCount.compareAndSet(count, count + 1)) {
+                        break;
+                    }
+                }
+            }
+        }
+        queue.offer(task);
+        return true;
+    }
+
+
+    private Runnable poll() {
+        Runnable task = queue.poll();
+        if (task != null && queuedCount != null) {
+            queuedCount.decrementAndGet();
+        }
+        return task;
+    }
+
+
+    private void pushIdle(IdleNode node) {
+        while (true) {
+            IdleNode head = idleWorkers.get();
+            node.next = head;
+            if (idleWorkers.compareAndSet(head, node)) {
+                return;
+            }
+        }
+    }
+
+
+    private IdleNode popIdle() {
+        while (true) {
+            IdleNode head = idleWorkers.get();
+            if (head == null) {
+                return null;
+            }
+            if (idleWorkers.compareAndSet(head, head.next)) {
+                return head;
+            }
+        }
+    }
+
+
+    private void wakeIdleWorkers() {
+        // Bounded so a worker that parks again immediately is not woken
+        // repeatedly
+        int count = poolSize.get();
+        while (count-- > 0 && handOff(WAKE_UP)) {
+            // Keep going
+        }
+    }
+
+
+    // --------------------------------------------------- Thread management
+
+    public int prestartAllCoreThreads() {
+        int started = 0;
+        while (poolSize.get() < corePoolSize && addWorker(null)) {
+            started++;
+        }
+        return started;
+    }
+
+
+    private boolean addWorker(Runnable firstTask) {
+        while (true) {
+            int count = poolSize.get();
+            if (count >= maximumPoolSize || shutdown) {
+                return false;
+            }
+            if (poolSize.compareAndSet(count, count + 1)) {
+                if (count + 1 > largestPoolSize) {
+                    largestPoolSize = count + 1;
+                }
+                break;
+            }
+        }
+        Worker worker = new Worker(firstTask);
+        boolean started = false;
+        try {
+            Thread t = threadFactory.newThread(worker);
+            worker.thread = t;
+            workers.add(worker);
+            t.start();
+            started = true;
+        } finally {
+            if (!started) {
+                workers.remove(worker);
+                workerExited();
+            }
+        }
+        return true;
+    }
+
+
+    private void workerExit(Worker worker, boolean counted) {
+        workers.remove(worker);
+        retiredCompletedTaskCount.addAndGet(worker.completedTasks);
+        if (!counted) {
+            workerExited();
+        }
+        if (!shutdown) {
+            // Replace the thread if it was needed
+            if (poolSize.get() < corePoolSize || (poolSize.get() == 0 && !queue.isEmpty())) {
+                addWorker(null);
+            }
+        }
+    }
+
+
+    private void workerExited() {
+        if (poolSize.decrementAndGet() == 0 && shutdown) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Removes an idle thread from the pool if there are more threads than
+     * required.
+     *
+     * @return <code>true</code> if the pool size was reduced and the calling
+     *         thread should exit
+     */
+    private boolean tryRetire() {
+        while (true) {
+            int count = poolSize.get();
+            if (count <= corePoolSize && count <= maximumPoolSize) {
+                return false;
+            }
+            if (poolSize.compareAndSet(count, count - 1)) {
+                return true;
+            }
+        }
+    }
+
+
+    // ---------------------------------------------------- Thread renewal
+
+    public void contextStopping() {
+        this.lastContextStoppedTime.set(System.currentTimeMillis());
+        // Wake idle threads so they are renewed
+        wakeIdleWorkers();
+    }
+
+
+    protected boolean currentThreadShouldBeStopped() {
+        if (threadRenewalDelay >= 0
+            && Thread.currentThread() instanceof TaskThread) {
+            TaskThread currentTaskThread = (TaskThread) Thread.currentThread();
+            if (currentTaskThread.getCreationTime() <
+                    this.lastContextStoppedTime.longValue()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private boolean renewCurrentThread() {
+        if (currentThreadShouldBeStopped()) {
+            long lastTime = lastTimeThreadKilledItself.longValue();
+            if (lastTime + threadRenewalDelay < System.currentTimeMillis()) {
+                if (lastTimeThreadKilledItself.compareAndSet(lastTime,
+                        System.currentTimeMillis() + 1)) {
+                    if (log.isDebugEnabled()) {
+                        log.debug(sm.getString("threadPoolExecutor.threadStoppedToAvoidPotentialLeak",
+                                Thread.currentThread().getName()));
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    // ------------------------------------------------------------- Shut down
+
+    public void shutdown() {
+        shutdown = true;
+        wakeIdleWorkers();
+    }
+
+
+    public List<Runnable> shutdownNow() {
+        shutdown = true;
+        List<Runnable> result = new ArrayList<>();
+        Runnable task;
+        while ((task = poll()) != null) {
+            result.add(task);
+        }
+        wakeIdleWorkers();
+        for (Worker worker : workers) {
+            Thread t = worker.thread;
+            if (t != null) {
+                t.interrupt();
+            }
+        }
+        return result;
+    }
+
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    public boolean isTerminating() {
+        return shutdown && poolSize.get() > 0;
+    }
+
+
+    public boolean isTerminated() {
+        return shutdown && poolSize.get() == 0;
+    }
+
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (!isTerminated()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                terminationLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+
+    // --------------------------------------------------------- Inner classes
+
+    private static final class IdleNode {
+        private final Worker worker;
+        private final int seq;
+        private IdleNode next;
+
+        private IdleNode(Worker worker, int seq) {
+            this.worker = worker;
+            this.seq = seq;
+        }
+    }
+
+
+    private final class Worker implements Runnable {
+
+        /*
+         * Even values mean the worker is running. The worker makes the value
+         * odd when it parks and whichever thread moves it back to even (with a
+         * CAS) resumes the worker.
+         */
+        private final AtomicInteger state = new AtomicInteger(0);
+        private volatile Runnable handoff = null;
+        private volatile Thread thread;
+        private volatile boolean active = false;
+        private volatile long completedTasks = 0;
+        private boolean retired = false;
+        private Runnable firstTask;
+
+        private Worker(Runnable firstTask) {
+            this.firstTask = firstTask;
+        }
+
+        @Override
+        public void run() {
+            Runnable task = firstTask;
+            firstTask = null;
+            try {
+                while (true) {
+                    if (task != null && task != WAKE_UP) {
+                        runTask(task);
+                        if (renewCurrentThread()) {
+                            break;
+                        }
+                    } else if (task == WAKE_UP && currentThreadShouldBeStopped() &&
+                            renewCurrentThread()) {
+                        break;
+                    }
+                    if (shutdown && Thread.currentThread().isInterrupted()) {
+                        // shutdownNow()
+                        break;
+                    }
+                    task = poll();
+                    if (task == null) {
+                        task = spin();
+                    }
+                    if (task == null) {
+                        task = park();
+                        if (task == null) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                workerExit(this, retired);
+            }
+        }
+
+        private void runTask(Runnable task) {
+            if (!shutdown) {
+                // Clear any interrupt left over from a previous task
+                Thread.interrupted();
+            }
+            active = true;
+            try {
+                task.run();
+            } finally {
+                active = false;
+                completedTasks++;
+            }
+        }
+
+        private Runnable spin() {
+            spinningCount.incrementAndGet();
+            try {
+                for (int i = spinCount; i > 0 && !shutdown; i--) {
+                    Runnable task = poll();
+                    if (task != null) {
+                        return task;
+                    }
+                    Thread.yield();
+                }
+            } finally {
+                claimSpinner();
+            }
+            return null;
+        }
+
+        /**
+         * Parks the worker until it is handed a task.
+         *
+         * @return The next task, {@link #WAKE_UP} or <code>null</code> if the
+         *         worker should exit
+         */
+        private Runnable park() {
+            int seq = state.incrementAndGet();
+            pushIdle(new IdleNode(this, seq));
+
+            // A task may have been queued before this worker became visible
+            // on the idle stack
+            Runnable task = poll();
+            if (task != null) {
+                if (state.compareAndSet(seq, seq + 1)) {
+                    return task;
+                }
+                // Another thread is handing a task to this worker. Put this
+                // one back so it is not lost.
+                enqueue(task, true);
+            }
+
+            long deadline = System.nanoTime() + keepAliveNanos;
+            while (state.get() == seq) {
+                if (shutdown) {
+                    if (state.compareAndSet(seq, seq + 1)) {
+                        return null;
+                    }
+                    continue;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    if (tryRetire()) {
+                        if (state.compareAndSet(seq, seq + 1)) {
+                            retired = true;
+                            return null;
+                        }
+                        // Claimed at the same time. Undo and take the task.
+                        poolSize.incrementAndGet();
+                        break;
+                    }
+                    deadline = System.nanoTime() + keepAliveNanos;
+                    continue;
+                }
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            // Resumed. Wait for the task to be published.
+            Runnable result;
+            while ((result = handoff) == null) {
+                Thread.yield();
+            }
+            handoff = null;
+            return result;
+        }
+    }
+}
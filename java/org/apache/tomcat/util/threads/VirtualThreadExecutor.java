@@ -0,0 +1,293 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.compat.JreCompat;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An executor that runs each task on a new virtual thread. Virtual threads are
+ * only available on Java 21 and later. Use {@link #isSupported()} to check if
+ * the current JRE supports them before creating an instance with
+ * {@link #VirtualThreadExecutor(String)}.
+ */
+public class VirtualThreadExecutor extends AbstractExecutorService implements ResizableExecutor {
+
+    protected static final StringManager sm = StringManager
+            .getManager("org.apache.tomcat.util.threads.res");
+
+    private final ThreadFactory threadFactory;
+
+    /**
+     * The threads that are currently running a task.
+     */
+    private final Set<Thread> threads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+    /**
+     * Tasks that have been submitted but have not yet completed.
+     */
+    private final AtomicInteger taskCount = new AtomicInteger(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+    private volatile int largestTaskCount = 0;
+
+    private final Object terminationLock = new Object();
+    private volatile boolean shutdown = false;
+
+
+    /**
+     * @return <code>true</code> if the current JRE supports virtual threads
+     */
+    public static boolean isSupported() {
+        return JreCompat.isJre21Available();
+    }
+
+
+    /**
+     * Create an executor that runs each task on a new virtual thread.
+     *
+     * @param namePrefix The prefix for the names of the virtual threads
+     *
+     * @throws UnsupportedOperationException If the JRE does not support
+     *         virtual threads
+     */
+    public VirtualThreadExecutor(String namePrefix) {
+        this(JreCompat.getInstance().createVirtualThreadFactory(namePrefix));
+    }
+
+
+    /**
+     * Create an executor that runs each task on a new thread obtained from the
+     * given factory.
+     *
+     * @param threadFactory The factory to use to create threads
+     */
+    public VirtualThreadExecutor(ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (shutdown) {
+            throw new RejectedExecutionException(sm.getString("virtualThreadExecutor.shutdown"));
+        }
+        int count = taskCount.incrementAndGet();
+        if (count > largestTaskCount) {
+            largestTaskCount = count;
+        }
+        boolean started = false;
+        try {
+            Thread t = threadFactory.newThread(new Task(command));
+            if (t == null) {
+                throw new RejectedExecutionException(sm.getString("virtualThreadExecutor.noThread"));
+            }
+            t.start();
+            started = true;
+        } finally {
+            if (!started) {
+                taskFinished();
+            }
+        }
+    }
+
+
+    private void taskFinished() {
+        if (taskCount.decrementAndGet() == 0 && shutdown) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+    /**
+     * @return The number of tasks that have been submitted but have not yet
+     *         completed. Each has its own thread.
+     */
+    @Override
+    public int getPoolSize() {
+        return taskCount.get();
+    }
+
+
+    /**
+     * @return The number of threads that are running a task and are not
+     *         currently parked or blocked
+     */
+    @Override
+    public int getActiveCount() {
+        int result = 0;
+        for (Thread t : threads) {
+            if (t.getState() == Thread.State.RUNNABLE) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * @return The number of threads that are running a task but are currently
+     *         parked or blocked, typically waiting for I/O or a lock
+     */
+    public int getParkedCount() {
+        int result = 0;
+        for (Thread t : threads) {
+            Thread.State state = t.getState();
+            if (state == Thread.State.WAITING || state == Thread.State.TIMED_WAITING ||
+                    state == Thread.State.BLOCKED) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+
+    public long getCompletedTaskCount() {
+        return completedTaskCount.get();
+    }
+
+
+    /**
+     * @return The largest number of tasks that have been in progress at the
+     *         same time
+     */
+    public int getLargestPoolSize() {
+        return largestTaskCount;
+    }
+
+
+    /**
+     * There is no limit to the number of virtual threads.
+     *
+     * @return {@link Integer#MAX_VALUE}
+     */
+    @Override
+    public int getMaxThreads() {
+        return Integer.MAX_VALUE;
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        return false;
+    }
+
+
+    @Override
+    public boolean resizeQueue(int capacity) {
+        return false;
+    }
+
+
+    // ------------------------------------------------------------- Shut down
+
+    @Override
+    public void shutdown() {
+        shutdown = true;
+        if (taskCount.get() == 0) {
+            synchronized (terminationLock) {
+                terminationLock.notifyAll();
+            }
+        }
+    }
+
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        // Nothing is ever queued
+        return new ArrayList<>();
+    }
+
+
+    @Override
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+
+    @Override
+    public boolean isTerminated() {
+        return shutdown && taskCount.get() == 0;
+    }
+
+
+    public boolean isTerminating() {
+        return shutdown && taskCount.get() > 0;
+    }
+
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (terminationLock) {
+            while (!isTerminated()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                terminationLock.wait(remaining);
+            }
+        }
+        return true;
+    }
+
+
+    private class Task implements Runnable {
+
+        private final Runnable command;
+
+        private Task(Runnable command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            Thread t = Thread.currentThread();
+            threads.add(t);
+            try {
+                command.run();
+            } finally {
+                threads.remove(t);
+                completedTaskCount.incrementAndGet();
+                taskFinished();
+            }
+        }
+    }
+}
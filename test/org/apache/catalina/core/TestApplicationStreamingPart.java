@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Globals;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestApplicationStreamingPart extends TomcatBaseTest {
+
+    private static final String BOUNDARY = "----TomcatBoundary";
+
+
+    @Test
+    public void testStreamedParts() throws Exception {
+        byte[] file = new byte[256 * 1024];
+        for (int i = 0; i < file.length; i++) {
+            file[i] = (byte) i;
+        }
+        ByteChunk bc = doRequest(-1, false, file);
+        Assert.assertEquals(
+                "field1=[value1] size=6 param=value1\n" +
+                "file=[data.bin] size=" + file.length + " sum=" + sum(file) + "\n" +
+                "field2=[value2] size=6 param=value2\n" +
+                "count=3 again=3 param1=value1 param2=value2\n", bc.toString());
+    }
+
+
+    @Test
+    public void testParametersBeforeParts() throws Exception {
+        ByteChunk bc = doRequest(-1, true, new byte[] { 1, 2, 3 });
+        // Nothing is read from the request until the parts are requested
+        Assert.assertTrue(bc.toString(), bc.toString().startsWith("early=null\n"));
+        Assert.assertTrue(bc.toString(), bc.toString().endsWith(
+                "count=3 again=3 param1=value1 param2=value2\n"));
+    }
+
+
+    @Test
+    public void testMaxFileSize() throws Exception {
+        ByteChunk bc = doRequest(1024, false, new byte[2048]);
+        Assert.assertTrue(bc.toString(), bc.toString().contains("field1=[value1]"));
+        // Mapped to the same exception and failure reason as when the request
+        // is parsed without streaming
+        Assert.assertTrue(bc.toString(), bc.toString().contains(
+                "failed=IllegalStateException reason=POST_TOO_LARGE"));
+    }
+
+
+    private ByteChunk doRequest(long maxFileSize, boolean early, byte[] file)
+            throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        Wrapper w = Tomcat.addServlet(ctx, "upload", new StreamingServlet(early));
+        w.setMultipartConfigElement(new MultipartConfigElement("", maxFileSize, -1, 0));
+        ((StandardWrapper) w).setMultipartStreaming(true);
+        ctx.addServletMappingDecoded("/upload", "upload");
+        tomcat.start();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeField(body, "field1", "value1");
+        body.write(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; filename=\"data.bin\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes(
+                        StandardCharsets.ISO_8859_1));
+        body.write(file);
+        body.write("\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        writeField(body, "field2", "value2");
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.ISO_8859_1));
+
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Content-Type",
+                Collections.singletonList("multipart/form-data; boundary=" + BOUNDARY));
+        ByteChunk bc = new ByteChunk();
+        int rc = postUrl(body.toByteArray(), "http://localhost:" + getPort() + "/upload",
+                bc, reqHead, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        return bc;
+    }
+
+
+    private static void writeField(ByteArrayOutputStream body, String name, String value)
+            throws IOException {
+        body.write(("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" +
+                value + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+
+    private static long sum(byte[] data) {
+        long sum = 0;
+        for (byte b : data) {
+            sum += b & 0xFF;
+        }
+        return sum;
+    }
+
+
+    private static class StreamingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final boolean early;
+
+        StreamingServlet(boolean early) {
+            this.early = early;
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            PrintWriter pw = resp.getWriter();
+
+            if (early) {
+                pw.print("early=" + req.getParameter("field1") + "\n");
+            }
+
+            List<Part> seen = new ArrayList<>();
+            try {
+                for (Part part : req.getParts()) {
+                    seen.add(part);
+                    pw.print(part.getName() + "=[");
+                    if (part.getSubmittedFileName() == null) {
+                        byte[] value = new byte[32];
+                        int len;
+                        try (InputStream is = part.getInputStream()) {
+                            len = is.read(value);
+                        }
+                        pw.print(new String(value, 0, len, StandardCharsets.ISO_8859_1));
+                        pw.print("] size=" + part.getSize());
+                        pw.print(" param=" + req.getParameter(part.getName()) + "\n");
+                    } else {
+                        pw.print(part.getSubmittedFileName() + "]");
+                        long sum = 0;
+                        byte[] buf = new byte[8192];
+                        try (InputStream is = part.getInputStream()) {
+                            int n;
+                            while ((n = is.read(buf)) > 0) {
+                                for (int i = 0; i < n; i++) {
+                                    sum += buf[i] & 0xFF;
+                                }
+                            }
+                        }
+                        pw.print(" size=" + part.getSize() + " sum=" + sum + "\n");
+                        try {
+                            part.getInputStream();
+                            pw.print("re-read allowed\n");
+                        } catch (IllegalStateException expected) {
+                            // Expected
+                        }
+                    }
+                }
+            } catch (IllegalStateException | IOException e) {
+                pw.print("failed=" + e.getClass().getSimpleName() + " reason=" +
+                        req.getAttribute(Globals.PARAMETER_PARSE_FAILED_REASON_ATTR) + "\n");
+                return;
+            }
+
+            // The parts that have been read are retained
+            List<Part> again = new ArrayList<>(req.getParts());
+            if (!seen.equals(again)) {
+                pw.print("parts changed\n");
+            }
+            pw.print("count=" + seen.size() + " again=" + again.size() +
+                    " param1=" + req.getParameter("field1") +
+                    " param2=" + req.getParameter("field2") + "\n");
+        }
+    }
+}
@@ -39,7 +39,7 @@ public class TestMapper extends LoggingBaseTest {
 
     private HashMap<String, Host> hostMap = new HashMap<>();
 
-    private synchronized Host createHost(String name) {
+    protected synchronized Host createHost(String name) {
         Host host = hostMap.get(name);
         if (host == null) {
             host = new StandardHost();
@@ -49,13 +49,13 @@ public class TestMapper extends LoggingBaseTest {
         return host;
     }
 
-    private Context createContext(String name) {
+    protected Context createContext(String name) {
         Context context = new StandardContext();
         context.setName(name);
         return context;
     }
 
-    private Wrapper createWrapper(String name) {
+    protected Wrapper createWrapper(String name) {
         Wrapper wrapper = new StandardWrapper();
         wrapper.setName(name);
         return wrapper;
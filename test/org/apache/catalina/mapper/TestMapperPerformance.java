@@ -16,9 +16,14 @@
  */
 package org.apache.catalina.mapper;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.catalina.Host;
+import org.apache.catalina.Wrapper;
 import org.apache.tomcat.util.buf.MessageBytes;
 
 public class TestMapperPerformance extends TestMapper {
@@ -75,4 +80,76 @@ public class TestMapperPerformance extends TestMapper {
         return time;
     }
 
+
+    private static final int GENERATED_CONTEXTS = 2000;
+    private static final int GENERATED_MAPPINGS = 100;
+
+    @Test
+    public void testPerformanceManyContexts() throws Exception {
+        // Simulates a host with generated applications, each with a large
+        // number of exact, path and extension mappings
+        Host host = createHost("generated");
+        mapper.addHost("generated.example.org", new String[0], host);
+        Wrapper exact = createWrapper("exact");
+        Wrapper path = createWrapper("path");
+        Wrapper extension = createWrapper("extension");
+        Wrapper defaultWrapper = createWrapper("default");
+        for (int i = 0; i < GENERATED_CONTEXTS; i++) {
+            List<WrapperMappingInfo> wrappers = new ArrayList<>();
+            for (int j = 0; j < GENERATED_MAPPINGS; j++) {
+                wrappers.add(new WrapperMappingInfo("/action/item" + j, exact, false, false));
+                wrappers.add(new WrapperMappingInfo("/api/v" + j + "/*", path, false, false));
+                wrappers.add(new WrapperMappingInfo("*.ext" + j, extension, false, false));
+            }
+            wrappers.add(new WrapperMappingInfo("/", defaultWrapper, false, false));
+            mapper.addContextVersion("generated.example.org", host, "/app" + i + "/module",
+                    "0", createContext("app" + i), new String[0], null, wrappers);
+        }
+
+        String[] uris = new String[] {
+                "/app1234/module/action/item42",
+                "/app17/module/api/v99/resource/1234",
+                "/app1999/module/static/page.ext7",
+                "/app500/module/some/unmapped/path",
+                "/app73/other/path"};
+        Wrapper[] expected = new Wrapper[] {
+                exact, path, extension, defaultWrapper, null};
+
+        final long maxTime = 5000;
+        long time = testPerformanceManyContextsImpl(uris, expected);
+        log.info("Generated contexts, Time [" + time + "]ms");
+        if (time >= maxTime) {
+            // Rerun to reject occasional failures, e.g. because of gc
+            log.warn("testPerformanceManyContexts() test completed in " + time + " ms");
+            time = testPerformanceManyContextsImpl(uris, expected);
+            log.warn("testPerformanceManyContexts() test rerun completed in " + time + " ms");
+        }
+        Assert.assertTrue(String.valueOf(time), time < maxTime);
+    }
+
+    private long testPerformanceManyContextsImpl(String[] uris, Wrapper[] expected)
+            throws Exception {
+        MappingData mappingData = new MappingData();
+        MessageBytes host = MessageBytes.newInstance();
+        host.setString("generated.example.org");
+        MessageBytes[] uriBytes = new MessageBytes[uris.length];
+        for (int i = 0; i < uris.length; i++) {
+            uriBytes[i] = MessageBytes.newInstance();
+            uriBytes[i].setString(uris[i]);
+            uriBytes[i].toChars();
+            uriBytes[i].getCharChunk().setLimit(-1);
+        }
+
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000000; i++) {
+            int index = i % uriBytes.length;
+            mappingData.recycle();
+            mapper.map(host, uriBytes[index], null, mappingData);
+            if (mappingData.wrapper != expected[index]) {
+                Assert.fail(uris[index]);
+            }
+        }
+        long time = System.currentTimeMillis() - start;
+        return time;
+    }
 }
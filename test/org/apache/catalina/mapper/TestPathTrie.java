@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.mapper.Mapper.MappedWrapper;
+
+public class TestPathTrie {
+
+    private static final MappedWrapper[] WRAPPERS = new MappedWrapper[] {
+            wrapper(""),
+            wrapper("/a"),
+            wrapper("/a/b"),
+            wrapper("/ab"),
+            wrapper("/abc/d"),
+            wrapper("/b")};
+
+
+    @Test
+    public void testFind() {
+        PathTrie<MappedWrapper> trie = PathTrie.build(WRAPPERS, false);
+        for (MappedWrapper wrapper : WRAPPERS) {
+            Assert.assertSame(wrapper, find(trie, wrapper.name));
+        }
+        Assert.assertNull(find(trie, "/"));
+        Assert.assertNull(find(trie, "/abc"));
+        Assert.assertNull(find(trie, "/a/"));
+        Assert.assertNull(find(trie, "/A"));
+        Assert.assertNull(find(trie, "/c"));
+    }
+
+
+    @Test
+    public void testFindLongestPrefix() {
+        PathTrie<MappedWrapper> trie = PathTrie.build(WRAPPERS, false);
+        Assert.assertEquals("", findLongestPrefix(trie, ""));
+        Assert.assertEquals("", findLongestPrefix(trie, "/"));
+        Assert.assertEquals("/a", findLongestPrefix(trie, "/a"));
+        Assert.assertEquals("/a", findLongestPrefix(trie, "/a/"));
+        Assert.assertEquals("/a", findLongestPrefix(trie, "/a/c"));
+        Assert.assertEquals("/a/b", findLongestPrefix(trie, "/a/b/c"));
+        Assert.assertEquals("/a", findLongestPrefix(trie, "/a/bc"));
+        Assert.assertEquals("/ab", findLongestPrefix(trie, "/ab/c"));
+        // Prefix must end at a segment boundary
+        Assert.assertEquals("", findLongestPrefix(trie, "/abc"));
+        Assert.assertEquals("", findLongestPrefix(trie, "/abc/"));
+        Assert.assertEquals("/abc/d", findLongestPrefix(trie, "/abc/d/e"));
+        Assert.assertEquals("", findLongestPrefix(trie, "/abc/de"));
+        Assert.assertEquals("", findLongestPrefix(trie, "/c"));
+    }
+
+
+    @Test
+    public void testNoRootPrefix() {
+        MappedWrapper[] wrappers = new MappedWrapper[] { wrapper("/x"), wrapper("/y/z") };
+        PathTrie<MappedWrapper> trie = PathTrie.build(wrappers, false);
+        Assert.assertNull(findLongestPrefix(trie, "/"));
+        Assert.assertNull(findLongestPrefix(trie, "/y"));
+        Assert.assertEquals("/y/z", findLongestPrefix(trie, "/y/z"));
+        Assert.assertNull(findLongestPrefix(trie, "/xy"));
+    }
+
+
+    @Test
+    public void testIgnoreCase() {
+        MappedWrapper[] wrappers = new MappedWrapper[] {
+                wrapper(".Example.org"), wrapper("localhost"), wrapper("www.example.org")};
+        PathTrie<MappedWrapper> trie = PathTrie.build(wrappers, true);
+        Assert.assertSame(wrappers[1], find(trie, "LocalHost"));
+        Assert.assertSame(wrappers[2], find(trie, "WWW.EXAMPLE.ORG"));
+        Assert.assertSame(wrappers[0], find(trie, ".example.ORG"));
+        Assert.assertNull(find(trie, "example.org"));
+    }
+
+
+    @Test
+    public void testEmpty() {
+        PathTrie<MappedWrapper> trie = PathTrie.build(new MappedWrapper[0], false);
+        Assert.assertNull(find(trie, ""));
+        Assert.assertNull(findLongestPrefix(trie, "/a"));
+    }
+
+
+    @Test
+    public void testIsFor() {
+        PathTrie<MappedWrapper> trie = PathTrie.build(WRAPPERS, false);
+        Assert.assertTrue(trie.isFor(WRAPPERS));
+        Assert.assertFalse(trie.isFor(WRAPPERS.clone()));
+    }
+
+
+    private static MappedWrapper wrapper(String name) {
+        return new MappedWrapper(name, null, false, false);
+    }
+
+
+    private static MappedWrapper find(PathTrie<MappedWrapper> trie, String path) {
+        // Offset the characters to check start and end are respected
+        char[] buf = ("xx" + path + "yy").toCharArray();
+        return trie.find(buf, 2, buf.length - 2);
+    }
+
+
+    private static String findLongestPrefix(PathTrie<MappedWrapper> trie, String path) {
+        char[] buf = ("xx" + path + "yy").toCharArray();
+        MappedWrapper result = trie.findLongestPrefix(buf, 2, buf.length - 2);
+        return result == null ? null : result.name;
+    }
+}
@@ -16,18 +16,24 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.http.HttpServletResponse;
 
@@ -40,6 +46,8 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.util.IOTools;
+import org.apache.catalina.webresources.StandardRoot;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.websocket.server.WsContextListener;
 
@@ -587,6 +595,188 @@ public class TestDefaultServlet extends TomcatBaseTest {
         tomcat.stop();
     }
 
+    @Test
+    public void testDirectContentStorage() throws Exception {
+        doTestContentStorage("direct");
+    }
+
+    @Test
+    public void testMappedContentStorage() throws Exception {
+        doTestContentStorage("mapped");
+    }
+
+    private void doTestContentStorage(String contentStorage) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp");
+        byte[] expected = Files.readAllBytes(new File(appDir, "index.html").toPath());
+
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        StandardRoot root = new StandardRoot(ctxt);
+        root.setCacheContentStorage(contentStorage);
+        ctxt.setResources(root);
+        Tomcat.addServlet(ctxt, "default", DefaultServlet.class.getName());
+        ctxt.addServletMappingDecoded("/", "default");
+
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/index.html";
+        ByteChunk out = new ByteChunk();
+
+        // Twice so the second request is served from the cache
+        for (int i = 0; i < 2; i++) {
+            int rc = getUrl(path, out, null);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertArrayEquals(expected, Arrays.copyOf(out.getBytes(), out.getLength()));
+        }
+
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Range", Arrays.asList("bytes=10-19"));
+        out.recycle();
+        int rc = getUrl(path, out, reqHeaders, null);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 10, 20),
+                Arrays.copyOf(out.getBytes(), out.getLength()));
+    }
+
+    @Test
+    public void testGzipCachedResources() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp");
+        byte[] expected = Files.readAllBytes(new File(appDir, "index.html").toPath());
+
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                DefaultServlet.class.getName());
+        defaultServlet.addInitParameter("gzipCachedResources", "true");
+        ctxt.addServletMappingDecoded("/", "default");
+        ctxt.addMimeMapping("html", "text/html");
+
+        tomcat.start();
+
+        String path = "http://localhost:" + getPort() + "/index.html";
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Accept-Encoding", Arrays.asList("gzip"));
+        Map<String,List<String>> resHeaders = new HashMap<>();
+
+        // The compressed copy is generated in the background after the first
+        // request
+        int count = 0;
+        while (true) {
+            out.recycle();
+            resHeaders.clear();
+            int rc = getUrl(path, out, reqHeaders, resHeaders);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+            Assert.assertEquals("accept-encoding", resHeaders.get("vary").get(0));
+            if (resHeaders.containsKey("Content-Encoding")) {
+                break;
+            }
+            Assert.assertArrayEquals(expected, Arrays.copyOf(out.getBytes(), out.getLength()));
+            Assert.assertTrue(count++ < 100);
+            Thread.sleep(50);
+        }
+        Assert.assertEquals("gzip", resHeaders.get("Content-Encoding").get(0));
+        Assert.assertEquals(Integer.toString(out.getLength()),
+                resHeaders.get("Content-Length").get(0));
+        try (InputStream is = new GZIPInputStream(
+                new ByteArrayInputStream(out.getBytes(), 0, out.getLength()))) {
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            IOTools.flow(is, decompressed);
+            Assert.assertArrayEquals(expected, decompressed.toByteArray());
+        }
+        String gzipETag = resHeaders.get("ETag").get(0);
+        Assert.assertTrue(gzipETag, gzipETag.endsWith("-gzip\""));
+
+        // Clients that don't accept gzip and range requests get the original
+        out.recycle();
+        resHeaders.clear();
+        int rc = getUrl(path, out, null, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertFalse(resHeaders.containsKey("Content-Encoding"));
+        Assert.assertArrayEquals(expected, Arrays.copyOf(out.getBytes(), out.getLength()));
+        String eTag = resHeaders.get("ETag").get(0);
+        Assert.assertNotEquals(eTag, gzipETag);
+
+        // Each copy is validated with its own entity tag
+        reqHeaders.put("If-None-Match", Arrays.asList(gzipETag));
+        resHeaders.clear();
+        rc = getUrl(path, out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+        Assert.assertEquals(gzipETag, resHeaders.get("ETag").get(0));
+        reqHeaders.put("If-None-Match", Arrays.asList(eTag));
+        resHeaders.clear();
+        rc = getUrl(path, out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+        Assert.assertEquals(eTag, resHeaders.get("ETag").get(0));
+        // Only clients that accept gzip can hold the compressed copy
+        Map<String,List<String>> identityHeaders = new HashMap<>();
+        identityHeaders.put("If-None-Match", Arrays.asList(gzipETag));
+        out.recycle();
+        rc = getUrl(path, out, identityHeaders, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        reqHeaders.remove("If-None-Match");
+
+        reqHeaders.put("Range", Arrays.asList("bytes=10-19"));
+        out.recycle();
+        resHeaders.clear();
+        rc = getUrl(path, out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        Assert.assertFalse(resHeaders.containsKey("Content-Encoding"));
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 10, 20),
+                Arrays.copyOf(out.getBytes(), out.getLength()));
+    }
+
+    @Test
+    public void testMultipleRangesSendfile() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "ranges");
+        addDeleteOnTearDown(appDir);
+        Assert.assertTrue(appDir.mkdirs());
+        byte[] content = new byte[100 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        // DefaultServlet always serves paths relative to the context root
+        for (String dir : new String[] { "sendfile", "nosendfile" }) {
+            Assert.assertTrue(new File(appDir, dir).mkdir());
+            Files.write(new File(appDir, dir + "/data.txt").toPath(), content);
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        // Identical servlets other than sendfile
+        Wrapper sendfile = Tomcat.addServlet(ctxt, "sendfile", DefaultServlet.class.getName());
+        sendfile.addInitParameter("sendfileSize", "1");
+        ctxt.addServletMappingDecoded("/sendfile/*", "sendfile");
+        Wrapper noSendfile = Tomcat.addServlet(ctxt, "noSendfile", DefaultServlet.class.getName());
+        noSendfile.addInitParameter("sendfileSize", "-1");
+        ctxt.addServletMappingDecoded("/nosendfile/*", "noSendfile");
+        ctxt.addMimeMapping("txt", "text/plain");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHeaders = new HashMap<>();
+        reqHeaders.put("Range", Arrays.asList("bytes=0-9999,20000-39999,90000-"));
+
+        ByteChunk expected = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/nosendfile/data.txt",
+                expected, reqHeaders, null);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+
+        ByteChunk out = new ByteChunk();
+        Map<String,List<String>> resHeaders = new HashMap<>();
+        rc = getUrl("http://localhost:" + getPort() + "/sendfile/data.txt",
+                out, reqHeaders, resHeaders);
+        Assert.assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, rc);
+        Assert.assertEquals(Integer.toString(out.getLength()),
+                resHeaders.get("Content-Length").get(0));
+        Assert.assertArrayEquals(Arrays.copyOf(expected.getBytes(), expected.getLength()),
+                Arrays.copyOf(out.getBytes(), out.getLength()));
+        Assert.assertTrue(out.toString().contains(
+                "Content-Range: bytes 20000-39999/102400\r\n\r\nghijklmno"));
+    }
+
     public static int getUrl(String path, ByteChunk out,
             Map<String, List<String>> resHead) throws IOException {
         out.recycle();
@@ -31,6 +31,9 @@ import org.apache.catalina.LifecycleException;
 import org.apache.catalina.Session;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.core.StandardHost;
+import org.apache.catalina.util.SessionIdGeneratorBase;
+import org.apache.catalina.util.StandardSessionIdGenerator;
+import org.apache.catalina.util.StripedSessionIdGenerator;
 
 /**
  * Named Benchmarks so it is not automatically executed as part of the unit
@@ -238,6 +241,83 @@ public class Benchmarks {
     }
 
 
+    /*
+     * StandardSessionIdGenerator vs. StripedSessionIdGenerator with many
+     * concurrent threads.
+     *
+     * Results on a 1-core Linux VM, 64 threads x 100,000 IDs
+     *              Standard    Striped
+     *  SHA1PRNG -  ~1,900ms     ~730ms
+     */
+    @Test
+    public void testSessionIdGenerators() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            doTestSessionIdGenerator(new StandardSessionIdGenerator(), 64, 100000);
+            doTestSessionIdGenerator(new StripedSessionIdGenerator(), 64, 100000);
+        }
+    }
+
+
+    private void doTestSessionIdGenerator(SessionIdGeneratorBase generator,
+            int threadCount, int iterCount) throws Exception {
+
+        generator.start();
+
+        Thread[] threads = new Thread[threadCount];
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(
+                    new TestThreadSessionIdGenerator(generator, iterCount));
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                Assert.fail(e.getMessage());
+            }
+        }
+        long end = System.currentTimeMillis();
+
+        generator.stop();
+
+        StringBuilder result = new StringBuilder();
+        result.append(generator.getClass().getSimpleName());
+        result.append(" Threads: ");
+        result.append(threadCount);
+        result.append(", Time(ms): ");
+        result.append(end-start);
+        result.append(", IDs/s: ");
+        result.append((long) threadCount * iterCount * 1000 / Math.max(end - start, 1));
+        System.out.println(result.toString());
+    }
+
+
+    private static final class TestThreadSessionIdGenerator implements Runnable {
+
+        private SessionIdGeneratorBase generator;
+        private int count;
+
+        public TestThreadSessionIdGenerator(SessionIdGeneratorBase generator, int count) {
+            this.generator = generator;
+            this.count = count;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < count; i++) {
+                generator.generateSessionId();
+            }
+        }
+    }
+
+
     /*
      * SecureRandom vs. reading /dev/urandom. Very different performance noted
      * on some platforms.
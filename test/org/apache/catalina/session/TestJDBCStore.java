@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+
+public class TestJDBCStore {
+
+    private PersistentManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        TesterJDBCDriver.reset();
+        StandardContext context = new StandardContext();
+        context.setName("/test");
+        manager = new PersistentManager();
+        manager.setContext(context);
+    }
+
+
+    @Test
+    public void testCoalescing() throws Exception {
+        JDBCStore store = createStore(10);
+        // Holding the Store's lock keeps the background thread from writing
+        synchronized (store) {
+            store.save(createSession("s1", "a"));
+            store.save(createSession("s1", "b"));
+            store.save(createSession("s2", "c"));
+            Assert.assertEquals(2, store.getWriteQueueSize());
+            Assert.assertEquals(1, store.getCoalescedWriteCount());
+            Assert.assertTrue(TesterJDBCDriver.rows.isEmpty());
+        }
+        Assert.assertTrue(store.flushWriteQueue());
+        Assert.assertEquals(0, store.getWriteQueueSize());
+        Assert.assertEquals(2, store.getBatchedWriteCount());
+        Assert.assertEquals("b", getValue(TesterJDBCDriver.rows.get("s1")));
+        Assert.assertEquals("c", getValue(TesterJDBCDriver.rows.get("s2")));
+        store.stop();
+    }
+
+
+    @Test
+    public void testOverflow() throws Exception {
+        JDBCStore store = createStore(1);
+        synchronized (store) {
+            store.save(createSession("s1", "a"));
+            // The queue is full so this is written immediately
+            store.save(createSession("s2", "b"));
+            Assert.assertEquals(1, store.getWriteQueueSize());
+            Assert.assertEquals(1, store.getOverflowWriteCount());
+            Assert.assertFalse(TesterJDBCDriver.rows.containsKey("s1"));
+            Assert.assertEquals("b", getValue(TesterJDBCDriver.rows.get("s2")));
+        }
+        store.stop();
+        Assert.assertEquals("a", getValue(TesterJDBCDriver.rows.get("s1")));
+    }
+
+
+    @Test
+    public void testLoadQueued() throws Exception {
+        JDBCStore store = createStore(10);
+        synchronized (store) {
+            store.save(createSession("s1", "a"));
+            // Not in the database yet
+            Assert.assertTrue(TesterJDBCDriver.rows.isEmpty());
+            Session session = store.load("s1");
+            Assert.assertNotNull(session);
+            Assert.assertEquals("a", session.getSession().getAttribute("value"));
+        }
+        store.stop();
+    }
+
+
+    @Test
+    public void testFlushOnStop() throws Exception {
+        JDBCStore store = createStore(100);
+        synchronized (store) {
+            for (int i = 0; i < 20; i++) {
+                store.save(createSession("s" + i, "v" + i));
+            }
+        }
+        store.stop();
+        Assert.assertEquals(0, store.getWriteQueueSize());
+        Assert.assertEquals(20, TesterJDBCDriver.rows.size());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("v" + i, getValue(TesterJDBCDriver.rows.get("s" + i)));
+        }
+    }
+
+
+    @Test
+    public void testDatabaseUnavailable() throws Exception {
+        JDBCStore store = createStore(10);
+        synchronized (store) {
+            store.save(createSession("s1", "a"));
+            TesterJDBCDriver.unavailable = true;
+        }
+        // The batch cannot be written so it stays queued
+        Assert.assertFalse(store.flushWriteQueue());
+        Assert.assertEquals(1, store.getWriteQueueSize());
+        Assert.assertEquals("a", store.load("s1").getSession().getAttribute("value"));
+
+        TesterJDBCDriver.unavailable = false;
+        Assert.assertTrue(store.flushWriteQueue());
+        Assert.assertEquals("a", getValue(TesterJDBCDriver.rows.get("s1")));
+
+        synchronized (store) {
+            store.save(createSession("s2", "b"));
+            TesterJDBCDriver.unavailable = true;
+        }
+        // Stopping does not wait for the database
+        store.stop();
+        Assert.assertEquals(0, store.getWriteQueueSize());
+        Assert.assertFalse(TesterJDBCDriver.rows.containsKey("s2"));
+    }
+
+
+    private JDBCStore createStore(int maxWriteQueueSize) throws Exception {
+        JDBCStore store = new JDBCStore();
+        store.setDriverName(TesterJDBCDriver.class.getName());
+        store.setConnectionURL("jdbc:tester");
+        store.setWriteBehind(true);
+        store.setMaxWriteQueueSize(maxWriteQueueSize);
+        store.setManager(manager);
+        store.start();
+        return store;
+    }
+
+
+    private StandardSession createSession(String id, String value) {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(60);
+        session.setId(id, false);
+        session.setAttribute("value", value);
+        return session;
+    }
+
+
+    private Object getValue(byte[] data) throws Exception {
+        Assert.assertNotNull(data);
+        StandardSession session = new StandardSession(manager);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            session.readObjectData(ois);
+        }
+        return session.getAttribute("value");
+    }
+}
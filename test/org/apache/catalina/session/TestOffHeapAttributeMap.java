@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.core.StandardContext;
+
+public class TestOffHeapAttributeMap {
+
+    @Test
+    public void testArena() throws Exception {
+        File file = File.createTempFile("arena", ".bin");
+        SessionAttributeArena arena = new SessionAttributeArena(8 * 1024, 1024, file);
+        try {
+            Assert.assertEquals(8 * 1024, arena.getCapacity());
+            byte[] data = data(2500);
+            int[] pages = arena.store(data, data.length);
+            Assert.assertEquals(3, pages.length);
+            Assert.assertEquals(3 * 1024, arena.getUsed());
+            Assert.assertArrayEquals(data, arena.read(pages, data.length));
+
+            // Same number of pages is re-used
+            byte[] data2 = data(2100);
+            Assert.assertSame(pages, arena.replace(pages, data2, data2.length));
+            Assert.assertArrayEquals(data2, arena.read(pages, data2.length));
+
+            // Not enough free pages
+            Assert.assertNull(arena.store(data(6 * 1024), 6 * 1024));
+
+            arena.free(pages);
+            Assert.assertEquals(0, arena.getUsed());
+        } finally {
+            arena.close();
+        }
+        Assert.assertFalse(file.exists());
+    }
+
+
+    @Test
+    public void testOffHeapValues() throws Exception {
+        StandardManager manager = createManager();
+        SessionAttributeArena arena = new SessionAttributeArena(64 * 1024, 1024, null);
+        HotAttributeCache cache = new HotAttributeCache(Long.MAX_VALUE);
+        OffHeapAttributeMap map = new OffHeapAttributeMap(manager, arena, cache);
+
+        // Small values stay on the heap
+        String small = "small";
+        map.put("small", small);
+        Assert.assertEquals(0, arena.getUsed());
+        Assert.assertSame(small, map.get("small"));
+
+        ArrayList<String> a = largeList("a");
+        map.put("a", a);
+        long used = arena.getUsed();
+        Assert.assertTrue(used > 0);
+        // Not retained on the heap when set
+        Assert.assertEquals(0, cache.getSize());
+
+        // Retained on the heap once read
+        @SuppressWarnings("unchecked")
+        List<String> a1 = (List<String>) map.get("a");
+        Assert.assertNotSame(a, a1);
+        Assert.assertEquals(a, a1);
+        Assert.assertTrue(cache.getSize() > 0);
+        Assert.assertSame(a1, map.get("a"));
+        a1.add("changed");
+
+        ArrayList<String> b = largeList("b");
+        map.put("b", b);
+        Assert.assertTrue(arena.getUsed() > used);
+
+        Assert.assertEquals(3, map.size());
+        Assert.assertTrue(map.keySet().containsAll(Arrays.asList("small", "a", "b")));
+
+        // Replacing returns the previous value
+        Assert.assertEquals(b, map.put("b", "replaced"));
+        Assert.assertEquals("replaced", map.get("b"));
+
+        Assert.assertEquals(a1, map.remove("a"));
+        Assert.assertEquals(0, arena.getUsed());
+        Assert.assertEquals(0, cache.getSize());
+
+        map.put("a", a);
+        map.get("a");
+        map.clear();
+        Assert.assertEquals(0, arena.getUsed());
+        Assert.assertEquals(0, cache.getSize());
+        Assert.assertTrue(map.isEmpty());
+    }
+
+
+    @Test
+    public void testHotValuesSharedAcrossSessions() throws Exception {
+        StandardManager manager = createManager();
+        SessionAttributeArena arena = new SessionAttributeArena(64 * 1024, 1024, null);
+        HotAttributeCache cache = new HotAttributeCache(Long.MAX_VALUE);
+        OffHeapAttributeMap map1 = new OffHeapAttributeMap(manager, arena, cache);
+        OffHeapAttributeMap map2 = new OffHeapAttributeMap(manager, arena, cache);
+
+        map1.put("a", largeList("a"));
+        map2.put("b", largeList("b"));
+
+        @SuppressWarnings("unchecked")
+        List<String> a1 = (List<String>) map1.get("a");
+        // Only room for one value
+        cache.setMaxSize(cache.getSize());
+        a1.add("changed");
+
+        // Reading b in the other session evicts a
+        map2.get("b");
+        Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+
+        // The change made while a was retained was kept
+        @SuppressWarnings("unchecked")
+        List<String> a2 = (List<String>) map1.get("a");
+        Assert.assertNotSame(a1, a2);
+        Assert.assertEquals(a1, a2);
+        Assert.assertTrue(a2.contains("changed"));
+    }
+
+
+    @Test
+    public void testEvictionFailureKeepsValueOnHeap() throws Exception {
+        StandardManager manager = createManager();
+        SessionAttributeArena arena = new SessionAttributeArena(64 * 1024, 1024, null);
+        HotAttributeCache cache = new HotAttributeCache(Long.MAX_VALUE);
+        OffHeapAttributeMap map1 = new OffHeapAttributeMap(manager, arena, cache);
+        OffHeapAttributeMap map2 = new OffHeapAttributeMap(manager, arena, cache);
+
+        FailingList failing = new FailingList();
+        failing.addAll(largeList("a"));
+        map1.put("a", failing);
+        map2.put("b", largeList("b"));
+
+        Object a1 = map1.get("a");
+        cache.setMaxSize(cache.getSize());
+
+        FailingList.fail = true;
+        try {
+            // Evicting a from the other session must not fail this read
+            Assert.assertEquals(largeList("b"), map2.get("b"));
+        } finally {
+            FailingList.fail = false;
+        }
+        // The value could not be serialized so it was kept on the heap
+        Assert.assertSame(a1, map1.get("a"));
+    }
+
+
+    @Test
+    public void testConditionalOperations() throws Exception {
+        StandardManager manager = createManager();
+        SessionAttributeArena arena = new SessionAttributeArena(64 * 1024, 1024, null);
+        HotAttributeCache cache = new HotAttributeCache(Long.MAX_VALUE);
+        OffHeapAttributeMap map1 = new OffHeapAttributeMap(manager, arena, cache);
+        OffHeapAttributeMap map2 = new OffHeapAttributeMap(manager, arena, cache);
+
+        map1.put("a", largeList("a"));
+        map2.put("b", largeList("b"));
+        map1.get("a");
+        // Only room for one value
+        cache.setMaxSize(cache.getSize());
+
+        // Reading b evicts a from the other session once the lock is released
+        Assert.assertEquals(largeList("b"), map2.putIfAbsent("b", "other"));
+        Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+        Assert.assertTrue(map1.replace("a", largeList("a"), "replaced"));
+        Assert.assertEquals("replaced", map1.get("a"));
+        Assert.assertFalse(map2.remove("b", "other"));
+        Assert.assertTrue(map2.remove("b", largeList("b")));
+        Assert.assertNull(map2.putIfAbsent("b", "added"));
+        Assert.assertEquals("added", map2.get("b"));
+        Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+    }
+
+
+    @Test
+    public void testSessionSerialization() throws Exception {
+        StandardManager manager = createManager();
+        SessionAttributeArena arena = new SessionAttributeArena(64 * 1024, 1024, null);
+
+        StandardSession s1 = new StandardSession(manager);
+        s1.attributes = new OffHeapAttributeMap(manager, arena,
+                new HotAttributeCache(Long.MAX_VALUE));
+        s1.setValid(true);
+        ArrayList<String> value = largeList("value");
+        s1.setAttribute("large", value);
+        s1.setAttribute("small", "small");
+        long used = arena.getUsed();
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(baos)) {
+            s1.writeObjectData(oos);
+        }
+
+        StandardSession s2 = new StandardSession(manager);
+        s2.attributes = new OffHeapAttributeMap(manager, arena,
+                new HotAttributeCache(Long.MAX_VALUE));
+        try (ObjectInputStream ois = new ObjectInputStream(
+                new ByteArrayInputStream(baos.toByteArray()))) {
+            s2.readObjectData(ois);
+        }
+        Assert.assertEquals(value, s2.getAttribute("large"));
+        Assert.assertEquals("small", s2.getAttribute("small"));
+        Assert.assertEquals(2 * used, arena.getUsed());
+
+        s1.expire(false);
+        s1.recycle();
+        Assert.assertEquals(used, arena.getUsed());
+    }
+
+
+    private static class FailingList extends ArrayList<String> {
+
+        private static final long serialVersionUID = 1L;
+
+        private static volatile boolean fail = false;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            if (fail) {
+                // As if modified by another thread while being serialized
+                throw new ConcurrentModificationException();
+            }
+            out.defaultWriteObject();
+        }
+    }
+
+
+    private static StandardManager createManager() {
+        StandardManager manager = new StandardManager();
+        manager.setContext(new StandardContext());
+        return manager;
+    }
+
+
+    private static ArrayList<String> largeList(String prefix) {
+        ArrayList<String> list = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            list.add(prefix + i);
+        }
+        return list;
+    }
+
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+}
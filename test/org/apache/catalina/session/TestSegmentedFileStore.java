@@ -0,0 +1,207 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+import org.apache.tomcat.util.http.fileupload.FileUtils;
+
+public class TestSegmentedFileStore {
+
+    private File dir;
+    private PersistentManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"),
+                "TestSegmentedFileStore-" + System.nanoTime());
+        manager = new PersistentManager();
+        manager.setContext(new StandardContext());
+    }
+
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+
+    @Test
+    public void testSaveLoadRemove() throws Exception {
+        SegmentedFileStore store = createStore();
+        store.save(createSession("s1", "a"));
+        store.save(createSession("s2", "b"));
+        store.save(createSession("s1", "c"));
+        Assert.assertEquals(2, store.getSize());
+        Assert.assertEquals("c", getValue(store.load("s1")));
+        Assert.assertEquals("b", getValue(store.load("s2")));
+        Assert.assertNull(store.load("s3"));
+
+        store.remove("s2");
+        Assert.assertNull(store.load("s2"));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("s1")),
+                new HashSet<>(Arrays.asList(store.keys())));
+        store.stop();
+
+        // The index is rebuilt from the segments
+        store = createStore();
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertEquals("c", getValue(store.load("s1")));
+        Assert.assertNull(store.load("s2"));
+
+        store.clear();
+        Assert.assertEquals(0, store.getSize());
+        store.stop();
+
+        store = createStore();
+        Assert.assertEquals(0, store.getSize());
+        store.stop();
+    }
+
+
+    @Test
+    public void testCompaction() throws Exception {
+        SegmentedFileStore store = createStore();
+        store.setSegmentSize(4096);
+        store.stop();
+        store.start();
+
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 10; i++) {
+                store.save(createSession("s" + i, "round" + round));
+            }
+        }
+        store.remove("s9");
+        int segmentCount = store.getSegmentCount();
+        Assert.assertTrue(segmentCount > 5);
+
+        store.processExpires();
+        Assert.assertTrue(store.getSegmentCount() < segmentCount);
+        Assert.assertEquals(9, store.getSize());
+        for (int i = 0; i < 9; i++) {
+            Assert.assertEquals("round19", getValue(store.load("s" + i)));
+        }
+        store.stop();
+
+        // Nothing removed has been restored by compaction
+        store = createStore();
+        Assert.assertEquals(9, store.getSize());
+        Assert.assertNull(store.load("s9"));
+        for (int i = 0; i < 9; i++) {
+            Assert.assertEquals("round19", getValue(store.load("s" + i)));
+        }
+        store.stop();
+    }
+
+
+    @Test
+    public void testRemovalMarkersDropped() throws Exception {
+        SegmentedFileStore store = createStore();
+        store.setSegmentSize(4096);
+        store.stop();
+        store.start();
+
+        // Keeps the oldest segment from being compacted
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            large.append('x');
+        }
+        store.save(createSession("keeper", large.toString()));
+
+        long maxBytes = 0;
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20; i++) {
+                store.save(createSession("s" + i, "round" + round));
+            }
+            for (int i = 0; i < 20; i++) {
+                store.remove("s" + i);
+            }
+            store.processExpires();
+            if (round == 10) {
+                maxBytes = 2 * getSegmentBytes();
+            } else if (round > 10) {
+                Assert.assertTrue(getSegmentBytes() <= maxBytes);
+            }
+        }
+        store.stop();
+
+        store = createStore();
+        Assert.assertEquals(1, store.getSize());
+        Assert.assertEquals(large.toString(), getValue(store.load("keeper")));
+        store.stop();
+    }
+
+
+    @Test
+    public void testExpiredKeys() throws Exception {
+        SegmentedFileStore store = createStore();
+        StandardSession expired = createSession("expired", "a");
+        expired.thisAccessedTime = System.currentTimeMillis() - 120000;
+        store.save(expired);
+        store.save(createSession("current", "b"));
+        StandardSession noTimeout = createSession("noTimeout", "c");
+        noTimeout.setMaxInactiveInterval(-1);
+        noTimeout.thisAccessedTime = 0;
+        store.save(noTimeout);
+
+        Assert.assertArrayEquals(new String[] { "expired" }, store.expiredKeys());
+        store.stop();
+    }
+
+
+    private SegmentedFileStore createStore() throws Exception {
+        SegmentedFileStore store = new SegmentedFileStore();
+        store.setDirectory(dir.getAbsolutePath());
+        store.setManager(manager);
+        store.start();
+        return store;
+    }
+
+
+    private long getSegmentBytes() {
+        long result = 0;
+        for (File file : dir.listFiles()) {
+            result += file.length();
+        }
+        return result;
+    }
+
+
+    private StandardSession createSession(String id, String value) {
+        StandardSession session = new StandardSession(manager);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(60);
+        session.setId(id, false);
+        session.setAttribute("value", value);
+        return session;
+    }
+
+
+    private static Object getValue(Session session) {
+        return ((StandardSession) session).getAttribute("value");
+    }
+}
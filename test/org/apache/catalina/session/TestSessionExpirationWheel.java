@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Session;
+import org.apache.catalina.core.StandardContext;
+
+public class TestSessionExpirationWheel {
+
+    @Test
+    public void testPoll() {
+        SessionExpirationWheel wheel = new SessionExpirationWheel(8, 1000);
+        Assert.assertEquals(8000, wheel.getSpan());
+
+        Session s1 = new StandardSession(null);
+        Session s2 = new StandardSession(null);
+        Session s3 = new StandardSession(null);
+        long start = 1000000;
+        wheel.schedule(s1, start + 1500);
+        wheel.schedule(s2, start + 5000);
+        // Same slot as s1 but one revolution later
+        wheel.schedule(s3, start + 9500);
+        Assert.assertEquals(3, wheel.size());
+
+        Assert.assertEquals(0, poll(wheel, start).size());
+        Assert.assertEquals(0, poll(wheel, start + 1499).size());
+        assertPolled(poll(wheel, start + 1500), s1);
+        Assert.assertEquals(0, poll(wheel, start + 4999).size());
+        assertPolled(poll(wheel, start + 9000), s2);
+        assertPolled(poll(wheel, start + 9600), s3);
+        Assert.assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void testRescheduleAndRemove() {
+        SessionExpirationWheel wheel = new SessionExpirationWheel(8, 1000);
+        Session s1 = new StandardSession(null);
+        Session s2 = new StandardSession(null);
+        long start = 1000000;
+        wheel.schedule(s1, start + 1000);
+        wheel.schedule(s2, start + 2000);
+        wheel.schedule(s1, start + 3000);
+        wheel.remove(s2);
+        Assert.assertEquals(1, wheel.size());
+
+        Assert.assertEquals(0, poll(wheel, start + 2500).size());
+        assertPolled(poll(wheel, start + 3000), s1);
+    }
+
+
+    @Test
+    public void testLongPause() {
+        SessionExpirationWheel wheel = new SessionExpirationWheel(8, 1000);
+        Session s1 = new StandardSession(null);
+        long start = 1000000;
+        poll(wheel, start);
+        wheel.schedule(s1, start + 3000);
+        // Many revolutions without a poll
+        assertPolled(poll(wheel, start + 100000), s1);
+    }
+
+
+    @Test
+    public void testManagerExpiration() throws Exception {
+        StandardManager manager = new StandardManager();
+        manager.setContext(new StandardContext());
+
+        StandardSession idle = createSession(manager, "idle", 60);
+        StandardSession active = createSession(manager, "active", 60);
+        StandardSession noTimeout = createSession(manager, "noTimeout", -1);
+
+        // Make the sessions look as if they were last accessed long ago
+        long past = System.currentTimeMillis() - 120000;
+        for (StandardSession session : new StandardSession[] { idle, active, noTimeout }) {
+            session.thisAccessedTime = past;
+            session.lastAccessedTime = past;
+        }
+        // Re-schedule based on the new access times
+        manager.scheduleExpiration(idle);
+        manager.scheduleExpiration(noTimeout);
+        // Accessed since it was scheduled
+        manager.scheduleExpiration(active);
+        active.access();
+        active.endAccess();
+
+        manager.processExpires();
+        Assert.assertFalse(idle.isValidInternal());
+        Assert.assertTrue(active.isValidInternal());
+        Assert.assertTrue(noTimeout.isValidInternal());
+        Assert.assertEquals(1, manager.getExpiredSessions());
+        Assert.assertEquals(2, manager.getActiveSessions());
+
+        // Reducing the timeout schedules the session to be checked again
+        active.thisAccessedTime = past;
+        active.lastAccessedTime = past;
+        active.setMaxInactiveInterval(30);
+        manager.processExpires();
+        Assert.assertFalse(active.isValidInternal());
+        Assert.assertEquals(2, manager.getExpiredSessions());
+        Assert.assertEquals(1, manager.getActiveSessions());
+    }
+
+
+    private static StandardSession createSession(StandardManager manager, String id,
+            int maxInactiveInterval) {
+        StandardSession session = (StandardSession) manager.createEmptySession();
+        session.setNew(true);
+        session.setValid(true);
+        session.setCreationTime(System.currentTimeMillis());
+        session.setMaxInactiveInterval(maxInactiveInterval);
+        session.setId(id, false);
+        return session;
+    }
+
+
+    private static List<Session> poll(SessionExpirationWheel wheel, long timeNow) {
+        List<Session> due = new ArrayList<>();
+        wheel.poll(timeNow, due);
+        return due;
+    }
+
+
+    private static void assertPolled(List<Session> due, Session expected) {
+        Assert.assertEquals(1, due.size());
+        Assert.assertSame(expected, due.get(0));
+    }
+}
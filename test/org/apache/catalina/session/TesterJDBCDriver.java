@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * A minimal JDBC driver for testing {@link JDBCStore}. It supports only the
+ * statements used to save and remove sessions and keeps the saved session
+ * data in memory.
+ */
+public class TesterJDBCDriver implements Driver {
+
+    /**
+     * The saved session data, keyed by session ID.
+     */
+    static final Map<String,byte[]> rows = new ConcurrentHashMap<>();
+
+    /**
+     * When <code>true</code>, new connections cannot be made and statements
+     * on existing connections fail.
+     */
+    static volatile boolean unavailable = false;
+
+    static volatile int executeBatchCount = 0;
+
+
+    static void reset() {
+        rows.clear();
+        unavailable = false;
+        executeBatchCount = 0;
+    }
+
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (unavailable) {
+            throw new SQLException("Database unavailable");
+        }
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { Connection.class }, new ConnectionHandler());
+    }
+
+    @Override
+    public boolean acceptsURL(String url) throws SQLException {
+        return true;
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info)
+            throws SQLException {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 0;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+
+    private static class ConnectionHandler implements InvocationHandler {
+
+        private boolean autoCommit = true;
+        private boolean closed = false;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    return Proxy.newProxyInstance(TesterJDBCDriver.class.getClassLoader(),
+                            new Class<?>[] { PreparedStatement.class },
+                            new StatementHandler((String) args[0]));
+                case "getAutoCommit":
+                    return Boolean.valueOf(autoCommit);
+                case "setAutoCommit":
+                    autoCommit = ((Boolean) args[0]).booleanValue();
+                    return null;
+                case "isClosed":
+                    return Boolean.valueOf(closed);
+                case "close":
+                    closed = true;
+                    return null;
+                case "hashCode":
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                case "equals":
+                    return Boolean.valueOf(proxy == args[0]);
+                default:
+                    // commit, rollback etc.
+                    return null;
+            }
+        }
+    }
+
+
+    private static class StatementHandler implements InvocationHandler {
+
+        private final boolean insert;
+        private final Object[] parameters = new Object[6];
+        private final List<Object[]> batch = new ArrayList<>();
+
+        private StatementHandler(String sql) {
+            insert = sql.startsWith("INSERT");
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "setString":
+                case "setInt":
+                case "setLong":
+                    parameters[((Integer) args[0]).intValue() - 1] = args[1];
+                    return null;
+                case "setBinaryStream":
+                    parameters[((Integer) args[0]).intValue() - 1] =
+                            readFully((InputStream) args[1]);
+                    return null;
+                case "addBatch":
+                    batch.add(parameters.clone());
+                    return null;
+                case "execute":
+                    checkAvailable();
+                    apply(parameters);
+                    return Boolean.FALSE;
+                case "executeBatch":
+                    checkAvailable();
+                    executeBatchCount++;
+                    int[] result = new int[batch.size()];
+                    for (Object[] p : batch) {
+                        apply(p);
+                    }
+                    batch.clear();
+                    return result;
+                case "hashCode":
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                case "equals":
+                    return Boolean.valueOf(proxy == args[0]);
+                default:
+                    // close etc.
+                    return null;
+            }
+        }
+
+        private void checkAvailable() throws SQLException {
+            if (unavailable) {
+                batch.clear();
+                throw new SQLException("Database unavailable");
+            }
+        }
+
+        private void apply(Object[] p) {
+            if (insert) {
+                rows.put((String) p[0], (byte[]) p[2]);
+            } else {
+                rows.remove(p[0]);
+            }
+        }
+
+        private static byte[] readFully(InputStream is) throws IOException {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0) {
+                bos.write(buf, 0, n);
+            }
+            return bos.toByteArray();
+        }
+    }
+}
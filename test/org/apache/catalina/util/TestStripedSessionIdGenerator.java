@@ -0,0 +1,74 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.util;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.buf.HexUtils;
+import org.apache.tomcat.util.codec.binary.Base64;
+
+public class TestStripedSessionIdGenerator {
+
+    @Test
+    public void testEncoding() {
+        Random random = new Random(1);
+        for (int length = 0; length < 40; length++) {
+            byte[] bytes = new byte[length];
+            random.nextBytes(bytes);
+            Assert.assertEquals(HexUtils.toHexString(bytes).toUpperCase(Locale.ENGLISH),
+                    new String(StripedSessionIdGenerator.encodeHex(bytes)));
+            Assert.assertEquals(Base64.encodeBase64URLSafeString(bytes),
+                    new String(StripedSessionIdGenerator.encodeBase64Url(bytes)));
+        }
+    }
+
+
+    @Test
+    public void testGenerateSessionId() throws Exception {
+        StripedSessionIdGenerator generator = new StripedSessionIdGenerator();
+        generator.setStripeCount(3);
+        // Smaller than an ID so IDs span refills
+        generator.setPrefetchSize(10);
+        generator.setJvmRoute("node1");
+        generator.start();
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            String id = generator.generateSessionId();
+            Assert.assertTrue(id, id.matches("[0-9A-F]{32}\\.node1"));
+            Assert.assertTrue(ids.add(id));
+        }
+
+        generator.setEncoding("base64url");
+        generator.setSessionIdLength(24);
+        String id = generator.generateSessionId("route");
+        Assert.assertTrue(id, id.matches("[A-Za-z0-9_-]{32}\\.route"));
+        generator.stop();
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidEncoding() {
+        new StripedSessionIdGenerator().setEncoding("base32");
+    }
+}
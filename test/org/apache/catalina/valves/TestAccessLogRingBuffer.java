@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAccessLogRingBuffer {
+
+    private static final char[] SEPARATOR = new char[] { '\n' };
+
+
+    @Test
+    public void testCapacity() {
+        Assert.assertEquals(1, new AccessLogRingBuffer(0).getCapacity());
+        Assert.assertEquals(4, new AccessLogRingBuffer(3).getCapacity());
+        Assert.assertEquals(4, new AccessLogRingBuffer(4).getCapacity());
+        Assert.assertEquals(8, new AccessLogRingBuffer(5).getCapacity());
+    }
+
+
+    @Test
+    public void testOfferWhenFull() {
+        AccessLogRingBuffer queue = new AccessLogRingBuffer(4);
+        Assert.assertNull(queue.peek());
+
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(message("entry" + i), SEPARATOR));
+        }
+        Assert.assertEquals(4, queue.size());
+        Assert.assertFalse(queue.offer(message("entry4"), SEPARATOR));
+
+        Assert.assertEquals("entry0\n", take(queue));
+        Assert.assertTrue(queue.offer(message("entry4"), SEPARATOR));
+        Assert.assertFalse(queue.offer(message("entry5"), SEPARATOR));
+
+        for (int i = 1; i < 5; i++) {
+            Assert.assertEquals("entry" + i + "\n", take(queue));
+        }
+        Assert.assertNull(queue.peek());
+        Assert.assertEquals(0, queue.size());
+    }
+
+
+    @Test
+    public void testEntryBufferReuse() {
+        AccessLogRingBuffer queue = new AccessLogRingBuffer(1);
+        StringBuilder longEntry = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longEntry.append('x');
+        }
+        Assert.assertTrue(queue.offer(message(longEntry.toString()), SEPARATOR));
+        Assert.assertEquals(longEntry.toString() + "\n", take(queue));
+        Assert.assertTrue(queue.offer(message("short"), SEPARATOR));
+        Assert.assertEquals("short\n", take(queue));
+    }
+
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final AccessLogRingBuffer queue = new AccessLogRingBuffer(64);
+        final int threadCount = 4;
+        final int perThread = 10000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int id = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        CharArrayWriter message = message(id + "-" + i);
+                        while (!queue.offer(message, SEPARATOR)) {
+                            Thread.yield();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+
+        Set<String> seen = new HashSet<>();
+        int[] next = new int[threadCount];
+        while (seen.size() < threadCount * perThread) {
+            AccessLogRingBuffer.Entry entry = queue.peek();
+            if (entry == null) {
+                Thread.yield();
+                continue;
+            }
+            String value = new String(entry.getChars(), 0, entry.getLength() - 1);
+            queue.release();
+            Assert.assertTrue(value, seen.add(value));
+            // Entries from any one producer must remain in order
+            int dash = value.indexOf('-');
+            int id = Integer.parseInt(value.substring(0, dash));
+            Assert.assertEquals(next[id]++, Integer.parseInt(value.substring(dash + 1)));
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertNull(queue.peek());
+    }
+
+
+    private static CharArrayWriter message(String value) {
+        CharArrayWriter message = new CharArrayWriter();
+        message.append(value);
+        return message;
+    }
+
+
+    private static String take(AccessLogRingBuffer queue) {
+        AccessLogRingBuffer.Entry entry = queue.peek();
+        Assert.assertNotNull(entry);
+        String result = new String(entry.getChars(), 0, entry.getLength());
+        queue.release();
+        return result;
+    }
+}
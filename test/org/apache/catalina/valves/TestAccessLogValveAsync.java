@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestAccessLogValveAsync extends TomcatBaseTest {
+
+    @Test
+    public void testAsyncLog() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        File dir = new File(getTemporaryDirectory(), "async-logs");
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setPrefix("async");
+        valve.setSuffix(".log");
+        valve.setRotatable(false);
+        valve.setPattern("%m %U %s");
+        valve.setAsyncLog(true);
+        valve.setAsyncFlushInterval(50);
+        ctx.getPipeline().addValve(valve);
+
+        tomcat.start();
+
+        int requests = 20;
+        for (int i = 0; i < requests; i++) {
+            ByteChunk res = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/path" + i, res, null);
+            Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        }
+
+        File logFile = new File(dir, "async.log");
+        // Entries are written by the writer thread within the flush interval
+        List<String> lines = null;
+        int count = 0;
+        while (count < 100) {
+            lines = Files.readAllLines(logFile.toPath(), StandardCharsets.ISO_8859_1);
+            if (lines.size() == requests) {
+                break;
+            }
+            Thread.sleep(50);
+            count++;
+        }
+        Assert.assertNotNull(lines);
+        Assert.assertEquals(requests, lines.size());
+        for (int i = 0; i < requests; i++) {
+            Assert.assertEquals("GET /path" + i + " 200", lines.get(i));
+        }
+        Assert.assertEquals(0, valve.getAsyncDroppedCount());
+        Assert.assertEquals(0, valve.getAsyncPendingCount());
+
+        tomcat.stop();
+        Assert.assertEquals(requests,
+                Files.readAllLines(logFile.toPath(), StandardCharsets.ISO_8859_1).size());
+    }
+}
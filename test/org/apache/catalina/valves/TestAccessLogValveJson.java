@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.CharArrayWriter;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestAccessLogValveJson extends TomcatBaseTest {
+
+    @Test
+    public void testJson() throws Exception {
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("User-Agent", Collections.singletonList("Tester \"1\"\\"));
+        String entry = doRequest("%h %l %u %t \"%r\" %s %b %D %T %{msec}t %{User-Agent}i %q %{X}i",
+                "/path?a=b", reqHead);
+
+        Assert.assertTrue(entry, entry.startsWith("{\"remoteHost\":\""));
+        Assert.assertTrue(entry, entry.contains(
+                "\",\"logicalUserName\":null,\"user\":null,\"time\":"));
+        Assert.assertTrue(entry, entry.contains(
+                ",\"request\":\"GET /path?a=b HTTP/1.1\",\"status\":200,\"bytesSent\":" +
+                HelloWorldServlet.RESPONSE_TEXT.length() + ","));
+        Assert.assertTrue(entry, entry.endsWith(
+                ",\"requestHeader.User-Agent\":\"Tester \\\"1\\\"\\\\\"" +
+                ",\"query\":\"a=b\",\"requestHeader.X\":null}"));
+
+        long time = getLong(entry, "time");
+        // A repeated replacement gets a unique name
+        Assert.assertEquals(time, getLong(entry, "time_2"));
+        Assert.assertTrue(Math.abs(System.currentTimeMillis() - time) < 60000);
+        long elapsed = getLong(entry, "elapsedTime");
+        Matcher m = Pattern.compile("\"elapsedTimeSeconds\":(\\d+)\\.(\\d{3}),").matcher(entry);
+        Assert.assertTrue(entry, m.find());
+        Assert.assertEquals(elapsed, Long.parseLong(m.group(1)) * 1000 + Long.parseLong(m.group(2)));
+    }
+
+
+    @Test
+    public void testNoReplacements() throws Exception {
+        Assert.assertEquals("{}", doRequest("constant text", "/", null));
+    }
+
+
+    @Test
+    public void testText() throws Exception {
+        TesterJsonAccessLogValve valve = new TesterJsonAccessLogValve();
+        valve.setOutputFormat("json");
+        valve.setPattern("%s %b");
+        valve.setOutputFormat("text");
+        Assert.assertEquals("text", valve.getOutputFormat());
+        Assert.assertEquals(4, valve.logElements.length);
+        valve.setOutputFormat("invalid");
+        Assert.assertEquals("text", valve.getOutputFormat());
+    }
+
+
+    private String doRequest(String pattern, String path,
+            Map<String,List<String>> reqHead) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMappingDecoded("/", "hello");
+
+        TesterJsonAccessLogValve valve = new TesterJsonAccessLogValve();
+        valve.setPattern(pattern);
+        valve.setOutputFormat("json");
+        tomcat.getHost().getPipeline().addValve(valve);
+
+        tomcat.start();
+
+        ByteChunk res = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + path, res, reqHead, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        // The entry is logged after the response has been returned
+        String entry = valve.entries.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(entry);
+        return entry;
+    }
+
+
+    private static long getLong(String entry, String name) {
+        Matcher m = Pattern.compile("\"" + name + "\":(\\d+)[,}]").matcher(entry);
+        Assert.assertTrue(entry, m.find());
+        return Long.parseLong(m.group(1));
+    }
+
+
+    private static class TesterJsonAccessLogValve extends AbstractAccessLogValve {
+
+        private final BlockingQueue<String> entries = new LinkedBlockingQueue<>();
+
+        @Override
+        protected void log(CharArrayWriter message) {
+            entries.add(message.toString());
+        }
+    }
+}
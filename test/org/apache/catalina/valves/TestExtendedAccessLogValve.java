@@ -21,6 +21,13 @@ import org.junit.Test;
 
 public class TestExtendedAccessLogValve {
 
+    @Test
+    public void testJsonOutputFormatRejected() {
+        ExtendedAccessLogValve valve = new ExtendedAccessLogValve();
+        valve.setOutputFormat("json");
+        Assert.assertEquals("text", valve.getOutputFormat());
+    }
+
     @Test
     public void alpha() {
         Assert.assertEquals("\"foo\"", ExtendedAccessLogValve.wrap("foo"));
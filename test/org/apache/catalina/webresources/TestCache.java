@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.webresources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.apache.catalina.WebResource;
+import org.apache.catalina.startup.ExpandWar;
+import org.apache.tomcat.util.http.fileupload.IOUtils;
+
+public class TestCache {
+
+    private static final int HOT_COUNT = 10;
+    private static final int COLD_COUNT = 500;
+    private static final int FILE_SIZE = 4096;
+
+    private static Path tempDir;
+
+    @BeforeClass
+    public static void before() throws IOException {
+        tempDir = Files.createTempDirectory("test");
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < HOT_COUNT; i++) {
+            Files.write(tempDir.resolve("hot" + i + ".txt"), content);
+        }
+        for (int i = 0; i < COLD_COUNT; i++) {
+            Files.write(tempDir.resolve("cold" + i + ".txt"), content);
+        }
+    }
+
+    @AfterClass
+    public static void after() {
+        ExpandWar.delete(tempDir.toFile());
+    }
+
+
+    @Test
+    public void testFrequentlyUsedResourcesSurviveScan() {
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+        // Room for roughly 20 resources
+        cache.setMaxSize(100);
+        cache.setObjectMaxSize(5);
+
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < HOT_COUNT; i++) {
+                getResource(cache, "/hot" + i + ".txt");
+            }
+            cache.backgroundProcess();
+        }
+
+        for (int i = 0; i < COLD_COUNT; i++) {
+            getResource(cache, "/cold" + i + ".txt");
+            if (i % 10 == 0) {
+                cache.backgroundProcess();
+            }
+        }
+        cache.backgroundProcess();
+
+        Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+        Assert.assertTrue(cache.getRejectionCount() > 0);
+
+        long hits = cache.getHitCount();
+        for (int i = 0; i < HOT_COUNT; i++) {
+            getResource(cache, "/hot" + i + ".txt");
+        }
+        Assert.assertEquals(hits + HOT_COUNT, cache.getHitCount());
+        Assert.assertEquals(cache.getLookupCount() - cache.getHitCount(), cache.getMissCount());
+    }
+
+
+    @Test
+    public void testRemoveAndClear() {
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+
+        getResource(cache, "/hot0.txt");
+        getResource(cache, "/hot1.txt");
+        cache.backgroundProcess();
+        Assert.assertTrue(cache.getSize() > 0);
+
+        cache.removeCacheEntry("/hot0.txt");
+        cache.backgroundProcess();
+        long hits = cache.getHitCount();
+        getResource(cache, "/hot0.txt");
+        getResource(cache, "/hot1.txt");
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+
+        cache.clear();
+        Assert.assertEquals(0, cache.getSize());
+        getResource(cache, "/hot1.txt");
+        Assert.assertEquals(hits + 1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testContentStorage() throws IOException {
+        byte[] expected = new byte[FILE_SIZE];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        Files.write(tempDir.resolve("content.bin"), expected);
+
+        for (String contentStorage : new String[] { "heap", "direct", "mapped" }) {
+            TesterWebResourceRoot root = new TesterWebResourceRoot();
+            root.setMainResources(new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/"));
+            Cache cache = new Cache(root);
+            cache.setContentStorage(contentStorage);
+            Assert.assertEquals(contentStorage, cache.getContentStorage());
+
+            CachedResource resource = (CachedResource) cache.getResource("/content.bin", false);
+            ByteBuffer buffer = resource.getContentBuffer();
+            Assert.assertTrue(buffer.isReadOnly());
+            Assert.assertEquals(!"heap".equals(contentStorage), buffer.isDirect());
+            byte[] content = new byte[buffer.remaining()];
+            buffer.get(content);
+            Assert.assertArrayEquals(expected, content);
+
+            // Each call gets an independent view of the content
+            Assert.assertEquals(FILE_SIZE, resource.getContentBuffer().remaining());
+            Assert.assertArrayEquals(expected, resource.getContent());
+            try (InputStream is = resource.getInputStream()) {
+                Assert.assertEquals(FILE_SIZE, is.available());
+                byte[] read = new byte[FILE_SIZE];
+                IOUtils.readFully(is, read);
+                Assert.assertArrayEquals(expected, read);
+                Assert.assertEquals(-1, is.read());
+            }
+
+            // Directories have no content
+            Assert.assertNull(((CachedResource) cache.getResource("/", false)).getContentBuffer());
+        }
+
+        ExpandWar.delete(tempDir.resolve("content.bin").toFile());
+    }
+
+
+    @Test
+    public void testCompressedContentCountsTowardsMaxSize() throws Exception {
+        Path dir = tempDir.resolve("gzip");
+        Files.createDirectories(dir);
+        // Compresses to roughly a quarter of its size
+        Random random = new Random(1);
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + random.nextInt(4));
+        }
+        int count = 20;
+        for (int i = 0; i < count; i++) {
+            Files.write(dir.resolve(i + ".txt"), content);
+        }
+
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+        cache.setMaxSize(1000);
+        cache.setObjectMaxSize(5);
+
+        for (int i = 0; i < count; i++) {
+            CachedResource resource = (CachedResource) cache.getResource("/gzip/" + i + ".txt", false);
+            Assert.assertNull(resource.getGzipContentBuffer());
+        }
+        int wait = 0;
+        while (cache.getCompressedCount() < count && wait < 100) {
+            Thread.sleep(50);
+            wait++;
+        }
+        Assert.assertEquals(count, cache.getCompressedCount());
+        cache.backgroundProcess();
+        long size = cache.getSize();
+
+        // Room for the uncompressed content only
+        cache.setMaxSize(size - 10);
+        cache.backgroundProcess();
+        Assert.assertTrue(cache.getSize() <= cache.getMaxSize());
+        Assert.assertTrue(cache.getEvictionCount() > 0);
+
+        ExpandWar.delete(dir.toFile());
+    }
+
+
+    @Test
+    public void testNegativeCache() throws IOException {
+        Path classes = tempDir.resolve("WEB-INF/classes");
+        Files.createDirectories(classes);
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+
+        String path = "/WEB-INF/classes/Missing.class";
+        Assert.assertFalse(cache.getResource(path, true).exists());
+        Assert.assertFalse(cache.getResource(path, true).exists());
+        Assert.assertFalse(cache.getResource(path, false).exists());
+        Assert.assertEquals(3, cache.getNegativeLookupCount());
+        Assert.assertEquals(1, cache.getNegativeHitCount());
+        Assert.assertEquals(2, cache.getNegativeSize());
+
+        // Still cached until the entry is removed
+        Files.write(classes.resolve("Missing.class"), new byte[FILE_SIZE]);
+        Assert.assertFalse(cache.getResource(path, true).exists());
+        cache.removeCacheEntry(path);
+        Assert.assertEquals(0, cache.getNegativeSize());
+        Assert.assertTrue(cache.getResource(path, true).exists());
+        Assert.assertTrue(cache.getResource(path, false).exists());
+
+        // Resources that exist are not cached
+        Assert.assertEquals(0, cache.getNegativeSize());
+        Assert.assertEquals(2, cache.getNegativeHitCount());
+
+        cache.setNegativeMaxSize(1);
+        Assert.assertFalse(cache.getResource("/WEB-INF/classes/A.class", true).exists());
+        Assert.assertFalse(cache.getResource("/WEB-INF/classes/B.class", true).exists());
+        Assert.assertEquals(1, cache.getNegativeSize());
+
+        ExpandWar.delete(tempDir.resolve("WEB-INF").toFile());
+    }
+
+
+    @Test
+    public void testListingCache() throws IOException {
+        Path dir = tempDir.resolve("listing");
+        Files.createDirectories(dir);
+        Files.write(dir.resolve("a.txt"), new byte[0]);
+        TesterWebResourceRoot root = new TesterWebResourceRoot();
+        root.setMainResources(new DirResourceSet(root, "/", tempDir.toFile().getAbsolutePath(), "/"));
+        Cache cache = new Cache(root);
+
+        Assert.assertArrayEquals(new String[] { "a.txt" }, cache.list("/listing"));
+        Assert.assertEquals(Collections.singleton("/listing/a.txt"),
+                cache.listWebAppPaths("/listing"));
+        Assert.assertArrayEquals(new String[] { "a.txt" }, cache.list("/listing"));
+        Assert.assertEquals(3, cache.getListingLookupCount());
+        Assert.assertEquals(1, cache.getListingHitCount());
+        Assert.assertEquals(1, cache.getListingSize());
+
+        // Results may be modified by the caller
+        cache.listWebAppPaths("/listing").clear();
+        Assert.assertEquals(1, cache.listWebAppPaths("/listing").size());
+
+        // Still cached until an entry in the directory is removed
+        Files.write(dir.resolve("b.txt"), new byte[0]);
+        Assert.assertEquals(1, cache.list("/listing").length);
+        cache.removeCacheEntry("/listing/b.txt");
+        Assert.assertEquals(new HashSet<>(Arrays.asList("a.txt", "b.txt")),
+                new HashSet<>(Arrays.asList(cache.list("/listing"))));
+
+        // Empty directories
+        Assert.assertEquals(0, cache.list("/listing/missing").length);
+        Assert.assertNull(cache.listWebAppPaths("/listing/missing"));
+        Assert.assertNull(cache.listWebAppPaths("/listing/missing"));
+
+        // Expired listings are revalidated
+        cache.setTtl(0);
+        cache.clear();
+        cache.list("/listing");
+        Files.write(dir.resolve("c.txt"), new byte[0]);
+        Assert.assertEquals(3, cache.list("/listing").length);
+
+        ExpandWar.delete(dir.toFile());
+    }
+
+
+    @Test(expected=IllegalArgumentException.class)
+    public void testInvalidContentStorage() {
+        new Cache(new TesterWebResourceRoot()).setContentStorage("disk");
+    }
+
+
+    private static void getResource(Cache cache, String path) {
+        WebResource resource = cache.getResource(path, false);
+        Assert.assertTrue(resource.isFile());
+        Assert.assertEquals(FILE_SIZE, resource.getContent().length);
+    }
+}
@@ -16,6 +16,14 @@
  */
 package org.apache.coyote.http11;
 
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -23,6 +31,7 @@ import org.apache.catalina.Context;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
 
 public class TestHttp11OutputBuffer extends TomcatBaseTest {
 
@@ -56,6 +65,87 @@ public class TestHttp11OutputBuffer extends TomcatBaseTest {
         Assert.assertTrue(client.isResponseBodyOK());
     }
 
+    @Test
+    public void testLargeChunkedResponse() throws Exception {
+        doTestLargeResponse(false);
+    }
+
+
+    @Test
+    public void testLargeResponseWithContentLength() throws Exception {
+        doTestLargeResponse(true);
+    }
+
+
+    private void doTestLargeResponse(boolean contentLength) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        // Writes that are smaller than, larger than and much larger than the
+        // socket write buffer so both copied and gathering writes are used
+        int[] writes = new int[] { 100, 20000, 300000, 10, 70000 };
+        Tomcat.addServlet(ctx, "large", new LargeResponseServlet(writes, contentLength));
+        ctx.addServletMappingDecoded("/large", "large");
+
+        tomcat.start();
+
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/large", bc, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+
+        int total = 0;
+        for (int write : writes) {
+            total += write;
+        }
+        Assert.assertEquals(total, bc.getLength());
+        byte[] body = bc.getBytes();
+        for (int i = 0; i < total; i++) {
+            if (body[bc.getStart() + i] != (byte) i) {
+                Assert.fail("Unexpected byte at position [" + i + "]");
+            }
+        }
+    }
+
+
+    private static class LargeResponseServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] writes;
+        private final boolean contentLength;
+
+        public LargeResponseServlet(int[] writes, boolean contentLength) {
+            this.writes = writes;
+            this.contentLength = contentLength;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            int total = 0;
+            for (int write : writes) {
+                total += write;
+            }
+            resp.setContentType("application/octet-stream");
+            if (contentLength) {
+                resp.setContentLength(total);
+            }
+            OutputStream os = resp.getOutputStream();
+            int pos = 0;
+            for (int write : writes) {
+                byte[] data = new byte[write];
+                for (int i = 0; i < write; i++) {
+                    data[i] = (byte) pos++;
+                }
+                os.write(data);
+                os.flush();
+            }
+        }
+    }
+
+
     private static class ExpectationClient extends SimpleHttpClient {
 
         private static final String BODY = "foo=bar";
@@ -17,6 +17,7 @@
 package org.apache.coyote.http2;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -70,6 +71,128 @@ public class TestHpack {
         Assert.assertEquals("value2", headers2.getHeader("header2"));
     }
 
+    @Test
+    public void testEncodeDynamicNameReference() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders headers2 = new MimeHeaders();
+        decoder.setHeaderEmitter(new HeadersListener(headers2));
+
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue("x-custom-header").setString("value1");
+        ByteBuffer output = ByteBuffer.allocate(512);
+        encoder.encode(headers, output);
+        output.flip();
+        int firstSize = output.remaining();
+        decoder.decode(output);
+        Assert.assertEquals("value1", headers2.getHeader("x-custom-header"));
+
+        // The name is now in the dynamic table so only the value should be
+        // written
+        headers.setValue("x-custom-header").setString("value2");
+        output.clear();
+        encoder.encode(headers, output);
+        output.flip();
+        Assert.assertTrue(output.remaining() < firstSize);
+        headers2.recycle();
+        decoder.decode(output);
+        Assert.assertEquals("value2", headers2.getHeader("x-custom-header"));
+    }
+
+    @Test
+    public void testEncodeRepeatedLiteral() throws Exception {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        MimeHeaders headers2 = new MimeHeaders();
+        decoder.setHeaderEmitter(new HeadersListener(headers2));
+
+        String[] values = new String[] { "Wed, 11 Nov 2015 19:18:42 GMT",
+                "Wed, 11 Nov 2015 19:18:42 GMT", "Wed, 11 Nov 2015 19:18:42 GMT",
+                "Wed, 11 Nov 2015 19:18:43 GMT", "Wed, 11 Nov 2015 19:18:43 GMT",
+                "Wed, 11 Nov 2015 19:18:43 GMT" };
+        byte[] previous = null;
+        for (int i = 0; i < values.length; i++) {
+            // Date is never added to the dynamic table
+            MimeHeaders headers = new MimeHeaders();
+            headers.setValue("date").setString(values[i]);
+            ByteBuffer output = ByteBuffer.allocate(512);
+            encoder.encode(headers, output);
+            output.flip();
+            byte[] encoded = new byte[output.remaining()];
+            output.get(encoded);
+            if (previous != null && values[i].equals(values[i - 1])) {
+                Assert.assertArrayEquals(previous, encoded);
+            }
+            previous = encoded;
+
+            headers2.recycle();
+            decoder.decode(ByteBuffer.wrap(encoded));
+            Assert.assertEquals(values[i], headers2.getHeader("date"));
+        }
+    }
+
+    @Test
+    public void testDecodeBytes() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        // Neither header is added to the dynamic table so the values are
+        // passed as bytes
+        headers.setValue("date").setString("Wed, 11 Nov 2015 19:18:42 GMT");
+        headers.setValue("content-length").setString("f\u00e9");
+        ByteBuffer output = ByteBuffer.allocate(512);
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.encode(headers, output);
+        output.flip();
+
+        MimeHeaders headers2 = new MimeHeaders();
+        BytesHeadersListener listener = new BytesHeadersListener(headers2);
+        HpackDecoder decoder = new HpackDecoder();
+        decoder.setHeaderEmitter(listener);
+        decoder.decode(output);
+        Assert.assertEquals(2, listener.bytesCount);
+        Assert.assertEquals("Wed, 11 Nov 2015 19:18:42 GMT", headers2.getHeader("date"));
+        Assert.assertEquals("f\u00e9", headers2.getHeader("content-length"));
+    }
+
+    @Test
+    public void testDecodeLiteralStaticName() throws Exception {
+        // Literal header field without indexing, with a literal name that is
+        // in the static table
+        ByteBuffer input = ByteBuffer.allocate(32);
+        input.put((byte) 0);
+        input.put((byte) 10);
+        input.put("user-agent".getBytes(StandardCharsets.ISO_8859_1));
+        input.put((byte) 3);
+        input.put("abc".getBytes(StandardCharsets.ISO_8859_1));
+        input.flip();
+
+        MimeHeaders headers2 = new MimeHeaders();
+        BytesHeadersListener listener = new BytesHeadersListener(headers2);
+        HpackDecoder decoder = new HpackDecoder();
+        decoder.setHeaderEmitter(listener);
+        decoder.decode(input);
+        Assert.assertEquals("abc", headers2.getHeader("user-agent"));
+        Assert.assertSame(Hpack.STATIC_TABLE[58].name, listener.lastName);
+    }
+
+    private static class BytesHeadersListener extends HeadersListener
+            implements HpackDecoder.ByteHeaderEmitter {
+        private final MimeHeaders headers;
+        private int bytesCount = 0;
+        private String lastName;
+        public BytesHeadersListener(MimeHeaders headers) {
+            super(headers);
+            this.headers = headers;
+        }
+        @Override
+        public void emitHeader(String name, byte[] value, int offset, int length) {
+            bytesCount++;
+            lastName = name;
+            byte[] copy = new byte[length];
+            System.arraycopy(value, offset, copy, 0, length);
+            headers.addValue(name).setBytes(copy, 0, length);
+        }
+    }
+
     private static class HeadersListener implements HpackDecoder.HeaderEmitter {
         private final MimeHeaders headers;
         public HeadersListener(MimeHeaders headers) {
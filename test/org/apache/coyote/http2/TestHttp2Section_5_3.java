@@ -16,9 +16,16 @@
  */
 package org.apache.coyote.http2;
 
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import org.apache.tomcat.util.modeler.Registry;
+
 /**
  * Unit tests for Section 5.3 of
  * <a href="https://tools.ietf.org/html/rfc7540">RFC 7540</a>.
@@ -223,6 +230,17 @@ public class TestHttp2Section_5_3 extends Http2TestBase {
             // Debugging Gump failure
             log.info(output.getTrace());
         }
+
+        // Streams 19 and 21 were blocked by the connection window
+        MBeanServer mbeanServer = Registry.getRegistry(null, null).getMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=UpgradeProtocol,*"), null);
+        Assert.assertEquals(1, names.size());
+        ObjectName name = names.iterator().next();
+        Assert.assertTrue(((Long) mbeanServer.getAttribute(
+                name, "blockedStreamCount")).longValue() >= 2);
+        Assert.assertTrue(((Long) mbeanServer.getAttribute(
+                name, "backLogAllocatedBytes")).longValue() > 0);
     }
 
 
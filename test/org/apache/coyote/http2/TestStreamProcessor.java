@@ -16,7 +16,10 @@
  */
 package org.apache.coyote.http2;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.nio.ByteBuffer;
 
@@ -31,6 +34,7 @@ import org.junit.Test;
 
 import org.apache.catalina.Context;
 import org.apache.catalina.Wrapper;
+import org.apache.catalina.servlets.DefaultServlet;
 import org.apache.catalina.startup.Tomcat;
 
 public class TestStreamProcessor extends Http2TestBase {
@@ -111,6 +115,66 @@ public class TestStreamProcessor extends Http2TestBase {
     }
 
 
+    @Test
+    public void testSendfile() throws Exception {
+        enableHttp2();
+
+        Tomcat tomcat = getTomcatInstance();
+
+        // Larger than the default sendfile threshold of the DefaultServlet and
+        // the default flow control windows
+        int fileSize = 256 * 1024;
+        File docBase = new File(getTemporaryDirectory(), "h2-sendfile");
+        Assert.assertTrue(docBase.mkdirs());
+        addDeleteOnTearDown(docBase);
+        try (OutputStream os = new FileOutputStream(new File(docBase, "large.bin"))) {
+            byte[] data = new byte[1024];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = (byte) ('a' + i % 26);
+            }
+            for (int i = 0; i < fileSize / data.length; i++) {
+                os.write(data);
+            }
+        }
+
+        Context ctxt = tomcat.addContext("", docBase.getAbsolutePath());
+        Tomcat.addServlet(ctxt, "simple", new SimpleServlet());
+        ctxt.addServletMappingDecoded("/simple", "simple");
+        Tomcat.addServlet(ctxt, "default", new DefaultServlet());
+        ctxt.addServletMappingDecoded("/", "default");
+
+        tomcat.start();
+
+        openClientConnection();
+        doHttpUpgrade();
+        sendClientPreface();
+        validateHttp2InitialResponse();
+
+        byte[] frameHeader = new byte[9];
+        ByteBuffer headersPayload = ByteBuffer.allocate(128);
+        buildGetRequest(frameHeader, headersPayload, null, 3, "/large.bin");
+        writeFrame(frameHeader, headersPayload);
+
+        long start = output.getBytesRead();
+        while (!output.getTrace().contains("3-EndOfStream")) {
+            long before = output.getBytesRead();
+            parser.readFrame(true);
+            int read = (int) (output.getBytesRead() - before);
+            if (read > 0 && !output.getTrace().contains("3-EndOfStream")) {
+                // Keep the flow control windows open
+                sendWindowUpdate(0, read);
+                sendWindowUpdate(3, read);
+            }
+        }
+
+        Assert.assertEquals(fileSize, output.getBytesRead() - start);
+        String trace = output.getTrace();
+        // Frames written from the file are not limited by the size of the
+        // stream's output buffer
+        Assert.assertTrue(trace, trace.contains("3-Body-16384"));
+    }
+
+
     private static final class AsyncComplete extends HttpServlet {
 
         private static final long serialVersionUID = 1L;
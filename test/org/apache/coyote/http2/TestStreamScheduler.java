@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStreamScheduler {
+
+    @Test
+    public void testWeighting() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        Stream c = new Stream(Integer.valueOf(5), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(a, false, 4);
+        c.rePrioritise(a, false, 12);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(b, 8192);
+        scheduler.block(c, 8192);
+        Assert.assertEquals(16384, scheduler.getBacklogSize());
+        Assert.assertEquals(2, scheduler.getBlockedStreamCount());
+
+        List<AbstractStream> released = scheduler.release(1024);
+        Assert.assertEquals(2, released.size());
+        Assert.assertEquals(256, scheduler.useAllocation(b));
+        Assert.assertEquals(768, scheduler.useAllocation(c));
+        Assert.assertEquals(0, scheduler.useAllocation(c));
+        Assert.assertEquals(16384 - 1024, scheduler.getBacklogSize());
+    }
+
+
+    @Test
+    public void testSmallReservationSatisfiedFirst() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        Stream c = new Stream(Integer.valueOf(5), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(handler, false, 16);
+        c.rePrioritise(handler, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(a, 100);
+        scheduler.block(b, 5000);
+        scheduler.block(c, 5000);
+
+        // A only needs 100 so B and C share the rest equally
+        scheduler.release(3100);
+        Assert.assertEquals(100, scheduler.useAllocation(a));
+        Assert.assertEquals(1500, scheduler.useAllocation(b));
+        Assert.assertEquals(1500, scheduler.useAllocation(c));
+        Assert.assertEquals(2, scheduler.getBlockedStreamCount());
+        Assert.assertEquals(7000, scheduler.getBacklogSize());
+    }
+
+
+    @Test
+    public void testParentBeforeChildren() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        Stream c = new Stream(Integer.valueOf(5), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(a, false, 16);
+        c.rePrioritise(a, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(b, 1000);
+        scheduler.block(c, 1000);
+        scheduler.block(a, 1000);
+
+        scheduler.release(1500);
+        Assert.assertEquals(1000, scheduler.useAllocation(a));
+        Assert.assertEquals(250, scheduler.useAllocation(b));
+        Assert.assertEquals(250, scheduler.useAllocation(c));
+        Assert.assertEquals(1500, scheduler.getBacklogSize());
+    }
+
+
+    @Test
+    public void testRoundingShared() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(handler, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(a, 1000);
+        scheduler.block(b, 1000);
+
+        // Single byte updates must not always favour the same stream
+        int totalA = 0;
+        int totalB = 0;
+        for (int i = 0; i < 10; i++) {
+            scheduler.release(1);
+            totalA += scheduler.useAllocation(a);
+            totalB += scheduler.useAllocation(b);
+        }
+        Assert.assertEquals(5, totalA);
+        Assert.assertEquals(5, totalB);
+    }
+
+
+    @Test
+    public void testBlockAgainAfterPartialAllocation() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(handler, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(a, 10);
+        scheduler.block(b, 10);
+
+        // A is satisfied but remains in the heap of the connection
+        scheduler.release(19);
+        Assert.assertEquals(10, scheduler.useAllocation(a));
+        Assert.assertEquals(9, scheduler.useAllocation(b));
+
+        Assert.assertTrue(scheduler.block(a, 100));
+        Assert.assertEquals(101, scheduler.getBacklogSize());
+
+        // B only needs 1 so A gets the rest
+        scheduler.release(50);
+        Assert.assertEquals(49, scheduler.useAllocation(a));
+        Assert.assertEquals(1, scheduler.useAllocation(b));
+        Assert.assertEquals(51, scheduler.getBacklogSize());
+        Assert.assertEquals(1, scheduler.getBlockedStreamCount());
+
+        scheduler.release(51);
+        Assert.assertEquals(51, scheduler.useAllocation(a));
+        Assert.assertEquals(0, scheduler.getBacklogSize());
+    }
+
+
+    @Test
+    public void testReleaseAll() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(a, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(a, 1000);
+        scheduler.block(b, 1000);
+
+        List<AbstractStream> released = scheduler.release(5000);
+        Assert.assertEquals(2, released.size());
+        Assert.assertEquals(0, scheduler.getBacklogSize());
+        Assert.assertEquals(0, scheduler.getBlockedStreamCount());
+
+        // Streams can block again
+        Assert.assertTrue(scheduler.block(b, 10));
+        Assert.assertFalse(scheduler.block(b, 10));
+        Assert.assertEquals(10, scheduler.getBacklogSize());
+    }
+
+
+    @Test
+    public void testReprioritise() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(handler, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(a, 1000);
+        scheduler.block(b, 1000);
+
+        // New weight
+        b.rePrioritise(handler, false, 48);
+        scheduler.reprioritise(b);
+        scheduler.release(400);
+        Assert.assertEquals(100, scheduler.useAllocation(a));
+        Assert.assertEquals(300, scheduler.useAllocation(b));
+
+        // New parent. A is now allocated before B.
+        b.rePrioritise(a, false, 16);
+        scheduler.reprioritise(b);
+        Assert.assertEquals(1600, scheduler.getBacklogSize());
+        scheduler.release(1000);
+        Assert.assertEquals(900, scheduler.useAllocation(a));
+        Assert.assertEquals(100, scheduler.useAllocation(b));
+        Assert.assertEquals(600, scheduler.getBacklogSize());
+        Assert.assertEquals(1, scheduler.getBlockedStreamCount());
+    }
+
+
+    @Test
+    public void testReprioritiseUnderDescendant() {
+        Http2UpgradeHandler handler = new Http2UpgradeHandler(null, null, null);
+        Stream a = new Stream(Integer.valueOf(1), handler);
+        Stream b = new Stream(Integer.valueOf(3), handler);
+        Stream c = new Stream(Integer.valueOf(5), handler);
+        a.rePrioritise(handler, false, 16);
+        b.rePrioritise(a, false, 16);
+        c.rePrioritise(b, false, 16);
+
+        StreamScheduler scheduler = new StreamScheduler(handler);
+        scheduler.block(b, 1000);
+        scheduler.block(c, 1000);
+
+        // C moves to the top of the tree, above A and B
+        a.rePrioritise(c, false, 16);
+        scheduler.reprioritise(c);
+        scheduler.reprioritise(a);
+        scheduler.reprioritise(b);
+        Assert.assertEquals(2000, scheduler.getBacklogSize());
+
+        scheduler.release(1500);
+        Assert.assertEquals(1000, scheduler.useAllocation(c));
+        Assert.assertEquals(500, scheduler.useAllocation(b));
+        Assert.assertEquals(500, scheduler.getBacklogSize());
+        Assert.assertEquals(1, scheduler.getBlockedStreamCount());
+
+        scheduler.release(500);
+        Assert.assertEquals(500, scheduler.useAllocation(b));
+        Assert.assertEquals(0, scheduler.getBacklogSize());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http2;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Measures the throughput of the HPACK encoder and decoder for header sets
+ * typical of browser requests and of responses for dynamic content. Each run
+ * uses a new encoder / decoder pair to simulate a connection that processes
+ * a series of streams.
+ */
+public class TesterHpackPerformance {
+
+    private static final int STREAMS_PER_CONNECTION = 100;
+    private static final int CONNECTIONS = 20000;
+    private static final int RUNS = 5;
+
+
+    @Test
+    public void testEncodeResponseHeaders() throws Exception {
+        MimeHeaders[] headers = new MimeHeaders[STREAMS_PER_CONNECTION];
+        for (int i = 0; i < headers.length; i++) {
+            headers[i] = createResponseHeaders(i);
+        }
+        ByteBuffer target = ByteBuffer.allocate(8192);
+
+        for (int run = 0; run < RUNS; run++) {
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                HpackEncoder encoder = new HpackEncoder();
+                for (MimeHeaders h : headers) {
+                    target.clear();
+                    Assert.assertEquals(HpackEncoder.State.COMPLETE, encoder.encode(h, target));
+                    bytes += target.position();
+                }
+            }
+            long duration = System.nanoTime() - start;
+            report("Encode", bytes, duration);
+        }
+    }
+
+
+    @Test
+    public void testDecodeRequestHeaders() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        doTestDecodeRequestHeaders("Decode", headers, new HeadersListener(headers));
+    }
+
+
+    @Test
+    public void testDecodeRequestHeadersAsBytes() throws Exception {
+        MimeHeaders headers = new MimeHeaders();
+        doTestDecodeRequestHeaders("Decode (bytes)", headers, new BytesHeadersListener(headers));
+    }
+
+
+    private void doTestDecodeRequestHeaders(String name, MimeHeaders headers,
+            HpackDecoder.HeaderEmitter listener) throws Exception {
+        // Encode the requests once. Decoding them in the same order with a
+        // new decoder reproduces the dynamic table state of a connection.
+        HpackEncoder encoder = new HpackEncoder();
+        byte[][] encoded = new byte[STREAMS_PER_CONNECTION][];
+        ByteBuffer target = ByteBuffer.allocate(8192);
+        for (int i = 0; i < encoded.length; i++) {
+            target.clear();
+            encoder.encode(createRequestHeaders(i), target);
+            target.flip();
+            encoded[i] = new byte[target.remaining()];
+            target.get(encoded[i]);
+        }
+
+        for (int run = 0; run < RUNS; run++) {
+            long bytes = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                HpackDecoder decoder = new HpackDecoder();
+                decoder.setHeaderEmitter(listener);
+                for (byte[] e : encoded) {
+                    headers.recycle();
+                    decoder.decode(ByteBuffer.wrap(e));
+                    bytes += e.length;
+                }
+            }
+            long duration = System.nanoTime() - start;
+            report(name, bytes, duration);
+        }
+    }
+
+
+    private static void report(String name, long bytes, long duration) {
+        long headerBlocks = (long) CONNECTIONS * STREAMS_PER_CONNECTION;
+        System.out.println(name + " of " + headerBlocks + " header blocks (" + bytes +
+                " bytes) took " + duration / 1000000 + "ms, " +
+                duration / headerBlocks + "ns per header block");
+    }
+
+
+    private static MimeHeaders createResponseHeaders(int stream) {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue(":status").setString("200");
+        headers.setValue("content-type").setString("text/html;charset=UTF-8");
+        headers.setValue("content-length").setString(Integer.toString(1000 + stream * 37));
+        headers.setValue("date").setString("Wed, 11 Nov 2015 19:18:4" + (stream / 50) + " GMT");
+        headers.setValue("server").setString("Apache-Coyote/1.1");
+        headers.setValue("cache-control").setString("private, max-age=0");
+        headers.setValue("vary").setString("accept-encoding");
+        headers.setValue("content-language").setString("en-US");
+        headers.setValue("x-request-id").setString("5f2b8c1e-" + (10000 + stream));
+        if (stream % 10 == 0) {
+            headers.setValue("set-cookie").setString(
+                    "JSESSIONID=0123456789ABCDEF" + stream + "; Path=/; HttpOnly");
+        }
+        return headers;
+    }
+
+
+    private static MimeHeaders createRequestHeaders(int stream) {
+        MimeHeaders headers = new MimeHeaders();
+        headers.setValue(":method").setString("GET");
+        headers.setValue(":scheme").setString("https");
+        headers.setValue(":authority").setString("www.example.org");
+        headers.setValue(":path").setString("/app/resources/item" + stream + ".html?view=full");
+        headers.setValue("user-agent").setString("Mozilla/5.0 (X11; Linux x86_64; rv:64.0) " +
+                "Gecko/20100101 Firefox/64.0");
+        headers.setValue("accept").setString(
+                "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        headers.setValue("accept-language").setString("en-US,en;q=0.5");
+        headers.setValue("accept-encoding").setString("gzip, deflate, br");
+        headers.setValue("referer").setString("https://www.example.org/app/index.html");
+        headers.setValue("cookie").setString("JSESSIONID=0123456789ABCDEF0123456789ABCDEF");
+        return headers;
+    }
+
+
+    private static class HeadersListener implements HpackDecoder.HeaderEmitter {
+        private final MimeHeaders headers;
+        public HeadersListener(MimeHeaders headers) {
+            this.headers = headers;
+        }
+        @Override
+        public void emitHeader(String name, String value) {
+            headers.addValue(name).setString(value);
+        }
+        @Override
+        public void setHeaderException(StreamException streamException) {
+            // NO-OP
+        }
+        @Override
+        public void validateHeaders() throws StreamException {
+            // NO-OP
+        }
+    }
+
+
+    private static class BytesHeadersListener extends HeadersListener
+            implements HpackDecoder.ByteHeaderEmitter {
+        private final MimeHeaders headers;
+        private final byte[] values = new byte[4096];
+        private int valuesUsed = 0;
+        public BytesHeadersListener(MimeHeaders headers) {
+            super(headers);
+            this.headers = headers;
+        }
+        @Override
+        public void emitHeader(String name, byte[] value, int offset, int length) {
+            if (headers.size() == 0) {
+                valuesUsed = 0;
+            }
+            System.arraycopy(value, offset, values, valuesUsed, length);
+            headers.addValue(name).setBytes(values, valuesUsed, length);
+            valuesUsed += length;
+        }
+    }
+}
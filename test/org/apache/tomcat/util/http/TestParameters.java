@@ -82,8 +82,32 @@ public class TestParameters {
         Assert.assertEquals("foo4=", EMPTY_VALUE.toString());
     }
 
+    @Test
+    public void testProcessParametersByteArrayIntIntLazy() {
+        doTestProcessParametersByteArrayIntInt(true, -1, SIMPLE);
+        doTestProcessParametersByteArrayIntInt(true, -1, SIMPLE_MULTIPLE);
+        doTestProcessParametersByteArrayIntInt(true, -1, NO_VALUE);
+        doTestProcessParametersByteArrayIntInt(true, -1, EMPTY_VALUE);
+        doTestProcessParametersByteArrayIntInt(true, -1, EMPTY);
+        doTestProcessParametersByteArrayIntInt(true, -1, UTF8);
+        doTestProcessParametersByteArrayIntInt(true, -1,
+                SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY, UTF8);
+        doTestProcessParametersByteArrayIntInt(true, -1,
+                UTF8, SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY);
+
+        doTestProcessParametersByteArrayIntInt(true, 1,
+                SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
+        doTestProcessParametersByteArrayIntInt(true, 3,
+                SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
+    }
+
     private long doTestProcessParametersByteArrayIntInt(int limit,
             Parameter... parameters) {
+        return doTestProcessParametersByteArrayIntInt(false, limit, parameters);
+    }
+
+    private long doTestProcessParametersByteArrayIntInt(boolean lazy, int limit,
+            Parameter... parameters) {
 
         // Build the byte array
         StringBuilder input = new StringBuilder();
@@ -102,21 +126,117 @@ public class TestParameters {
         Parameters p = new Parameters();
         p.setCharset(StandardCharsets.UTF_8);
         p.setLimit(limit);
+        p.setLazy(lazy);
 
         long start = System.nanoTime();
         p.processParameters(data, 0, data.length);
         long end = System.nanoTime();
 
+        Parameter[] expected;
         if (limit == -1) {
-            validateParameters(parameters, p);
+            expected = parameters;
         } else {
-            Parameter[] limitParameters = new Parameter[limit];
-            System.arraycopy(parameters, 0, limitParameters, 0, limit);
-            validateParameters(limitParameters, p);
+            expected = new Parameter[limit];
+            System.arraycopy(parameters, 0, expected, 0, limit);
+        }
+        if (lazy) {
+            // Look up by name before all the parameters are decoded
+            validateParametersByName(expected, p);
         }
+        validateParameters(expected, p);
         return end - start;
     }
 
+
+    @Test
+    public void testLazyOrder() {
+        byte[] data = "a=1&b=2&a=3&c=4".getBytes(StandardCharsets.ISO_8859_1);
+
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.processParameters(data, 0, data.length);
+
+        Assert.assertEquals("2", p.getParameter("b"));
+        Assert.assertArrayEquals(new String[] {"1", "3"}, p.getParameterValues("a"));
+        Assert.assertNull(p.getParameter("d"));
+
+        // Parameters added directly follow the parsed parameters
+        p.addParameter("d", "5");
+        p.addParameter("a", "6");
+        Assert.assertArrayEquals(new String[] {"1", "3", "6"}, p.getParameterValues("a"));
+
+        Enumeration<String> names = p.getParameterNames();
+        Assert.assertEquals("a", names.nextElement());
+        Assert.assertEquals("b", names.nextElement());
+        Assert.assertEquals("c", names.nextElement());
+        Assert.assertEquals("d", names.nextElement());
+        Assert.assertFalse(names.hasMoreElements());
+    }
+
+
+    @Test
+    public void testLazyEncodedNames() {
+        byte[] data = "a%62c=1&abc=2&x+y=%20z&%C3%A9=%C3%A8".getBytes(
+                StandardCharsets.ISO_8859_1);
+
+        Parameters p = new Parameters();
+        p.setCharset(StandardCharsets.UTF_8);
+        p.setLazy(true);
+        p.processParameters(data, 0, data.length);
+
+        Assert.assertArrayEquals(new String[] {"1", "2"}, p.getParameterValues("abc"));
+        Assert.assertEquals(" z", p.getParameter("x y"));
+        Assert.assertEquals("\u00e8", p.getParameter("\u00e9"));
+        // Repeated look-ups must not decode the same bytes twice
+        Assert.assertEquals(" z", p.getParameter("x y"));
+        Assert.assertArrayEquals(new String[] {"1", "2"}, p.getParameterValues("abc"));
+    }
+
+
+    @Test
+    public void testLazyDecodeFailure() {
+        byte[] data = "a=1&b=%zz&c=3".getBytes(StandardCharsets.ISO_8859_1);
+
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.processParameters(data, 0, data.length);
+
+        // Decoding is deferred so the failure is only detected on use
+        Assert.assertFalse(p.isParseFailed());
+        Assert.assertEquals("1", p.getParameter("a"));
+        Assert.assertFalse(p.isParseFailed());
+        Assert.assertNull(p.getParameter("b"));
+        Assert.assertTrue(p.isParseFailed());
+        Assert.assertEquals(Parameters.FailReason.URL_DECODING, p.getParseFailedReason());
+        Assert.assertEquals("3", p.getParameter("c"));
+
+        p.recycle();
+        Assert.assertNull(p.getParameter("a"));
+        Assert.assertFalse(p.isParseFailed());
+    }
+
+
+    @Test
+    public void testLazyLimit() {
+        byte[] data = "a=1&b=2&c=3".getBytes(StandardCharsets.ISO_8859_1);
+
+        Parameters p = new Parameters();
+        p.setLazy(true);
+        p.setLimit(2);
+        p.processParameters(data, 0, data.length);
+
+        Assert.assertEquals(Parameters.FailReason.TOO_MANY_PARAMETERS,
+                p.getParseFailedReason());
+        Assert.assertEquals("2", p.getParameter("b"));
+        Assert.assertNull(p.getParameter("c"));
+        try {
+            p.addParameter("d", "4");
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+    }
+
     @Test
     public void testNonExistantParameter() {
         Parameters p = new Parameters();
@@ -240,6 +360,20 @@ public class TestParameters {
 
     }
 
+    private void validateParametersByName(Parameter[] parameters, Parameters p) {
+        for (Parameter parameter : parameters) {
+            if (parameter.getName() == null || parameter.getName().length() == 0) {
+                continue;
+            }
+            String[] values = p.getParameterValues(parameter.getName());
+            if (parameter.values.length == 0) {
+                Assert.assertArrayEquals(new String[] {""}, values);
+            } else {
+                Assert.assertArrayEquals(parameter.getValues(), values);
+            }
+        }
+    }
+
     private void validateParameters(Parameter[] parameters, Parameters p) {
         Enumeration<String> names = p.getParameterNames();
 
@@ -32,21 +32,27 @@ public class TesterParametersPerformance {
     @Test
     public void testProcessParametersByteArrayIntInt() {
         LogManager.getLogManager().getLogger("").setLevel(Level.OFF);
-        doTestProcessParametersMultiple("foo".getBytes());
+        doTestProcessParametersMultiple("foo".getBytes(), false);
     }
 
-    private void doTestProcessParametersMultiple(byte[] input) {
-        System.out.println(doTestProcessParameters(input, 10000));
-        System.out.println(doTestProcessParameters(input, 20000));
-        System.out.println(doTestProcessParameters(input, 40000));
-        System.out.println(doTestProcessParameters(input, 80000));
-        System.out.println(doTestProcessParameters(input, 160000));
-        System.out.println(doTestProcessParameters(input, 320000));
-        System.out.println(doTestProcessParameters(input, 640000));
-        System.out.println(doTestProcessParameters(input, 1280000));
+    @Test
+    public void testProcessParametersByteArrayIntIntLazy() {
+        LogManager.getLogManager().getLogger("").setLevel(Level.OFF);
+        doTestProcessParametersMultiple("foo".getBytes(), true);
+    }
+
+    private void doTestProcessParametersMultiple(byte[] input, boolean lazy) {
+        System.out.println(doTestProcessParameters(input, 10000, lazy));
+        System.out.println(doTestProcessParameters(input, 20000, lazy));
+        System.out.println(doTestProcessParameters(input, 40000, lazy));
+        System.out.println(doTestProcessParameters(input, 80000, lazy));
+        System.out.println(doTestProcessParameters(input, 160000, lazy));
+        System.out.println(doTestProcessParameters(input, 320000, lazy));
+        System.out.println(doTestProcessParameters(input, 640000, lazy));
+        System.out.println(doTestProcessParameters(input, 1280000, lazy));
     }
 
-    private long doTestProcessParameters(byte[] input, int size) {
+    private long doTestProcessParameters(byte[] input, int size, boolean lazy) {
         Assert.assertEquals(input.length, 3);
 
         Parameters p = new Parameters();
@@ -54,8 +60,11 @@ public class TesterParametersPerformance {
         byte[] params = createParams(input, size);
         //byte[] input = createParams(8);
         p.setCharset(StandardCharsets.ISO_8859_1);
+        p.setLazy(lazy);
         long start = System.nanoTime();
         p.processParameters(params, 0, params.length);
+        // Lazy parsing defers the work until a parameter is requested
+        p.getParameter("foo");
         return System.nanoTime() - start;
     }
 
@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+
+/**
+ * Test cases for the poller affinity mode of the {@link NioEndpoint}.
+ */
+public class TestNioEndpointPollerAffinity extends TomcatBaseTest {
+
+    @Test
+    public void testRequestsRunOnPollerStripe() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandler().getClass().getName().contains("Nio") &&
+                !connector.getProtocolHandler().getClass().getName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("pollerAffinity", "true"));
+        Assert.assertTrue(connector.setProperty("pollerThreadCount", "2"));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "thread", new ThreadNameServlet());
+        root.addServletMappingDecoded("/", "thread");
+
+        tomcat.start();
+
+        for (int i = 0; i < 4; i++) {
+            ByteChunk bc = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/", bc, null, null);
+            Assert.assertEquals(200, rc);
+            Assert.assertTrue(bc.toString(), bc.toString().contains("-ClientPoller-"));
+        }
+    }
+
+
+    @Test
+    public void testThreadLimitsDivided() throws Exception {
+        NioEndpoint endpoint = new NioEndpoint();
+        endpoint.setName("testThreadLimitsDivided");
+        endpoint.setPort(0);
+        endpoint.setHandler(new NoOpHandler());
+        endpoint.setPollerAffinity(true);
+        endpoint.setPollerThreadCount(2);
+        endpoint.setMaxThreads(31);
+        endpoint.setMinSpareThreads(9);
+        endpoint.start();
+        try {
+            // One share for each poller and for the shared executor
+            ThreadPoolExecutor shared = (ThreadPoolExecutor) endpoint.getExecutor();
+            Assert.assertEquals(11, shared.getMaximumPoolSize());
+            Assert.assertEquals(3, shared.getCorePoolSize());
+
+            endpoint.setMaxThreads(60);
+            Assert.assertEquals(20, shared.getMaximumPoolSize());
+
+            // Never more than the maximum of the shared executor
+            endpoint.setMinSpareThreads(60);
+            Assert.assertEquals(20, shared.getCorePoolSize());
+            endpoint.setMaxThreads(6);
+            Assert.assertEquals(2, shared.getMaximumPoolSize());
+            Assert.assertEquals(2, shared.getCorePoolSize());
+        } finally {
+            endpoint.stop();
+            endpoint.destroy();
+        }
+    }
+
+
+    private static class NoOpHandler implements AbstractEndpoint.Handler<NioChannel> {
+
+        @Override
+        public SocketState process(SocketWrapperBase<NioChannel> socket, SocketEvent status) {
+            return SocketState.CLOSED;
+        }
+
+        @Override
+        public Object getGlobal() {
+            return null;
+        }
+
+        @Override
+        public Set<NioChannel> getOpenSockets() {
+            return Collections.emptySet();
+        }
+
+        @Override
+        public void release(SocketWrapperBase<NioChannel> socketWrapper) {
+            // NO-OP
+        }
+
+        @Override
+        public void pause() {
+            // NO-OP
+        }
+
+        @Override
+        public void recycle() {
+            // NO-OP
+        }
+    }
+
+
+    private static class ThreadNameServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            PrintWriter pw = resp.getWriter();
+            pw.print(Thread.currentThread().getName());
+        }
+    }
+}
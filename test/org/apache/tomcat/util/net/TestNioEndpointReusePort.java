@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.TesterServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.compat.JreCompat;
+
+/**
+ * Test cases for the SO_REUSEPORT sharding of the {@link NioEndpoint}.
+ */
+public class TestNioEndpointReusePort extends TomcatBaseTest {
+
+    private static final int SHARDS = 4;
+
+    @Test
+    public void testShardedRequests() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandler().getClass().getName().contains("Nio") &&
+                !connector.getProtocolHandler().getClass().getName().contains("Nio2"));
+        Assume.assumeTrue(JreCompat.isJre9Available());
+
+        Assert.assertTrue(connector.setProperty("reusePortCount", Integer.toString(SHARDS)));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "tester", new TesterServlet());
+        root.addServletMappingDecoded("/", "tester");
+
+        tomcat.start();
+
+        // Use enough connections that all the shards are very likely to be hit
+        for (int i = 0; i < SHARDS * 8; i++) {
+            ByteChunk bc = new ByteChunk();
+            int rc = getUrl("http://localhost:" + getPort() + "/", bc, null, null);
+            Assert.assertEquals(200, rc);
+            Assert.assertEquals("OK", bc.toString());
+        }
+
+        // Make sure every shard can be stopped and restarted
+        connector.stop();
+        connector.start();
+
+        ByteChunk bc = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/", bc, null, null);
+        Assert.assertEquals(200, rc);
+    }
+}
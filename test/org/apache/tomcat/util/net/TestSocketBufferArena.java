@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.SimpleHttpClient;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestSocketBufferArena extends TomcatBaseTest {
+
+    @Test
+    public void testSlabAllocation() {
+        SocketBufferArena arena = new SocketBufferArena(1024, 4, true);
+        Assert.assertEquals(0, arena.getAllocatedBytes());
+
+        ByteBuffer[] buffers = new ByteBuffer[5];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = arena.borrow();
+            Assert.assertTrue(buffers[i].isDirect());
+            Assert.assertEquals(1024, buffers[i].capacity());
+            Assert.assertEquals(1024, buffers[i].remaining());
+        }
+        Assert.assertEquals(8 * 1024, arena.getAllocatedBytes());
+        Assert.assertEquals(5, arena.getBorrowedCount());
+
+        // Buffers must not overlap
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i].put(0, (byte) i);
+            buffers[i].put(1023, (byte) i);
+        }
+        for (int i = 0; i < buffers.length; i++) {
+            Assert.assertEquals(i, buffers[i].get(0));
+            Assert.assertEquals(i, buffers[i].get(1023));
+        }
+
+        for (ByteBuffer buffer : buffers) {
+            arena.giveBack(buffer);
+        }
+        Assert.assertEquals(0, arena.getBorrowedCount());
+        Assert.assertEquals(5, arena.getPeakBorrowedCount());
+
+        // Returned buffers are re-used and cleared
+        buffers[0].position(10);
+        ByteBuffer buffer = arena.borrow();
+        Assert.assertEquals(0, buffer.position());
+        Assert.assertEquals(1024, buffer.limit());
+        Assert.assertEquals(8 * 1024, arena.getAllocatedBytes());
+    }
+
+
+    @Test
+    public void testHandlerLendsOnlyWhenRequired() {
+        SocketBufferArena arena = new SocketBufferArena(1024, 4, false);
+        SocketBufferHandler handler = new SocketBufferHandler(arena, arena);
+
+        Assert.assertTrue(handler.isReadBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferWritable());
+        handler.configureReadBufferForRead();
+        handler.configureWriteBufferForRead();
+        Assert.assertEquals(0, arena.getBorrowedCount());
+
+        // Buffer borrowed in read mode must be empty
+        Assert.assertEquals(0, handler.getReadBuffer().remaining());
+        Assert.assertEquals(1, arena.getBorrowedCount());
+
+        handler.configureReadBufferForWrite();
+        handler.getReadBuffer().put((byte) 'a');
+        handler.configureWriteBufferForWrite();
+        handler.getWriteBuffer().put((byte) 'b');
+        Assert.assertEquals(2, arena.getBorrowedCount());
+
+        // Buffers with data must be kept
+        Assert.assertFalse(handler.releaseBuffers());
+        Assert.assertEquals(2, arena.getBorrowedCount());
+
+        handler.configureReadBufferForRead();
+        Assert.assertEquals('a', handler.getReadBuffer().get());
+        handler.configureWriteBufferForRead();
+        Assert.assertEquals('b', handler.getWriteBuffer().get());
+        Assert.assertTrue(handler.releaseBuffers());
+        Assert.assertEquals(0, arena.getBorrowedCount());
+        Assert.assertTrue(handler.isReadBufferEmpty());
+        Assert.assertTrue(handler.isWriteBufferEmpty());
+
+        handler.getWriteBuffer();
+        handler.reset();
+        Assert.assertEquals(0, arena.getBorrowedCount());
+    }
+
+
+    @Test
+    public void testHandlerExpand() {
+        SocketBufferArena arena = new SocketBufferArena(1024, 4, true);
+        SocketBufferHandler handler = new SocketBufferHandler(arena, arena);
+
+        handler.configureReadBufferForWrite();
+        handler.getReadBuffer().put((byte) 'a');
+        handler.expand(4096);
+        Assert.assertEquals(0, arena.getBorrowedCount());
+        Assert.assertEquals(4096, handler.getReadBuffer().capacity());
+        Assert.assertEquals(4096, handler.getWriteBuffer().capacity());
+        handler.configureReadBufferForRead();
+        Assert.assertEquals('a', handler.getReadBuffer().get());
+
+        // Expanded buffers are no longer lent by the arena
+        Assert.assertFalse(handler.releaseBuffers());
+        Assert.assertEquals(0, arena.getBorrowedCount());
+    }
+
+
+    @Test
+    public void testKeepAliveConnectionReleasesBuffers() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = tomcat.getConnector();
+        Assume.assumeTrue("This test is only relevant for NIO",
+                connector.getProtocolHandler().getClass().getName().contains("Nio") &&
+                !connector.getProtocolHandler().getClass().getName().contains("Nio2"));
+
+        Assert.assertTrue(connector.setProperty("socket.bufferArena", "true"));
+        Assert.assertTrue(connector.setProperty("socket.directBuffer", "true"));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "hello", new HelloWorldServlet());
+        root.addServletMappingDecoded("/", "hello");
+
+        tomcat.start();
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=ThreadPool,*"), null);
+        ObjectName threadPool = null;
+        for (ObjectName name : names) {
+            if (name.getKeyProperty("subType") == null &&
+                    Integer.valueOf(getPort()).equals(
+                    mbeanServer.getAttribute(name, "localPort"))) {
+                threadPool = name;
+            }
+        }
+        Assert.assertNotNull(threadPool);
+
+        Client client = new Client(getPort());
+        client.connect();
+        for (int i = 0; i < 3; i++) {
+            client.processRequest();
+            Assert.assertTrue(client.isResponse200());
+            Assert.assertTrue(client.isResponseBodyOK());
+
+            // The connection is still open but idle so no buffers should be
+            // borrowed once the request has been completed
+            int count = 0;
+            while (count < 50 && ((Integer) mbeanServer.getAttribute(
+                    threadPool, "bufferArenaBorrowedCount")).intValue() > 0) {
+                Thread.sleep(100);
+                count++;
+            }
+            Assert.assertEquals(Integer.valueOf(0),
+                    mbeanServer.getAttribute(threadPool, "bufferArenaBorrowedCount"));
+        }
+        client.disconnect();
+
+        Assert.assertTrue(((Long) mbeanServer.getAttribute(
+                threadPool, "bufferArenaAllocatedBytes")).longValue() > 0);
+        Assert.assertTrue(((Integer) mbeanServer.getAttribute(
+                threadPool, "bufferArenaPeakBorrowedCount")).intValue() > 0);
+    }
+
+
+    private static class Client extends SimpleHttpClient {
+
+        public Client(int port) {
+            setPort(port);
+            setRequest(new String[] {
+                    "GET / HTTP/1.1" + CRLF +
+                    "Host: localhost" + CRLF +
+                    CRLF });
+            setUseContentLength(true);
+        }
+
+        @Override
+        public boolean isResponseBodyOK() {
+            return getResponseBody().contains("Hello World");
+        }
+    }
+}
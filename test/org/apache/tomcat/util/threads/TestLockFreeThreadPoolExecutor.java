@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLockFreeThreadPoolExecutor {
+
+    @Test
+    public void testManyProducers() throws Exception {
+        final LockFreeThreadPoolExecutor executor = new LockFreeThreadPoolExecutor(
+                2, 8, 60, TimeUnit.SECONDS, Integer.MAX_VALUE,
+                new TaskThreadFactory("lf-test-", true, Thread.NORM_PRIORITY));
+
+        final int producers = 4;
+        final int tasksPerProducer = 10000;
+        final AtomicInteger counter = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(producers * tasksPerProducer);
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < tasksPerProducer; j++) {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                counter.incrementAndGet();
+                                done.countDown();
+                            }
+                        });
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(producers * tasksPerProducer, counter.get());
+        Assert.assertTrue(executor.getPoolSize() <= 8);
+        Assert.assertTrue(executor.getLargestPoolSize() >= 2);
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(producers * tasksPerProducer, executor.getCompletedTaskCount());
+    }
+
+
+    @Test
+    public void testGrowBeforeQueue() throws Exception {
+        LockFreeThreadPoolExecutor executor = new LockFreeThreadPoolExecutor(
+                0, 4, 60, TimeUnit.SECONDS, 1,
+                new TaskThreadFactory("lf-test-", true, Thread.NORM_PRIORITY));
+
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+        };
+
+        try {
+            for (int i = 0; i < 4; i++) {
+                executor.execute(blocker);
+            }
+            // All four tasks must be running, rather than queued
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(4, executor.getPoolSize());
+            Assert.assertEquals(4, executor.getActiveCount());
+
+            // One more fits in the queue
+            executor.execute(blocker);
+            Assert.assertEquals(1, executor.getQueueSize());
+
+            try {
+                executor.execute(blocker);
+                Assert.fail();
+            } catch (RejectedExecutionException expected) {
+                // Expected
+            }
+        } finally {
+            release.countDown();
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(5, executor.getCompletedTaskCount());
+    }
+
+
+    @Test
+    public void testIdleThreadsExit() throws Exception {
+        LockFreeThreadPoolExecutor executor = new LockFreeThreadPoolExecutor(
+                1, 4, 50, TimeUnit.MILLISECONDS, Integer.MAX_VALUE,
+                new TaskThreadFactory("lf-test-", true, Thread.NORM_PRIORITY));
+        executor.setSpinCount(0);
+
+        final CountDownLatch done = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        Assert.assertEquals(4, executor.getPoolSize());
+        release.countDown();
+        Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        int count = 0;
+        while (executor.getPoolSize() > 1 && count < 100) {
+            Thread.sleep(50);
+            count++;
+        }
+        Assert.assertEquals(1, executor.getPoolSize());
+
+        executor.shutdownNow();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+
+    @Test
+    public void testPrestartAndForce() throws Exception {
+        LockFreeThreadPoolExecutor executor = new LockFreeThreadPoolExecutor(
+                2, 2, 60, TimeUnit.SECONDS, 1,
+                new TaskThreadFactory("lf-test-", true, Thread.NORM_PRIORITY));
+        // Threads are only started on demand unless requested
+        Assert.assertEquals(0, executor.getPoolSize());
+        Assert.assertEquals(2, executor.prestartAllCoreThreads());
+        Assert.assertEquals(2, executor.getPoolSize());
+
+        final Semaphore started = new Semaphore(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blocker = new Runnable() {
+            @Override
+            public void run() {
+                started.release();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+        };
+
+        try {
+            // One at a time so the queue, which only has room for one task, is
+            // never full
+            for (int i = 0; i < 2; i++) {
+                executor.execute(blocker);
+                Assert.assertTrue(started.tryAcquire(10, TimeUnit.SECONDS));
+            }
+
+            // Queued if there is space
+            Assert.assertTrue(executor.force(blocker));
+            Assert.assertEquals(1, executor.getQueueSize());
+            Assert.assertFalse(executor.force(blocker));
+        } finally {
+            release.countDown();
+        }
+
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(3, executor.getCompletedTaskCount());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.tomcat.util.compat.JreCompat;
+
+public class TestVirtualThreadExecutor {
+
+    @Test
+    public void testStatistics() throws Exception {
+        VirtualThreadExecutor executor = createExecutor();
+
+        final CountDownLatch started = new CountDownLatch(10);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 10; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                }
+            });
+        }
+
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        Assert.assertEquals(10, executor.getPoolSize());
+        Assert.assertEquals(10, executor.getLargestPoolSize());
+
+        int count = 0;
+        while (executor.getParkedCount() < 10 && count < 100) {
+            Thread.sleep(50);
+            count++;
+        }
+        Assert.assertEquals(10, executor.getParkedCount());
+        Assert.assertEquals(0, executor.getActiveCount());
+
+        release.countDown();
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(0, executor.getPoolSize());
+        Assert.assertEquals(10, executor.getCompletedTaskCount());
+    }
+
+
+    @Test(expected=RejectedExecutionException.class)
+    public void testRejectAfterShutdown() {
+        VirtualThreadExecutor executor = createExecutor();
+        executor.shutdown();
+        Assert.assertTrue(executor.isTerminated());
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // NO-OP
+            }
+        });
+    }
+
+
+    @Test
+    public void testShutdownNowInterrupts() throws Exception {
+        VirtualThreadExecutor executor = createExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                started.countDown();
+                try {
+                    Thread.sleep(60000);
+                } catch (InterruptedException e) {
+                    // Expected
+                }
+            }
+        });
+        Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+        executor.shutdownNow();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    }
+
+
+    /*
+     * Use virtual threads where the JRE supports them. The executor behaves
+     * the same way with platform threads.
+     */
+    private static VirtualThreadExecutor createExecutor() {
+        if (VirtualThreadExecutor.isSupported()) {
+            Assert.assertTrue(JreCompat.isJre21Available());
+            return new VirtualThreadExecutor("test-virt-");
+        }
+        return new VirtualThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r);
+            }
+        });
+    }
+}
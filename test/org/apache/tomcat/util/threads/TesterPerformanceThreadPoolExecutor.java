@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Compares the throughput of the standard connector executor with the
+ * lock-free implementation when many threads submit short tasks, as the
+ * Poller threads do under load.
+ */
+public class TesterPerformanceThreadPoolExecutor {
+
+    private static final int PRODUCER_COUNT = 8;
+    private static final int WORKER_COUNT = 16;
+    private static final int ITERATIONS = 250000;
+    private static final int RUNS = 5;
+
+
+    @Test
+    public void testThreadPoolExecutor() throws Exception {
+        TaskQueue taskqueue = new TaskQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT,
+                60, TimeUnit.SECONDS, taskqueue,
+                new TaskThreadFactory("tpe-", true, Thread.NORM_PRIORITY));
+        taskqueue.setParent(executor);
+        try {
+            doTest("ThreadPoolExecutor", executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testLockFreeThreadPoolExecutor() throws Exception {
+        LockFreeThreadPoolExecutor executor = new LockFreeThreadPoolExecutor(WORKER_COUNT,
+                WORKER_COUNT, 60, TimeUnit.SECONDS, Integer.MAX_VALUE,
+                new TaskThreadFactory("lf-", true, Thread.NORM_PRIORITY));
+        executor.prestartAllCoreThreads();
+        try {
+            doTest("LockFreeThreadPoolExecutor", executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private void doTest(String name, Executor executor) throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            CountDownLatch done = new CountDownLatch(PRODUCER_COUNT * ITERATIONS);
+            Thread[] threads = new Thread[PRODUCER_COUNT];
+            for (int i = 0; i < PRODUCER_COUNT; i++) {
+                threads[i] = new ProducerThread(executor, done);
+            }
+
+            long start = System.nanoTime();
+
+            for (int i = 0; i < PRODUCER_COUNT; i++) {
+                threads[i].start();
+            }
+            done.await();
+
+            long end = System.nanoTime();
+
+            System.out.println(name + ": run [" + run + "] " +
+                    TimeUnit.NANOSECONDS.toMillis(end - start) + "ms, " +
+                    ((long) PRODUCER_COUNT * ITERATIONS * 1000000000L / (end - start)) + " tasks/s");
+        }
+    }
+
+
+    private static class ProducerThread extends Thread {
+
+        private final Executor executor;
+        private final Runnable task;
+
+        public ProducerThread(Executor executor, final CountDownLatch done) {
+            this.executor = executor;
+            this.task = new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            };
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < ITERATIONS; i++) {
+                executor.execute(task);
+            }
+        }
+    }
+}